@@ -0,0 +1,22 @@
+package org.w3c.ddr.simple.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The position of a benchmark thread in a corpus, so that consecutive invocations
+ * look up consecutive entries.
+ */
+@State(Scope.Thread)
+public class Corpus {
+
+	private int next;
+
+	/**
+	 * @param size The size of the corpus, a power of two.
+	 * @return The index of the next entry.
+	 */
+	int next(int size) {
+		return next++ & (size - 1);
+	}
+}
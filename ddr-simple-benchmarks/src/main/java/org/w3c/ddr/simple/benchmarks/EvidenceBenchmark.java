@@ -0,0 +1,70 @@
+package org.w3c.ddr.simple.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.impl.IndexedService;
+
+/**
+ * Creation of evidence with {@link Service#newHTTPEvidence(Map)} from the headers of
+ * typical browser requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EvidenceBenchmark {
+
+	private static final int CORPUS_SIZE = 1 << 12;
+
+	private Service service;
+
+	private Map<String, String>[] requests;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		SyntheticRepository repository = new SyntheticRepository(1000, 1);
+		Properties props = new Properties();
+		props.setProperty(IndexedService.REPOSITORY, repository.write().getPath());
+		service = ServiceFactory.newService(IndexedService.class.getName(),
+				SyntheticRepository.CORE_VOCABULARY, props);
+		String[] agents = repository.corpus(CORPUS_SIZE, 1.0, 0.1, 2);
+		requests = new Map[agents.length];
+		for (int i = 0; i < agents.length; i++) {
+			Map<String, String> headers = new HashMap<String, String>();
+			headers.put("Host", "www.example.com");
+			headers.put("User-Agent", agents[i]);
+			headers.put("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,"
+					+ "*/*;q=0.8");
+			headers.put("Accept-Language", "en-US,en;q=0.5");
+			headers.put("Accept-Encoding", "gzip, deflate, br");
+			headers.put("Connection", "keep-alive");
+			headers.put("Cookie", "session=" + Integer.toHexString(i * 0x9E3779B9));
+			headers.put("Upgrade-Insecure-Requests", "1");
+			requests[i] = headers;
+		}
+	}
+
+	@Benchmark
+	public Evidence newHTTPEvidence(Corpus corpus) {
+		return service.newHTTPEvidence(requests[corpus.next(CORPUS_SIZE)]);
+	}
+}
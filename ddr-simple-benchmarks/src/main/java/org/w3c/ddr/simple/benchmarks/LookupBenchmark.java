@@ -0,0 +1,117 @@
+package org.w3c.ddr.simple.benchmarks;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyName;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.PropertyValues;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.impl.DelegatingService;
+import org.w3c.ddr.simple.impl.IndexedService;
+import org.w3c.ddr.simple.impl.cache.CachingService;
+
+/**
+ * Lookups over a Zipfian User-Agent corpus: a single property named by
+ * {@link PropertyRef}, {@link PropertyName} or local name, and the whole device or one
+ * aspect of it. The evidence is created beforehand, so only the lookup is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LookupBenchmark {
+
+	private static final int CORPUS_SIZE = 1 << 16;
+
+	@Param({ "10000" })
+	int devices;
+
+	@Param({ "1.0" })
+	double skew;
+
+	@Param({ "0.1" })
+	double unknownRatio;
+
+	@Param({ "IndexedService", "CachingService" })
+	String implementation;
+
+	private Service service;
+
+	private Evidence[] evidence;
+
+	private PropertyRef ref;
+
+	private PropertyName name;
+
+	@Setup
+	public void setUp() throws Exception {
+		SyntheticRepository repository = new SyntheticRepository(devices, 1);
+		Properties props = new Properties();
+		props.setProperty(IndexedService.REPOSITORY, repository.write().getPath());
+		props.setProperty(DelegatingService.DELEGATE, IndexedService.class.getName());
+		service = ServiceFactory.newService("org.w3c.ddr.simple.impl."
+				+ ("CachingService".equals(implementation) ? "cache." : "") + implementation,
+				SyntheticRepository.CORE_VOCABULARY, props);
+		String[] agents = repository.corpus(CORPUS_SIZE, skew, unknownRatio, 2);
+		evidence = new Evidence[agents.length];
+		for (int i = 0; i < agents.length; i++) {
+			evidence[i] = service.newHTTPEvidence(Collections.singletonMap("User-Agent",
+					agents[i]));
+		}
+		ref = service.newPropertyRef("displayWidth");
+		name = service.newPropertyName("displayWidth");
+	}
+
+	private Evidence next(Corpus corpus) {
+		return evidence[corpus.next(CORPUS_SIZE)];
+	}
+
+	private static int read(PropertyValue value) throws Exception {
+		return value.exists() ? value.getInteger() : -1;
+	}
+
+	@Benchmark
+	public int propertyRef(Corpus corpus) throws Exception {
+		return read(service.getPropertyValue(next(corpus), ref));
+	}
+
+	@Benchmark
+	public int propertyName(Corpus corpus) throws Exception {
+		return read(service.getPropertyValue(next(corpus), name));
+	}
+
+	@Benchmark
+	public int localName(Corpus corpus) throws Exception {
+		return read(service.getPropertyValue(next(corpus), "displayWidth"));
+	}
+
+	@Benchmark
+	public PropertyValue[] wholeDevice(Corpus corpus) throws Exception {
+		PropertyValues values = service.getPropertyValues(next(corpus));
+		return values.getAll();
+	}
+
+	@Benchmark
+	public PropertyValue[] aspect(Corpus corpus) throws Exception {
+		PropertyValues values = service.getPropertyValues(next(corpus), "webBrowser");
+		return values.getAll();
+	}
+}
@@ -0,0 +1,61 @@
+package org.w3c.ddr.simple.benchmarks;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.impl.IndexedService;
+import org.w3c.ddr.simple.impl.SnapshotCompiler;
+
+/**
+ * Time to create and initialize a service with {@link ServiceFactory#newService}, from
+ * an XML repository or from a compiled snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(3)
+public class StartupBenchmark {
+
+	@Param({ "10000" })
+	int devices;
+
+	@Param({ "xml", "snapshot" })
+	String format;
+
+	private Properties props;
+
+	@Setup
+	public void setUp() throws Exception {
+		File repository = new SyntheticRepository(devices, 1).write();
+		if ("snapshot".equals(format)) {
+			File snapshot = new File(repository.getPath() + ".ddrs");
+			snapshot.deleteOnExit();
+			SnapshotCompiler.compile(repository.getPath(), snapshot);
+			repository = snapshot;
+		}
+		props = new Properties();
+		props.setProperty(IndexedService.REPOSITORY, repository.getPath());
+	}
+
+	@Benchmark
+	public Service newService() throws Exception {
+		return ServiceFactory.newService(IndexedService.class.getName(),
+				SyntheticRepository.CORE_VOCABULARY, props);
+	}
+}
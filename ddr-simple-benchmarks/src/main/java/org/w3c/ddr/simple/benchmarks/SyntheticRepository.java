@@ -0,0 +1,205 @@
+package org.w3c.ddr.simple.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A generated device repository, and a corpus of User-Agent headers drawn from it.
+ *
+ * Devices are Android phones, iPhones and feature phones whose User-Agent headers
+ * resemble real ones in length and shape. Each device is matched by a model token,
+ * and the corpus draws devices with a Zipfian distribution: the device of rank k is
+ * seen with a frequency proportional to 1 / k^s, as in real traffic where a few
+ * popular devices account for most requests. A share of the corpus are desktop
+ * browsers, which match no device.
+ *
+ * Generation is deterministic for given parameters.
+ */
+final class SyntheticRepository {
+
+	static final String CORE_VOCABULARY = "http://www.w3.org/2008/01/ddr-core-vocabulary";
+
+	static final String DATA_VERSION = "synthetic-1";
+
+	private static final String[] ANDROID_VENDORS = { "Samsung", "Xiaomi", "Motorola", "Oppo",
+			"Vivo", "Huawei", "Nokia", "Sony" };
+
+	private static final String[] ANDROID_PREFIXES = { "SM-A", "M2", "moto g", "CPH", "V2",
+			"ANE-LX", "TA-1", "XQ-" };
+
+	private static final String[] DESKTOP_AGENTS = {
+			"Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) "
+					+ "Chrome/120.0.0.0 Safari/537.36",
+			"Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like "
+					+ "Gecko) Version/17.1 Safari/605.1.15",
+			"Mozilla/5.0 (X11; Linux x86_64; rv:121.0) Gecko/20100101 Firefox/121.0" };
+
+	private final String[] models;
+
+	private final String[][] agents;
+
+	private final String[] ids;
+
+	private final int[] widths;
+
+	private final String[] vendors;
+
+	SyntheticRepository(int devices, long seed) {
+		Random random = new Random(seed);
+		models = new String[devices];
+		agents = new String[devices][];
+		ids = new String[devices];
+		widths = new int[devices];
+		vendors = new String[devices];
+		for (int d = 0; d < devices; d++) {
+			ids[d] = "device" + d;
+			widths[d] = 240 + random.nextInt(13) * 80;
+			switch (d % 10) {
+			case 0:
+			case 1:
+				vendors[d] = "Apple";
+				models[d] = "iPhone" + (d / 10 + 1) + "," + (d % 10 + 1);
+				agents[d] = iphone(models[d], random);
+				break;
+			case 2:
+				vendors[d] = "Nokia";
+				models[d] = "Nokia" + (1000 + d);
+				agents[d] = featurePhone(models[d], random);
+				break;
+			default:
+				int vendor = random.nextInt(ANDROID_VENDORS.length);
+				vendors[d] = ANDROID_VENDORS[vendor];
+				models[d] = ANDROID_PREFIXES[vendor] + (100 + d);
+				agents[d] = android(models[d], random);
+			}
+		}
+	}
+
+	private static String[] android(String model, Random random) {
+		String[] agents = new String[4];
+		for (int i = 0; i < agents.length; i++) {
+			agents[i] = "Mozilla/5.0 (Linux; Android " + (9 + random.nextInt(6)) + "; " + model
+					+ " Build/" + (char) ('A' + random.nextInt(26)) + "P1A." + (230000
+					+ random.nextInt(9999)) + ") AppleWebKit/537.36 (KHTML, like Gecko) Chrome/"
+					+ (100 + random.nextInt(21)) + ".0." + random.nextInt(6000)
+					+ ".0 Mobile Safari/537.36";
+		}
+		return agents;
+	}
+
+	private static String[] iphone(String model, Random random) {
+		String[] agents = new String[4];
+		for (int i = 0; i < agents.length; i++) {
+			int major = 14 + random.nextInt(4);
+			int minor = random.nextInt(7);
+			agents[i] = "Mozilla/5.0 (iPhone; CPU iPhone OS " + major + "_" + minor
+					+ " like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/" + major
+					+ "." + minor + " Mobile/15E148 Safari/604.1 [" + model + "]";
+		}
+		return agents;
+	}
+
+	private static String[] featurePhone(String model, Random random) {
+		String[] agents = new String[2];
+		for (int i = 0; i < agents.length; i++) {
+			agents[i] = model + "/2.0 (" + (10 + random.nextInt(10)) + ".0" + random.nextInt(99)
+					+ ") Profile/MIDP-2.1 Configuration/CLDC-1.1 UP.Link/6.3.0.0.0";
+		}
+		return agents;
+	}
+
+	/**
+	 * Writes the repository as an XML document.
+	 *
+	 * @return A temporary file, deleted when the virtual machine exits.
+	 */
+	File write() throws IOException {
+		File file = File.createTempFile("ddr-synthetic", ".xml");
+		file.deleteOnExit();
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write("<ddr dataVersion=\"" + DATA_VERSION + "\">\n");
+			out.write("<vocabulary iri=\"" + CORE_VOCABULARY + "\">\n");
+			out.write("<property name=\"displayWidth\" type=\"integer\" aspects=\"device\"/>\n");
+			out.write("<property name=\"displayHeight\" type=\"integer\" aspects=\"device\"/>\n");
+			out.write("<property name=\"inputDevices\" type=\"enumeration\" aspects=\"device\"/>\n");
+			out.write("<property name=\"model\" type=\"string\" aspects=\"device\"/>\n");
+			out.write("<property name=\"vendor\" type=\"string\" aspects=\"device webBrowser\" "
+					+ "defaultAspect=\"device\"/>\n");
+			out.write("<property name=\"cookieSupport\" type=\"boolean\" aspects=\"webBrowser\"/>\n");
+			out.write("<property name=\"markupSupport\" type=\"enumeration\" "
+					+ "aspects=\"webBrowser\"/>\n");
+			out.write("</vocabulary>\n");
+			for (int d = 0; d < ids.length; d++) {
+				boolean iphone = d % 10 < 2;
+				boolean touch = d % 10 != 2;
+				out.write("<device id=\"" + ids[d] + "\">\n");
+				out.write("<match>" + models[d] + (iphone ? "]" : touch ? " Build" : "/")
+						+ "</match>\n");
+				value(out, "displayWidth", Integer.toString(widths[d]));
+				value(out, "displayHeight", Integer.toString(widths[d] * 2));
+				value(out, "inputDevices", touch ? "touchScreen" : "keypad joystick");
+				value(out, "model", models[d]);
+				value(out, "vendor", vendors[d]);
+				out.write("<value property=\"vendor\" aspect=\"webBrowser\">"
+						+ (iphone ? "Apple" : touch ? "Google" : "Nokia") + "</value>\n");
+				value(out, "cookieSupport", "true");
+				value(out, "markupSupport", touch ? "html5 xhtmlmp" : "xhtmlmp wml");
+				out.write("</device>\n");
+			}
+			out.write("</ddr>\n");
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static void value(Writer out, String property, String value) throws IOException {
+		out.write("<value property=\"" + property + "\">" + value + "</value>\n");
+	}
+
+	/**
+	 * Draws a corpus of User-Agent headers.
+	 *
+	 * @param size The number of headers.
+	 * @param skew The Zipf exponent s; 0 draws devices uniformly.
+	 * @param unknownRatio The share of headers that match no device.
+	 * @param seed The seed of the draw.
+	 * @return The headers, in drawing order.
+	 */
+	String[] corpus(int size, double skew, double unknownRatio, long seed) {
+		double[] cumulative = new double[models.length];
+		double total = 0;
+		for (int k = 0; k < cumulative.length; k++) {
+			total += 1 / Math.pow(k + 1, skew);
+			cumulative[k] = total;
+		}
+		// popularity is unrelated to the order of generation
+		int[] ranks = new int[models.length];
+		Random random = new Random(seed);
+		for (int i = 0; i < ranks.length; i++) {
+			int j = random.nextInt(i + 1);
+			ranks[i] = ranks[j];
+			ranks[j] = i;
+		}
+		String[] corpus = new String[size];
+		for (int i = 0; i < size; i++) {
+			if (random.nextDouble() < unknownRatio) {
+				corpus[i] = DESKTOP_AGENTS[random.nextInt(DESKTOP_AGENTS.length)];
+				continue;
+			}
+			int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+			if (rank < 0) {
+				rank = -rank - 1;
+			}
+			String[] variants = agents[ranks[Math.min(rank, ranks.length - 1)]];
+			corpus[i] = variants[random.nextInt(variants.length)];
+		}
+		return corpus;
+	}
+}
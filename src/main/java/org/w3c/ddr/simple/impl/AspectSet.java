@@ -0,0 +1,34 @@
+package org.w3c.ddr.simple.impl;
+
+/**
+ * The properties of a vocabulary that support an aspect, as a bit set of property
+ * ordinals and as the list of those ordinals in ascending order.
+ */
+final class AspectSet {
+
+	final String name;
+
+	final long[] members;
+
+	final int[] ordinals;
+
+	AspectSet(String name, long[] members) {
+		this.name = name;
+		this.members = members;
+		int count = 0;
+		for (long word : members) {
+			count += Long.bitCount(word);
+		}
+		this.ordinals = new int[count];
+		int i = 0;
+		for (int w = 0; w < members.length; w++) {
+			for (long word = members[w]; word != 0; word &= word - 1) {
+				ordinals[i++] = (w << 6) + Long.numberOfTrailingZeros(word);
+			}
+		}
+	}
+
+	boolean contains(int ordinal) {
+		return (members[ordinal >>> 6] & (1L << ordinal)) != 0;
+	}
+}
@@ -0,0 +1,327 @@
+package org.w3c.ddr.simple.impl;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValues;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.SystemException;
+
+/**
+ * A {@link Service} decorator adding non-blocking variants of the
+ * getPropertyValues methods, for callers such as event loops that must not wait for
+ * device identification.
+ *
+ * Each lookup runs on an executor: the one given to the constructor or, by default,
+ * a new virtual thread per lookup where the Java runtime provides them, and the common
+ * {@link ForkJoinPool} otherwise. Identical lookups requested while one is in flight
+ * are coalesced: they share the result of the lookup already running. Lookups are
+ * identical when they ask for the same properties of evidence with the same headers,
+ * as far as this can be determined from the evidence created by the services of this
+ * package; other evidence is only coalesced with itself.
+ *
+ * A {@link NameException} or runtime exception thrown by the lookup completes the
+ * returned future exceptionally. The evidence must not be modified until the future
+ * is complete.
+ */
+public class AsyncService extends DelegatingService {
+
+	private static final int VALUES = 0;
+
+	private static final int REFS = 1;
+
+	private static final int ASPECT = 2;
+
+	private final ConcurrentMap<Request, CompletableFuture<PropertyValues>> inFlight =
+			new ConcurrentHashMap<Request, CompletableFuture<PropertyValues>>();
+
+	private final Executor executor;
+
+	/**
+	 * Constructs a facade whose delegate is created from the
+	 * {@link DelegatingService#DELEGATE} configuration property, running lookups on the
+	 * default executor.
+	 */
+	public AsyncService() {
+		this.executor = defaultExecutor();
+	}
+
+	/**
+	 * Constructs a facade around an initialized service, running lookups on the default
+	 * executor.
+	 *
+	 * @param delegate The service performing the lookups.
+	 */
+	public AsyncService(Service delegate) {
+		this(delegate, defaultExecutor());
+	}
+
+	/**
+	 * Constructs a facade around an initialized service.
+	 *
+	 * @param delegate The service performing the lookups.
+	 * @param executor The executor running the lookups.
+	 */
+	public AsyncService(Service delegate, Executor executor) {
+		super(delegate);
+		if (executor == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Executor cannot be null");
+		}
+		this.executor = executor;
+	}
+
+	/**
+	 * The executor used when none is given: a virtual thread per task where available.
+	 *
+	 * @return The default executor.
+	 */
+	public static Executor defaultExecutor() {
+		return DefaultExecutor.INSTANCE;
+	}
+
+	/**
+	 * Looks up all the properties of a device without blocking.
+	 *
+	 * @param evidence The evidence.
+	 * @return The future result of {@link Service#getPropertyValues(Evidence)}.
+	 */
+	public CompletableFuture<PropertyValues> getPropertyValuesAsync(Evidence evidence) {
+		return submit(new Request(VALUES, evidence, null, null));
+	}
+
+	/**
+	 * Looks up selected properties of a device without blocking.
+	 *
+	 * @param evidence The evidence.
+	 * @param propertyRefs The properties.
+	 * @return The future result of {@link Service#getPropertyValues(Evidence, PropertyRef[])}.
+	 */
+	public CompletableFuture<PropertyValues> getPropertyValuesAsync(Evidence evidence,
+			PropertyRef[] propertyRefs) {
+		if (propertyRefs == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"PropertyRefs cannot be null");
+		}
+		return submit(new Request(REFS, evidence, propertyRefs.clone(), null));
+	}
+
+	/**
+	 * Looks up the properties of an aspect of a device, in the default vocabulary,
+	 * without blocking.
+	 *
+	 * @param evidence The evidence.
+	 * @param localAspectName The aspect.
+	 * @return The future result of {@link Service#getPropertyValues(Evidence, String)}.
+	 */
+	public CompletableFuture<PropertyValues> getPropertyValuesAsync(Evidence evidence,
+			String localAspectName) {
+		return submit(new Request(ASPECT, evidence, localAspectName, null));
+	}
+
+	/**
+	 * Looks up the properties of an aspect of a device without blocking.
+	 *
+	 * @param evidence The evidence.
+	 * @param localAspectName The aspect.
+	 * @param vocabularyIRI The vocabulary of the properties.
+	 * @return The future result of
+	 *         {@link Service#getPropertyValues(Evidence, String, String)}.
+	 */
+	public CompletableFuture<PropertyValues> getPropertyValuesAsync(Evidence evidence,
+			String localAspectName, String vocabularyIRI) {
+		if (vocabularyIRI == null) {
+			// null would select the default vocabulary below
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Vocabulary IRI cannot be null");
+		}
+		return submit(new Request(ASPECT, evidence, localAspectName, vocabularyIRI));
+	}
+
+	private CompletableFuture<PropertyValues> submit(final Request request) {
+		if (request.evidence == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Evidence cannot be null");
+		}
+		final Service delegate = getDelegate();
+		final CompletableFuture<PropertyValues> future = new CompletableFuture<PropertyValues>();
+		CompletableFuture<PropertyValues> running = inFlight.putIfAbsent(request, future);
+		if (running != null) {
+			return copy(running);
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					PropertyValues values;
+					try {
+						values = request.run(delegate);
+					} catch (NameException e) {
+						complete(request, future, null, e);
+						return;
+					} catch (RuntimeException e) {
+						complete(request, future, null, e);
+						return;
+					}
+					complete(request, future, values, null);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			complete(request, future, null, e);
+		}
+		return copy(future);
+	}
+
+	private void complete(Request request, CompletableFuture<PropertyValues> future,
+			PropertyValues values, Throwable failure) {
+		// later requests start a new lookup, which may see new data
+		inFlight.remove(request, future);
+		if (failure == null) {
+			future.complete(values);
+		} else {
+			future.completeExceptionally(failure);
+		}
+	}
+
+	/**
+	 * A future completed with the shared one, so that no caller can complete or cancel
+	 * the lookup for the others.
+	 */
+	private static CompletableFuture<PropertyValues> copy(CompletableFuture<PropertyValues> shared) {
+		final CompletableFuture<PropertyValues> copy = new CompletableFuture<PropertyValues>();
+		shared.whenComplete(new BiConsumer<PropertyValues, Throwable>() {
+			@Override
+			public void accept(PropertyValues values, Throwable failure) {
+				if (failure == null) {
+					copy.complete(values);
+				} else {
+					copy.completeExceptionally(failure);
+				}
+			}
+		});
+		return copy;
+	}
+
+	/**
+	 * A lookup, equal to the identical lookups it may be coalesced with.
+	 */
+	private static final class Request {
+
+		final int kind;
+
+		final Evidence evidence;
+
+		final Object argument;
+
+		final String vocabularyIRI;
+
+		private final Object key;
+
+		private final int hash;
+
+		Request(int kind, Evidence evidence, Object argument, String vocabularyIRI) {
+			this.kind = kind;
+			this.evidence = evidence;
+			this.argument = argument;
+			this.vocabularyIRI = vocabularyIRI;
+			if (evidence instanceof HeaderEvidence) {
+				this.key = ((HeaderEvidence) evidence).key();
+			} else if (evidence instanceof HTTPEvidence) {
+				this.key = ((HTTPEvidence) evidence).headers();
+			} else {
+				this.key = new Identity(evidence);
+			}
+			int hash = kind;
+			hash = 31 * hash + key.hashCode();
+			hash = 31 * hash + (argument instanceof Object[] ? Arrays.hashCode((Object[]) argument)
+					: argument == null ? 0 : argument.hashCode());
+			this.hash = 31 * hash + (vocabularyIRI == null ? 0 : vocabularyIRI.hashCode());
+		}
+
+		PropertyValues run(Service service) throws NameException {
+			switch (kind) {
+			case REFS:
+				return service.getPropertyValues(evidence, (PropertyRef[]) argument);
+			case ASPECT:
+				if (vocabularyIRI == null) {
+					return service.getPropertyValues(evidence, (String) argument);
+				}
+				return service.getPropertyValues(evidence, (String) argument, vocabularyIRI);
+			default:
+				return service.getPropertyValues(evidence);
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Request)) {
+				return false;
+			}
+			Request other = (Request) object;
+			return kind == other.kind && hash == other.hash && key.equals(other.key)
+					&& (argument instanceof Object[] ? other.argument instanceof Object[]
+							&& Arrays.equals((Object[]) argument, (Object[]) other.argument)
+							: argument == null ? other.argument == null
+									: argument.equals(other.argument))
+					&& (vocabularyIRI == null ? other.vocabularyIRI == null
+							: vocabularyIRI.equals(other.vocabularyIRI));
+		}
+	}
+
+	/**
+	 * Evidence of unknown type, equal only to itself.
+	 */
+	private static final class Identity {
+
+		private final Object object;
+
+		Identity(Object object) {
+			this.object = object;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(object);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Identity && ((Identity) other).object == object;
+		}
+	}
+
+	/**
+	 * Holder of the default executor. Virtual threads are looked up reflectively, as the
+	 * code is compiled for runtimes that do not have them.
+	 */
+	private static final class DefaultExecutor {
+
+		static final Executor INSTANCE = create();
+
+		private static Executor create() {
+			try {
+				Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (Executor) method.invoke(null);
+			} catch (NoSuchMethodException e) {
+				return ForkJoinPool.commonPool();
+			} catch (Exception e) {
+				// virtual threads are a preview feature that is not enabled
+				return ForkJoinPool.commonPool();
+			}
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.exception.SystemException;
+
+/**
+ * Resolves a batch of evidence against a {@link DeviceIndex} for {@link IndexedService}.
+ *
+ * Identical evidence is first collapsed, so that each distinct set of headers is matched
+ * once; the distinct evidence is then matched, and the result rows filled, by tasks of
+ * the common {@link ForkJoinPool} once the batch is large enough to be worth splitting.
+ */
+final class BatchResolver {
+
+	/**
+	 * The number of items below which a task is not split further.
+	 */
+	private static final int THRESHOLD = 512;
+
+	private final DeviceIndex index;
+
+	private final int[] ordinals;
+
+	BatchResolver(DeviceIndex index, int[] ordinals) {
+		this.index = index;
+		this.ordinals = ordinals;
+	}
+
+	/**
+	 * Fills the first count rows of the matrix.
+	 */
+	void resolve(Evidence[] evidence, int count, PropertyValue[][] results) {
+		if (results.length < count) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Result matrix has fewer rows than evidence");
+		}
+		for (int i = 0; i < count; i++) {
+			if (evidence[i] == null) {
+				throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+						"Evidence cannot be null");
+			}
+			PropertyValue[] row = results[i];
+			if (row == null) {
+				results[i] = new PropertyValue[ordinals.length];
+			} else if (row.length < ordinals.length) {
+				throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+						"Result row shorter than PropertyRefs");
+			}
+		}
+
+		// collapse identical evidence
+		final int[] slots = new int[count];
+		Map<Object, Integer> keys = new HashMap<Object, Integer>();
+		final Evidence[] distinct = new Evidence[count];
+		int distinctCount = 0;
+		for (int i = 0; i < count; i++) {
+			Object key = evidence[i];
+			if (key instanceof HeaderEvidence) {
+				key = ((HeaderEvidence) key).key();
+			} else if (key instanceof HTTPEvidence) {
+				key = ((HTTPEvidence) key).headers();
+			}
+			Integer slot = keys.get(key);
+			if (slot == null) {
+				slot = distinctCount;
+				keys.put(key, slot);
+				distinct[distinctCount++] = evidence[i];
+			}
+			slots[i] = slot;
+		}
+
+		final PropertyValue[][] rows = new PropertyValue[distinctCount][];
+		run(new Task(0, distinctCount) {
+			@Override
+			void compute(int from, int to) {
+				for (int k = from; k < to; k++) {
+					rows[k] = row(index.match(distinct[k]));
+				}
+			}
+		});
+		final PropertyValue[][] matrix = results;
+		run(new Task(0, count) {
+			@Override
+			void compute(int from, int to) {
+				for (int i = from; i < to; i++) {
+					System.arraycopy(rows[slots[i]], 0, matrix[i], 0, ordinals.length);
+				}
+			}
+		});
+	}
+
+	private PropertyValue[] row(int device) {
+		PropertyValue[] row = new PropertyValue[ordinals.length];
+		for (int j = 0; j < row.length; j++) {
+			int ordinal = ordinals[j];
+			row[j] = new StoredPropertyValue(index.values, index.refs[ordinal], ordinal, device);
+		}
+		return row;
+	}
+
+	private static void run(Task task) {
+		if (task.to - task.from <= THRESHOLD) {
+			task.compute(task.from, task.to);
+		} else {
+			ForkJoinPool.commonPool().invoke(task);
+		}
+	}
+
+	/**
+	 * A loop over a range of items, split in halves until small enough.
+	 */
+	private abstract static class Task extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final int from;
+
+		final int to;
+
+		Task(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		abstract void compute(int from, int to);
+
+		@Override
+		protected void compute() {
+			split(from, to);
+		}
+
+		private void split(final int from, final int to) {
+			if (to - from <= THRESHOLD) {
+				compute(from, to);
+				return;
+			}
+			final int middle = (from + to) >>> 1;
+			invokeAll(new Half(this, from, middle), new Half(this, middle, to));
+		}
+	}
+
+	private static final class Half extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Task task;
+
+		private final int from;
+
+		private final int to;
+
+		Half(Task task, int from, int to) {
+			this.task = task;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			task.split(from, to);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.Iterator;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.exception.NameException;
+
+/**
+ * A {@link Service} resolving many pieces of evidence in one call, for bulk processing
+ * such as the analysis of access logs.
+ *
+ * A batch is answered as if {@link Service#getPropertyValues(Evidence, PropertyRef[])}
+ * had been called for each evidence, row i of the result matrix holding the values of
+ * evidence i in the order of the property references. The property references are
+ * validated once per batch, and implementations are free to resolve identical evidence
+ * once and to spread the work over several threads.
+ */
+public interface BatchService extends Service {
+
+	/**
+	 * Resolves a batch of evidence.
+	 *
+	 * @param evidence The evidence, none of which may be null.
+	 * @param propertyRefs The properties to return for each evidence.
+	 * @return A matrix of evidence.length rows of propertyRefs.length values.
+	 * @throws NameException if a property reference is not recognized.
+	 */
+	PropertyValue[][] getPropertyValues(Evidence[] evidence, PropertyRef[] propertyRefs)
+			throws NameException;
+
+	/**
+	 * Resolves a batch of evidence into a matrix owned by the caller, which may be reused
+	 * from one batch to the next.
+	 *
+	 * @param evidence The evidence, none of which may be null.
+	 * @param propertyRefs The properties to return for each evidence.
+	 * @param results At least evidence.length rows; null rows are allocated, other rows
+	 *        must hold at least propertyRefs.length values.
+	 * @throws NameException if a property reference is not recognized.
+	 */
+	void getPropertyValues(Evidence[] evidence, PropertyRef[] propertyRefs,
+			PropertyValue[][] results) throws NameException;
+
+	/**
+	 * Resolves the next batch of evidence from an iterator, filling at most one row of
+	 * the matrix per evidence.
+	 *
+	 * @param evidence The evidence, none of which may be null.
+	 * @param propertyRefs The properties to return for each evidence.
+	 * @param results The rows to fill, as for
+	 *        {@link #getPropertyValues(Evidence[], PropertyRef[], PropertyValue[][])}.
+	 * @return The number of rows filled, 0 once the iterator is exhausted.
+	 * @throws NameException if a property reference is not recognized.
+	 */
+	int getPropertyValues(Iterator<? extends Evidence> evidence, PropertyRef[] propertyRefs,
+			PropertyValue[][] results) throws NameException;
+}
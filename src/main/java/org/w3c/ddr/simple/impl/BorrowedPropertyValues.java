@@ -0,0 +1,293 @@
+package org.w3c.ddr.simple.impl;
+
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.PropertyValues;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.SystemException;
+import org.w3c.ddr.simple.exception.ValueException;
+
+/**
+ * A {@link PropertyValues} collection lent to the calling thread by the
+ * borrowPropertyValues methods of {@link IndexedService}.
+ *
+ * Each thread has one collection per service, which every borrowing call of the thread
+ * points to the device and properties of the new lookup, along with the values and the
+ * arrays returned by {@link #getAll()}. The results of a borrowing call are therefore
+ * valid until the thread makes its next one, or calls {@link #release()}, and must
+ * neither be kept beyond that nor handed to another thread. Once the pool has grown to
+ * the largest set of properties looked up, a lookup allocates nothing. A borrowing call
+ * that fails leaves the results of the previous one as they were.
+ *
+ * Released results no longer refer to the device data, so that the data of a service
+ * that has been replaced, for instance by a
+ * {@link org.w3c.ddr.simple.impl.reload.ReloadingService}, is not kept by the pools of
+ * the threads which used it.
+ *
+ * With the {@link IndexedService#BORROW_CHECKS} configuration property set, each
+ * borrowing call creates a new collection instead, and the collection and its values
+ * throw a SystemException with code CANNOT_PROCEED when they are used after their
+ * release or by another thread.
+ */
+public final class BorrowedPropertyValues implements PropertyValues {
+
+	private static final int[] NO_ORDINALS = {};
+
+	private final boolean checked;
+
+	private final Thread owner;
+
+	/**
+	 * The device data of the lookup, or null once released.
+	 */
+	private DeviceIndex index;
+
+	private int device;
+
+	/**
+	 * The ordinal of each value, or null if the collection holds every property in ordinal order.
+	 */
+	private int[] ordinals;
+
+	private int size;
+
+	private boolean released;
+
+	/**
+	 * The ordinals resolved from the property references of the current lookup.
+	 */
+	private int[] resolved = NO_ORDINALS;
+
+	/**
+	 * The array the property references of the next lookup are resolved into, so that
+	 * those of the current lookup are kept if they are not recognized.
+	 */
+	private int[] spare = NO_ORDINALS;
+
+	private Value[] values = new Value[0];
+
+	/**
+	 * The arrays returned by {@link #getAll()}, by length.
+	 */
+	private PropertyValue[][] arrays = new PropertyValue[0][];
+
+	BorrowedPropertyValues(boolean checked) {
+		this.checked = checked;
+		this.owner = Thread.currentThread();
+	}
+
+	/**
+	 * Points the collection to a lookup.
+	 *
+	 * @param ordinals The ordinal of each value, or null for every property.
+	 */
+	BorrowedPropertyValues borrow(DeviceIndex index, int device, int[] ordinals, int size) {
+		if (ordinals == spare) {
+			spare = resolved;
+			resolved = ordinals;
+		}
+		this.index = index;
+		this.device = device;
+		this.ordinals = ordinals;
+		this.size = size;
+		this.released = false;
+		if (values.length < size) {
+			Value[] values = new Value[size];
+			System.arraycopy(this.values, 0, values, 0, this.values.length);
+			for (int i = this.values.length; i < size; i++) {
+				values[i] = new Value(this, i);
+			}
+			this.values = values;
+		}
+		return this;
+	}
+
+	/**
+	 * The pooled array of ordinals to resolve the property references of the next lookup
+	 * into, which becomes that of the lookup when passed to
+	 * {@link #borrow(DeviceIndex, int, int[], int)}.
+	 */
+	int[] ordinals(int size) {
+		if (spare.length < size) {
+			spare = new int[size];
+		}
+		return spare;
+	}
+
+	/**
+	 * Ends the loan of the values. Releasing is optional, as the next borrowing call of
+	 * the thread releases them as well, but lets the checks of
+	 * {@link IndexedService#BORROW_CHECKS} catch values used longer than intended.
+	 */
+	public void release() {
+		if (checked) {
+			checkOwner();
+		}
+		released = true;
+		index = null;
+	}
+
+	@Override
+	public PropertyValue[] getAll() {
+		if (checked) {
+			check();
+		}
+		if (arrays.length <= size) {
+			PropertyValue[][] arrays = new PropertyValue[size + 1][];
+			System.arraycopy(this.arrays, 0, arrays, 0, this.arrays.length);
+			this.arrays = arrays;
+		}
+		PropertyValue[] all = arrays[size];
+		if (all == null) {
+			all = arrays[size] = new PropertyValue[size];
+		}
+		System.arraycopy(values, 0, all, 0, size);
+		return all;
+	}
+
+	@Override
+	public PropertyValue getValue(PropertyRef prop) throws NameException {
+		if (checked) {
+			check();
+		}
+		int ordinal = index.ordinal(prop);
+		if (ordinals == null) {
+			return values[ordinal];
+		}
+		for (int i = 0; i < size; i++) {
+			if (ordinals[i] == ordinal) {
+				return values[i];
+			}
+		}
+		throw index.exceptions.name(NameException.PROPERTY_NOT_RECOGNIZED,
+				"Property not in collection: ", prop.getLocalPropertyName());
+	}
+
+	/**
+	 * @return true if the values were looked up for an identified device.
+	 */
+	boolean isDeviceIdentified() {
+		if (checked) {
+			check();
+		}
+		return device >= 0;
+	}
+
+	private void check() {
+		if (released) {
+			throw new SystemException(SystemException.CANNOT_PROCEED,
+					"Borrowed property values used after their release");
+		}
+		checkOwner();
+	}
+
+	private void checkOwner() {
+		if (Thread.currentThread() != owner) {
+			throw new SystemException(SystemException.CANNOT_PROCEED,
+					"Borrowed property values used by another thread than "
+							+ owner.getName());
+		}
+	}
+
+	private int ordinal(int slot) {
+		return ordinals == null ? slot : ordinals[slot];
+	}
+
+	@Override
+	public String toString() {
+		return released ? "released" : size + " properties of device " + device;
+	}
+
+	/**
+	 * A value of the collection, reading the value of its slot in the current lookup.
+	 */
+	static final class Value implements PropertyValue {
+
+		private final BorrowedPropertyValues owner;
+
+		private final int slot;
+
+		Value(BorrowedPropertyValues owner, int slot) {
+			this.owner = owner;
+			this.slot = slot;
+		}
+
+		/**
+		 * @return true if the value was looked up for an identified device.
+		 */
+		boolean isDeviceIdentified() {
+			return current().device >= 0;
+		}
+
+		private BorrowedPropertyValues current() {
+			BorrowedPropertyValues owner = this.owner;
+			if (owner.checked) {
+				owner.check();
+			}
+			return owner;
+		}
+
+		@Override
+		public double getDouble() throws ValueException {
+			BorrowedPropertyValues owner = current();
+			return owner.index.values.getDouble(owner.ordinal(slot), owner.device);
+		}
+
+		@Override
+		public long getLong() throws ValueException {
+			BorrowedPropertyValues owner = current();
+			return owner.index.values.getLong(owner.ordinal(slot), owner.device);
+		}
+
+		@Override
+		public boolean getBoolean() throws ValueException {
+			BorrowedPropertyValues owner = current();
+			return owner.index.values.getBoolean(owner.ordinal(slot), owner.device);
+		}
+
+		@Override
+		public int getInteger() throws ValueException {
+			BorrowedPropertyValues owner = current();
+			return owner.index.values.getInteger(owner.ordinal(slot), owner.device);
+		}
+
+		@Override
+		public String[] getEnumeration() throws ValueException {
+			BorrowedPropertyValues owner = current();
+			return owner.index.values.getEnumeration(owner.ordinal(slot), owner.device);
+		}
+
+		@Override
+		public float getFloat() throws ValueException {
+			BorrowedPropertyValues owner = current();
+			return owner.index.values.getFloat(owner.ordinal(slot), owner.device);
+		}
+
+		@Override
+		public PropertyRef getPropertyRef() {
+			BorrowedPropertyValues owner = current();
+			return owner.index.refs[owner.ordinal(slot)];
+		}
+
+		@Override
+		public String getString() throws ValueException {
+			BorrowedPropertyValues owner = current();
+			return owner.index.values.getString(owner.ordinal(slot), owner.device);
+		}
+
+		@Override
+		public boolean exists() {
+			BorrowedPropertyValues owner = current();
+			return owner.index.values.exists(owner.ordinal(slot), owner.device);
+		}
+
+		@Override
+		public String toString() {
+			try {
+				return getPropertyRef() + "=" + (exists() ? getString() : null);
+			} catch (ValueException e) {
+				return getPropertyRef() + "=?";
+			}
+		}
+	}
+}
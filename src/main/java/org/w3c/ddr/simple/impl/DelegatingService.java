@@ -0,0 +1,193 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.Map;
+import java.util.Properties;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyName;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.PropertyValues;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.exception.InitializationException;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.SystemException;
+
+/**
+ * Base class of services decorating another {@link Service}. Every method is
+ * forwarded to the delegate; subclasses override those they add behaviour to.
+ *
+ * A decorator is either constructed around an already initialized service, in which
+ * case {@link #initialize(String, Properties)} only applies the configuration of the
+ * decorator, or created by {@link ServiceFactory} with its no-argument constructor,
+ * in which case the delegate is created from the {@link #DELEGATE} configuration
+ * property with the same vocabulary and configuration.
+ */
+public abstract class DelegatingService implements Service {
+
+	/**
+	 * Configuration property naming the class of the decorated service, when the
+	 * decorator is created with its no-argument constructor.
+	 */
+	public static final String DELEGATE = "org.w3c.ddr.simple.impl.delegate";
+
+	private Service delegate;
+
+	/**
+	 * Constructs a decorator whose delegate is created at initialization.
+	 */
+	protected DelegatingService() {
+	}
+
+	/**
+	 * Constructs a decorator around an initialized service.
+	 *
+	 * @param delegate The decorated service.
+	 */
+	protected DelegatingService(Service delegate) {
+		if (delegate == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Delegate cannot be null");
+		}
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void initialize(String defaultVocabularyIRI, Properties props)
+			throws NameException, InitializationException {
+		if (delegate == null) {
+			String clazz = props == null ? null : props.getProperty(DELEGATE);
+			if (clazz == null) {
+				throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+						"Missing configuration property " + DELEGATE);
+			}
+			delegate = ServiceFactory.newService(clazz, defaultVocabularyIRI, props);
+		}
+		configure(defaultVocabularyIRI, props == null ? new Properties() : props);
+	}
+
+	/**
+	 * Applies the configuration of the decorator. Called by
+	 * {@link #initialize(String, Properties)} once the delegate is available.
+	 *
+	 * @param defaultVocabularyIRI The IRI of the default vocabulary namespace.
+	 * @param props The configuration, never null.
+	 * @throws InitializationException if the configuration is invalid.
+	 */
+	protected void configure(String defaultVocabularyIRI, Properties props)
+			throws InitializationException {
+	}
+
+	/**
+	 * The decorated service.
+	 *
+	 * @return The delegate.
+	 */
+	public Service getDelegate() {
+		Service delegate = this.delegate;
+		if (delegate == null) {
+			throw new SystemException(SystemException.CANNOT_PROCEED, "Service not initialized");
+		}
+		return delegate;
+	}
+
+	@Override
+	public String getImplementationVersion() {
+		return getDelegate().getImplementationVersion();
+	}
+
+	@Override
+	public String getDataVersion() {
+		return getDelegate().getDataVersion();
+	}
+
+	@Override
+	public PropertyRef[] listPropertyRefs() {
+		return getDelegate().listPropertyRefs();
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, PropertyRef propertyRef)
+			throws NameException {
+		return getDelegate().getPropertyValue(evidence, propertyRef);
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, PropertyName propertyName)
+			throws NameException {
+		return getDelegate().getPropertyValue(evidence, propertyName);
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, String localPropertyName)
+			throws NameException {
+		return getDelegate().getPropertyValue(evidence, localPropertyName);
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, String localPropertyName,
+			String localAspectName, String vocabularyIRI) throws NameException {
+		return getDelegate().getPropertyValue(evidence, localPropertyName, localAspectName,
+				vocabularyIRI);
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence) throws NameException {
+		return getDelegate().getPropertyValues(evidence);
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, PropertyRef[] propertyRefs)
+			throws NameException {
+		return getDelegate().getPropertyValues(evidence, propertyRefs);
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, String localAspectName)
+			throws NameException {
+		return getDelegate().getPropertyValues(evidence, localAspectName);
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, String localAspectName,
+			String vocabularyIRI) throws NameException {
+		return getDelegate().getPropertyValues(evidence, localAspectName, vocabularyIRI);
+	}
+
+	@Override
+	public PropertyName newPropertyName(String localPropertyName) throws NameException {
+		return getDelegate().newPropertyName(localPropertyName);
+	}
+
+	@Override
+	public PropertyName newPropertyName(String localPropertyName, String vocabularyIRI)
+			throws NameException {
+		return getDelegate().newPropertyName(localPropertyName, vocabularyIRI);
+	}
+
+	@Override
+	public PropertyRef newPropertyRef(String localPropertyName) throws NameException {
+		return getDelegate().newPropertyRef(localPropertyName);
+	}
+
+	@Override
+	public PropertyRef newPropertyRef(PropertyName propertyName) throws NameException {
+		return getDelegate().newPropertyRef(propertyName);
+	}
+
+	@Override
+	public PropertyRef newPropertyRef(PropertyName propertyName, String localAspectName)
+			throws NameException {
+		return getDelegate().newPropertyRef(propertyName, localAspectName);
+	}
+
+	@Override
+	public Evidence newHTTPEvidence() {
+		return getDelegate().newHTTPEvidence();
+	}
+
+	@Override
+	public Evidence newHTTPEvidence(Map<String, String> map) {
+		return getDelegate().newHTTPEvidence(map);
+	}
+}
@@ -0,0 +1,468 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, compressed set of device ordinals, laid out like a Roaring bitmap.
+ *
+ * The ordinals are split by their upper 16 bits into chunks of 65536, and each chunk
+ * present in the set is held in the smaller of two containers: a sorted char array of
+ * its lower 16 bits while it holds at most 4096 devices, and a bit set of 1024 words
+ * otherwise. Sparse sets, such as the devices of a rare property value, thus cost two
+ * bytes per device, and dense ones one bit per device of their chunks. Set operations
+ * combine the containers of equal chunks pairwise, in time proportional to the size of
+ * the containers rather than to the number of devices.
+ *
+ * @see ReverseIndex
+ */
+final class DeviceBitmap {
+
+	static final DeviceBitmap EMPTY = new DeviceBitmap(new char[0], new Object[0], 0);
+
+	/**
+	 * The largest number of devices of a chunk held in a char array.
+	 */
+	private static final int ARRAY_LIMIT = 4096;
+
+	private static final int WORDS = 1024;
+
+	/**
+	 * The upper 16 bits of the ordinals of each container, in ascending order.
+	 */
+	private final char[] keys;
+
+	/**
+	 * The containers: char[] of the sorted lower 16 bits, or long[] of {@link #WORDS} words.
+	 */
+	private final Object[] containers;
+
+	private final int cardinality;
+
+	private DeviceBitmap(char[] keys, Object[] containers, int size) {
+		this.keys = size == keys.length ? keys : Arrays.copyOf(keys, size);
+		this.containers = size == containers.length ? containers
+				: Arrays.copyOf(containers, size);
+		int cardinality = 0;
+		for (Object container : this.containers) {
+			cardinality += cardinality(container);
+		}
+		this.cardinality = cardinality;
+	}
+
+	/**
+	 * @return The number of devices in the set.
+	 */
+	int cardinality() {
+		return cardinality;
+	}
+
+	/**
+	 * @return The device ordinals, in ascending order.
+	 */
+	int[] toArray() {
+		int[] devices = new int[cardinality];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			int base = keys[i] << 16;
+			Object container = containers[i];
+			if (container instanceof char[]) {
+				for (char low : (char[]) container) {
+					devices[n++] = base | low;
+				}
+			} else {
+				long[] bits = (long[]) container;
+				for (int w = 0; w < WORDS; w++) {
+					for (long word = bits[w]; word != 0; word &= word - 1) {
+						devices[n++] = base | (w << 6) + Long.numberOfTrailingZeros(word);
+					}
+				}
+			}
+		}
+		return devices;
+	}
+
+	DeviceBitmap and(DeviceBitmap other) {
+		int size = Math.min(keys.length, other.keys.length);
+		char[] keys = new char[size];
+		Object[] containers = new Object[size];
+		int n = 0;
+		for (int i = 0, j = 0; i < this.keys.length && j < other.keys.length;) {
+			if (this.keys[i] < other.keys[j]) {
+				i++;
+			} else if (this.keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				Object container = and(this.containers[i], other.containers[j]);
+				if (container != null) {
+					keys[n] = this.keys[i];
+					containers[n++] = container;
+				}
+				i++;
+				j++;
+			}
+		}
+		return new DeviceBitmap(keys, containers, n);
+	}
+
+	DeviceBitmap or(DeviceBitmap other) {
+		int size = keys.length + other.keys.length;
+		char[] keys = new char[size];
+		Object[] containers = new Object[size];
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while (i < this.keys.length || j < other.keys.length) {
+			if (j == other.keys.length
+					|| i < this.keys.length && this.keys[i] < other.keys[j]) {
+				keys[n] = this.keys[i];
+				containers[n++] = this.containers[i++];
+			} else if (i == this.keys.length || this.keys[i] > other.keys[j]) {
+				keys[n] = other.keys[j];
+				containers[n++] = other.containers[j++];
+			} else {
+				keys[n] = this.keys[i];
+				containers[n++] = or(this.containers[i++], other.containers[j++]);
+			}
+		}
+		return new DeviceBitmap(keys, containers, n);
+	}
+
+	DeviceBitmap andNot(DeviceBitmap other) {
+		char[] keys = new char[this.keys.length];
+		Object[] containers = new Object[this.keys.length];
+		int n = 0;
+		for (int i = 0, j = 0; i < this.keys.length; i++) {
+			while (j < other.keys.length && other.keys[j] < this.keys[i]) {
+				j++;
+			}
+			Object container = this.containers[i];
+			if (j < other.keys.length && other.keys[j] == this.keys[i]) {
+				container = andNot(container, other.containers[j]);
+			}
+			if (container != null) {
+				keys[n] = this.keys[i];
+				containers[n++] = container;
+			}
+		}
+		return new DeviceBitmap(keys, containers, n);
+	}
+
+	/**
+	 * Adds the devices of the set to a bit set of device ordinals.
+	 */
+	void orInto(long[] words) {
+		for (int i = 0; i < keys.length; i++) {
+			int base = keys[i] << 10;
+			Object container = containers[i];
+			if (container instanceof char[]) {
+				for (char low : (char[]) container) {
+					words[base + (low >>> 6)] |= 1L << low;
+				}
+			} else {
+				long[] bits = (long[]) container;
+				for (int w = 0; w < WORDS && base + w < words.length; w++) {
+					words[base + w] |= bits[w];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the devices of the set from a bit set of device ordinals.
+	 */
+	void andNotInto(long[] words) {
+		for (int i = 0; i < keys.length; i++) {
+			int base = keys[i] << 10;
+			Object container = containers[i];
+			if (container instanceof char[]) {
+				for (char low : (char[]) container) {
+					words[base + (low >>> 6)] &= ~(1L << low);
+				}
+			} else {
+				long[] bits = (long[]) container;
+				for (int w = 0; w < WORDS && base + w < words.length; w++) {
+					words[base + w] &= ~bits[w];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compresses a bit set of device ordinals.
+	 *
+	 * @param words The bit set, bit i of word w standing for device 64 * w + i.
+	 * @return The set.
+	 */
+	static DeviceBitmap of(long[] words) {
+		int chunks = (words.length + WORDS - 1) / WORDS;
+		char[] keys = new char[chunks];
+		Object[] containers = new Object[chunks];
+		int n = 0;
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			int base = chunk * WORDS;
+			int end = Math.min(base + WORDS, words.length);
+			int count = 0;
+			for (int w = base; w < end; w++) {
+				count += Long.bitCount(words[w]);
+			}
+			if (count == 0) {
+				continue;
+			}
+			long[] bits = new long[WORDS];
+			System.arraycopy(words, base, bits, 0, end - base);
+			keys[n] = (char) chunk;
+			containers[n++] = count > ARRAY_LIMIT ? bits : array(bits, count);
+		}
+		return new DeviceBitmap(keys, containers, n);
+	}
+
+	private static int cardinality(Object container) {
+		if (container instanceof char[]) {
+			return ((char[]) container).length;
+		}
+		int count = 0;
+		for (long word : (long[]) container) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	private static Object and(Object a, Object b) {
+		if (a instanceof char[]) {
+			return b instanceof char[] ? intersect((char[]) a, (char[]) b)
+					: filter((char[]) a, (long[]) b, true);
+		}
+		if (b instanceof char[]) {
+			return filter((char[]) b, (long[]) a, true);
+		}
+		long[] x = (long[]) a;
+		long[] y = (long[]) b;
+		long[] bits = new long[WORDS];
+		for (int w = 0; w < WORDS; w++) {
+			bits[w] = x[w] & y[w];
+		}
+		return normalize(bits);
+	}
+
+	private static Object or(Object a, Object b) {
+		if (a instanceof char[] && b instanceof char[]) {
+			char[] x = (char[]) a;
+			char[] y = (char[]) b;
+			if (x.length + y.length <= ARRAY_LIMIT) {
+				return union(x, y);
+			}
+		}
+		long[] bits = bits(a);
+		if (b instanceof char[]) {
+			for (char low : (char[]) b) {
+				bits[low >>> 6] |= 1L << low;
+			}
+		} else {
+			long[] y = (long[]) b;
+			for (int w = 0; w < WORDS; w++) {
+				bits[w] |= y[w];
+			}
+		}
+		return normalize(bits);
+	}
+
+	private static Object andNot(Object a, Object b) {
+		if (a instanceof char[]) {
+			return b instanceof char[] ? difference((char[]) a, (char[]) b)
+					: filter((char[]) a, (long[]) b, false);
+		}
+		long[] bits = ((long[]) a).clone();
+		if (b instanceof char[]) {
+			for (char low : (char[]) b) {
+				bits[low >>> 6] &= ~(1L << low);
+			}
+		} else {
+			long[] y = (long[]) b;
+			for (int w = 0; w < WORDS; w++) {
+				bits[w] &= ~y[w];
+			}
+		}
+		return normalize(bits);
+	}
+
+	/**
+	 * The members of an array container that are, or are not, in a bit set container.
+	 */
+	private static Object filter(char[] values, long[] bits, boolean in) {
+		char[] result = new char[values.length];
+		int n = 0;
+		for (char low : values) {
+			if (((bits[low >>> 6] & 1L << low) != 0) == in) {
+				result[n++] = low;
+			}
+		}
+		return n == 0 ? null : Arrays.copyOf(result, n);
+	}
+
+	private static Object intersect(char[] x, char[] y) {
+		char[] result = new char[Math.min(x.length, y.length)];
+		int n = 0;
+		for (int i = 0, j = 0; i < x.length && j < y.length;) {
+			if (x[i] < y[j]) {
+				i++;
+			} else if (x[i] > y[j]) {
+				j++;
+			} else {
+				result[n++] = x[i];
+				i++;
+				j++;
+			}
+		}
+		return n == 0 ? null : Arrays.copyOf(result, n);
+	}
+
+	private static Object union(char[] x, char[] y) {
+		char[] result = new char[x.length + y.length];
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while (i < x.length && j < y.length) {
+			if (x[i] < y[j]) {
+				result[n++] = x[i++];
+			} else if (x[i] > y[j]) {
+				result[n++] = y[j++];
+			} else {
+				result[n++] = x[i++];
+				j++;
+			}
+		}
+		while (i < x.length) {
+			result[n++] = x[i++];
+		}
+		while (j < y.length) {
+			result[n++] = y[j++];
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	private static Object difference(char[] x, char[] y) {
+		char[] result = new char[x.length];
+		int n = 0;
+		for (int i = 0, j = 0; i < x.length; i++) {
+			while (j < y.length && y[j] < x[i]) {
+				j++;
+			}
+			if (j == y.length || y[j] != x[i]) {
+				result[n++] = x[i];
+			}
+		}
+		return n == 0 ? null : Arrays.copyOf(result, n);
+	}
+
+	private static long[] bits(Object container) {
+		if (container instanceof long[]) {
+			return ((long[]) container).clone();
+		}
+		long[] bits = new long[WORDS];
+		for (char low : (char[]) container) {
+			bits[low >>> 6] |= 1L << low;
+		}
+		return bits;
+	}
+
+	/**
+	 * Chooses the container of a bit set by its cardinality.
+	 */
+	private static Object normalize(long[] bits) {
+		int count = cardinality(bits);
+		if (count == 0) {
+			return null;
+		}
+		return count > ARRAY_LIMIT ? bits : array(bits, count);
+	}
+
+	private static char[] array(long[] bits, int count) {
+		char[] values = new char[count];
+		int n = 0;
+		for (int w = 0; w < WORDS; w++) {
+			for (long word = bits[w]; word != 0; word &= word - 1) {
+				values[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		return cardinality + " devices";
+	}
+
+	/**
+	 * Builds a set from device ordinals added in ascending order.
+	 */
+	static final class Builder {
+
+		private char[] keys = new char[1];
+
+		private Object[] containers = new Object[1];
+
+		private int size;
+
+		private int key = -1;
+
+		private char[] values = new char[4];
+
+		private int count;
+
+		private long[] bits;
+
+		private int last = -1;
+
+		/**
+		 * Adds a device, not lower than the devices already added. Adding the last
+		 * device again has no effect.
+		 */
+		void add(int device) {
+			if (device == last) {
+				return;
+			}
+			last = device;
+			int key = device >>> 16;
+			if (key != this.key) {
+				flush();
+				this.key = key;
+			}
+			char low = (char) device;
+			if (bits != null) {
+				bits[low >>> 6] |= 1L << low;
+				return;
+			}
+			if (count == values.length) {
+				if (count == ARRAY_LIMIT) {
+					bits = new long[WORDS];
+					for (int i = 0; i < count; i++) {
+						bits[values[i] >>> 6] |= 1L << values[i];
+					}
+					bits[low >>> 6] |= 1L << low;
+					return;
+				}
+				values = Arrays.copyOf(values, Math.min(count * 2, ARRAY_LIMIT));
+			}
+			values[count++] = low;
+		}
+
+		DeviceBitmap build() {
+			flush();
+			return size == 0 ? EMPTY : new DeviceBitmap(keys, containers, size);
+		}
+
+		private void flush() {
+			if (key < 0 || bits == null && count == 0) {
+				return;
+			}
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				containers = Arrays.copyOf(containers, size * 2);
+			}
+			keys[size] = (char) key;
+			containers[size++] = bits != null ? bits : Arrays.copyOf(values, count);
+			bits = null;
+			count = 0;
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package org.w3c.ddr.simple.impl;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyName;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.impl.match.EvidenceMatcher;
+import org.w3c.ddr.simple.impl.match.TieredMatcher;
+
+/**
+ * The compiled, immutable form of a device repository.
+ *
+ * Every property / aspect combination known to the repository is assigned a
+ * dense ordinal, as is every device, and values are kept in a {@link ValueStore}
+ * addressed by both.
+ * The canonical {@link PropertyRefImpl} and {@link PropertyNameImpl} instances of the
+ * index carry their ordinal, and are resolved by an identity check alone.
+ * Instances are never modified after construction and may therefore be read
+ * concurrently without synchronization.
+ */
+final class DeviceIndex {
+
+	final String dataVersion;
+
+	final VocabularyRegistry vocabularies;
+
+	final PropertyRefImpl[] refs;
+
+	/**
+	 * The canonical name of the property of each ordinal.
+	 */
+	final PropertyNameImpl[] names;
+
+	final String[] deviceIds;
+
+	final ValueStore values;
+
+	final TieredMatcher matcher;
+
+	/**
+	 * The devices of each property value, built as properties are queried.
+	 */
+	final ReverseIndex reverse;
+
+	/**
+	 * The slots of the headers consulted by the matcher, for {@link HeaderEvidence}.
+	 */
+	final HeaderTable headers;
+
+	/**
+	 * Creates the exceptions thrown by lookups.
+	 */
+	final Exceptions exceptions;
+
+	DeviceIndex(String dataVersion, VocabularyRegistry vocabularies,
+			PropertyRefImpl[] refs, PropertyNameImpl[] names, String[] deviceIds, ValueStore values,
+			TieredMatcher matcher, Exceptions exceptions) {
+		this.dataVersion = dataVersion;
+		this.vocabularies = vocabularies;
+		this.refs = refs;
+		this.names = names;
+		this.deviceIds = deviceIds;
+		this.values = values;
+		this.matcher = matcher;
+		this.reverse = new ReverseIndex(values, refs.length, deviceIds.length, exceptions);
+		this.headers = new HeaderTable(matcher.getHeaders());
+		this.exceptions = exceptions;
+	}
+
+	/**
+	 * Resolves a vocabulary IRI.
+	 *
+	 * @param iri The namespace IRI.
+	 * @return The vocabulary.
+	 * @throws NameException with code VOCABULARY_NOT_RECOGNIZED if the vocabulary is not known.
+	 */
+	Vocabulary vocabulary(String iri) throws NameException {
+		return vocabularies.vocabulary(iri);
+	}
+
+	/**
+	 * Resolves an aspect of a vocabulary.
+	 *
+	 * @param vocabulary The vocabulary.
+	 * @param aspect The local aspect name.
+	 * @return The properties supporting the aspect.
+	 * @throws NameException with code ASPECT_NOT_RECOGNIZED if the vocabulary has no such aspect.
+	 */
+	AspectSet aspect(Vocabulary vocabulary, String aspect) throws NameException {
+		return vocabularies.aspect(vocabulary, aspect);
+	}
+
+	/**
+	 * Resolves a property term within a vocabulary.
+	 *
+	 * @param vocabulary The vocabulary.
+	 * @param localPropertyName The local name of the property.
+	 * @return The property definition.
+	 * @throws NameException with code PROPERTY_NOT_RECOGNIZED if the property is not known.
+	 */
+	PropertyDefinition property(Vocabulary vocabulary, String localPropertyName)
+			throws NameException {
+		PropertyDefinition property = localPropertyName == null ? null
+				: vocabulary.properties.get(localPropertyName);
+		if (property == null) {
+			throw exceptions.name(NameException.PROPERTY_NOT_RECOGNIZED,
+					"Property not recognized: ", localPropertyName);
+		}
+		return property;
+	}
+
+	/**
+	 * Resolves the ordinal of a property in an aspect.
+	 *
+	 * @param vocabulary The vocabulary.
+	 * @param property The property definition.
+	 * @param aspect The local aspect name, {@link PropertyRef#NULL_ASPECT} or null for the default aspect.
+	 * @return The ordinal.
+	 * @throws NameException with code ASPECT_NOT_RECOGNIZED if the property does not support the aspect.
+	 */
+	int ordinal(Vocabulary vocabulary, PropertyDefinition property, String aspect)
+			throws NameException {
+		int ordinal = property.ordinal(aspect);
+		if (ordinal < 0) {
+			throw exceptions.name(NameException.ASPECT_NOT_RECOGNIZED,
+					"Aspect not recognized: ", aspect, " for property ", property.name);
+		}
+		return ordinal;
+	}
+
+	/**
+	 * Resolves the ordinal of a property / aspect combination.
+	 *
+	 * @param namespace The vocabulary IRI.
+	 * @param localPropertyName The local name of the property.
+	 * @param aspect The local aspect name, {@link PropertyRef#NULL_ASPECT} or null for the default aspect.
+	 * @return The ordinal.
+	 * @throws NameException if any of the name data is not recognized.
+	 */
+	int ordinal(String namespace, String localPropertyName, String aspect) throws NameException {
+		Vocabulary vocabulary = vocabulary(namespace);
+		return ordinal(vocabulary, property(vocabulary, localPropertyName), aspect);
+	}
+
+	/**
+	 * Resolves the ordinal of a property reference.
+	 *
+	 * @param ref The property reference.
+	 * @return The ordinal.
+	 * @throws NameException if the reference is null or any of its name data is not recognized.
+	 */
+	int ordinal(PropertyRef ref) throws NameException {
+		if (ref instanceof PropertyRefImpl) {
+			int ordinal = ((PropertyRefImpl) ref).ordinal;
+			if (ordinal >= 0 && ordinal < refs.length && refs[ordinal] == ref) {
+				return ordinal;
+			}
+		}
+		if (ref == null) {
+			throw exceptions.name(NameException.PROPERTY_NOT_RECOGNIZED,
+					"PropertyRef cannot be null");
+		}
+		return ordinal(ref.getNamespace(), ref.getLocalPropertyName(), ref.getAspectName());
+	}
+
+	/**
+	 * Resolves the ordinal of a property name in the default aspect of the property.
+	 *
+	 * @param name The property name.
+	 * @return The ordinal.
+	 * @throws NameException if the name is null or any of its name data is not recognized.
+	 */
+	int ordinal(PropertyName name) throws NameException {
+		if (name instanceof PropertyNameImpl) {
+			int ordinal = ((PropertyNameImpl) name).ordinal;
+			if (ordinal >= 0 && ordinal < names.length && names[ordinal] == name) {
+				return ordinal;
+			}
+		}
+		if (name == null) {
+			throw exceptions.name(NameException.PROPERTY_NOT_RECOGNIZED,
+					"PropertyName cannot be null");
+		}
+		return ordinal(name.getNamespace(), name.getLocalPropertyName(), null);
+	}
+
+	/**
+	 * Resolves the ordinal of a property / aspect combination without throwing.
+	 *
+	 * @param namespace The vocabulary IRI.
+	 * @param localPropertyName The local name of the property.
+	 * @param aspect The local aspect name, {@link PropertyRef#NULL_ASPECT} or null for the default aspect.
+	 * @return The ordinal, or -1 if any of the name data is not recognized.
+	 */
+	int find(String namespace, String localPropertyName, String aspect) {
+		Vocabulary vocabulary = namespace == null ? null
+				: vocabularies.vocabularies().get(namespace);
+		return vocabulary == null ? -1 : find(vocabulary, localPropertyName, aspect);
+	}
+
+	/**
+	 * Resolves the ordinal of a property of a vocabulary without throwing.
+	 *
+	 * @param vocabulary The vocabulary.
+	 * @param localPropertyName The local name of the property.
+	 * @param aspect The local aspect name, {@link PropertyRef#NULL_ASPECT} or null for the default aspect.
+	 * @return The ordinal, or -1 if the property or aspect is not recognized.
+	 */
+	int find(Vocabulary vocabulary, String localPropertyName, String aspect) {
+		PropertyDefinition property = localPropertyName == null ? null
+				: vocabulary.properties.get(localPropertyName);
+		return property == null ? -1 : property.ordinal(aspect);
+	}
+
+	/**
+	 * Resolves the ordinal of a property reference without throwing.
+	 *
+	 * @param ref The property reference, not null.
+	 * @return The ordinal, or -1 if any of its name data is not recognized.
+	 */
+	int find(PropertyRef ref) {
+		if (ref instanceof PropertyRefImpl) {
+			int ordinal = ((PropertyRefImpl) ref).ordinal;
+			if (ordinal >= 0 && ordinal < refs.length && refs[ordinal] == ref) {
+				return ordinal;
+			}
+		}
+		return find(ref.getNamespace(), ref.getLocalPropertyName(), ref.getAspectName());
+	}
+
+	/**
+	 * Resolves the ordinal of a property name in its default aspect without throwing.
+	 *
+	 * @param name The property name, not null.
+	 * @return The ordinal, or -1 if any of its name data is not recognized.
+	 */
+	int find(PropertyName name) {
+		if (name instanceof PropertyNameImpl) {
+			int ordinal = ((PropertyNameImpl) name).ordinal;
+			if (ordinal >= 0 && ordinal < names.length && names[ordinal] == name) {
+				return ordinal;
+			}
+		}
+		return find(name.getNamespace(), name.getLocalPropertyName(), null);
+	}
+
+	/**
+	 * Identifies the device described by the evidence.
+	 *
+	 * @param evidence The evidence.
+	 * @return The device ordinal, or {@link EvidenceMatcher#NO_MATCH} if no device could be identified.
+	 */
+	int match(Evidence evidence) {
+		return matcher.match(evidence);
+	}
+}
@@ -0,0 +1,388 @@
+package org.w3c.ddr.simple.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.exception.InitializationException;
+import org.w3c.ddr.simple.impl.match.MatcherCompiler;
+import org.w3c.ddr.simple.impl.match.TieredMatcher;
+
+/**
+ * Accumulates vocabularies, devices and values read from a repository source
+ * and compiles them into an immutable {@link DeviceIndex}.
+ *
+ * Vocabularies and their properties must be declared before the first device is added.
+ * A builder is not thread-safe and should be discarded after {@link #build()}.
+ * The accumulated data is visible within the package, for {@link SnapshotWriter}.
+ */
+final class DeviceIndexBuilder {
+
+	String dataVersion = Service.NOT_SUPPORTED;
+
+	final Map<String, Vocabulary> vocabularies = new LinkedHashMap<String, Vocabulary>();
+
+	final List<PropertyRefImpl> refs = new ArrayList<PropertyRefImpl>();
+
+	private final List<PropertyNameImpl> names = new ArrayList<PropertyNameImpl>();
+
+	final List<PropertyType> types = new ArrayList<PropertyType>();
+
+	final List<String> devices = new ArrayList<String>();
+
+	/**
+	 * The raw values of each device by ordinal; null for a device without values.
+	 */
+	final List<String[]> rows = new ArrayList<String[]>();
+
+	private final Map<String, Integer> deviceIds = new HashMap<String, Integer>();
+
+	final List<String> patternHeaders = new ArrayList<String>();
+
+	final List<String> patterns = new ArrayList<String>();
+
+	final List<Integer> patternDevices = new ArrayList<Integer>();
+
+	private final Properties props;
+
+	/**
+	 * Creates the exceptions thrown by the lookups of the index.
+	 */
+	final Exceptions exceptions;
+
+	/**
+	 * Runs the stages of the loading and compilation that can proceed in parallel.
+	 */
+	final Executor executor;
+
+	/**
+	 * Whether {@link #build()} keeps the values in a direct buffer rather than on the heap.
+	 */
+	private final boolean direct;
+
+	/**
+	 * The number of decoded strings cached by a value store kept off the heap.
+	 */
+	final int stringCache;
+
+	/**
+	 * @param props The service configuration, used to select evidence matchers, the
+	 *              {@link Exceptions} mode, the executor and the value store.
+	 * @throws InitializationException if the configuration is invalid.
+	 */
+	DeviceIndexBuilder(Properties props) throws InitializationException {
+		this.props = props;
+		this.exceptions = Exceptions.forConfiguration(props);
+		this.executor = Stage.executor(props);
+		String store = props == null ? null : props.getProperty(IndexedService.VALUE_STORE);
+		if (store == null || "heap".equals(store.trim())) {
+			this.direct = false;
+		} else if ("direct".equals(store.trim())) {
+			this.direct = true;
+		} else {
+			throw error("Unknown value store: " + store);
+		}
+		String cache = props == null ? null : props.getProperty(IndexedService.STRING_CACHE);
+		try {
+			this.stringCache = cache == null ? 0 : Integer.parseInt(cache.trim());
+		} catch (NumberFormatException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		}
+		if (stringCache < 0) {
+			throw error(IndexedService.STRING_CACHE + " cannot be negative");
+		}
+	}
+
+	void setDataVersion(String dataVersion) {
+		this.dataVersion = dataVersion;
+	}
+
+	/**
+	 * Declares a vocabulary. Declaring the same IRI twice has no effect.
+	 *
+	 * @param iri The namespace IRI of the vocabulary.
+	 */
+	void addVocabulary(String iri) throws InitializationException {
+		if (iri == null || iri.length() == 0) {
+			throw error("Vocabulary IRI cannot be empty");
+		}
+		if (!vocabularies.containsKey(iri)) {
+			vocabularies.put(iri, new Vocabulary(iri,
+					new HashMap<String, PropertyDefinition>(), new HashSet<String>()));
+		}
+	}
+
+	/**
+	 * Declares a property of a vocabulary.
+	 *
+	 * @param iri The namespace IRI of a declared vocabulary.
+	 * @param name The local name of the property.
+	 * @param type The data type of the property.
+	 * @param aspects The aspects the property supports; empty if the vocabulary does not distinguish aspects.
+	 * @param defaultAspect The default aspect, or null to use the first supported aspect.
+	 */
+	void addProperty(String iri, String name, PropertyType type, String[] aspects,
+			String defaultAspect) throws InitializationException {
+		Vocabulary vocabulary = vocabularies.get(iri);
+		if (vocabulary == null) {
+			throw error("Undeclared vocabulary: " + iri);
+		}
+		if (!devices.isEmpty()) {
+			throw error("Property " + name + " declared after the first device");
+		}
+		if (name == null || name.length() == 0 || type == null) {
+			throw error("Property name and type are required in vocabulary " + iri);
+		}
+		if (vocabulary.properties.containsKey(name)) {
+			throw error("Duplicate property " + name + " in vocabulary " + iri);
+		}
+		if (aspects.length == 0) {
+			aspects = new String[] { PropertyRef.NULL_ASPECT };
+		}
+		if (defaultAspect == null) {
+			defaultAspect = aspects[0];
+		} else if (!Arrays.asList(aspects).contains(defaultAspect)) {
+			throw error("Default aspect " + defaultAspect + " is not an aspect of " + name);
+		}
+		int[] ordinals = new int[aspects.length];
+		int defaultOrdinal = refs.size() + Arrays.asList(aspects).indexOf(defaultAspect);
+		PropertyNameImpl propertyName = new PropertyNameImpl(name, iri, defaultOrdinal);
+		for (int i = 0; i < aspects.length; i++) {
+			ordinals[i] = refs.size();
+			refs.add(new PropertyRefImpl(name, aspects[i], iri, ordinals[i]));
+			names.add(propertyName);
+			types.add(type);
+			vocabulary.aspects.add(aspects[i]);
+		}
+		vocabulary.properties.put(name, new PropertyDefinition(propertyName, type,
+				defaultAspect, aspects, ordinals));
+	}
+
+	/**
+	 * Adds a device.
+	 *
+	 * @param id The unique identifier of the device.
+	 * @return The device ordinal.
+	 */
+	int addDevice(String id) throws InitializationException {
+		if (id == null || id.length() == 0) {
+			throw error("Device id cannot be empty");
+		}
+		if (deviceIds.containsKey(id)) {
+			throw error("Duplicate device " + id);
+		}
+		int device = devices.size();
+		devices.add(id);
+		rows.add(null);
+		deviceIds.put(id, device);
+		return device;
+	}
+
+	/**
+	 * Adds a pattern identifying a device.
+	 *
+	 * @param device The device ordinal.
+	 * @param header The (lower case) name of the evidence header the pattern applies to.
+	 * @param pattern The pattern, interpreted by the matcher of the header.
+	 */
+	void addPattern(int device, String header, String pattern) throws InitializationException {
+		if (pattern == null || pattern.length() == 0) {
+			throw error("Empty pattern for device " + devices.get(device));
+		}
+		patternHeaders.add(header);
+		patterns.add(pattern);
+		patternDevices.add(device);
+	}
+
+	/**
+	 * Sets the value of a property for a device.
+	 *
+	 * @param device The device ordinal.
+	 * @param iri The vocabulary IRI, or null for the first declared vocabulary.
+	 * @param name The local name of the property.
+	 * @param aspect The aspect, or null for the default aspect of the property.
+	 * @param value The raw value, which must be valid for the property type.
+	 */
+	void setValue(int device, String iri, String name, String aspect, String value)
+			throws InitializationException {
+		int ordinal = ordinal(iri, name, aspect, value, devices.get(device));
+		String[] row = rows.get(device);
+		if (row == null) {
+			row = newRow();
+			rows.set(device, row);
+		}
+		row[ordinal] = value;
+	}
+
+	/**
+	 * Validates a value and resolves the ordinal it is stored under. Once all properties
+	 * are declared, this only reads the builder and may be called concurrently.
+	 *
+	 * @param iri The vocabulary IRI, or null for the first declared vocabulary.
+	 * @param name The local name of the property.
+	 * @param aspect The aspect, or null for the default aspect of the property.
+	 * @param value The raw value, which must be valid for the property type.
+	 * @param device The id of the device, for diagnostics.
+	 * @return The property ordinal.
+	 */
+	int ordinal(String iri, String name, String aspect, String value, String device)
+			throws InitializationException {
+		Vocabulary vocabulary = iri == null ? firstVocabulary() : vocabularies.get(iri);
+		if (vocabulary == null) {
+			throw error("Undeclared vocabulary: " + iri);
+		}
+		PropertyDefinition property = vocabulary.properties.get(name);
+		if (property == null) {
+			throw error("Undeclared property " + name + " in vocabulary " + vocabulary.iri);
+		}
+		int ordinal = property.ordinal(aspect);
+		if (ordinal < 0) {
+			throw error("Property " + name + " does not support aspect " + aspect);
+		}
+		if (!isValid(property.type, value)) {
+			throw error("Invalid " + property.type.getName() + " value '" + value
+					+ "' for property " + name + " of device " + device);
+		}
+		return ordinal;
+	}
+
+	/**
+	 * @return An empty row of values, indexed by property ordinal.
+	 */
+	String[] newRow() {
+		return new String[refs.size()];
+	}
+
+	/**
+	 * Sets all values of a device at once.
+	 *
+	 * @param device The device ordinal.
+	 * @param row The values created by {@link #newRow()} and validated by
+	 *            {@link #ordinal(String, String, String, String, String)}, or null.
+	 */
+	void setRow(int device, String[] row) {
+		rows.set(device, row);
+	}
+
+	private Vocabulary firstVocabulary() {
+		return vocabularies.isEmpty() ? null : vocabularies.values().iterator().next();
+	}
+
+	private static boolean isValid(PropertyType type, String value) {
+		try {
+			switch (type) {
+			case BOOLEAN:
+				return "true".equals(value) || "false".equals(value);
+			case INTEGER:
+				Integer.parseInt(value);
+				return true;
+			case LONG:
+				Long.parseLong(value);
+				return true;
+			case FLOAT:
+				Float.parseFloat(value);
+				return true;
+			case DOUBLE:
+				Double.parseDouble(value);
+				return true;
+			default:
+				return value != null;
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Compiles the accumulated data. The values are compiled on the executor, on the heap
+	 * or into a direct buffer as configured, while the evidence matchers are compiled on
+	 * the calling thread.
+	 *
+	 * @return The device index.
+	 * @throws InitializationException if the evidence matchers cannot be compiled.
+	 */
+	DeviceIndex build() throws InitializationException {
+		final PropertyRefImpl[] refs = this.refs.toArray(new PropertyRefImpl[this.refs.size()]);
+		final PropertyType[] types = this.types.toArray(new PropertyType[this.types.size()]);
+		Stage<ValueStore> values = Stage.start(new Callable<ValueStore>() {
+			@Override
+			public ValueStore call() throws IOException {
+				return direct ? compileDirect(refs, types)
+						: HeapValueStore.compile(refs, types, rows, exceptions);
+			}
+		}, executor);
+		boolean complete = false;
+		try {
+			TieredMatcher matcher = matchers();
+			DeviceIndex index = build(values.join(), matcher);
+			complete = true;
+			return index;
+		} finally {
+			if (!complete) {
+				values.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Writes the values as a snapshot into a direct buffer, which is then read in place
+	 * like a mapped snapshot, with each distinct string stored once, UTF-8 encoded.
+	 */
+	private ValueStore compileDirect(PropertyRefImpl[] refs, PropertyType[] types)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		SnapshotWriter.write(this, bytes);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.size());
+		buffer.put(bytes.toByteArray());
+		return new MappedValueStore(buffer, buffer.getInt(8), buffer.getInt(12), refs, types,
+				devices.size(), exceptions, stringCache);
+	}
+
+	/**
+	 * Compiles the accumulated data, with values held by an existing store rather than
+	 * those set on this builder.
+	 *
+	 * @param values The values of the devices added to this builder.
+	 * @return The device index.
+	 * @throws InitializationException if the evidence matchers cannot be compiled.
+	 */
+	DeviceIndex build(ValueStore values) throws InitializationException {
+		return build(values, matchers());
+	}
+
+	private TieredMatcher matchers() throws InitializationException {
+		MatcherCompiler matchers = new MatcherCompiler(props);
+		for (int i = 0; i < patterns.size(); i++) {
+			matchers.addPattern(patternHeaders.get(i), patterns.get(i), patternDevices.get(i));
+		}
+		return matchers.compile();
+	}
+
+	private DeviceIndex build(ValueStore values, TieredMatcher matcher) {
+		PropertyRefImpl[] refs = this.refs.toArray(new PropertyRefImpl[this.refs.size()]);
+		return new DeviceIndex(dataVersion,
+				new VocabularyRegistry(vocabularies, refs, exceptions),
+				refs,
+				names.toArray(new PropertyNameImpl[names.size()]),
+				devices.toArray(new String[devices.size()]),
+				values,
+				matcher,
+				exceptions);
+	}
+
+	private static InitializationException error(String message) {
+		return new InitializationException(InitializationException.INITIALIZATION_ERROR, message);
+	}
+}
@@ -0,0 +1,308 @@
+package org.w3c.ddr.simple.impl;
+
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.SystemException;
+import org.w3c.ddr.simple.exception.ValueException;
+
+/**
+ * A predicate over the property values of devices, for the reverse lookups
+ * {@link IndexedService#countDevices(DeviceQuery)} and
+ * {@link IndexedService#listDevices(DeviceQuery)}.
+ *
+ * Predicates on a single property only match devices for which the value of the
+ * property is known, and are combined with {@link #and(DeviceQuery)},
+ * {@link #or(DeviceQuery)} and {@link #not()}:
+ *
+ * <pre>
+ * DeviceQuery query = DeviceQuery.atLeast(displayWidth, 1080)
+ *         .and(DeviceQuery.contains(inputDevices, "touchScreen"));
+ * int count = service.countDevices(query);
+ * </pre>
+ *
+ * A query names its properties by PropertyRef, resolved when the query is evaluated,
+ * and is answered from bitmaps of the devices of each property value (see
+ * {@link ReverseIndex}). Instances are immutable and may be shared and evaluated
+ * by any number of threads.
+ */
+public abstract class DeviceQuery {
+
+	DeviceQuery() {
+	}
+
+	/**
+	 * @param ref The property.
+	 * @return A query matching the devices for which the value of the property is known.
+	 */
+	public static DeviceQuery known(PropertyRef ref) {
+		return new Known(check(ref));
+	}
+
+	/**
+	 * A query on the value of a string, boolean or numeric property. Strings and booleans
+	 * must equal the value as returned by
+	 * {@link org.w3c.ddr.simple.PropertyValue#getString()}; numbers must be equal to the
+	 * number the value is parsed as.
+	 *
+	 * @param ref The property.
+	 * @param value The value.
+	 * @return The query.
+	 */
+	public static DeviceQuery equalTo(PropertyRef ref, String value) {
+		if (value == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Value cannot be null");
+		}
+		return new EqualTo(check(ref), value);
+	}
+
+	/**
+	 * A query on the members of an enumeration property.
+	 *
+	 * @param ref The property.
+	 * @param member The member the enumeration must contain.
+	 * @return The query.
+	 */
+	public static DeviceQuery contains(PropertyRef ref, String member) {
+		if (member == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Member cannot be null");
+		}
+		return new Contains(check(ref), member);
+	}
+
+	/**
+	 * A query on a numeric property.
+	 *
+	 * @param ref The property.
+	 * @param min The lowest value matched.
+	 * @param max The highest value matched.
+	 * @return The query.
+	 */
+	public static DeviceQuery between(PropertyRef ref, double min, double max) {
+		return new Between(check(ref), min, max);
+	}
+
+	/**
+	 * @param ref A numeric property.
+	 * @param min The lowest value matched.
+	 * @return The query.
+	 */
+	public static DeviceQuery atLeast(PropertyRef ref, double min) {
+		return between(ref, min, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @param ref A numeric property.
+	 * @param max The highest value matched.
+	 * @return The query.
+	 */
+	public static DeviceQuery atMost(PropertyRef ref, double max) {
+		return between(ref, Double.NEGATIVE_INFINITY, max);
+	}
+
+	/**
+	 * @param other Another query.
+	 * @return A query matching the devices matched by both queries.
+	 */
+	public DeviceQuery and(DeviceQuery other) {
+		return new And(this, check(other));
+	}
+
+	/**
+	 * @param other Another query.
+	 * @return A query matching the devices matched by either query.
+	 */
+	public DeviceQuery or(DeviceQuery other) {
+		return new Or(this, check(other));
+	}
+
+	/**
+	 * @return A query matching the devices this query does not match, including those for
+	 *         which the properties of this query are not known.
+	 */
+	public DeviceQuery not() {
+		return new Not(this);
+	}
+
+	/**
+	 * Finds the devices matched by the query.
+	 *
+	 * @param index The device index.
+	 * @return The devices.
+	 * @throws NameException if a property is not recognized.
+	 * @throws ValueException with code INCOMPATIBLE_TYPES if a property is not of the type
+	 *         the query requires.
+	 */
+	abstract DeviceBitmap evaluate(DeviceIndex index) throws NameException, ValueException;
+
+	private static PropertyRef check(PropertyRef ref) {
+		if (ref == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"PropertyRef cannot be null");
+		}
+		return ref;
+	}
+
+	private static DeviceQuery check(DeviceQuery query) {
+		if (query == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Query cannot be null");
+		}
+		return query;
+	}
+
+	private static final class Known extends DeviceQuery {
+
+		private final PropertyRef ref;
+
+		Known(PropertyRef ref) {
+			this.ref = ref;
+		}
+
+		@Override
+		DeviceBitmap evaluate(DeviceIndex index) throws NameException {
+			return index.reverse.known(index.ordinal(ref));
+		}
+
+		@Override
+		public String toString() {
+			return "known(" + ref + ")";
+		}
+	}
+
+	private static final class EqualTo extends DeviceQuery {
+
+		private final PropertyRef ref;
+
+		private final String value;
+
+		EqualTo(PropertyRef ref, String value) {
+			this.ref = ref;
+			this.value = value;
+		}
+
+		@Override
+		DeviceBitmap evaluate(DeviceIndex index) throws NameException, ValueException {
+			return index.reverse.equalTo(index.ordinal(ref), value);
+		}
+
+		@Override
+		public String toString() {
+			return ref + " = " + value;
+		}
+	}
+
+	private static final class Contains extends DeviceQuery {
+
+		private final PropertyRef ref;
+
+		private final String member;
+
+		Contains(PropertyRef ref, String member) {
+			this.ref = ref;
+			this.member = member;
+		}
+
+		@Override
+		DeviceBitmap evaluate(DeviceIndex index) throws NameException, ValueException {
+			return index.reverse.contains(index.ordinal(ref), member);
+		}
+
+		@Override
+		public String toString() {
+			return ref + " contains " + member;
+		}
+	}
+
+	private static final class Between extends DeviceQuery {
+
+		private final PropertyRef ref;
+
+		private final double min;
+
+		private final double max;
+
+		Between(PropertyRef ref, double min, double max) {
+			this.ref = ref;
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		DeviceBitmap evaluate(DeviceIndex index) throws NameException, ValueException {
+			return index.reverse.range(index.ordinal(ref), min, max);
+		}
+
+		@Override
+		public String toString() {
+			return ref + " in [" + min + ", " + max + "]";
+		}
+	}
+
+	private static final class And extends DeviceQuery {
+
+		private final DeviceQuery left;
+
+		private final DeviceQuery right;
+
+		And(DeviceQuery left, DeviceQuery right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		DeviceBitmap evaluate(DeviceIndex index) throws NameException, ValueException {
+			if (right instanceof Not) {
+				return left.evaluate(index).andNot(((Not) right).query.evaluate(index));
+			}
+			if (left instanceof Not) {
+				return right.evaluate(index).andNot(((Not) left).query.evaluate(index));
+			}
+			return left.evaluate(index).and(right.evaluate(index));
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " and " + right + ")";
+		}
+	}
+
+	private static final class Or extends DeviceQuery {
+
+		private final DeviceQuery left;
+
+		private final DeviceQuery right;
+
+		Or(DeviceQuery left, DeviceQuery right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		DeviceBitmap evaluate(DeviceIndex index) throws NameException, ValueException {
+			return left.evaluate(index).or(right.evaluate(index));
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + " or " + right + ")";
+		}
+	}
+
+	private static final class Not extends DeviceQuery {
+
+		private final DeviceQuery query;
+
+		Not(DeviceQuery query) {
+			this.query = query;
+		}
+
+		@Override
+		DeviceBitmap evaluate(DeviceIndex index) throws NameException, ValueException {
+			return index.reverse.all().andNot(query.evaluate(index));
+		}
+
+		@Override
+		public String toString() {
+			return "not " + query;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package org.w3c.ddr.simple.impl;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Properties;
+
+import org.w3c.ddr.simple.exception.InitializationException;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.ValueException;
+
+/**
+ * Creates the NameExceptions and ValueExceptions thrown by the lookups of a
+ * {@link DeviceIndex}, in the mode selected by the {@link IndexedService#EXCEPTIONS}
+ * configuration property.
+ *
+ * Capturing the stack trace dominates the cost of an exception, and an application
+ * probing for optional properties may throw on a good share of its lookups. In the
+ * {@link #LIGHTWEIGHT} mode exceptions keep their message but capture no stack trace,
+ * and only concatenate the parts of the message when it is used.
+ * In the {@link #SHARED} mode a single prebuilt instance is thrown for each of the
+ * common codes, with a message naming the code only, so that neither a stack trace nor
+ * a message is built; those instances are shared by all threads and must not be
+ * modified by callers, for example with initCause.
+ *
+ * Instances are immutable.
+ */
+final class Exceptions {
+
+	/**
+	 * Mode of ordinary exceptions with a stack trace; the default.
+	 */
+	static final String FULL = "full";
+
+	/**
+	 * Mode of exceptions without a stack trace.
+	 */
+	static final String LIGHTWEIGHT = "lightweight";
+
+	/**
+	 * Mode of shared, prebuilt exceptions for the common codes.
+	 */
+	static final String SHARED = "shared";
+
+	static final Exceptions DEFAULT = new Exceptions(true, false);
+
+	private final boolean stackTraces;
+
+	private final NameException propertyNotRecognized;
+
+	private final NameException vocabularyNotRecognized;
+
+	private final NameException aspectNotRecognized;
+
+	private final ValueException notKnown;
+
+	private final ValueException incompatibleTypes;
+
+	private Exceptions(boolean stackTraces, boolean shared) {
+		this.stackTraces = stackTraces;
+		if (shared) {
+			propertyNotRecognized = new LightweightNameException(
+					NameException.PROPERTY_NOT_RECOGNIZED, "Property not recognized");
+			vocabularyNotRecognized = new LightweightNameException(
+					NameException.VOCABULARY_NOT_RECOGNIZED, "Vocabulary not recognized");
+			aspectNotRecognized = new LightweightNameException(
+					NameException.ASPECT_NOT_RECOGNIZED, "Aspect not recognized");
+			notKnown = new LightweightValueException(
+					ValueException.NOT_KNOWN, "Value not known");
+			incompatibleTypes = new LightweightValueException(
+					ValueException.INCOMPATIBLE_TYPES, "Incompatible types");
+		} else {
+			propertyNotRecognized = null;
+			vocabularyNotRecognized = null;
+			aspectNotRecognized = null;
+			notKnown = null;
+			incompatibleTypes = null;
+		}
+	}
+
+	/**
+	 * @param props The service configuration, possibly null.
+	 * @return The exceptions of the configured mode.
+	 * @throws InitializationException if the mode is not known.
+	 */
+	static Exceptions forConfiguration(Properties props) throws InitializationException {
+		String mode = props == null ? null : props.getProperty(IndexedService.EXCEPTIONS);
+		if (mode == null || FULL.equals(mode)) {
+			return DEFAULT;
+		}
+		if (LIGHTWEIGHT.equals(mode)) {
+			return new Exceptions(false, false);
+		}
+		if (SHARED.equals(mode)) {
+			return new Exceptions(false, true);
+		}
+		throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+				"Unknown value of " + IndexedService.EXCEPTIONS + ": " + mode);
+	}
+
+	/**
+	 * Creates a NameException. In the lightweight mode the parts of the message are only
+	 * concatenated when the message is used.
+	 *
+	 * @param code The exception code.
+	 * @param message The parts of the message.
+	 * @return The exception to throw.
+	 */
+	NameException name(int code, Object... message) {
+		if (propertyNotRecognized != null) {
+			if (code == NameException.PROPERTY_NOT_RECOGNIZED) {
+				return propertyNotRecognized;
+			} else if (code == NameException.VOCABULARY_NOT_RECOGNIZED) {
+				return vocabularyNotRecognized;
+			} else if (code == NameException.ASPECT_NOT_RECOGNIZED) {
+				return aspectNotRecognized;
+			}
+		}
+		return stackTraces ? new NameException(code, concat(message))
+				: new LightweightNameException(code, message);
+	}
+
+	/**
+	 * Creates a ValueException. In the lightweight mode the parts of the message are only
+	 * concatenated when the message is used.
+	 *
+	 * @param code The exception code.
+	 * @param message The parts of the message.
+	 * @return The exception to throw.
+	 */
+	ValueException value(int code, Object... message) {
+		if (notKnown != null) {
+			if (code == ValueException.NOT_KNOWN) {
+				return notKnown;
+			} else if (code == ValueException.INCOMPATIBLE_TYPES) {
+				return incompatibleTypes;
+			}
+		}
+		return stackTraces ? new ValueException(code, concat(message))
+				: new LightweightValueException(code, message);
+	}
+
+	private static String concat(Object[] parts) {
+		if (parts.length == 1) {
+			return String.valueOf(parts[0]);
+		}
+		StringBuilder buffer = new StringBuilder();
+		for (Object part : parts) {
+			buffer.append(part);
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * A NameException that does not capture a stack trace, and builds its message on
+	 * first use.
+	 */
+	private static final class LightweightNameException extends NameException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient Object[] parts;
+
+		private String message;
+
+		LightweightNameException(int code, Object... parts) {
+			super(code, (String) null);
+			this.parts = parts;
+		}
+
+		@Override
+		public String getMessage() {
+			String message = this.message;
+			if (message == null) {
+				this.message = message = concat(parts);
+			}
+			return message;
+		}
+
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			getMessage();
+			out.defaultWriteObject();
+		}
+
+		@Override
+		public Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	/**
+	 * A ValueException that does not capture a stack trace, and builds its message on
+	 * first use.
+	 */
+	private static final class LightweightValueException extends ValueException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient Object[] parts;
+
+		private String message;
+
+		LightweightValueException(int code, Object... parts) {
+			super(code, (String) null);
+			this.parts = parts;
+		}
+
+		@Override
+		public String getMessage() {
+			String message = this.message;
+			if (message == null) {
+				this.message = message = concat(parts);
+			}
+			return message;
+		}
+
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			getMessage();
+			out.defaultWriteObject();
+		}
+
+		@Override
+		public Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+}
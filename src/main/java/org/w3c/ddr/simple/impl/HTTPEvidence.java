@@ -0,0 +1,60 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.w3c.ddr.simple.Evidence;
+
+/**
+ * {@link Evidence} representing HTTP headers. Header names are compared
+ * case-insensitively as required by RFC 2616 section 4.2.
+ */
+public class HTTPEvidence implements Evidence {
+
+	private final Map<String, String> headers = new HashMap<String, String>();
+
+	/**
+	 * Constructs an empty evidence instance.
+	 */
+	public HTTPEvidence() {
+	}
+
+	/**
+	 * Constructs an evidence instance populated from a map of HTTP headers.
+	 *
+	 * @param map Mapping of header names to values.
+	 */
+	public HTTPEvidence(Map<String, String> map) {
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public void put(String key, String value) {
+		headers.put(key.toLowerCase(Locale.ENGLISH), value);
+	}
+
+	@Override
+	public boolean exists(String key) {
+		return key != null && headers.containsKey(key.toLowerCase(Locale.ENGLISH));
+	}
+
+	@Override
+	public String get(String key) {
+		return key == null ? null : headers.get(key.toLowerCase(Locale.ENGLISH));
+	}
+
+	/**
+	 * The headers keyed by lower-case name, for comparing evidence.
+	 */
+	Map<String, String> headers() {
+		return headers;
+	}
+
+	@Override
+	public String toString() {
+		return headers.toString();
+	}
+}
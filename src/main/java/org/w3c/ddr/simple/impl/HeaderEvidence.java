@@ -0,0 +1,115 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.w3c.ddr.simple.impl.match.ClientHints;
+import org.w3c.ddr.simple.impl.match.ClientHintsEvidence;
+
+/**
+ * HTTP header evidence keeping only the headers that {@link IndexedService} consults
+ * to identify a device, each in a fixed slot.
+ *
+ * Header names are resolved to their slot by a perfect hash computed when the
+ * repository is loaded, case-insensitively and without lower-casing the name, so
+ * {@link #put(String, String)}, {@link #get(String)} and {@link #exists(String)} never
+ * allocate. Other headers are ignored: {@link #exists(String)} is false for them.
+ *
+ * The User-Agent Client Hints among the headers are parsed once, when first needed
+ * after the evidence changed.
+ *
+ * An instance may be emptied with {@link #reset()} and reused, for instance from a
+ * per-thread pool; like the other evidence implementations it is not thread-safe, and
+ * must not be modified while a lookup is using it.
+ */
+public final class HeaderEvidence implements ClientHintsEvidence {
+
+	private final HeaderTable table;
+
+	private final String[] values;
+
+	/**
+	 * The parsed Client Hints, or null until they are needed.
+	 */
+	private ClientHints clientHints;
+
+	HeaderEvidence(HeaderTable table) {
+		this.table = table;
+		this.values = new String[table.capacity()];
+	}
+
+	/**
+	 * Sets the headers of a request, after emptying the evidence.
+	 *
+	 * @param headers The header values by name, in any case.
+	 */
+	public void reset(Map<String, String> headers) {
+		reset();
+		for (Map.Entry<String, String> entry : headers.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Removes all headers, so that the evidence can be reused for another request.
+	 */
+	public void reset() {
+		Arrays.fill(values, null);
+		clientHints = null;
+	}
+
+	@Override
+	public void put(String key, String value) {
+		int slot = table.slot(key);
+		if (slot >= 0) {
+			values[slot] = value;
+			clientHints = null;
+		}
+	}
+
+	@Override
+	public ClientHints getClientHints() {
+		ClientHints clientHints = this.clientHints;
+		if (clientHints == null) {
+			clientHints = ClientHints.parse(this);
+			this.clientHints = clientHints;
+		}
+		return clientHints;
+	}
+
+	@Override
+	public boolean exists(String key) {
+		int slot = table.slot(key);
+		return slot >= 0 && values[slot] != null;
+	}
+
+	@Override
+	public String get(String key) {
+		int slot = table.slot(key);
+		return slot < 0 ? null : values[slot];
+	}
+
+	/**
+	 * A value equal for evidence with the same headers, for comparing evidence.
+	 */
+	Object key() {
+		Object[] key = new Object[values.length + 1];
+		key[0] = table;
+		System.arraycopy(values, 0, key, 1, values.length);
+		return Arrays.asList(key);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("{");
+		for (int slot = 0; slot < values.length; slot++) {
+			if (values[slot] != null) {
+				if (result.length() > 1) {
+					result.append(", ");
+				}
+				result.append(table.name(slot)).append('=').append(values[slot]);
+			}
+		}
+		return result.append('}').toString();
+	}
+}
@@ -0,0 +1,170 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Assigns a fixed slot to each of a set of header names through a perfect hash,
+ * computed once over the case-folded names, so that a header name given in any case
+ * is resolved to its slot without allocating or lower-casing it.
+ *
+ * The hash multiplies a case-insensitive polynomial hash of the name by a seed and
+ * keeps the high bits; seeds are tried, and the table grown up to a few times its
+ * minimum size, until no two names share a slot. Names whose polynomial hashes are
+ * equal cannot be separated by any seed: the table is then filled by linear probing
+ * instead, and lookups compare names along the probe sequence. A table of no names has
+ * no slots. Instances are immutable.
+ */
+final class HeaderTable {
+
+	private static final int SEEDS_PER_SIZE = 4096;
+
+	/**
+	 * The number of times the table may be doubled in search of a perfect hash.
+	 */
+	private static final int MAX_GROWTH = 4;
+
+	/**
+	 * The lower case name of the header in each slot, or null.
+	 */
+	private final String[] names;
+
+	private final int seed;
+
+	private final int shift;
+
+	private final int size;
+
+	/**
+	 * Whether slots are found by linear probing rather than by a perfect hash.
+	 */
+	private final boolean probed;
+
+	/**
+	 * @param headers The header names, in any case.
+	 */
+	HeaderTable(String[] headers) {
+		Set<String> distinct = new LinkedHashSet<String>();
+		for (String header : headers) {
+			distinct.add(header.toLowerCase(Locale.ENGLISH));
+		}
+		int[] hashes = new int[distinct.size()];
+		int h = 0;
+		for (String header : distinct) {
+			hashes[h++] = hash(header);
+		}
+
+		this.size = distinct.size();
+		if (hashes.length == 0) {
+			this.probed = false;
+			this.seed = 0;
+			this.shift = 0;
+			this.names = new String[0];
+			return;
+		}
+
+		int minimum = Math.max(1, 32 - Integer.numberOfLeadingZeros(hashes.length * 2 - 1));
+		int[] sorted = hashes.clone();
+		Arrays.sort(sorted);
+		boolean separable = true;
+		for (int i = 1; i < sorted.length; i++) {
+			separable &= sorted[i] != sorted[i - 1];
+		}
+		int bits = minimum;
+		int seed = 0;
+		boolean perfect = false;
+		search: for (; separable && bits <= minimum + MAX_GROWTH; bits++) {
+			boolean[] used = new boolean[1 << bits];
+			for (int i = 0; i < SEEDS_PER_SIZE; i++) {
+				seed = 0x9E3779B9 * (2 * i + 1);
+				Arrays.fill(used, false);
+				perfect = true;
+				for (int hash : hashes) {
+					int slot = (hash * seed) >>> (32 - bits);
+					if (used[slot]) {
+						perfect = false;
+						break;
+					}
+					used[slot] = true;
+				}
+				if (perfect) {
+					break search;
+				}
+			}
+		}
+		if (!perfect) {
+			bits = minimum;
+			seed = 0x9E3779B9;
+		}
+		this.probed = !perfect;
+		this.seed = seed;
+		this.shift = 32 - bits;
+		this.names = new String[1 << bits];
+		int mask = names.length - 1;
+		for (String header : distinct) {
+			int slot = (hash(header) * seed) >>> shift;
+			while (names[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			names[slot] = header;
+		}
+	}
+
+	private static int hash(String name) {
+		int hash = 0;
+		for (int i = 0, n = name.length(); i < n; i++) {
+			char c = name.charAt(i);
+			hash = 31 * hash + (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+		}
+		return hash;
+	}
+
+	/**
+	 * Finds the slot of a header.
+	 *
+	 * @param name The header name, in any case.
+	 * @return The slot, or -1 if the header is not in the table.
+	 */
+	int slot(String name) {
+		if (name == null || names.length == 0) {
+			return -1;
+		}
+		int slot = (hash(name) * seed) >>> shift;
+		String header = names[slot];
+		if (!probed) {
+			return header != null && header.equalsIgnoreCase(name) ? slot : -1;
+		}
+		int mask = names.length - 1;
+		for (; header != null; header = names[slot]) {
+			if (header.equalsIgnoreCase(name)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The number of slots, some of which may be empty.
+	 */
+	int capacity() {
+		return names.length;
+	}
+
+	/**
+	 * @return The number of headers.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param slot A slot.
+	 * @return The lower case header name of the slot, or null.
+	 */
+	String name(int slot) {
+		return names[slot];
+	}
+}
@@ -0,0 +1,207 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link ValueStore} keeping each column in a Java array of the primitive type of
+ * the property. Values are parsed once, when the store is compiled.
+ */
+final class HeapValueStore extends ValueStore {
+
+	private final Column[] columns;
+
+	private HeapValueStore(Column[] columns, Exceptions exceptions) {
+		super(exceptions);
+		this.columns = columns;
+	}
+
+	/**
+	 * Compiles the raw values of a repository.
+	 *
+	 * @param refs The property reference of each ordinal.
+	 * @param types The type of each ordinal.
+	 * @param rows The raw values of each device, indexed by ordinal; null where not known
+	 *             (a null row stands for a device without any known value).
+	 *             Values must be valid for their type.
+	 * @param exceptions Creates the exceptions thrown when a value cannot be read.
+	 * @return The store.
+	 */
+	static HeapValueStore compile(PropertyRefImpl[] refs, PropertyType[] types,
+			List<String[]> rows, Exceptions exceptions) {
+		Map<String, String> strings = new HashMap<String, String>();
+		Map<String, String[]> enumerations = new HashMap<String, String[]>();
+		int devices = rows.size();
+		Column[] columns = new Column[types.length];
+		for (int o = 0; o < columns.length; o++) {
+			Column column = new Column(refs[o].getLocalPropertyName(), types[o], devices);
+			for (int d = 0; d < devices; d++) {
+				String[] row = rows.get(d);
+				String value = row == null ? null : row[o];
+				if (value != null) {
+					column.set(d, value, strings, enumerations);
+				}
+			}
+			columns[o] = column;
+		}
+		return new HeapValueStore(columns, exceptions);
+	}
+
+	@Override
+	PropertyType type(int ordinal) {
+		return columns[ordinal].type;
+	}
+
+	@Override
+	String name(int ordinal) {
+		return columns[ordinal].name;
+	}
+
+	@Override
+	boolean isKnown(int ordinal, int device) {
+		return columns[ordinal].isKnown(device);
+	}
+
+	@Override
+	int readInt(int ordinal, int device) {
+		return columns[ordinal].ints[device];
+	}
+
+	@Override
+	long readLong(int ordinal, int device) {
+		return columns[ordinal].longs[device];
+	}
+
+	@Override
+	float readFloat(int ordinal, int device) {
+		return columns[ordinal].floats[device];
+	}
+
+	@Override
+	double readDouble(int ordinal, int device) {
+		return columns[ordinal].doubles[device];
+	}
+
+	@Override
+	boolean readBoolean(int ordinal, int device) {
+		return (columns[ordinal].booleans[device >>> 6] & (1L << device)) != 0;
+	}
+
+	@Override
+	String readString(int ordinal, int device) {
+		return columns[ordinal].strings[device];
+	}
+
+	@Override
+	String[] readEnumeration(int ordinal, int device) {
+		return columns[ordinal].enumerations[device].clone();
+	}
+
+	/**
+	 * The values of one property ordinal. Only the array matching the type is allocated.
+	 */
+	private static final class Column {
+
+		final String name;
+
+		final PropertyType type;
+
+		final long[] known;
+
+		int[] ints;
+
+		long[] longs;
+
+		float[] floats;
+
+		double[] doubles;
+
+		long[] booleans;
+
+		String[] strings;
+
+		String[][] enumerations;
+
+		Column(String name, PropertyType type, int devices) {
+			this.name = name;
+			this.type = type;
+			this.known = new long[(devices + 63) >>> 6];
+			switch (type) {
+			case INTEGER:
+				ints = new int[devices];
+				break;
+			case LONG:
+				longs = new long[devices];
+				break;
+			case FLOAT:
+				floats = new float[devices];
+				break;
+			case DOUBLE:
+				doubles = new double[devices];
+				break;
+			case BOOLEAN:
+				booleans = new long[known.length];
+				break;
+			case ENUMERATION:
+				enumerations = new String[devices][];
+				strings = new String[devices];
+				break;
+			default:
+				strings = new String[devices];
+			}
+		}
+
+		boolean isKnown(int device) {
+			return (known[device >>> 6] & (1L << device)) != 0;
+		}
+
+		void set(int device, String value, Map<String, String> strings,
+				Map<String, String[]> enumerations) {
+			known[device >>> 6] |= 1L << device;
+			switch (type) {
+			case INTEGER:
+				ints[device] = Integer.parseInt(value);
+				break;
+			case LONG:
+				longs[device] = Long.parseLong(value);
+				break;
+			case FLOAT:
+				floats[device] = Float.parseFloat(value);
+				break;
+			case DOUBLE:
+				doubles[device] = Double.parseDouble(value);
+				break;
+			case BOOLEAN:
+				if (Boolean.parseBoolean(value)) {
+					booleans[device >>> 6] |= 1L << device;
+				}
+				break;
+			case ENUMERATION:
+				String[] members = enumerations.get(value);
+				if (members == null) {
+					String trimmed = value.trim();
+					members = trimmed.length() == 0 ? new String[0] : trimmed.split("\\s+");
+					for (int i = 0; i < members.length; i++) {
+						members[i] = canonical(members[i], strings);
+					}
+					enumerations.put(value, members);
+				}
+				this.enumerations[device] = members;
+				this.strings[device] = canonical(value, strings);
+				break;
+			default:
+				this.strings[device] = canonical(value, strings);
+			}
+		}
+
+		private static String canonical(String value, Map<String, String> strings) {
+			String canonical = strings.get(value);
+			if (canonical == null) {
+				strings.put(value, value);
+				canonical = value;
+			}
+			return canonical;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.w3c.ddr.simple.impl;
+
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.PropertyValues;
+import org.w3c.ddr.simple.exception.NameException;
+
+/**
+ * A {@link PropertyValues} collection returned by {@link IndexedService}, which finds
+ * values by property ordinal rather than by comparing names.
+ *
+ * The collection is a view of one device of the index: it holds the device and
+ * property ordinals only, and creates a {@link StoredPropertyValue} when a value is
+ * read, so that a whole-device lookup costs nothing for the properties the caller does
+ * not read.
+ */
+final class IndexedPropertyValues implements PropertyValues {
+
+	private final DeviceIndex index;
+
+	private final int device;
+
+	/**
+	 * The ordinal of each value, or null if the collection holds every property in ordinal order.
+	 */
+	private final int[] ordinals;
+
+	/**
+	 * The ordinals as a set, or null if membership is found by scanning them.
+	 */
+	private final AspectSet members;
+
+	IndexedPropertyValues(DeviceIndex index, int device, int[] ordinals, AspectSet members) {
+		this.index = index;
+		this.device = device;
+		this.ordinals = ordinals;
+		this.members = members;
+	}
+
+	@Override
+	public PropertyValue[] getAll() {
+		PropertyValue[] values;
+		if (ordinals == null) {
+			values = new PropertyValue[index.refs.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = value(i);
+			}
+		} else {
+			values = new PropertyValue[ordinals.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = value(ordinals[i]);
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public PropertyValue getValue(PropertyRef prop) throws NameException {
+		int ordinal = index.ordinal(prop);
+		if (ordinals == null) {
+			return value(ordinal);
+		}
+		if (members != null) {
+			if (members.contains(ordinal)) {
+				return value(ordinal);
+			}
+		} else {
+			for (int i = 0; i < ordinals.length; i++) {
+				if (ordinals[i] == ordinal) {
+					return value(ordinal);
+				}
+			}
+		}
+		throw index.exceptions.name(NameException.PROPERTY_NOT_RECOGNIZED,
+				"Property not in collection: ", prop.getLocalPropertyName());
+	}
+
+	/**
+	 * @return true if the values were looked up for an identified device.
+	 */
+	boolean isDeviceIdentified() {
+		return device >= 0;
+	}
+
+	private PropertyValue value(int ordinal) {
+		return new StoredPropertyValue(index.values, index.refs[ordinal], ordinal, device);
+	}
+}
@@ -0,0 +1,718 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyName;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.PropertyValues;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.exception.InitializationException;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.SystemException;
+import org.w3c.ddr.simple.exception.ValueException;
+import org.w3c.ddr.simple.impl.match.ResolutionStatistics;
+import org.w3c.ddr.simple.impl.match.TieredMatcher;
+
+/**
+ * A {@link Service} answering queries from an in-memory index of a device repository.
+ *
+ * The repository named by the {@link #REPOSITORY} configuration property is read once,
+ * during {@link #initialize(String, Properties)}, and compiled into immutable arrays
+ * indexed by device and property ordinal. Lookups take no locks and allocate nothing
+ * but the returned values, so a single initialized instance may be shared by any
+ * number of threads.
+ *
+ * The PropertyName and PropertyRef instances returned by the factory methods are
+ * canonical and carry the ordinal of their property, so passing them back to the
+ * lookup methods avoids any name resolution; callers should create them once and
+ * reuse them.
+ *
+ * Devices are identified by the {@link org.w3c.ddr.simple.impl.match.EvidenceMatcher}s
+ * compiled from the patterns of the repository; see
+ * {@link org.w3c.ddr.simple.impl.match.MatcherCompiler} for their configuration.
+ *
+ * <pre>
+ * Properties props = new Properties();
+ * props.setProperty(IndexedService.REPOSITORY, "/etc/ddr/repository.xml");
+ * Service service = ServiceFactory.newService(IndexedService.class.getName(),
+ *         "http://www.w3.org/2008/01/ddr-core-vocabulary", props);
+ * </pre>
+ *
+ * Evidence created by the service is a {@link HeaderEvidence}, which keeps only the
+ * headers the matchers consult and can be reset and reused.
+ *
+ * As a {@link BatchService}, it resolves each distinct evidence of a batch once, on the
+ * common fork-join pool when the batch is large.
+ *
+ * Callers serving many lookups per second can borrow the results of their lookups from
+ * a pool of the calling thread instead, with the borrowPropertyValues methods; see
+ * {@link BorrowedPropertyValues}.
+ *
+ * The reverse question, which devices have given property values, is answered by
+ * {@link #countDevices(DeviceQuery)} and {@link #listDevices(DeviceQuery)}.
+ *
+ * Callers probing for properties that may not be known to the repository can use the
+ * findPropertyValue methods, which return a value that does not exist rather than
+ * throw a NameException, and can make the exceptions that remain cheaper with the
+ * {@link #EXCEPTIONS} configuration property.
+ *
+ * @see RepositoryLoader
+ */
+public class IndexedService implements BatchService {
+
+	/**
+	 * Configuration property naming the repository: an XML file or class path resource,
+	 * or a binary snapshot file created by {@link SnapshotCompiler}.
+	 */
+	public static final String REPOSITORY = "org.w3c.ddr.simple.impl.repository";
+
+	/**
+	 * Configuration property selecting how the NameExceptions and ValueExceptions of
+	 * lookups are created: "full", the default, for ordinary exceptions; "lightweight"
+	 * for exceptions without a stack trace; or "shared" for a single prebuilt instance,
+	 * without stack trace or detailed message, for each of the codes PROPERTY_NOT_RECOGNIZED,
+	 * VOCABULARY_NOT_RECOGNIZED, ASPECT_NOT_RECOGNIZED, NOT_KNOWN and INCOMPATIBLE_TYPES.
+	 * Shared exceptions must not be modified by callers.
+	 */
+	public static final String EXCEPTIONS = "org.w3c.ddr.simple.impl.exceptions";
+
+	/**
+	 * Configuration property naming the {@link LoadListener} class to notify of the
+	 * progress of the loading of an XML repository. As the configuration is a
+	 * Properties table, a LoadListener instance may also be put under this key.
+	 */
+	public static final String LOAD_LISTENER = "org.w3c.ddr.simple.impl.loadListener";
+
+	/**
+	 * Configuration property holding the java.util.concurrent.Executor on which the
+	 * stages of the initialization run in parallel: the parsing of device chunks and the
+	 * compilation of the device values, while the evidence matchers are compiled. As an
+	 * executor is not a string, the instance itself is put in the Properties table. The
+	 * common fork-join pool is used by default.
+	 *
+	 * @see ParallelServiceFactory
+	 */
+	public static final String EXECUTOR = "org.w3c.ddr.simple.impl.executor";
+
+	/**
+	 * Configuration property selecting where the values of an XML repository are kept:
+	 * "heap", the default, as Java objects; or "direct", off the heap in a direct buffer
+	 * holding each distinct string once, UTF-8 encoded, and decoding strings and
+	 * enumeration members when they are read. The values of a snapshot are always read
+	 * from the mapped file.
+	 */
+	public static final String VALUE_STORE = "org.w3c.ddr.simple.impl.valueStore";
+
+	/**
+	 * Configuration property giving the number of decoded strings to cache when the values
+	 * are kept off the heap, in a direct buffer or a snapshot; 0, the default, decodes
+	 * strings whenever they are read. The most frequently read strings keep their place.
+	 */
+	public static final String STRING_CACHE = "org.w3c.ddr.simple.impl.stringCache";
+
+	/**
+	 * Configuration property which, set to "true", checks the use of the results of the
+	 * borrowPropertyValues methods: each call then creates new results, which throw a
+	 * SystemException when used after their release or by another thread. This is meant
+	 * for testing callers; by default results are pooled and not checked.
+	 *
+	 * @see BorrowedPropertyValues
+	 */
+	public static final String BORROW_CHECKS = "org.w3c.ddr.simple.impl.borrowChecks";
+
+	/**
+	 * Configuration property naming a file in which the User-Agents learned by the table
+	 * of exact User-Agents are kept, so that a restarted service does not match them
+	 * again. The entries written for another data version of the repository are ignored
+	 * and eventually removed. There is no file by default; see {@link LearnedLog}.
+	 */
+	public static final String LEARNED_LOG = "org.w3c.ddr.simple.impl.learnedLog";
+
+	private static final String IMPLEMENTATION_VERSION = "IndexedService 1.0";
+
+	private DeviceIndex index;
+
+	private Vocabulary defaultVocabulary;
+
+	private boolean borrowChecks;
+
+	private final ThreadLocal<BorrowedPropertyValues> borrowed =
+			new ThreadLocal<BorrowedPropertyValues>();
+
+	@Override
+	public void initialize(String defaultVocabularyIRI, Properties props)
+			throws NameException, InitializationException {
+		String repository = props == null ? null : props.getProperty(REPOSITORY);
+		if (repository == null) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					"Missing configuration property " + REPOSITORY);
+		}
+		DeviceIndex index = SnapshotReader.isSnapshot(repository)
+				? SnapshotReader.map(repository, props)
+				: RepositoryLoader.load(repository, props);
+		String log = props.getProperty(LEARNED_LOG);
+		if (log != null) {
+			LearnedLog.open(log, index);
+		}
+		this.defaultVocabulary = index.vocabulary(defaultVocabularyIRI);
+		this.borrowChecks = Boolean.parseBoolean(props.getProperty(BORROW_CHECKS));
+		this.index = index;
+	}
+
+	@Override
+	public String getImplementationVersion() {
+		return IMPLEMENTATION_VERSION;
+	}
+
+	@Override
+	public String getDataVersion() {
+		return index().dataVersion;
+	}
+
+	/**
+	 * The number of lookups resolved by each tier of the device identification since the
+	 * service was initialized; see {@link TieredMatcher}.
+	 *
+	 * @return The counters.
+	 */
+	public ResolutionStatistics getResolutionStatistics() {
+		return index().matcher.getStatistics();
+	}
+
+	/**
+	 * The evidence headers the device identification consults: evidence differing only
+	 * in other headers identifies the same device.
+	 *
+	 * @return The lower case header names.
+	 */
+	public String[] getEvidenceHeaders() {
+		return index().matcher.getHeaders();
+	}
+
+	@Override
+	public PropertyRef[] listPropertyRefs() {
+		return index().refs.clone();
+	}
+
+	/**
+	 * The data type a property is declared with, which determines the getters of its
+	 * values that do not throw INCOMPATIBLE_TYPES.
+	 *
+	 * @param propertyRef The property.
+	 * @return The type.
+	 * @throws NameException if the property is not recognized.
+	 */
+	public PropertyType getPropertyType(PropertyRef propertyRef) throws NameException {
+		DeviceIndex index = index();
+		return index.values.type(index.ordinal(propertyRef));
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, PropertyRef propertyRef)
+			throws NameException {
+		DeviceIndex index = index();
+		return value(index, device(index, evidence), index.ordinal(propertyRef));
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, PropertyName propertyName)
+			throws NameException {
+		DeviceIndex index = index();
+		return value(index, device(index, evidence), index.ordinal(propertyName));
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, String localPropertyName)
+			throws NameException {
+		DeviceIndex index = index();
+		int ordinal = index.ordinal(defaultVocabulary,
+				index.property(defaultVocabulary, localPropertyName), null);
+		return value(index, device(index, evidence), ordinal);
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, String localPropertyName,
+			String localAspectName, String vocabularyIRI) throws NameException {
+		DeviceIndex index = index();
+		int ordinal = index.ordinal(vocabularyIRI, localPropertyName, localAspectName);
+		return value(index, device(index, evidence), ordinal);
+	}
+
+	/**
+	 * Looks up a property like {@link #getPropertyValue(Evidence, PropertyRef)}, but
+	 * returns a value that does not exist if the property is not recognized.
+	 *
+	 * @param evidence The evidence.
+	 * @param propertyRef The property.
+	 * @return The value; {@link PropertyValue#exists()} is false if either the property or
+	 *         its value is not known.
+	 */
+	public PropertyValue findPropertyValue(Evidence evidence, PropertyRef propertyRef) {
+		if (propertyRef == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"PropertyRef cannot be null");
+		}
+		DeviceIndex index = index();
+		return find(index, evidence, index.find(propertyRef), propertyRef);
+	}
+
+	/**
+	 * Looks up a property like {@link #getPropertyValue(Evidence, PropertyName)}, but
+	 * returns a value that does not exist if the property is not recognized.
+	 *
+	 * @param evidence The evidence.
+	 * @param propertyName The property, in its default aspect.
+	 * @return The value; {@link PropertyValue#exists()} is false if either the property or
+	 *         its value is not known.
+	 */
+	public PropertyValue findPropertyValue(Evidence evidence, PropertyName propertyName) {
+		if (propertyName == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"PropertyName cannot be null");
+		}
+		DeviceIndex index = index();
+		int ordinal = index.find(propertyName);
+		return find(index, evidence, ordinal, ordinal >= 0 ? null
+				: new PropertyRefImpl(propertyName.getLocalPropertyName(),
+						PropertyRef.NULL_ASPECT, propertyName.getNamespace()));
+	}
+
+	/**
+	 * Looks up a property like {@link #getPropertyValue(Evidence, String)}, but
+	 * returns a value that does not exist if the property is not recognized.
+	 *
+	 * @param evidence The evidence.
+	 * @param localPropertyName The local name of a property of the default vocabulary.
+	 * @return The value; {@link PropertyValue#exists()} is false if either the property or
+	 *         its value is not known.
+	 */
+	public PropertyValue findPropertyValue(Evidence evidence, String localPropertyName) {
+		if (localPropertyName == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Property name cannot be null");
+		}
+		DeviceIndex index = index();
+		int ordinal = index.find(defaultVocabulary, localPropertyName, null);
+		return find(index, evidence, ordinal, ordinal >= 0 ? null
+				: new PropertyRefImpl(localPropertyName, PropertyRef.NULL_ASPECT,
+						defaultVocabulary.iri));
+	}
+
+	/**
+	 * Looks up a property like {@link #getPropertyValue(Evidence, String, String, String)},
+	 * but returns a value that does not exist if the property is not recognized.
+	 *
+	 * @param evidence The evidence.
+	 * @param localPropertyName The local name of the property.
+	 * @param localAspectName The local aspect name, or null for the default aspect.
+	 * @param vocabularyIRI The vocabulary IRI.
+	 * @return The value; {@link PropertyValue#exists()} is false if either the property or
+	 *         its value is not known.
+	 */
+	public PropertyValue findPropertyValue(Evidence evidence, String localPropertyName,
+			String localAspectName, String vocabularyIRI) {
+		if (localPropertyName == null || vocabularyIRI == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Property name and vocabulary cannot be null");
+		}
+		DeviceIndex index = index();
+		int ordinal = index.find(vocabularyIRI, localPropertyName, localAspectName);
+		return find(index, evidence, ordinal, ordinal >= 0 ? null
+				: new PropertyRefImpl(localPropertyName, localAspectName == null
+						? PropertyRef.NULL_ASPECT : localAspectName, vocabularyIRI));
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence) throws NameException {
+		DeviceIndex index = index();
+		return new IndexedPropertyValues(index, device(index, evidence), null, null);
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, PropertyRef[] propertyRefs)
+			throws NameException {
+		if (propertyRefs == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"PropertyRefs cannot be null");
+		}
+		DeviceIndex index = index();
+		int[] ordinals = new int[propertyRefs.length];
+		for (int i = 0; i < ordinals.length; i++) {
+			ordinals[i] = index.ordinal(propertyRefs[i]);
+		}
+		return new IndexedPropertyValues(index, device(index, evidence), ordinals, null);
+	}
+
+	/**
+	 * Resolves a set of properties once, for repeated lookups with
+	 * {@link #getPropertyValues(Evidence, Projection)}.
+	 *
+	 * @param propertyRefs The properties, in the order their values are to be returned.
+	 * @return The projection.
+	 * @throws NameException if a property reference is not recognized.
+	 */
+	public Projection compileProjection(PropertyRef[] propertyRefs) throws NameException {
+		if (propertyRefs == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"PropertyRefs cannot be null");
+		}
+		DeviceIndex index = index();
+		int[] ordinals = new int[propertyRefs.length];
+		for (int i = 0; i < ordinals.length; i++) {
+			ordinals[i] = index.ordinal(propertyRefs[i]);
+		}
+		return new Projection(index, ordinals);
+	}
+
+	/**
+	 * Looks up the properties of a projection. This is equivalent to
+	 * {@link #getPropertyValues(Evidence, PropertyRef[])} with the properties of the
+	 * projection, without resolving them again.
+	 *
+	 * @param evidence The evidence.
+	 * @param projection A projection compiled by this service.
+	 * @return The values, in the order of the projection.
+	 * @throws NameException if the projection was compiled by another service, and one
+	 *         of its properties is not recognized by this one.
+	 */
+	public PropertyValues getPropertyValues(Evidence evidence, Projection projection)
+			throws NameException {
+		if (projection == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Projection cannot be null");
+		}
+		DeviceIndex index = index();
+		if (projection.index != index) {
+			projection = compileProjection(projection.refs);
+		}
+		return new IndexedPropertyValues(index, device(index, evidence), projection.ordinals,
+				null);
+	}
+
+	/**
+	 * Looks up the properties of a device like {@link #getPropertyValues(Evidence)}, into
+	 * the values lent to the calling thread. The values are valid until the next
+	 * borrowing call of the thread or their release; see {@link BorrowedPropertyValues}.
+	 *
+	 * @param evidence The evidence.
+	 * @return The borrowed values.
+	 */
+	public BorrowedPropertyValues borrowPropertyValues(Evidence evidence) {
+		DeviceIndex index = index();
+		int device = device(index, evidence);
+		return borrow().borrow(index, device, null, index.refs.length);
+	}
+
+	/**
+	 * Looks up properties like {@link #getPropertyValues(Evidence, PropertyRef[])}, into
+	 * the values lent to the calling thread. The values are valid until the next
+	 * borrowing call of the thread or their release; see {@link BorrowedPropertyValues}.
+	 *
+	 * @param evidence The evidence.
+	 * @param propertyRefs The properties.
+	 * @return The borrowed values.
+	 * @throws NameException if a property reference is not recognized.
+	 */
+	public BorrowedPropertyValues borrowPropertyValues(Evidence evidence,
+			PropertyRef[] propertyRefs) throws NameException {
+		if (propertyRefs == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"PropertyRefs cannot be null");
+		}
+		DeviceIndex index = index();
+		BorrowedPropertyValues values = borrowed.get();
+		int[] ordinals = values == null || borrowChecks ? new int[propertyRefs.length]
+				: values.ordinals(propertyRefs.length);
+		for (int i = 0; i < propertyRefs.length; i++) {
+			ordinals[i] = index.ordinal(propertyRefs[i]);
+		}
+		int device = device(index, evidence);
+		return borrow().borrow(index, device, ordinals, propertyRefs.length);
+	}
+
+	/**
+	 * Looks up the properties of a projection like
+	 * {@link #getPropertyValues(Evidence, Projection)}, into the values lent to the
+	 * calling thread. The values are valid until the next borrowing call of the thread
+	 * or their release; see {@link BorrowedPropertyValues}.
+	 *
+	 * @param evidence The evidence.
+	 * @param projection A projection compiled by this service.
+	 * @return The borrowed values, in the order of the projection.
+	 * @throws NameException if the projection was compiled by another service, and one
+	 *         of its properties is not recognized by this one.
+	 */
+	public BorrowedPropertyValues borrowPropertyValues(Evidence evidence,
+			Projection projection) throws NameException {
+		if (projection == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Projection cannot be null");
+		}
+		DeviceIndex index = index();
+		if (projection.index != index) {
+			projection = compileProjection(projection.refs);
+		}
+		int device = device(index, evidence);
+		return borrow().borrow(index, device, projection.ordinals, projection.ordinals.length);
+	}
+
+	/**
+	 * The values lent to the calling thread, releasing those of its previous call.
+	 */
+	private BorrowedPropertyValues borrow() {
+		BorrowedPropertyValues values = borrowed.get();
+		if (borrowChecks) {
+			if (values != null) {
+				values.release();
+			}
+			values = new BorrowedPropertyValues(true);
+			borrowed.set(values);
+		} else if (values == null) {
+			values = new BorrowedPropertyValues(false);
+			borrowed.set(values);
+		}
+		return values;
+	}
+
+	/**
+	 * Counts the devices of the repository matching a query.
+	 *
+	 * @param query The query.
+	 * @return The number of devices.
+	 * @throws NameException if a property of the query is not recognized.
+	 * @throws ValueException with code INCOMPATIBLE_TYPES if a property is not of the type
+	 *         the query requires.
+	 */
+	public int countDevices(DeviceQuery query) throws NameException, ValueException {
+		return devices(index(), query).cardinality();
+	}
+
+	/**
+	 * Lists the devices of the repository matching a query.
+	 *
+	 * @param query The query.
+	 * @return The identifiers of the devices, in the order of the repository.
+	 * @throws NameException if a property of the query is not recognized.
+	 * @throws ValueException with code INCOMPATIBLE_TYPES if a property is not of the type
+	 *         the query requires.
+	 */
+	public String[] listDevices(DeviceQuery query) throws NameException, ValueException {
+		DeviceIndex index = index();
+		int[] devices = devices(index, query).toArray();
+		String[] ids = new String[devices.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = index.deviceIds[devices[i]];
+		}
+		return ids;
+	}
+
+	private static DeviceBitmap devices(DeviceIndex index, DeviceQuery query)
+			throws NameException, ValueException {
+		if (query == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Query cannot be null");
+		}
+		return query.evaluate(index);
+	}
+
+	@Override
+	public PropertyValue[][] getPropertyValues(Evidence[] evidence, PropertyRef[] propertyRefs)
+			throws NameException {
+		if (evidence == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Evidence cannot be null");
+		}
+		PropertyValue[][] results = new PropertyValue[evidence.length][];
+		getPropertyValues(evidence, propertyRefs, results);
+		return results;
+	}
+
+	@Override
+	public void getPropertyValues(Evidence[] evidence, PropertyRef[] propertyRefs,
+			PropertyValue[][] results) throws NameException {
+		if (evidence == null || results == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Evidence and results cannot be null");
+		}
+		batch(propertyRefs).resolve(evidence, evidence.length, results);
+	}
+
+	@Override
+	public int getPropertyValues(Iterator<? extends Evidence> evidence,
+			PropertyRef[] propertyRefs, PropertyValue[][] results) throws NameException {
+		if (evidence == null || results == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Evidence and results cannot be null");
+		}
+		BatchResolver batch = batch(propertyRefs);
+		Evidence[] chunk = new Evidence[results.length];
+		int count = 0;
+		while (count < chunk.length && evidence.hasNext()) {
+			chunk[count++] = evidence.next();
+		}
+		batch.resolve(chunk, count, results);
+		return count;
+	}
+
+	private BatchResolver batch(PropertyRef[] propertyRefs) throws NameException {
+		if (propertyRefs == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"PropertyRefs cannot be null");
+		}
+		DeviceIndex index = index();
+		int[] ordinals = new int[propertyRefs.length];
+		for (int i = 0; i < ordinals.length; i++) {
+			ordinals[i] = index.ordinal(propertyRefs[i]);
+		}
+		return new BatchResolver(index, ordinals);
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, String localAspectName)
+			throws NameException {
+		return getPropertyValues(evidence, localAspectName, defaultVocabulary);
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, String localAspectName,
+			String vocabularyIRI) throws NameException {
+		return getPropertyValues(evidence, localAspectName, index().vocabulary(vocabularyIRI));
+	}
+
+	private PropertyValues getPropertyValues(Evidence evidence, String localAspectName,
+			Vocabulary vocabulary) throws NameException {
+		DeviceIndex index = index();
+		AspectSet aspect = index.aspect(vocabulary, localAspectName);
+		return new IndexedPropertyValues(index, device(index, evidence), aspect.ordinals, aspect);
+	}
+
+	@Override
+	public PropertyName newPropertyName(String localPropertyName) throws NameException {
+		return index().property(defaultVocabulary, localPropertyName).propertyName;
+	}
+
+	@Override
+	public PropertyName newPropertyName(String localPropertyName, String vocabularyIRI)
+			throws NameException {
+		DeviceIndex index = index();
+		return index.property(index.vocabulary(vocabularyIRI), localPropertyName).propertyName;
+	}
+
+	@Override
+	public PropertyRef newPropertyRef(String localPropertyName) throws NameException {
+		DeviceIndex index = index();
+		return index.refs[index.ordinal(defaultVocabulary,
+				index.property(defaultVocabulary, localPropertyName), null)];
+	}
+
+	@Override
+	public PropertyRef newPropertyRef(PropertyName propertyName) throws NameException {
+		DeviceIndex index = index();
+		return index.refs[index.ordinal(propertyName)];
+	}
+
+	@Override
+	public PropertyRef newPropertyRef(PropertyName propertyName, String localAspectName)
+			throws NameException {
+		DeviceIndex index = index();
+		if (localAspectName == null) {
+			throw index.exceptions.name(NameException.ASPECT_NOT_RECOGNIZED,
+					"Aspect cannot be null");
+		}
+		if (propertyName == null) {
+			throw index.exceptions.name(NameException.PROPERTY_NOT_RECOGNIZED,
+					"PropertyName cannot be null");
+		}
+		return index.refs[index.ordinal(propertyName.getNamespace(),
+				propertyName.getLocalPropertyName(), localAspectName)];
+	}
+
+	@Override
+	public Evidence newHTTPEvidence() {
+		return new HeaderEvidence(index().headers);
+	}
+
+	@Override
+	public Evidence newHTTPEvidence(Map<String, String> map) {
+		if (map == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Map cannot be null");
+		}
+		HeaderEvidence evidence = new HeaderEvidence(index().headers);
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			evidence.put(entry.getKey(), entry.getValue());
+		}
+		return evidence;
+	}
+
+	/**
+	 * Tells whether a value was looked up for an identified device, even when the
+	 * property has no value for that device. This is known for the values returned by an
+	 * IndexedService, directly or through decorators passing them on; for other values
+	 * the best available answer, whether the value exists, is returned.
+	 *
+	 * @param value A property value.
+	 * @return true if a device was identified.
+	 */
+	public static boolean isDeviceIdentified(PropertyValue value) {
+		if (value instanceof StoredPropertyValue) {
+			return ((StoredPropertyValue) value).isDeviceIdentified();
+		}
+		if (value instanceof BorrowedPropertyValues.Value) {
+			return ((BorrowedPropertyValues.Value) value).isDeviceIdentified();
+		}
+		return value.exists();
+	}
+
+	/**
+	 * Tells whether a collection of values was looked up for an identified device, as
+	 * {@link #isDeviceIdentified(PropertyValue)} does for one of its values, but without
+	 * creating them, and also for an empty collection returned by an IndexedService.
+	 *
+	 * @param values A collection of property values.
+	 * @return true if a device was identified.
+	 */
+	public static boolean isDeviceIdentified(PropertyValues values) {
+		if (values instanceof IndexedPropertyValues) {
+			return ((IndexedPropertyValues) values).isDeviceIdentified();
+		}
+		if (values instanceof BorrowedPropertyValues) {
+			return ((BorrowedPropertyValues) values).isDeviceIdentified();
+		}
+		if (values instanceof SimplePropertyValues) {
+			return ((SimplePropertyValues) values).isDeviceIdentified();
+		}
+		PropertyValue[] all = values.getAll();
+		return all.length > 0 && isDeviceIdentified(all[0]);
+	}
+
+	private DeviceIndex index() {
+		DeviceIndex index = this.index;
+		if (index == null) {
+			throw new SystemException(SystemException.CANNOT_PROCEED, "Service not initialized");
+		}
+		return index;
+	}
+
+	private static int device(DeviceIndex index, Evidence evidence) {
+		if (evidence == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Evidence cannot be null");
+		}
+		return index.match(evidence);
+	}
+
+	/**
+	 * @param unrecognized The property as named by the caller, used if ordinal is negative.
+	 */
+	private static PropertyValue find(DeviceIndex index, Evidence evidence, int ordinal,
+			PropertyRef unrecognized) {
+		int device = device(index, evidence);
+		return ordinal >= 0 ? value(index, device, ordinal)
+				: new UnrecognizedPropertyValue(unrecognized, index.exceptions);
+	}
+
+	private static PropertyValue value(DeviceIndex index, int device, int ordinal) {
+		return new StoredPropertyValue(index.values, index.refs[ordinal], ordinal, device);
+	}
+}
@@ -0,0 +1,431 @@
+package org.w3c.ddr.simple.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+import org.w3c.ddr.simple.exception.InitializationException;
+import org.w3c.ddr.simple.impl.match.EvidenceMatcher;
+import org.w3c.ddr.simple.impl.match.LearningListener;
+import org.w3c.ddr.simple.impl.match.TieredMatcher;
+
+/**
+ * An append-only file of the User-Agents learned by the {@link TieredMatcher} of an
+ * {@link IndexedService}, so that a restarted service starts with the User-Agents its
+ * predecessor had resolved. The file is named by the {@link IndexedService#LEARNED_LOG}
+ * configuration property.
+ *
+ * The file holds a header followed by records, each prefixed by its length and CRC-32:
+ * data version records, and entries of a User-Agent and the identifier of its device,
+ * empty if it identified none, which belong to the data version preceding them. During
+ * initialization the file is mapped and the entries of the data version of the
+ * repository are learned by the matcher, in the order they were written; once its
+ * table is at its limit, each entry learned replaces one learned before. Reading stops
+ * at the first incomplete or damaged record, as left by a crash.
+ *
+ * The User-Agents learned afterwards are appended by a background thread shared by all
+ * logs, one record each, without forcing them to disk: losing the last entries only
+ * costs their matching again. The same thread compacts the file, writing the entries
+ * still in the table of the matcher, once each, to a new file which then replaces the
+ * log: after initialization when the file holds other records, of another data version,
+ * unknown devices, replaced or repeated User-Agents, or a damaged tail; and whenever the
+ * entries appended make it hold more than {@link #GROWTH} times the number of
+ * User-Agents the matcher may learn, so that the file stays proportional to the table
+ * while the table replaces its entries.
+ *
+ * A file is written by the last log opened on it only. Opening a log, as a
+ * {@link org.w3c.ddr.simple.impl.reload.ReloadingService} does when it creates a new
+ * service, detaches the previous log of the file from its matcher and closes its
+ * stream, so that the entries of the replaced service, possibly of another data
+ * version, are neither attributed to the version of the new service nor appended to a
+ * file the new log has replaced.
+ */
+final class LearnedLog implements LearningListener {
+
+	private static final int MAGIC = 0x44444C4C;
+
+	private static final int FORMAT = 1;
+
+	private static final byte VERSION = 'V';
+
+	private static final byte ENTRY = 'E';
+
+	/**
+	 * The number of entry records the file may hold per User-Agent the matcher may learn
+	 * before it is compacted.
+	 */
+	static final int GROWTH = 2;
+
+	/**
+	 * The log writing each file: the last one opened on it. Only used by the log thread.
+	 */
+	private static final Map<File, LearnedLog> WRITERS = new HashMap<File, LearnedLog>();
+
+	private final File file;
+
+	private final String dataVersion;
+
+	private final String[] deviceIds;
+
+	private final TieredMatcher matcher;
+
+	/**
+	 * The User-Agent and device identifier of the entries of the file which may still be
+	 * in the table of the matcher, in the order they were last written; filled while
+	 * loading, then only used by the log thread, as are the fields below.
+	 */
+	private final Map<String, String> entries = new LinkedHashMap<String, String>();
+
+	/**
+	 * The number of entry records in the file.
+	 */
+	private int records;
+
+	/**
+	 * The stream appending to the file, opened by the first append.
+	 */
+	private OutputStream out;
+
+	/**
+	 * Whether the file ends with entries of the data version of the repository.
+	 */
+	private boolean versionWritten;
+
+	private boolean failed;
+
+	private LearnedLog(File file, String dataVersion, String[] deviceIds,
+			TieredMatcher matcher) {
+		this.file = file;
+		this.dataVersion = dataVersion;
+		this.deviceIds = deviceIds;
+		this.matcher = matcher;
+	}
+
+	/**
+	 * Loads the entries of a log into the matcher of an index, and starts logging the
+	 * User-Agents it learns.
+	 *
+	 * @param location The file name of the log, which is created if it does not exist.
+	 * @param index The index.
+	 * @return The log.
+	 * @throws InitializationException if the file cannot be read or is not a log.
+	 */
+	static LearnedLog open(String location, DeviceIndex index) throws InitializationException {
+		File file = new File(location).getAbsoluteFile();
+		final LearnedLog log = new LearnedLog(file,
+				index.dataVersion == null ? "" : index.dataVersion, index.deviceIds,
+				index.matcher);
+		boolean compact = false;
+		if (file.length() > 0) {
+			try {
+				compact = log.load();
+			} catch (IOException e) {
+				throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+						"Cannot read " + location + ": " + e.getMessage());
+			}
+		}
+		Writer.EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				log.attach();
+			}
+		});
+		if (compact) {
+			Writer.EXECUTOR.execute(new Runnable() {
+				@Override
+				public void run() {
+					log.compact();
+				}
+			});
+		}
+		index.matcher.setLearningListener(log);
+		return log;
+	}
+
+	/**
+	 * Reads the mapped file, learning its entries of the current data version.
+	 *
+	 * @return Whether the file holds records other than the entries left in the table.
+	 */
+	private boolean load() throws IOException {
+		ByteBuffer buffer;
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+		if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+			throw new IOException("Not a learned User-Agent log");
+		}
+		if (buffer.getInt() != FORMAT) {
+			return true;
+		}
+		Map<String, Integer> devices = null;
+		String version = null;
+		boolean garbage = false;
+		CRC32 crc = new CRC32();
+		while (buffer.remaining() > 0) {
+			if (buffer.remaining() < 8) {
+				return true;
+			}
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()) {
+				return true;
+			}
+			byte[] record = new byte[length];
+			buffer.get(record);
+			crc.reset();
+			crc.update(record, 0, length);
+			if ((int) crc.getValue() != checksum) {
+				return true;
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+			String userAgent;
+			String id;
+			try {
+				byte type = in.readByte();
+				if (type == VERSION) {
+					version = in.readUTF();
+					garbage |= !dataVersion.equals(version);
+					continue;
+				}
+				if (type != ENTRY || !dataVersion.equals(version)) {
+					garbage = true;
+					continue;
+				}
+				userAgent = in.readUTF();
+				id = in.readUTF();
+			} catch (IOException e) {
+				return true;
+			}
+			if (devices == null) {
+				devices = new HashMap<String, Integer>(deviceIds.length * 2);
+				for (int i = 0; i < deviceIds.length; i++) {
+					devices.put(deviceIds[i], i);
+				}
+			}
+			records++;
+			Integer device = id.length() == 0 ? Integer.valueOf(EvidenceMatcher.NO_MATCH)
+					: devices.get(id);
+			if (device != null) {
+				matcher.learn(userAgent, device);
+				entries.remove(userAgent);
+				entries.put(userAgent, id);
+			}
+		}
+		versionWritten = dataVersion.equals(version);
+		return prune() || garbage;
+	}
+
+	/**
+	 * Forgets the entries no longer in the table of the matcher.
+	 *
+	 * @return Whether the file holds records other than the entries left.
+	 */
+	private boolean prune() {
+		for (Iterator<String> userAgents = entries.keySet().iterator(); userAgents.hasNext();) {
+			if (!matcher.isLearned(userAgents.next())) {
+				userAgents.remove();
+			}
+		}
+		return records != entries.size();
+	}
+
+	@Override
+	public void learned(final String userAgent, final int device) {
+		Writer.EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				append(userAgent, device < 0 ? "" : deviceIds[device]);
+			}
+		});
+	}
+
+	/**
+	 * Makes this log the writer of its file, detaching the previous one.
+	 */
+	private void attach() {
+		LearnedLog previous = WRITERS.put(file, this);
+		if (previous != null) {
+			previous.matcher.setLearningListener(null);
+			previous.close();
+		}
+	}
+
+	/**
+	 * @return Whether the log may write its file: it is the last one opened on it, and
+	 *         has not failed.
+	 */
+	private boolean writing() {
+		return !failed && WRITERS.get(file) == this;
+	}
+
+	private void append(String userAgent, String id) {
+		if (!writing()) {
+			return;
+		}
+		try {
+			if (out == null) {
+				boolean empty = file.length() == 0;
+				out = new FileOutputStream(file, true);
+				if (empty) {
+					out.write(header());
+				}
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			if (!versionWritten) {
+				version(bytes);
+				versionWritten = true;
+			}
+			try {
+				entry(bytes, userAgent, id);
+			} catch (UTFDataFormatException e) {
+				// a User-Agent too long for a record is simply not kept
+				return;
+			}
+			out.write(bytes.toByteArray());
+		} catch (IOException e) {
+			fail(e);
+			return;
+		}
+		records++;
+		entries.remove(userAgent);
+		entries.put(userAgent, id);
+		if (records > GROWTH * matcher.getLearningLimit()) {
+			compact();
+		}
+	}
+
+	/**
+	 * Replaces the file with one holding only the entries still in the table.
+	 */
+	private void compact() {
+		if (!writing()) {
+			return;
+		}
+		prune();
+		close();
+		File temporary = new File(file.getPath() + ".tmp");
+		try {
+			FileOutputStream out = new FileOutputStream(temporary);
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				bytes.write(header());
+				version(bytes);
+				for (Map.Entry<String, String> entry : entries.entrySet()) {
+					entry(bytes, entry.getKey(), entry.getValue());
+				}
+				out.write(bytes.toByteArray());
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(temporary.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			versionWritten = true;
+			records = entries.size();
+		} catch (IOException e) {
+			temporary.delete();
+			fail(e);
+		}
+	}
+
+	/**
+	 * Stops logging after a write error, which is reported to the log thread.
+	 */
+	private void fail(IOException e) {
+		failed = true;
+		close();
+		Thread thread = Thread.currentThread();
+		thread.getUncaughtExceptionHandler().uncaughtException(thread,
+				new UncheckedIOException("Cannot write " + file, e));
+	}
+
+	private void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException ignored) {
+				// nothing more is written by this log
+			}
+			out = null;
+		}
+	}
+
+	private static byte[] header() {
+		return ByteBuffer.allocate(8).putInt(MAGIC).putInt(FORMAT).array();
+	}
+
+	private void version(ByteArrayOutputStream records) throws IOException {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(record);
+		data.writeByte(VERSION);
+		data.writeUTF(dataVersion);
+		record(records, record);
+	}
+
+	private static void entry(ByteArrayOutputStream records, String userAgent, String id)
+			throws IOException {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(record);
+		data.writeByte(ENTRY);
+		data.writeUTF(userAgent);
+		data.writeUTF(id);
+		record(records, record);
+	}
+
+	private static void record(ByteArrayOutputStream records, ByteArrayOutputStream record)
+			throws IOException {
+		byte[] bytes = record.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		DataOutputStream data = new DataOutputStream(records);
+		data.writeInt(bytes.length);
+		data.writeInt((int) crc.getValue());
+		data.write(bytes);
+	}
+
+	/**
+	 * Holder of the thread writing the logs, started on first use.
+	 */
+	private static final class Writer {
+
+		static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task, "ddr-learned-log");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+}
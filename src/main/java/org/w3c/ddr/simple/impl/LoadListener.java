@@ -0,0 +1,32 @@
+package org.w3c.ddr.simple.impl;
+
+/**
+ * Receives the progress of the loading of an XML repository, for example to report the
+ * readiness of a service that takes long to initialize.
+ *
+ * A listener is configured with the {@link IndexedService#LOAD_LISTENER} property. Its
+ * methods are never called concurrently, but may be called from the threads parsing
+ * device chunks rather than from the thread initializing the service.
+ */
+public interface LoadListener {
+
+	/**
+	 * Called periodically while the repository is read.
+	 *
+	 * @param location The repository being loaded.
+	 * @param devices The number of devices read so far.
+	 * @param bytes The number of bytes read so far, device chunks included.
+	 * @param totalBytes The size of the files read or being read, or -1 if some are not
+	 *                   files; it grows as the device chunks are discovered.
+	 */
+	void progress(String location, int devices, long bytes, long totalBytes);
+
+	/**
+	 * Called once the repository is read, before it is compiled.
+	 *
+	 * @param location The repository loaded.
+	 * @param devices The number of devices.
+	 * @param bytes The number of bytes read.
+	 */
+	void loaded(String location, int devices, long bytes);
+}
@@ -0,0 +1,195 @@
+package org.w3c.ddr.simple.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ValueStore} reading the value section of a snapshot mapped into memory, or
+ * written into a direct buffer.
+ *
+ * Values stay off the Java heap, in pages shared by every process mapping the same
+ * snapshot; strings are kept once each, UTF-8 encoded, and decoded on the heap when
+ * they are read. The decoded forms of the most frequently read strings can be kept in
+ * a small cache, so that popular values are neither decoded nor allocated again.
+ *
+ * @see SnapshotWriter
+ */
+final class MappedValueStore extends ValueStore {
+
+	private final ByteBuffer buffer;
+
+	private final PropertyType[] types;
+
+	private final String[] names;
+
+	private final int[] known;
+
+	private final int[] data;
+
+	private final int devices;
+
+	private final int strings;
+
+	/**
+	 * The cached strings, by slot; null if strings are not cached.
+	 */
+	private final Decoded[] hot;
+
+	private final int shift;
+
+	/**
+	 * @param buffer The mapped snapshot.
+	 * @param valueOffset The offset of the value section.
+	 * @param stringOffset The offset of the string section.
+	 * @param refs The property reference of each ordinal.
+	 * @param types The type of each ordinal.
+	 * @param devices The number of devices.
+	 * @param exceptions Creates the exceptions thrown when a value cannot be read.
+	 * @param stringCache The number of decoded strings to cache, rounded up to a power of
+	 *                    two; 0 to decode strings whenever they are read.
+	 */
+	MappedValueStore(ByteBuffer buffer, int valueOffset, int stringOffset,
+			PropertyRefImpl[] refs, PropertyType[] types, int devices, Exceptions exceptions,
+			int stringCache) {
+		super(exceptions);
+		this.buffer = buffer;
+		this.types = types;
+		this.names = new String[refs.length];
+		this.known = new int[refs.length];
+		this.data = new int[refs.length];
+		for (int o = 0; o < refs.length; o++) {
+			names[o] = refs[o].getLocalPropertyName();
+			known[o] = valueOffset + buffer.getInt(valueOffset + o * 8);
+			data[o] = valueOffset + buffer.getInt(valueOffset + o * 8 + 4);
+		}
+		this.devices = devices;
+		this.strings = stringOffset;
+		int bits = stringCache <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(stringCache - 1);
+		this.hot = stringCache > 0 ? new Decoded[1 << bits] : null;
+		this.shift = 32 - bits;
+	}
+
+	@Override
+	PropertyType type(int ordinal) {
+		return types[ordinal];
+	}
+
+	@Override
+	String name(int ordinal) {
+		return names[ordinal];
+	}
+
+	@Override
+	boolean isKnown(int ordinal, int device) {
+		return (buffer.getLong(known[ordinal] + (device >>> 6) * 8) & (1L << device)) != 0;
+	}
+
+	@Override
+	int readInt(int ordinal, int device) {
+		return buffer.getInt(data[ordinal] + device * 4);
+	}
+
+	@Override
+	long readLong(int ordinal, int device) {
+		return buffer.getLong(data[ordinal] + device * 8);
+	}
+
+	@Override
+	float readFloat(int ordinal, int device) {
+		return buffer.getFloat(data[ordinal] + device * 4);
+	}
+
+	@Override
+	double readDouble(int ordinal, int device) {
+		return buffer.getDouble(data[ordinal] + device * 8);
+	}
+
+	@Override
+	boolean readBoolean(int ordinal, int device) {
+		return (buffer.getLong(data[ordinal] + (device >>> 6) * 8) & (1L << device)) != 0;
+	}
+
+	@Override
+	String readString(int ordinal, int device) {
+		return string(buffer.getInt(data[ordinal] + device * 4));
+	}
+
+	@Override
+	String[] readEnumeration(int ordinal, int device) {
+		int list = strings + buffer.getInt(data[ordinal] + (devices + device) * 4);
+		String[] members = new String[length(list, 4)];
+		for (int i = 0; i < members.length; i++) {
+			members[i] = string(buffer.getInt(list + 4 + i * 4));
+		}
+		return members;
+	}
+
+	/**
+	 * Reads a string, from the cache when it holds it. Each slot of the cache keeps the
+	 * string that won it until another string has missed the slot more often than the
+	 * cached one was read, so rarely read strings do not evict popular ones.
+	 */
+	private String string(int offset) {
+		Decoded[] hot = this.hot;
+		if (hot == null) {
+			return decode(offset);
+		}
+		int slot = shift == 32 ? 0 : (offset * 0x9E3779B9) >>> shift;
+		Decoded cached = hot[slot];
+		if (cached != null && cached.offset == offset) {
+			if (cached.hits < Decoded.MAXIMUM_HITS) {
+				cached.hits++;
+			}
+			return cached.value;
+		}
+		String value = decode(offset);
+		if (cached == null || --cached.hits <= 0) {
+			hot[slot] = new Decoded(offset, value);
+		}
+		return value;
+	}
+
+	private String decode(int offset) {
+		int position = strings + offset;
+		byte[] bytes = new byte[length(position, 1)];
+		position += 4;
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(position + i);
+		}
+		return new String(bytes, SnapshotWriter.UTF8);
+	}
+
+	/**
+	 * Reads the count of items of a string or member list, which a damaged snapshot
+	 * could set beyond its end.
+	 *
+	 * @param size The size of an item.
+	 */
+	private int length(int position, int size) {
+		int length = buffer.getInt(position);
+		if (length < 0 || length > (buffer.limit() - position - 4) / size) {
+			throw new IndexOutOfBoundsException("Damaged snapshot: invalid length " + length
+					+ " at " + position);
+		}
+		return length;
+	}
+
+	/**
+	 * A cached string. The hit count is updated without synchronization, as a lost
+	 * update only affects which string keeps the slot.
+	 */
+	private static final class Decoded {
+
+		static final int MAXIMUM_HITS = 15;
+
+		final int offset;
+
+		final String value;
+
+		int hits = 1;
+
+		Decoded(int offset, String value) {
+			this.offset = offset;
+			this.value = value;
+		}
+	}
+}
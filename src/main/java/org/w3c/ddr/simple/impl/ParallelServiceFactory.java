@@ -0,0 +1,305 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.exception.InitializationException;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.SystemException;
+
+/**
+ * Creates services like {@link ServiceFactory}, but initializes them on an executor and
+ * returns a future completed once the service is ready, so that an application can go
+ * on starting, or report that it is not ready yet, meanwhile.
+ *
+ * The executor is handed to the service as its {@link IndexedService#EXECUTOR}, so that
+ * an IndexedService, created directly or as the delegate of decorators, runs the stages
+ * of its initialization on it in parallel. Once initialized, the service can be warmed
+ * up with the {@link WarmupSet} named by {@link #WARMUP}: its User-Agents are looked up
+ * on the executor before the future completes, so that caches already hold the most
+ * frequent devices and the lookup code has been compiled by the JIT when the first real
+ * request arrives.
+ *
+ * <pre>
+ * props.setProperty(ParallelServiceFactory.WARMUP, "/etc/ddr/warmup.txt");
+ * CompletableFuture&lt;Service&gt; ready = ParallelServiceFactory.start(
+ *         IndexedService.class.getName(), "http://www.w3.org/2008/01/ddr-core-vocabulary",
+ *         props);
+ * </pre>
+ *
+ * <table>
+ * <caption>Configuration</caption>
+ * <tr><th>Property</th><th>Default</th></tr>
+ * <tr><td>{@link #THREADS}</td><td>the number of processors</td></tr>
+ * <tr><td>{@link #WARMUP}</td><td>none</td></tr>
+ * <tr><td>{@link #WARMUP_LIMIT}</td><td>the whole set</td></tr>
+ * <tr><td>{@link #WARMUP_ROUNDS}</td><td>1</td></tr>
+ * </table>
+ */
+public final class ParallelServiceFactory {
+
+	/**
+	 * Configuration property giving the number of threads of the pool created to
+	 * initialize a service when no executor is given.
+	 */
+	public static final String THREADS = "org.w3c.ddr.simple.impl.startup.threads";
+
+	/**
+	 * Configuration property naming the {@link WarmupSet} file or class path resource
+	 * replayed before the service is ready.
+	 */
+	public static final String WARMUP = "org.w3c.ddr.simple.impl.warmup";
+
+	/**
+	 * Configuration property giving the number of User-Agents of the warm-up set to
+	 * replay, the most frequent first.
+	 */
+	public static final String WARMUP_LIMIT = "org.w3c.ddr.simple.impl.warmup.limit";
+
+	/**
+	 * Configuration property giving the number of times the warm-up set is replayed.
+	 */
+	public static final String WARMUP_ROUNDS = "org.w3c.ddr.simple.impl.warmup.rounds";
+
+	private static final String USER_AGENT = "User-Agent";
+
+	/**
+	 * The number of User-Agents replayed by each task of the warm-up.
+	 */
+	private static final int SLICE = 64;
+
+	private ParallelServiceFactory() {
+	}
+
+	/**
+	 * Creates and initializes a service on a pool of {@link #THREADS} threads, which is
+	 * shut down once the service is ready.
+	 *
+	 * @param clazz The class of the service.
+	 * @param defaultVocabulary Passed to the Service.initialize method.
+	 * @param configuration Passed to the Service.initialize method.
+	 * @return A future completed with the service once it is initialized and warmed up,
+	 *         or with the InitializationException or NameException that prevented it.
+	 */
+	public static CompletableFuture<Service> start(String clazz, String defaultVocabulary,
+			Properties configuration) {
+		check(clazz, defaultVocabulary);
+		final ExecutorService pool;
+		try {
+			pool = pool(positive(configuration, THREADS,
+					Runtime.getRuntime().availableProcessors()));
+		} catch (InitializationException e) {
+			CompletableFuture<Service> failed = new CompletableFuture<Service>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		CompletableFuture<Service> ready = start(clazz, defaultVocabulary, configuration, pool);
+		ready.whenComplete(new BiConsumer<Service, Throwable>() {
+			@Override
+			public void accept(Service service, Throwable failure) {
+				pool.shutdown();
+			}
+		});
+		return ready;
+	}
+
+	/**
+	 * Creates and initializes a service on an executor.
+	 *
+	 * @param clazz The class of the service.
+	 * @param defaultVocabulary Passed to the Service.initialize method.
+	 * @param configuration Passed to the Service.initialize method, with the executor
+	 *                      added as {@link IndexedService#EXECUTOR}; it is not modified.
+	 * @param executor Runs the initialization, its parallel stages and the warm-up.
+	 * @return A future completed with the service once it is initialized and warmed up,
+	 *         or with the InitializationException or NameException that prevented it.
+	 */
+	public static CompletableFuture<Service> start(final String clazz,
+			final String defaultVocabulary, Properties configuration, final Executor executor) {
+		check(clazz, defaultVocabulary);
+		if (executor == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Executor cannot be null");
+		}
+		final Properties props = copy(configuration);
+		props.put(IndexedService.EXECUTOR, executor);
+		return CompletableFuture.supplyAsync(new Supplier<Service>() {
+			@Override
+			public Service get() {
+				try {
+					return ServiceFactory.newService(clazz, defaultVocabulary, props);
+				} catch (InitializationException e) {
+					throw new CompletionException(e);
+				} catch (NameException e) {
+					throw new CompletionException(e);
+				}
+			}
+		}, executor).thenCompose(new Function<Service, CompletionStage<Service>>() {
+			@Override
+			public CompletionStage<Service> apply(Service service) {
+				return warmUp(service, props, executor);
+			}
+		});
+	}
+
+	/**
+	 * Creates and initializes a service on a pool of {@link #THREADS} threads, waiting
+	 * until it is ready.
+	 *
+	 * @param clazz The class of the service.
+	 * @param defaultVocabulary Passed to the Service.initialize method.
+	 * @param configuration Passed to the Service.initialize method.
+	 * @return The initialized and warmed up service.
+	 * @throws InitializationException if the service cannot be initialized or warmed up.
+	 * @throws NameException if the default vocabulary is not recognized.
+	 */
+	public static Service newService(String clazz, String defaultVocabulary,
+			Properties configuration) throws InitializationException, NameException {
+		try {
+			return start(clazz, defaultVocabulary, configuration).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof InitializationException) {
+				throw (InitializationException) cause;
+			}
+			if (cause instanceof NameException) {
+				throw (NameException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new SystemException(SystemException.CANNOT_PROCEED, cause);
+		}
+	}
+
+	private static CompletableFuture<Service> warmUp(final Service service, Properties props,
+			Executor executor) {
+		String location = props.getProperty(WARMUP);
+		if (location == null) {
+			return CompletableFuture.completedFuture(service);
+		}
+		final List<String> userAgents;
+		final int rounds;
+		try {
+			userAgents = WarmupSet.read(location, positive(props, WARMUP_LIMIT, Integer.MAX_VALUE));
+			rounds = positive(props, WARMUP_ROUNDS, 1);
+		} catch (InitializationException e) {
+			throw new CompletionException(e);
+		}
+		List<CompletableFuture<Void>> slices = new ArrayList<CompletableFuture<Void>>();
+		for (int from = 0; from < userAgents.size(); from += SLICE) {
+			final List<String> slice = userAgents.subList(from,
+					Math.min(from + SLICE, userAgents.size()));
+			slices.add(CompletableFuture.runAsync(new Runnable() {
+				@Override
+				public void run() {
+					replay(service, slice, rounds);
+				}
+			}, executor));
+		}
+		return CompletableFuture.allOf(slices.toArray(new CompletableFuture<?>[slices.size()]))
+				.thenApply(new Function<Void, Service>() {
+					@Override
+					public Service apply(Void done) {
+						return service;
+					}
+				});
+	}
+
+	private static void replay(Service service, List<String> userAgents, int rounds) {
+		for (int round = 0; round < rounds; round++) {
+			for (String userAgent : userAgents) {
+				Evidence evidence = service.newHTTPEvidence();
+				evidence.put(USER_AGENT, userAgent);
+				try {
+					for (PropertyValue value : service.getPropertyValues(evidence).getAll()) {
+						value.exists();
+					}
+				} catch (NameException e) {
+					// the device was still identified, which is what the warm-up is for
+				}
+			}
+		}
+	}
+
+	private static void check(String clazz, String defaultVocabulary) {
+		if (clazz == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Service class cannot be null");
+		}
+		if (defaultVocabulary == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Default vocabulary cannot be null");
+		}
+	}
+
+	/**
+	 * Copies a configuration, its defaults and non-string entries included.
+	 */
+	private static Properties copy(Properties configuration) {
+		Properties props = new Properties();
+		if (configuration != null) {
+			for (Map.Entry<Object, Object> entry : configuration.entrySet()) {
+				props.put(entry.getKey(), entry.getValue());
+			}
+			for (String name : configuration.stringPropertyNames()) {
+				if (!props.containsKey(name)) {
+					props.setProperty(name, configuration.getProperty(name));
+				}
+			}
+		}
+		return props;
+	}
+
+	private static int positive(Properties props, String name, int defaultValue)
+			throws InitializationException {
+		String value = props == null ? null : props.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		int number;
+		try {
+			number = Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		}
+		if (number < 1) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					name + " must be positive");
+		}
+		return number;
+	}
+
+	private static ExecutorService pool(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "ddr-startup-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
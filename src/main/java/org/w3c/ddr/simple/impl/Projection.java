@@ -0,0 +1,46 @@
+package org.w3c.ddr.simple.impl;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyRef;
+
+/**
+ * A set of properties resolved once, by {@link IndexedService#compileProjection}, for
+ * repeated lookups with {@link IndexedService#getPropertyValues(Evidence, Projection)}.
+ *
+ * A projection holds the ordinals of its properties in the index of the service that
+ * compiled it, so lookups through it neither validate nor resolve names. Instances
+ * are immutable and may be shared by any number of threads.
+ */
+public final class Projection {
+
+	final DeviceIndex index;
+
+	final PropertyRefImpl[] refs;
+
+	final int[] ordinals;
+
+	Projection(DeviceIndex index, int[] ordinals) {
+		this.index = index;
+		this.ordinals = ordinals;
+		this.refs = new PropertyRefImpl[ordinals.length];
+		for (int i = 0; i < ordinals.length; i++) {
+			refs[i] = index.refs[ordinals[i]];
+		}
+	}
+
+	/**
+	 * The properties of the projection, in the order of the values returned.
+	 *
+	 * @return The canonical property references.
+	 */
+	public PropertyRef[] getPropertyRefs() {
+		return refs.clone();
+	}
+
+	/**
+	 * @return The number of properties.
+	 */
+	public int size() {
+		return ordinals.length;
+	}
+}
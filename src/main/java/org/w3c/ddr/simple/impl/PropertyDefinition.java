@@ -0,0 +1,53 @@
+package org.w3c.ddr.simple.impl;
+
+import org.w3c.ddr.simple.PropertyRef;
+
+/**
+ * A property term declared by a vocabulary, together with the aspects it may be
+ * qualified with and the ordinal of the {@link PropertyRef} for each aspect.
+ */
+final class PropertyDefinition {
+
+	final String name;
+
+	/**
+	 * The canonical name of the property, issued by the service.
+	 */
+	final PropertyNameImpl propertyName;
+
+	final PropertyType type;
+
+	final String defaultAspect;
+
+	final String[] aspects;
+
+	final int[] ordinals;
+
+	PropertyDefinition(PropertyNameImpl propertyName, PropertyType type, String defaultAspect,
+			String[] aspects, int[] ordinals) {
+		this.name = propertyName.getLocalPropertyName();
+		this.propertyName = propertyName;
+		this.type = type;
+		this.defaultAspect = defaultAspect;
+		this.aspects = aspects;
+		this.ordinals = ordinals;
+	}
+
+	/**
+	 * Finds the ordinal of the property in the given aspect.
+	 *
+	 * @param aspect The local aspect name, {@link PropertyRef#NULL_ASPECT} or null for the default aspect.
+	 * @return The ordinal, or -1 if the property does not support the aspect.
+	 */
+	int ordinal(String aspect) {
+		if (aspect == null || PropertyRef.NULL_ASPECT.equals(aspect)) {
+			aspect = defaultAspect;
+		}
+		for (int i = 0; i < aspects.length; i++) {
+			if (aspects[i].equals(aspect)) {
+				return ordinals[i];
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,79 @@
+package org.w3c.ddr.simple.impl;
+
+import org.w3c.ddr.simple.PropertyName;
+
+/**
+ * Immutable implementation of {@link PropertyName}.
+ *
+ * Like {@link PropertyRefImpl}, the names issued by a service are canonical and carry
+ * the ordinal of the property in its default aspect.
+ */
+public class PropertyNameImpl implements PropertyName {
+
+	private final String localPropertyName;
+
+	private final String namespace;
+
+	private final int hash;
+
+	final int ordinal;
+
+	/**
+	 * Constructs a property name.
+	 *
+	 * @param localPropertyName The local name of the property.
+	 * @param namespace The IRI of the vocabulary the property belongs to.
+	 */
+	public PropertyNameImpl(String localPropertyName, String namespace) {
+		this(localPropertyName, namespace, -1);
+	}
+
+	PropertyNameImpl(String localPropertyName, String namespace, int ordinal) {
+		this.localPropertyName = localPropertyName;
+		this.namespace = namespace;
+		this.hash = 31 * namespace.hashCode() + localPropertyName.hashCode();
+		this.ordinal = ordinal;
+	}
+
+	/**
+	 * The ordinal of the property in its default aspect, assigned by the service that issued the name.
+	 *
+	 * @return The ordinal, or -1 if the name was not issued by a service.
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	@Override
+	public String getLocalPropertyName() {
+		return localPropertyName;
+	}
+
+	@Override
+	public String getNamespace() {
+		return namespace;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PropertyNameImpl)) {
+			return false;
+		}
+		PropertyNameImpl other = (PropertyNameImpl) obj;
+		return hash == other.hash && localPropertyName.equals(other.localPropertyName)
+				&& namespace.equals(other.namespace);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return "{" + namespace + "}" + localPropertyName;
+	}
+}
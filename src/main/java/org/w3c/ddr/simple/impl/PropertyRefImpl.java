@@ -0,0 +1,106 @@
+package org.w3c.ddr.simple.impl;
+
+import org.w3c.ddr.simple.PropertyRef;
+
+/**
+ * Immutable implementation of {@link PropertyRef}.
+ *
+ * The references issued by a service are canonical: there is one instance per
+ * property / aspect combination, carrying the dense ordinal the service stores its
+ * values by, so that the service can resolve it by identity instead of comparing names.
+ * Instances constructed by other code have no ordinal and are resolved by name.
+ */
+public class PropertyRefImpl implements PropertyRef {
+
+	private final String localPropertyName;
+
+	private final String aspectName;
+
+	private final String namespace;
+
+	private final int hash;
+
+	final int ordinal;
+
+	/**
+	 * Constructs a property reference.
+	 *
+	 * @param localPropertyName The local name of the property.
+	 * @param aspectName The local name of the aspect, or {@link PropertyRef#NULL_ASPECT}.
+	 * @param namespace The IRI of the vocabulary the property and aspect belong to.
+	 */
+	public PropertyRefImpl(String localPropertyName, String aspectName, String namespace) {
+		this(localPropertyName, aspectName, namespace, -1);
+	}
+
+	PropertyRefImpl(String localPropertyName, String aspectName, String namespace, int ordinal) {
+		this.localPropertyName = localPropertyName;
+		this.aspectName = aspectName;
+		this.namespace = namespace;
+		this.hash = (31 * namespace.hashCode() + localPropertyName.hashCode()) * 31
+				+ aspectName.hashCode();
+		this.ordinal = ordinal;
+	}
+
+	/**
+	 * The ordinal assigned to this reference by the service that issued it.
+	 *
+	 * @return The ordinal, or -1 if the reference was not issued by a service.
+	 */
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	@Override
+	public String getLocalPropertyName() {
+		return localPropertyName;
+	}
+
+	@Override
+	public String getAspectName() {
+		return aspectName;
+	}
+
+	@Override
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * Compares two references by their name data, regardless of the implementing class.
+	 *
+	 * @param a A property reference.
+	 * @param b Another property reference.
+	 * @return true if both name the same property, aspect and vocabulary.
+	 */
+	public static boolean sameRef(PropertyRef a, PropertyRef b) {
+		if (a == b) {
+			return true;
+		}
+		return a.getLocalPropertyName().equals(b.getLocalPropertyName())
+				&& a.getAspectName().equals(b.getAspectName())
+				&& a.getNamespace().equals(b.getNamespace());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PropertyRefImpl)) {
+			return false;
+		}
+		PropertyRefImpl other = (PropertyRefImpl) obj;
+		return hash == other.hash && sameRef(this, other);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return "{" + namespace + "}" + localPropertyName + "@" + aspectName;
+	}
+}
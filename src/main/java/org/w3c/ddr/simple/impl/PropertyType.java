@@ -0,0 +1,76 @@
+package org.w3c.ddr.simple.impl;
+
+/**
+ * The data type of a property, as declared by its vocabulary in the device repository.
+ *
+ * The type determines which getX() methods of a
+ * {@link org.w3c.ddr.simple.PropertyValue} may be used without a
+ * {@link org.w3c.ddr.simple.exception.ValueException#INCOMPATIBLE_TYPES} error.
+ * Numeric types may be read through any getter that widens them
+ * (for example an integer property may be read with getLong or getDouble).
+ */
+public enum PropertyType {
+
+	STRING("string"),
+	BOOLEAN("boolean"),
+	INTEGER("integer"),
+	LONG("long"),
+	FLOAT("float"),
+	DOUBLE("double"),
+	ENUMERATION("enumeration");
+
+	private final String name;
+
+	private PropertyType(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * The name of the type as used in repository documents.
+	 *
+	 * @return The type name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Looks up a type by the name used in repository documents.
+	 *
+	 * @param name The type name, e.g. "integer".
+	 * @return The type, or null if the name is not known.
+	 */
+	public static PropertyType forName(String name) {
+		for (PropertyType type : values()) {
+			if (type.name.equals(name)) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Checks whether a value of this type can be read as the given type. Integers and
+	 * longs are read as doubles, and integers as floats, as Java widens them: the value
+	 * is rounded to the nearest one of the target type when its magnitude exceeds 2^53,
+	 * or 2^24 for floats. Longs are not read as floats, which would round them from 2^24.
+	 *
+	 * @param target The type requested by the caller.
+	 * @return true if the value may be converted.
+	 */
+	public boolean isReadableAs(PropertyType target) {
+		if (this == target) {
+			return true;
+		}
+		switch (target) {
+		case LONG:
+			return this == INTEGER;
+		case FLOAT:
+			return this == INTEGER;
+		case DOUBLE:
+			return this == INTEGER || this == LONG || this == FLOAT;
+		default:
+			return false;
+		}
+	}
+}
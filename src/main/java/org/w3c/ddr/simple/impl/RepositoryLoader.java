@@ -0,0 +1,539 @@
+package org.w3c.ddr.simple.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.ddr.simple.exception.InitializationException;
+
+/**
+ * Reads an XML device repository into a {@link DeviceIndex}.
+ *
+ * <pre>
+ * &lt;ddr dataVersion="2008-12-05"&gt;
+ *   &lt;vocabulary iri="http://www.w3.org/2008/01/ddr-core-vocabulary"&gt;
+ *     &lt;property name="displayWidth" type="integer" aspects="device" /&gt;
+ *     &lt;property name="inputDevices" type="enumeration" aspects="device" /&gt;
+ *     &lt;property name="vendor" type="string" aspects="device webBrowser" defaultAspect="device" /&gt;
+ *   &lt;/vocabulary&gt;
+ *   &lt;device id="nokia-n95"&gt;
+ *     &lt;match header="user-agent"&gt;NokiaN95&lt;/match&gt;
+ *     &lt;value property="displayWidth"&gt;240&lt;/value&gt;
+ *     &lt;value property="inputDevices"&gt;keypad joystick&lt;/value&gt;
+ *     &lt;value property="vendor" aspect="webBrowser"&gt;Nokia&lt;/value&gt;
+ *   &lt;/device&gt;
+ *   &lt;devices href="devices-2.xml" /&gt;
+ * &lt;/ddr&gt;
+ * </pre>
+ *
+ * Property types are those named by {@link PropertyType}; enumeration values are
+ * separated by white space. The header of a match defaults to "user-agent"; how its
+ * pattern is interpreted is up to the {@link org.w3c.ddr.simple.impl.match.EvidenceMatcherFactory}
+ * of the header (a substring for User-Agent patterns, a profile URL for x-wap-profile,
+ * the model, platform and version of Client Hints for sec-ch-ua-model). The aspect of a
+ * value defaults to the default aspect of the property and its vocabulary defaults to
+ * the first vocabulary in the document.
+ *
+ * The document is read in a single pass with a streaming parser, so that apart from
+ * the devices themselves, whose repeated values are shared, the memory needed does not
+ * grow with the size of the repository. Vocabularies must be declared before the
+ * first device. Large repositories can be split into chunks: a devices element names,
+ * relative to the repository, a document whose &lt;devices&gt; root element holds
+ * device elements. Chunks are parsed in parallel, on the executor configured with
+ * {@link IndexedService#EXECUTOR}, while the main document is read, and their devices
+ * follow those of the main document in the order the chunks are named. Progress is
+ * reported to the {@link LoadListener} configured with {@link IndexedService#LOAD_LISTENER}.
+ */
+final class RepositoryLoader {
+
+	/**
+	 * The number of devices read between two progress reports.
+	 */
+	private static final int REPORT_INTERVAL = 10000;
+
+	private RepositoryLoader() {
+	}
+
+	/**
+	 * Loads a repository from a file or, if no such file exists, from a class path resource.
+	 *
+	 * @param location A file name or class path resource name.
+	 * @param props The service configuration.
+	 * @return The device index.
+	 * @throws InitializationException if the repository cannot be read or is invalid.
+	 */
+	static DeviceIndex load(String location, Properties props) throws InitializationException {
+		return read(location, props).build();
+	}
+
+	/**
+	 * Reads a repository from a file or, if no such file exists, from a class path resource.
+	 *
+	 * @param location A file name or class path resource name.
+	 * @param props The service configuration.
+	 * @return A builder holding the content of the repository.
+	 * @throws InitializationException if the repository cannot be read or is invalid.
+	 */
+	static DeviceIndexBuilder read(String location, Properties props)
+			throws InitializationException {
+		Progress progress = new Progress(location, listener(props));
+		InputStream in = null;
+		try {
+			in = progress.open(location);
+			DeviceIndexBuilder builder = read(in, location, props, progress);
+			progress.loaded();
+			return builder;
+		} catch (IOException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * Opens a repository location: a file or, if no such file exists, a class path resource.
+	 *
+	 * @param location A file name or class path resource name.
+	 * @return An input stream, to be closed by the caller.
+	 * @throws IOException if the location does not exist or cannot be read.
+	 */
+	static InputStream open(String location) throws IOException {
+		File file = new File(location);
+		if (file.isFile()) {
+			return new FileInputStream(file);
+		}
+		InputStream in = RepositoryLoader.class.getClassLoader().getResourceAsStream(location);
+		if (in == null) {
+			throw new IOException("Repository not found: " + location);
+		}
+		return in;
+	}
+
+	static void close(InputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	/**
+	 * Reads the main document of a repository.
+	 *
+	 * @param in The XML document.
+	 * @param location The location of the document, against which chunks are resolved.
+	 * @param props The service configuration.
+	 * @param progress The progress of the load.
+	 * @return A builder holding the content of the repository.
+	 * @throws InitializationException if the repository cannot be read or is invalid.
+	 */
+	private static DeviceIndexBuilder read(InputStream in, String location, Properties props,
+			Progress progress) throws InitializationException {
+		DeviceIndexBuilder builder = new DeviceIndexBuilder(props);
+		Chunk devices = new Chunk();
+		List<Stage<Chunk>> chunks = new ArrayList<Stage<Chunk>>();
+		boolean complete = false;
+		try {
+			XMLStreamReader xml = reader(in);
+			try {
+				if (next(xml) != XMLStreamConstants.START_ELEMENT) {
+					throw error("Not a device repository: " + location);
+				}
+				if (!"ddr".equals(xml.getLocalName())) {
+					throw error("Not a device repository: <" + xml.getLocalName() + ">");
+				}
+				String dataVersion = xml.getAttributeValue(null, "dataVersion");
+				if (dataVersion != null) {
+					builder.setDataVersion(dataVersion);
+				}
+				while (next(xml) == XMLStreamConstants.START_ELEMENT) {
+					String name = xml.getLocalName();
+					if ("vocabulary".equals(name)) {
+						if (!devices.ids.isEmpty() || !chunks.isEmpty()) {
+							throw error("Vocabulary declared after the first device");
+						}
+						readVocabulary(builder, xml);
+					} else if ("device".equals(name)) {
+						readDevice(builder, xml, devices, progress);
+					} else if ("devices".equals(name)) {
+						String href = xml.getAttributeValue(null, "href");
+						if (href == null) {
+							throw error("Device chunk without href");
+						}
+						chunks.add(submit(builder, resolve(location, href), progress));
+						skip(xml);
+					} else {
+						skip(xml);
+					}
+				}
+			} finally {
+				xml.close();
+			}
+			devices.mergeInto(builder);
+			for (Stage<Chunk> chunk : chunks) {
+				chunk.join().mergeInto(builder);
+			}
+			complete = true;
+			return builder;
+		} catch (XMLStreamException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} finally {
+			if (!complete) {
+				for (Stage<Chunk> chunk : chunks) {
+					chunk.cancel(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts parsing a device chunk on the executor of the builder.
+	 */
+	private static Stage<Chunk> submit(final DeviceIndexBuilder builder, final String location,
+			final Progress progress) {
+		return Stage.start(new Callable<Chunk>() {
+			@Override
+			public Chunk call() throws InitializationException {
+				return readChunk(builder, location, progress);
+			}
+		}, builder.executor);
+	}
+
+	/**
+	 * Reads a device chunk. The builder is only read, for the validation of values.
+	 */
+	private static Chunk readChunk(DeviceIndexBuilder builder, String location,
+			Progress progress) throws InitializationException {
+		InputStream in = null;
+		try {
+			in = progress.open(location);
+			XMLStreamReader xml = reader(in);
+			try {
+				if (next(xml) != XMLStreamConstants.START_ELEMENT
+						|| !"devices".equals(xml.getLocalName())) {
+					throw error("Not a device chunk: " + location);
+				}
+				Chunk chunk = new Chunk();
+				while (next(xml) == XMLStreamConstants.START_ELEMENT) {
+					if ("device".equals(xml.getLocalName())) {
+						readDevice(builder, xml, chunk, progress);
+					} else {
+						skip(xml);
+					}
+				}
+				return chunk;
+			} finally {
+				xml.close();
+			}
+		} catch (IOException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} catch (XMLStreamException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} finally {
+			close(in);
+		}
+	}
+
+	private static void readVocabulary(DeviceIndexBuilder builder, XMLStreamReader xml)
+			throws XMLStreamException, InitializationException {
+		String iri = attribute(xml, "iri");
+		builder.addVocabulary(iri);
+		// properties are found at any depth, descending through other elements
+		for (int depth = 0; depth >= 0;) {
+			if (next(xml) == XMLStreamConstants.START_ELEMENT) {
+				if ("property".equals(xml.getLocalName())) {
+					String name = attribute(xml, "name");
+					String type = attribute(xml, "type");
+					if (PropertyType.forName(type) == null) {
+						throw error("Unknown type '" + type + "' of property " + name);
+					}
+					builder.addProperty(iri, name, PropertyType.forName(type),
+							tokens(attribute(xml, "aspects")),
+							xml.getAttributeValue(null, "defaultAspect"));
+				}
+				depth++;
+			} else {
+				depth--;
+			}
+		}
+	}
+
+	private static void readDevice(DeviceIndexBuilder builder, XMLStreamReader xml, Chunk chunk,
+			Progress progress) throws XMLStreamException, InitializationException {
+		String id = attribute(xml, "id");
+		int device = chunk.ids.size();
+		String[] row = null;
+		chunk.ids.add(id);
+		while (next(xml) == XMLStreamConstants.START_ELEMENT) {
+			String name = xml.getLocalName();
+			if ("match".equals(name)) {
+				String header = xml.getAttributeValue(null, "header");
+				chunk.addPattern(device,
+						header == null ? "user-agent" : header.toLowerCase(Locale.ENGLISH),
+						xml.getElementText());
+			} else if ("value".equals(name)) {
+				String vocabulary = xml.getAttributeValue(null, "vocabulary");
+				String property = attribute(xml, "property");
+				String aspect = xml.getAttributeValue(null, "aspect");
+				String value = xml.getElementText().trim();
+				int ordinal = builder.ordinal(vocabulary, property, aspect, value, id);
+				if (row == null) {
+					row = builder.newRow();
+				}
+				row[ordinal] = chunk.intern(value);
+			} else {
+				skip(xml);
+			}
+		}
+		chunk.rows.add(row);
+		progress.device();
+	}
+
+	/**
+	 * Creates a reader which ignores document type declarations and does not resolve
+	 * external entities, so that a repository cannot make the loader read other files
+	 * or URLs.
+	 */
+	private static XMLStreamReader reader(InputStream in) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		return factory.createXMLStreamReader(in);
+	}
+
+	/**
+	 * Advances to the next start or end element, skipping text, comments and
+	 * processing instructions.
+	 *
+	 * @return The event reached: START_ELEMENT, END_ELEMENT or END_DOCUMENT.
+	 */
+	private static int next(XMLStreamReader xml) throws XMLStreamException {
+		int event;
+		do {
+			event = xml.next();
+		} while (event != XMLStreamConstants.START_ELEMENT
+				&& event != XMLStreamConstants.END_ELEMENT
+				&& event != XMLStreamConstants.END_DOCUMENT);
+		return event;
+	}
+
+	/**
+	 * Skips the content and the end of the current element.
+	 */
+	private static void skip(XMLStreamReader xml) throws XMLStreamException {
+		for (int depth = 0; depth >= 0;) {
+			if (next(xml) == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * @return The value of an attribute of the current element, or an empty string.
+	 */
+	private static String attribute(XMLStreamReader xml, String name) {
+		String value = xml.getAttributeValue(null, name);
+		return value == null ? "" : value;
+	}
+
+	private static String[] tokens(String value) {
+		value = value.trim();
+		return value.length() == 0 ? new String[0] : value.split("\\s+");
+	}
+
+	/**
+	 * Resolves the location of a chunk against the location of the repository.
+	 */
+	static String resolve(String location, String href) {
+		if (new File(href).isAbsolute()) {
+			return href;
+		}
+		File file = new File(location);
+		if (file.isFile()) {
+			File parent = file.getParentFile();
+			return parent == null ? href : new File(parent, href).getPath();
+		}
+		int slash = location.lastIndexOf('/');
+		return slash < 0 ? href : location.substring(0, slash + 1) + href;
+	}
+
+	private static LoadListener listener(Properties props) throws InitializationException {
+		if (props == null) {
+			return null;
+		}
+		Object listener = props.get(IndexedService.LOAD_LISTENER);
+		if (listener == null) {
+			listener = props.getProperty(IndexedService.LOAD_LISTENER);
+		}
+		if (listener == null || listener instanceof LoadListener) {
+			return (LoadListener) listener;
+		}
+		try {
+			return (LoadListener) Class.forName(listener.toString()).newInstance();
+		} catch (ClassCastException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} catch (IllegalAccessException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} catch (InstantiationException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} catch (ClassNotFoundException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		}
+	}
+
+	private static InitializationException error(String message) {
+		return new InitializationException(InitializationException.INITIALIZATION_ERROR, message);
+	}
+
+	/**
+	 * The devices of a chunk, or of the main document, with their values validated and
+	 * indexed by property ordinal, waiting to be added to the builder in document order.
+	 */
+	private static final class Chunk {
+
+		final List<String> ids = new ArrayList<String>();
+
+		/**
+		 * The values of each device, null for a device without values.
+		 */
+		final List<String[]> rows = new ArrayList<String[]>();
+
+		private final List<Integer> patternDevices = new ArrayList<Integer>();
+
+		private final List<String> patternHeaders = new ArrayList<String>();
+
+		private final List<String> patterns = new ArrayList<String>();
+
+		/**
+		 * The values read so far, so that repeated values are held once.
+		 */
+		private final Map<String, String> values = new HashMap<String, String>();
+
+		void addPattern(int device, String header, String pattern) {
+			patternDevices.add(device);
+			patternHeaders.add(header);
+			patterns.add(pattern);
+		}
+
+		String intern(String value) {
+			String interned = values.get(value);
+			if (interned == null) {
+				values.put(value, value);
+				interned = value;
+			}
+			return interned;
+		}
+
+		void mergeInto(DeviceIndexBuilder builder) throws InitializationException {
+			int first = builder.devices.size();
+			for (int i = 0; i < ids.size(); i++) {
+				builder.setRow(builder.addDevice(ids.get(i)), rows.get(i));
+			}
+			for (int i = 0; i < patterns.size(); i++) {
+				builder.addPattern(first + patternDevices.get(i), patternHeaders.get(i),
+						patterns.get(i));
+			}
+		}
+	}
+
+	/**
+	 * The progress of a load, reported to a listener.
+	 */
+	private static final class Progress {
+
+		private final String location;
+
+		private final LoadListener listener;
+
+		private final AtomicLong bytes = new AtomicLong();
+
+		private final AtomicInteger devices = new AtomicInteger();
+
+		private long totalBytes;
+
+		Progress(String location, LoadListener listener) {
+			this.location = location;
+			this.listener = listener;
+		}
+
+		/**
+		 * Opens a document of the repository, counting the bytes read from it if there
+		 * is a listener.
+		 */
+		InputStream open(String location) throws IOException {
+			InputStream in = RepositoryLoader.open(location);
+			if (listener == null) {
+				return in;
+			}
+			File file = new File(location);
+			synchronized (this) {
+				totalBytes = totalBytes < 0 || !file.isFile() ? -1 : totalBytes + file.length();
+			}
+			return new FilterInputStream(in) {
+
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0) {
+						bytes.incrementAndGet();
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					int read = super.read(buffer, offset, length);
+					if (read > 0) {
+						bytes.addAndGet(read);
+					}
+					return read;
+				}
+
+				@Override
+				public long skip(long n) throws IOException {
+					long skipped = super.skip(n);
+					bytes.addAndGet(skipped);
+					return skipped;
+				}
+			};
+		}
+
+		void device() {
+			if (devices.incrementAndGet() % REPORT_INTERVAL == 0 && listener != null) {
+				synchronized (this) {
+					listener.progress(location, devices.get(), bytes.get(), totalBytes);
+				}
+			}
+		}
+
+		void loaded() {
+			if (listener != null) {
+				synchronized (this) {
+					listener.loaded(location, devices.get(), bytes.get());
+				}
+			}
+		}
+	}
+}
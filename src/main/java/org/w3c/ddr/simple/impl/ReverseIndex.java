@@ -0,0 +1,411 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.w3c.ddr.simple.exception.ValueException;
+
+/**
+ * The devices having each value of each property, for the {@link DeviceQuery} queries
+ * of {@link IndexedService}.
+ *
+ * The index of a property is built from its column of the {@link ValueStore} the first
+ * time the property is queried, and kept for the life of the device index:
+ * <ul>
+ * <li>for strings and booleans, the {@link DeviceBitmap} of the devices of each distinct
+ * value;</li>
+ * <li>for enumerations, the bitmap of the devices of each distinct member;</li>
+ * <li>for numbers, the devices sorted by value and split into 64 buckets of equal size,
+ * with the bitmap of the devices of the buckets below each bucket. A range selects the
+ * devices of the buckets it covers with the difference of two of those bitmaps, and
+ * those of the two buckets it cuts by scanning their sorted values, so that its cost
+ * does not depend on its width. Integers and longs are kept as longs and compared
+ * exactly with the bounds of a range, so that longs beyond 2^53 are not rounded.</li>
+ * </ul>
+ *
+ * Indexes are immutable once built; two threads querying a property for the first time
+ * may both build its index, and one of them is kept.
+ */
+final class ReverseIndex {
+
+	private static final int BUCKETS = 64;
+
+	private final ValueStore values;
+
+	private final int devices;
+
+	private final Exceptions exceptions;
+
+	/**
+	 * The index of each property ordinal, or null until the property is queried.
+	 */
+	private final AtomicReferenceArray<Column> columns;
+
+	private volatile DeviceBitmap all;
+
+	/**
+	 * @param values The values of the devices.
+	 * @param properties The number of property ordinals.
+	 * @param devices The number of devices.
+	 * @param exceptions Creates the exceptions thrown for queries of the wrong type.
+	 */
+	ReverseIndex(ValueStore values, int properties, int devices, Exceptions exceptions) {
+		this.values = values;
+		this.devices = devices;
+		this.exceptions = exceptions;
+		this.columns = new AtomicReferenceArray<Column>(properties);
+	}
+
+	/**
+	 * @return Every device.
+	 */
+	DeviceBitmap all() {
+		DeviceBitmap all = this.all;
+		if (all == null) {
+			DeviceBitmap.Builder builder = new DeviceBitmap.Builder();
+			for (int device = 0; device < devices; device++) {
+				builder.add(device);
+			}
+			this.all = all = builder.build();
+		}
+		return all;
+	}
+
+	/**
+	 * @return The devices for which the value of a property is known.
+	 */
+	DeviceBitmap known(int ordinal) {
+		return column(ordinal).known;
+	}
+
+	/**
+	 * Finds the devices having a value. Strings and booleans are compared with the value
+	 * as returned by {@link org.w3c.ddr.simple.PropertyValue#getString()}, numbers by
+	 * their value.
+	 *
+	 * @throws ValueException with code INCOMPATIBLE_TYPES for an enumeration.
+	 */
+	DeviceBitmap equalTo(int ordinal, String value) throws ValueException {
+		PropertyType type = values.type(ordinal);
+		if (type == PropertyType.ENUMERATION) {
+			throw incompatible(ordinal, type, "string");
+		}
+		if (type.isReadableAs(PropertyType.DOUBLE)) {
+			RangeColumn column = (RangeColumn) column(ordinal);
+			if (column.integral != null) {
+				try {
+					long number = Long.parseLong(value);
+					return select(column, column.lowerBound(number), column.upperBound(number));
+				} catch (NumberFormatException e) {
+					// compared as a double below
+				}
+			}
+			double number;
+			try {
+				number = Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				return DeviceBitmap.EMPTY;
+			}
+			return select(column, column.lowerBound(number), column.upperBound(number));
+		}
+		DeviceBitmap devices = ((ValueColumn) column(ordinal)).devices.get(value);
+		return devices == null ? DeviceBitmap.EMPTY : devices;
+	}
+
+	/**
+	 * Finds the devices whose enumeration has a member.
+	 *
+	 * @throws ValueException with code INCOMPATIBLE_TYPES if the property is not an
+	 *         enumeration.
+	 */
+	DeviceBitmap contains(int ordinal, String member) throws ValueException {
+		PropertyType type = values.type(ordinal);
+		if (type != PropertyType.ENUMERATION) {
+			throw incompatible(ordinal, type, PropertyType.ENUMERATION.getName());
+		}
+		DeviceBitmap devices = ((ValueColumn) column(ordinal)).devices.get(member);
+		return devices == null ? DeviceBitmap.EMPTY : devices;
+	}
+
+	/**
+	 * Finds the devices whose numeric value is within a closed range.
+	 *
+	 * @throws ValueException with code INCOMPATIBLE_TYPES if the property is not numeric.
+	 */
+	DeviceBitmap range(int ordinal, double min, double max) throws ValueException {
+		PropertyType type = values.type(ordinal);
+		if (!type.isReadableAs(PropertyType.DOUBLE)) {
+			throw incompatible(ordinal, type, PropertyType.DOUBLE.getName());
+		}
+		RangeColumn column = (RangeColumn) column(ordinal);
+		return select(column, column.lowerBound(min), column.upperBound(max));
+	}
+
+	/**
+	 * @return The devices of sorted positions from lo, inclusive, to hi, exclusive.
+	 */
+	private DeviceBitmap select(RangeColumn column, int lo, int hi) {
+		if (lo >= hi) {
+			return DeviceBitmap.EMPTY;
+		}
+		long[] words = new long[(devices + 63) >>> 6];
+		int size = column.bucketSize;
+		int first = (lo + size - 1) / size;
+		int last = hi / size;
+		if (first < last) {
+			column.below[last].orInto(words);
+			column.below[first].andNotInto(words);
+			column.set(words, lo, first * size);
+			column.set(words, last * size, hi);
+		} else {
+			column.set(words, lo, hi);
+		}
+		return DeviceBitmap.of(words);
+	}
+
+	private ValueException incompatible(int ordinal, PropertyType type, String requested) {
+		return exceptions.value(ValueException.INCOMPATIBLE_TYPES, "Property ",
+				values.name(ordinal), " is of type ", type.getName(), ", not ", requested);
+	}
+
+	private Column column(int ordinal) {
+		Column column = columns.get(ordinal);
+		if (column == null) {
+			column = values.type(ordinal).isReadableAs(PropertyType.DOUBLE)
+					? new RangeColumn(values, ordinal, devices)
+					: new ValueColumn(values, ordinal, devices);
+			if (!columns.compareAndSet(ordinal, null, column)) {
+				column = columns.get(ordinal);
+			}
+		}
+		return column;
+	}
+
+	private abstract static class Column {
+
+		DeviceBitmap known;
+	}
+
+	/**
+	 * The devices of each value of a string or boolean, or of each member of an enumeration.
+	 */
+	private static final class ValueColumn extends Column {
+
+		final Map<String, DeviceBitmap> devices = new HashMap<String, DeviceBitmap>();
+
+		ValueColumn(ValueStore values, int ordinal, int count) {
+			PropertyType type = values.type(ordinal);
+			Map<String, DeviceBitmap.Builder> builders =
+					new HashMap<String, DeviceBitmap.Builder>();
+			DeviceBitmap.Builder known = new DeviceBitmap.Builder();
+			for (int device = 0; device < count; device++) {
+				if (!values.isKnown(ordinal, device)) {
+					continue;
+				}
+				known.add(device);
+				if (type == PropertyType.ENUMERATION) {
+					for (String member : values.readEnumeration(ordinal, device)) {
+						builder(builders, member).add(device);
+					}
+				} else if (type == PropertyType.BOOLEAN) {
+					builder(builders, Boolean.toString(values.readBoolean(ordinal, device)))
+							.add(device);
+				} else {
+					builder(builders, values.readString(ordinal, device)).add(device);
+				}
+			}
+			for (Map.Entry<String, DeviceBitmap.Builder> entry : builders.entrySet()) {
+				devices.put(entry.getKey(), entry.getValue().build());
+			}
+			this.known = known.build();
+		}
+
+		private static DeviceBitmap.Builder builder(Map<String, DeviceBitmap.Builder> builders,
+				String value) {
+			DeviceBitmap.Builder builder = builders.get(value);
+			if (builder == null) {
+				builder = new DeviceBitmap.Builder();
+				builders.put(value, builder);
+			}
+			return builder;
+		}
+	}
+
+	/**
+	 * The devices of a numeric property sorted by value, in buckets.
+	 */
+	private static final class RangeColumn extends Column {
+
+		/**
+		 * The values of a float or double in ascending order, NaN excluded, or null.
+		 */
+		final double[] sorted;
+
+		/**
+		 * The values of an integer or long in ascending order, or null.
+		 */
+		final long[] integral;
+
+		/**
+		 * The device of each sorted value.
+		 */
+		final int[] order;
+
+		final int bucketSize;
+
+		/**
+		 * The devices of the first i buckets, for i from 0 to the number of buckets.
+		 */
+		final DeviceBitmap[] below;
+
+		RangeColumn(ValueStore values, int ordinal, int count) {
+			PropertyType type = values.type(ordinal);
+			boolean exact = type == PropertyType.INTEGER || type == PropertyType.LONG;
+			DeviceBitmap.Builder known = new DeviceBitmap.Builder();
+			final double[] numbers = exact ? null : new double[count];
+			final long[] longs = exact ? new long[count] : null;
+			Integer[] devices = new Integer[count];
+			int size = 0;
+			for (int device = 0; device < count; device++) {
+				if (!values.isKnown(ordinal, device)) {
+					continue;
+				}
+				known.add(device);
+				if (exact) {
+					longs[device] = type == PropertyType.INTEGER ? values.readInt(ordinal, device)
+							: values.readLong(ordinal, device);
+					devices[size++] = device;
+				} else {
+					double number = type == PropertyType.FLOAT ? values.readFloat(ordinal, device)
+							: values.readDouble(ordinal, device);
+					if (number == number) {
+						numbers[device] = number;
+						devices[size++] = device;
+					}
+				}
+			}
+			Arrays.sort(devices, 0, size, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return longs != null ? Long.compare(longs[a], longs[b])
+							: Double.compare(numbers[a], numbers[b]);
+				}
+			});
+			this.sorted = exact ? null : new double[size];
+			this.integral = exact ? new long[size] : null;
+			this.order = new int[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = devices[i];
+				if (exact) {
+					integral[i] = longs[order[i]];
+				} else {
+					sorted[i] = numbers[order[i]];
+				}
+			}
+			this.bucketSize = Math.max(1, (size + BUCKETS - 1) / BUCKETS);
+			int buckets = (size + bucketSize - 1) / bucketSize;
+			this.below = new DeviceBitmap[buckets + 1];
+			long[] words = new long[(count + 63) >>> 6];
+			below[0] = DeviceBitmap.EMPTY;
+			for (int bucket = 1; bucket <= buckets; bucket++) {
+				set(words, (bucket - 1) * bucketSize, Math.min(bucket * bucketSize, size));
+				below[bucket] = DeviceBitmap.of(words);
+			}
+			this.known = known.build();
+		}
+
+		/**
+		 * Adds the devices of sorted positions from start, inclusive, to end, exclusive.
+		 */
+		void set(long[] words, int start, int end) {
+			for (int i = start; i < end; i++) {
+				words[order[i] >>> 6] |= 1L << order[i];
+			}
+		}
+
+		/**
+		 * @return The position of the first value not below min.
+		 */
+		int lowerBound(double min) {
+			if (integral != null) {
+				// an integral value is not below min when it is not below its ceiling
+				if (!(min < 0x1p63)) {
+					return integral.length;
+				}
+				return lowerBound((long) Math.ceil(min));
+			}
+			int lo = 0;
+			int hi = sorted.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (sorted[mid] < min) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		/**
+		 * @return The position of the first value above max.
+		 */
+		int upperBound(double max) {
+			if (integral != null) {
+				// an integral value is above max when it is above its floor
+				if (!(max >= -0x1p63)) {
+					return 0;
+				}
+				return upperBound((long) Math.floor(max));
+			}
+			int lo = 0;
+			int hi = sorted.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (sorted[mid] <= max) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		/**
+		 * @return The position of the first integral value not below min.
+		 */
+		int lowerBound(long min) {
+			int lo = 0;
+			int hi = integral.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (integral[mid] < min) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		/**
+		 * @return The position of the first integral value above max.
+		 */
+		int upperBound(long max) {
+			int lo = 0;
+			int hi = integral.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (integral[mid] <= max) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+	}
+}
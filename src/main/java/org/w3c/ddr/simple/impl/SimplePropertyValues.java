@@ -0,0 +1,49 @@
+package org.w3c.ddr.simple.impl;
+
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.PropertyValues;
+import org.w3c.ddr.simple.exception.NameException;
+
+/**
+ * A {@link PropertyValues} collection backed by an array.
+ */
+public final class SimplePropertyValues implements PropertyValues {
+
+	private final PropertyValue[] values;
+
+	/**
+	 * @param values The values of the collection, which is not copied.
+	 */
+	public SimplePropertyValues(PropertyValue[] values) {
+		this.values = values;
+	}
+
+	@Override
+	public PropertyValue[] getAll() {
+		return values.clone();
+	}
+
+	@Override
+	public PropertyValue getValue(PropertyRef prop) throws NameException {
+		if (prop == null) {
+			throw new NameException(NameException.PROPERTY_NOT_RECOGNIZED,
+					"PropertyRef cannot be null");
+		}
+		for (PropertyValue value : values) {
+			if (PropertyRefImpl.sameRef(value.getPropertyRef(), prop)) {
+				return value;
+			}
+		}
+		throw new NameException(NameException.PROPERTY_NOT_RECOGNIZED,
+				"Property not in collection: " + prop.getLocalPropertyName());
+	}
+
+	/**
+	 * @return Whether the first value was looked up for an identified device; false if
+	 *         the collection is empty.
+	 */
+	boolean isDeviceIdentified() {
+		return values.length > 0 && IndexedService.isDeviceIdentified(values[0]);
+	}
+}
@@ -0,0 +1,75 @@
+package org.w3c.ddr.simple.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.w3c.ddr.simple.exception.InitializationException;
+
+/**
+ * Compiles an XML device repository into a binary snapshot.
+ *
+ * A snapshot is used like the repository it was compiled from, by naming it in the
+ * {@link IndexedService#REPOSITORY} configuration property. Rather than being parsed,
+ * it is mapped into memory, so the service is ready to serve almost immediately and
+ * the device values are kept off the Java heap, shared by all processes using the
+ * snapshot. The data version of the repository is embedded in the snapshot.
+ *
+ * <pre>
+ * java org.w3c.ddr.simple.impl.SnapshotCompiler repository.xml repository.ddrs
+ * </pre>
+ */
+public final class SnapshotCompiler {
+
+	private SnapshotCompiler() {
+	}
+
+	/**
+	 * Compiles a repository.
+	 *
+	 * @param location The repository file or class path resource.
+	 * @param snapshot The snapshot file to create or replace.
+	 * @throws InitializationException if the repository cannot be read or is invalid.
+	 * @throws IOException if the snapshot cannot be written.
+	 */
+	public static void compile(String location, File snapshot) throws InitializationException,
+			IOException {
+		DeviceIndexBuilder builder = RepositoryLoader.read(location, null);
+		File temporary = new File(snapshot.getPath() + ".tmp");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(temporary));
+		try {
+			SnapshotWriter.write(builder, out);
+		} finally {
+			out.close();
+		}
+		// replace atomically where supported, so readers never map a partial file
+		if (!temporary.renameTo(snapshot)) {
+			if (!snapshot.delete() || !temporary.renameTo(snapshot)) {
+				throw new IOException("Cannot replace " + snapshot);
+			}
+		}
+	}
+
+	/**
+	 * Command line entry point.
+	 *
+	 * @param args The repository and the snapshot file.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: SnapshotCompiler <repository> <snapshot>");
+			System.exit(2);
+		}
+		try {
+			compile(args[0], new File(args[1]));
+		} catch (InitializationException e) {
+			System.err.println("Cannot read " + args[0] + ": " + e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			System.err.println("Cannot write " + args[1] + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package org.w3c.ddr.simple.impl;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Properties;
+
+import org.w3c.ddr.simple.exception.InitializationException;
+
+/**
+ * Maps a binary snapshot written by {@link SnapshotWriter} into memory.
+ *
+ * Only the metadata (vocabularies, device identifiers and patterns) is read onto the
+ * heap; device values are read from the mapping by a {@link MappedValueStore}, so a
+ * snapshot is ready to serve as soon as its evidence matchers are compiled.
+ * Snapshots are limited to 2GB.
+ *
+ * Every count, length and index of the metadata, and the place of the data of each
+ * property in the value section, are checked against the snapshot before they are
+ * used, so that a damaged snapshot is rejected during initialization rather than
+ * making the reader allocate or read past its sections.
+ */
+final class SnapshotReader {
+
+	private final ByteBuffer buffer;
+
+	private int position;
+
+	/**
+	 * The end of the metadata: the offset of the value section.
+	 */
+	private final int limit;
+
+	private SnapshotReader(ByteBuffer buffer, int position, int limit) {
+		this.buffer = buffer;
+		this.position = position;
+		this.limit = limit;
+	}
+
+	/**
+	 * Tells whether a repository location is a snapshot file.
+	 *
+	 * @param location A file name or class path resource name.
+	 * @return true if the location is a file starting with the snapshot magic number.
+	 */
+	static boolean isSnapshot(String location) {
+		File file = new File(location);
+		if (!file.isFile() || file.length() < SnapshotWriter.HEADER_SIZE) {
+			return false;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			return in.readInt() == SnapshotWriter.MAGIC;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			RepositoryLoader.close(in);
+		}
+	}
+
+	/**
+	 * Maps a snapshot file.
+	 *
+	 * @param location The snapshot file.
+	 * @param props The service configuration.
+	 * @return The device index.
+	 * @throws InitializationException if the snapshot cannot be mapped or is invalid.
+	 */
+	static DeviceIndex map(String location, Properties props) throws InitializationException {
+		MappedByteBuffer buffer;
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(location, "r");
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+						"Snapshot exceeds 2GB: " + location);
+			}
+			// the mapping remains valid once the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					// nothing left to do
+				}
+			}
+		}
+		return read(buffer, props);
+	}
+
+	/**
+	 * Reads a snapshot held in a buffer.
+	 *
+	 * @param buffer The snapshot.
+	 * @param props The service configuration.
+	 * @return The device index, reading values from the buffer.
+	 * @throws InitializationException if the snapshot is invalid.
+	 */
+	static DeviceIndex read(ByteBuffer buffer, Properties props) throws InitializationException {
+		if (buffer.capacity() < SnapshotWriter.HEADER_SIZE
+				|| buffer.getInt(0) != SnapshotWriter.MAGIC) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					"Not a device repository snapshot");
+		}
+		if (buffer.getInt(4) != SnapshotWriter.FORMAT_VERSION) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					"Unsupported snapshot format version " + buffer.getInt(4));
+		}
+		int valueOffset = buffer.getInt(8);
+		int stringOffset = buffer.getInt(12);
+		if (valueOffset < SnapshotWriter.HEADER_SIZE || stringOffset < valueOffset
+				|| stringOffset > buffer.capacity()) {
+			throw damaged("section offsets " + valueOffset + " and " + stringOffset);
+		}
+		try {
+			return new SnapshotReader(buffer, SnapshotWriter.HEADER_SIZE, valueOffset)
+					.readMetadata(props, valueOffset, stringOffset);
+		} catch (IndexOutOfBoundsException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					"Truncated snapshot");
+		}
+	}
+
+	private DeviceIndex readMetadata(Properties props, int valueOffset, int stringOffset)
+			throws InitializationException {
+		DeviceIndexBuilder builder = new DeviceIndexBuilder(props);
+		builder.setDataVersion(readString());
+
+		String[] vocabularies = new String[readCount("vocabulary", 4)];
+		for (int i = 0; i < vocabularies.length; i++) {
+			vocabularies[i] = readString();
+			builder.addVocabulary(vocabularies[i]);
+		}
+
+		PropertyType[] types = PropertyType.values();
+		// vocabulary, name, type, aspect count, aspect and default aspect
+		for (int properties = readCount("property", 21); properties > 0; properties--) {
+			String iri = vocabularies[readIndex("vocabulary", vocabularies.length)];
+			String name = readString();
+			if (position >= limit) {
+				throw damaged("property " + name);
+			}
+			int type = buffer.get(position++);
+			if (type < 0 || type >= types.length) {
+				throw damaged("type " + type + " of property " + name);
+			}
+			String[] aspects = new String[readCount("aspect", 4)];
+			if (aspects.length == 0) {
+				throw damaged("aspects of property " + name);
+			}
+			for (int i = 0; i < aspects.length; i++) {
+				aspects[i] = readString();
+			}
+			builder.addProperty(iri, name, types[type], aspects,
+					aspects[readIndex("default aspect", aspects.length)]);
+		}
+
+		for (int devices = readCount("device", 4); devices > 0; devices--) {
+			builder.addDevice(readString());
+		}
+
+		// header, pattern and device
+		for (int patterns = readCount("pattern", 12); patterns > 0; patterns--) {
+			String header = readString();
+			String pattern = readString();
+			builder.addPattern(readIndex("device", builder.devices.size()), header, pattern);
+		}
+
+		checkValues(builder.types, builder.devices.size(), valueOffset, stringOffset);
+		return builder.build(new MappedValueStore(buffer, valueOffset, stringOffset,
+				builder.refs.toArray(new PropertyRefImpl[builder.refs.size()]),
+				builder.types.toArray(new PropertyType[builder.types.size()]),
+				builder.devices.size(), builder.exceptions, builder.stringCache));
+	}
+
+	/**
+	 * Checks that the directory of the value section, and the bit set and data of every
+	 * ordinal it locates, lie within the section.
+	 */
+	private void checkValues(List<PropertyType> types, int devices, int valueOffset,
+			int stringOffset) throws InitializationException {
+		long size = stringOffset - valueOffset;
+		if (types.size() * 8L > size) {
+			throw damaged("value section");
+		}
+		long bits = ((devices + 63L) >>> 6) * 8;
+		for (int o = 0; o < types.size(); o++) {
+			int known = buffer.getInt(valueOffset + o * 8);
+			int data = buffer.getInt(valueOffset + o * 8 + 4);
+			long length;
+			switch (types.get(o)) {
+			case LONG:
+			case DOUBLE:
+			case ENUMERATION:
+				length = devices * 8L;
+				break;
+			case BOOLEAN:
+				length = bits;
+				break;
+			default:
+				length = devices * 4L;
+			}
+			if (known < 0 || known + bits > size || data < 0 || data + length > size) {
+				throw damaged("values of property ordinal " + o);
+			}
+		}
+	}
+
+	private int readInt() throws InitializationException {
+		if (limit - position < 4) {
+			throw damaged("metadata");
+		}
+		int value = buffer.getInt(position);
+		position += 4;
+		return value;
+	}
+
+	/**
+	 * Reads a count of items, each taking at least the given number of bytes.
+	 */
+	private int readCount(String item, int size) throws InitializationException {
+		int count = readInt();
+		if (count < 0 || count > (limit - position) / size) {
+			throw damaged(item + " count " + count);
+		}
+		return count;
+	}
+
+	/**
+	 * Reads an index, which must be less than the given bound.
+	 */
+	private int readIndex(String item, int bound) throws InitializationException {
+		int index = readInt();
+		if (index < 0 || index >= bound) {
+			throw damaged(item + " index " + index);
+		}
+		return index;
+	}
+
+	private String readString() throws InitializationException {
+		int length = readInt();
+		if (length < 0 || length > limit - position) {
+			throw damaged("string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(position++);
+		}
+		return new String(bytes, SnapshotWriter.UTF8);
+	}
+
+	private static InitializationException damaged(String what) {
+		return new InitializationException(InitializationException.INITIALIZATION_ERROR,
+				"Damaged snapshot: invalid " + what);
+	}
+}
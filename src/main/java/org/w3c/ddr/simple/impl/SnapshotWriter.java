@@ -0,0 +1,297 @@
+package org.w3c.ddr.simple.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the content of a {@link DeviceIndexBuilder} as a binary snapshot, which
+ * {@link SnapshotReader} maps into memory without parsing the device values.
+ *
+ * All numbers are big-endian; a string is an int byte count followed by UTF-8 bytes.
+ *
+ * <pre>
+ * header     int magic ('DDRS'), int format version,
+ *            int offset of the value section, int offset of the string section
+ * metadata   string data version
+ *            int vocabulary count, string IRI per vocabulary
+ *            int property count, per property in ordinal order:
+ *                int vocabulary index, string name, byte type ({@link PropertyType} ordinal),
+ *                int aspect count, string per aspect, int index of the default aspect
+ *            int device count, string id per device
+ *            int pattern count, per pattern: string header, string pattern, int device
+ * values     (8-byte aligned) per ordinal: int offset of the known-device bit set,
+ *            int offset of the data, both relative to the value section; followed by
+ *            the bit sets (longs) and data of every ordinal, each 8-byte aligned:
+ *                integer int[devices], long long[devices], float float[devices],
+ *                double double[devices], boolean long[] bit set,
+ *                string int[devices] string offsets,
+ *                enumeration int[devices] string offsets, then int[devices] member list offsets
+ * strings    deduplicated strings, and enumeration member lists (int count, then
+ *            int string offset per member); offsets are relative to the string section
+ * </pre>
+ */
+final class SnapshotWriter {
+
+	static final int MAGIC = 0x44445253;
+
+	static final int FORMAT_VERSION = 1;
+
+	static final int HEADER_SIZE = 16;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Map<String, Integer> stringOffsets = new HashMap<String, Integer>();
+
+	private final Map<String, Integer> listOffsets = new HashMap<String, Integer>();
+
+	private final ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+
+	private final DataOutputStream strings = new DataOutputStream(stringBytes);
+
+	private SnapshotWriter() {
+	}
+
+	/**
+	 * Writes a snapshot.
+	 *
+	 * @param builder The repository content.
+	 * @param out The stream to write to, which is not closed.
+	 * @throws IOException if the stream cannot be written.
+	 */
+	static void write(DeviceIndexBuilder builder, OutputStream out) throws IOException {
+		new SnapshotWriter().writeSnapshot(builder, out);
+	}
+
+	private void writeSnapshot(DeviceIndexBuilder builder, OutputStream out) throws IOException {
+		byte[] metadata = metadata(builder);
+		byte[] values = values(builder);
+		strings.flush();
+
+		int valueOffset = align(HEADER_SIZE + metadata.length);
+		int stringOffset = align(valueOffset + values.length);
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(FORMAT_VERSION);
+		data.writeInt(valueOffset);
+		data.writeInt(stringOffset);
+		data.write(metadata);
+		pad(data, valueOffset - HEADER_SIZE - metadata.length);
+		data.write(values);
+		pad(data, stringOffset - valueOffset - values.length);
+		stringBytes.writeTo(data);
+		data.flush();
+	}
+
+	private static byte[] metadata(DeviceIndexBuilder builder) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeString(out, builder.dataVersion);
+
+		Map<String, Integer> vocabularies = new HashMap<String, Integer>();
+		out.writeInt(builder.vocabularies.size());
+		for (String iri : builder.vocabularies.keySet()) {
+			vocabularies.put(iri, vocabularies.size());
+			writeString(out, iri);
+		}
+
+		int properties = 0;
+		for (Vocabulary vocabulary : builder.vocabularies.values()) {
+			properties += vocabulary.properties.size();
+		}
+		out.writeInt(properties);
+		for (int o = 0; o < builder.refs.size(); o++) {
+			PropertyRefImpl ref = builder.refs.get(o);
+			PropertyDefinition property = builder.vocabularies.get(ref.getNamespace()).properties
+					.get(ref.getLocalPropertyName());
+			if (property.ordinals[0] != o) {
+				// further aspects of a property already written
+				continue;
+			}
+			out.writeInt(vocabularies.get(ref.getNamespace()));
+			writeString(out, property.name);
+			out.writeByte(property.type.ordinal());
+			out.writeInt(property.aspects.length);
+			int defaultAspect = 0;
+			for (int i = 0; i < property.aspects.length; i++) {
+				writeString(out, property.aspects[i]);
+				if (property.aspects[i].equals(property.defaultAspect)) {
+					defaultAspect = i;
+				}
+			}
+			out.writeInt(defaultAspect);
+		}
+
+		out.writeInt(builder.devices.size());
+		for (String device : builder.devices) {
+			writeString(out, device);
+		}
+
+		out.writeInt(builder.patterns.size());
+		for (int i = 0; i < builder.patterns.size(); i++) {
+			writeString(out, builder.patternHeaders.get(i));
+			writeString(out, builder.patterns.get(i));
+			out.writeInt(builder.patternDevices.get(i));
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private byte[] values(DeviceIndexBuilder builder) throws IOException {
+		int ordinals = builder.refs.size();
+		int devices = builder.devices.size();
+		List<String[]> rows = builder.rows;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		int directory = ordinals * 8;
+		int[] known = new int[ordinals];
+		int[] data = new int[ordinals];
+		for (int o = 0; o < ordinals; o++) {
+			PropertyType type = builder.types.get(o);
+			long[] bits = new long[(devices + 63) >>> 6];
+			for (int d = 0; d < devices; d++) {
+				if (value(rows, d, o) != null) {
+					bits[d >>> 6] |= 1L << d;
+				}
+			}
+			known[o] = directory + out.size();
+			writeBits(out, bits);
+
+			data[o] = directory + out.size();
+			switch (type) {
+			case INTEGER:
+				for (int d = 0; d < devices; d++) {
+					String value = value(rows, d, o);
+					out.writeInt(value == null ? 0 : Integer.parseInt(value));
+				}
+				break;
+			case LONG:
+				for (int d = 0; d < devices; d++) {
+					String value = value(rows, d, o);
+					out.writeLong(value == null ? 0 : Long.parseLong(value));
+				}
+				break;
+			case FLOAT:
+				for (int d = 0; d < devices; d++) {
+					String value = value(rows, d, o);
+					out.writeFloat(value == null ? 0 : Float.parseFloat(value));
+				}
+				break;
+			case DOUBLE:
+				for (int d = 0; d < devices; d++) {
+					String value = value(rows, d, o);
+					out.writeDouble(value == null ? 0 : Double.parseDouble(value));
+				}
+				break;
+			case BOOLEAN:
+				bits = new long[bits.length];
+				for (int d = 0; d < devices; d++) {
+					if ("true".equals(value(rows, d, o))) {
+						bits[d >>> 6] |= 1L << d;
+					}
+				}
+				writeBits(out, bits);
+				break;
+			case ENUMERATION:
+				for (int d = 0; d < devices; d++) {
+					String value = value(rows, d, o);
+					out.writeInt(value == null ? -1 : string(value));
+				}
+				for (int d = 0; d < devices; d++) {
+					String value = value(rows, d, o);
+					out.writeInt(value == null ? -1 : list(value));
+				}
+				break;
+			default:
+				for (int d = 0; d < devices; d++) {
+					String value = value(rows, d, o);
+					out.writeInt(value == null ? -1 : string(value));
+				}
+			}
+			pad(out, align(out.size()) - out.size());
+		}
+		out.flush();
+
+		ByteArrayOutputStream section = new ByteArrayOutputStream(directory + bytes.size());
+		DataOutputStream header = new DataOutputStream(section);
+		for (int o = 0; o < ordinals; o++) {
+			header.writeInt(known[o]);
+			header.writeInt(data[o]);
+		}
+		header.flush();
+		bytes.writeTo(section);
+		return section.toByteArray();
+	}
+
+	private static String value(List<String[]> rows, int device, int ordinal) {
+		String[] row = rows.get(device);
+		return row == null ? null : row[ordinal];
+	}
+
+	/**
+	 * Adds a string to the string section, once.
+	 *
+	 * @return The offset of the string in the string section.
+	 */
+	private int string(String value) throws IOException {
+		Integer offset = stringOffsets.get(value);
+		if (offset == null) {
+			offset = strings.size();
+			writeString(strings, value);
+			stringOffsets.put(value, offset);
+		}
+		return offset;
+	}
+
+	/**
+	 * Adds the member list of an enumeration to the string section, once.
+	 *
+	 * @return The offset of the list in the string section.
+	 */
+	private int list(String value) throws IOException {
+		Integer offset = listOffsets.get(value);
+		if (offset == null) {
+			String trimmed = value.trim();
+			String[] members = trimmed.length() == 0 ? new String[0] : trimmed.split("\\s+");
+			int[] memberOffsets = new int[members.length];
+			for (int i = 0; i < members.length; i++) {
+				memberOffsets[i] = string(members[i]);
+			}
+			offset = strings.size();
+			strings.writeInt(members.length);
+			for (int memberOffset : memberOffsets) {
+				strings.writeInt(memberOffset);
+			}
+			listOffsets.put(value, offset);
+		}
+		return offset;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void writeBits(DataOutputStream out, long[] bits) throws IOException {
+		for (long word : bits) {
+			out.writeLong(word);
+		}
+	}
+
+	private static int align(int offset) {
+		return (offset + 7) & ~7;
+	}
+
+	private static void pad(DataOutputStream out, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			out.writeByte(0);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.w3c.ddr.simple.exception.InitializationException;
+
+/**
+ * A step of the initialization of a service, run on the executor configured with
+ * {@link IndexedService#EXECUTOR} while the thread that started it goes on with others.
+ *
+ * A stage that no thread of the executor has started when its result is needed is run
+ * by the thread needing it, so stages started from the threads of a small or saturated
+ * executor never wait for each other, and an executor that rejects the stage only
+ * makes it run later.
+ */
+final class Stage<T> extends FutureTask<T> {
+
+	private Stage(Callable<T> task) {
+		super(task);
+	}
+
+	/**
+	 * Starts a stage.
+	 *
+	 * @param task The work of the stage.
+	 * @param executor The executor to run it on.
+	 * @return The stage.
+	 */
+	static <T> Stage<T> start(Callable<T> task, Executor executor) {
+		Stage<T> stage = new Stage<T>(task);
+		try {
+			executor.execute(stage);
+		} catch (RejectedExecutionException e) {
+			// run by join
+		}
+		return stage;
+	}
+
+	/**
+	 * Waits for the result of the stage, running it on the calling thread if it has not
+	 * started yet.
+	 *
+	 * @return The result.
+	 * @throws InitializationException if the stage failed.
+	 */
+	T join() throws InitializationException {
+		run();
+		try {
+			return get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof InitializationException) {
+				throw (InitializationException) e.getCause();
+			}
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					e.getCause());
+		}
+	}
+
+	/**
+	 * The executor of the stages of a service.
+	 *
+	 * @param props The service configuration, or null.
+	 * @return The executor configured with {@link IndexedService#EXECUTOR}, or the common
+	 *         fork-join pool.
+	 * @throws InitializationException if the property is not an Executor.
+	 */
+	static Executor executor(Properties props) throws InitializationException {
+		Object executor = props == null ? null : props.get(IndexedService.EXECUTOR);
+		if (executor == null) {
+			return ForkJoinPool.commonPool();
+		}
+		if (!(executor instanceof Executor)) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					IndexedService.EXECUTOR + " is not an Executor: " + executor);
+		}
+		return (Executor) executor;
+	}
+}
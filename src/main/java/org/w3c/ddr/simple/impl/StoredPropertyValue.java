@@ -0,0 +1,94 @@
+package org.w3c.ddr.simple.impl;
+
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.exception.ValueException;
+
+/**
+ * A {@link PropertyValue} reading its value directly from a {@link ValueStore}.
+ * It holds no data of its own other than the coordinates of the value.
+ */
+final class StoredPropertyValue implements PropertyValue {
+
+	private final ValueStore store;
+
+	private final PropertyRef ref;
+
+	private final int ordinal;
+
+	private final int device;
+
+	/**
+	 * @param store The store holding the value.
+	 * @param ref The property the value belongs to.
+	 * @param ordinal The ordinal of the property.
+	 * @param device The device ordinal, or -1 if no device was identified.
+	 */
+	StoredPropertyValue(ValueStore store, PropertyRef ref, int ordinal, int device) {
+		this.store = store;
+		this.ref = ref;
+		this.ordinal = ordinal;
+		this.device = device;
+	}
+
+	/**
+	 * @return true if the value was looked up for an identified device.
+	 */
+	boolean isDeviceIdentified() {
+		return device >= 0;
+	}
+
+	@Override
+	public double getDouble() throws ValueException {
+		return store.getDouble(ordinal, device);
+	}
+
+	@Override
+	public long getLong() throws ValueException {
+		return store.getLong(ordinal, device);
+	}
+
+	@Override
+	public boolean getBoolean() throws ValueException {
+		return store.getBoolean(ordinal, device);
+	}
+
+	@Override
+	public int getInteger() throws ValueException {
+		return store.getInteger(ordinal, device);
+	}
+
+	@Override
+	public String[] getEnumeration() throws ValueException {
+		return store.getEnumeration(ordinal, device);
+	}
+
+	@Override
+	public float getFloat() throws ValueException {
+		return store.getFloat(ordinal, device);
+	}
+
+	@Override
+	public PropertyRef getPropertyRef() {
+		return ref;
+	}
+
+	@Override
+	public String getString() throws ValueException {
+		return store.getString(ordinal, device);
+	}
+
+	@Override
+	public boolean exists() {
+		return store.exists(ordinal, device);
+	}
+
+	@Override
+	public String toString() {
+		try {
+			return ref + "=" + (exists() ? getString() : null);
+		} catch (ValueException e) {
+			return ref + "=?";
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package org.w3c.ddr.simple.impl;
+
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.exception.ValueException;
+
+/**
+ * The {@link PropertyValue} returned by the non-throwing lookups of an
+ * {@link IndexedService} for a property the index does not recognize. It does not
+ * exist, and every attempt to read it throws a ValueException with code NOT_KNOWN.
+ */
+final class UnrecognizedPropertyValue implements PropertyValue {
+
+	private final PropertyRef ref;
+
+	private final Exceptions exceptions;
+
+	/**
+	 * @param ref The property as it was named by the caller.
+	 * @param exceptions Creates the exceptions thrown by the getters.
+	 */
+	UnrecognizedPropertyValue(PropertyRef ref, Exceptions exceptions) {
+		this.ref = ref;
+		this.exceptions = exceptions;
+	}
+
+	@Override
+	public double getDouble() throws ValueException {
+		throw notKnown();
+	}
+
+	@Override
+	public long getLong() throws ValueException {
+		throw notKnown();
+	}
+
+	@Override
+	public boolean getBoolean() throws ValueException {
+		throw notKnown();
+	}
+
+	@Override
+	public int getInteger() throws ValueException {
+		throw notKnown();
+	}
+
+	@Override
+	public String[] getEnumeration() throws ValueException {
+		throw notKnown();
+	}
+
+	@Override
+	public float getFloat() throws ValueException {
+		throw notKnown();
+	}
+
+	@Override
+	public PropertyRef getPropertyRef() {
+		return ref;
+	}
+
+	@Override
+	public String getString() throws ValueException {
+		throw notKnown();
+	}
+
+	@Override
+	public boolean exists() {
+		return false;
+	}
+
+	private ValueException notKnown() {
+		return exceptions.value(ValueException.NOT_KNOWN, "Property not recognized: ",
+				ref.getLocalPropertyName());
+	}
+}
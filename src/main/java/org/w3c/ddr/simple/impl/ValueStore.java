@@ -0,0 +1,150 @@
+package org.w3c.ddr.simple.impl;
+
+import org.w3c.ddr.simple.exception.ValueException;
+
+/**
+ * Column-oriented storage of the property values of all devices.
+ *
+ * There is one column per property ordinal, holding the values of every device in
+ * the primitive type declared for the property, addressed by device ordinal, together
+ * with the set of devices for which the value is known. Reading a value is a direct
+ * access preceded by a check of the type tag of the column, which is also what decides
+ * whether a {@link ValueException#INCOMPATIBLE_TYPES} is thrown.
+ *
+ * Implementations are immutable and may be read concurrently.
+ *
+ * @see HeapValueStore
+ * @see MappedValueStore
+ */
+abstract class ValueStore {
+
+	private final Exceptions exceptions;
+
+	/**
+	 * @param exceptions Creates the exceptions thrown when a value cannot be read.
+	 */
+	ValueStore(Exceptions exceptions) {
+		this.exceptions = exceptions;
+	}
+
+	/**
+	 * @param ordinal A property ordinal.
+	 * @return The declared type of the property.
+	 */
+	abstract PropertyType type(int ordinal);
+
+	/**
+	 * @param ordinal A property ordinal.
+	 * @return The local name of the property, for diagnostics.
+	 */
+	abstract String name(int ordinal);
+
+	/**
+	 * @param ordinal A property ordinal.
+	 * @param device A device ordinal, not negative.
+	 * @return true if the value is known.
+	 */
+	abstract boolean isKnown(int ordinal, int device);
+
+	abstract int readInt(int ordinal, int device);
+
+	abstract long readLong(int ordinal, int device);
+
+	abstract float readFloat(int ordinal, int device);
+
+	abstract double readDouble(int ordinal, int device);
+
+	abstract boolean readBoolean(int ordinal, int device);
+
+	/**
+	 * Reads a string, or the space separated members of an enumeration.
+	 */
+	abstract String readString(int ordinal, int device);
+
+	/**
+	 * Reads the members of an enumeration into an array owned by the caller.
+	 */
+	abstract String[] readEnumeration(int ordinal, int device);
+
+	boolean exists(int ordinal, int device) {
+		return device >= 0 && isKnown(ordinal, device);
+	}
+
+	int getInteger(int ordinal, int device) throws ValueException {
+		check(ordinal, device, PropertyType.INTEGER);
+		return readInt(ordinal, device);
+	}
+
+	long getLong(int ordinal, int device) throws ValueException {
+		if (check(ordinal, device, PropertyType.LONG) == PropertyType.INTEGER) {
+			return readInt(ordinal, device);
+		}
+		return readLong(ordinal, device);
+	}
+
+	float getFloat(int ordinal, int device) throws ValueException {
+		if (check(ordinal, device, PropertyType.FLOAT) == PropertyType.INTEGER) {
+			return readInt(ordinal, device);
+		}
+		return readFloat(ordinal, device);
+	}
+
+	double getDouble(int ordinal, int device) throws ValueException {
+		switch (check(ordinal, device, PropertyType.DOUBLE)) {
+		case INTEGER:
+			return readInt(ordinal, device);
+		case LONG:
+			return readLong(ordinal, device);
+		case FLOAT:
+			return readFloat(ordinal, device);
+		default:
+			return readDouble(ordinal, device);
+		}
+	}
+
+	boolean getBoolean(int ordinal, int device) throws ValueException {
+		check(ordinal, device, PropertyType.BOOLEAN);
+		return readBoolean(ordinal, device);
+	}
+
+	String[] getEnumeration(int ordinal, int device) throws ValueException {
+		check(ordinal, device, PropertyType.ENUMERATION);
+		return readEnumeration(ordinal, device);
+	}
+
+	String getString(int ordinal, int device) throws ValueException {
+		switch (check(ordinal, device, null)) {
+		case INTEGER:
+			return Integer.toString(readInt(ordinal, device));
+		case LONG:
+			return Long.toString(readLong(ordinal, device));
+		case FLOAT:
+			return Float.toString(readFloat(ordinal, device));
+		case DOUBLE:
+			return Double.toString(readDouble(ordinal, device));
+		case BOOLEAN:
+			return Boolean.toString(readBoolean(ordinal, device));
+		default:
+			return readString(ordinal, device);
+		}
+	}
+
+	/**
+	 * Checks that a value is known and readable as the requested type.
+	 *
+	 * @param requested The requested type, or null for a string version of any type.
+	 * @return The declared type of the property.
+	 */
+	private PropertyType check(int ordinal, int device, PropertyType requested)
+			throws ValueException {
+		if (device < 0 || !isKnown(ordinal, device)) {
+			throw exceptions.value(ValueException.NOT_KNOWN, "Value not known: ", name(ordinal));
+		}
+		PropertyType type = type(ordinal);
+		if (requested != null && !type.isReadableAs(requested)) {
+			throw exceptions.value(ValueException.INCOMPATIBLE_TYPES, "Property ",
+					name(ordinal), " is of type ", type.getName(), ", not ", requested.getName());
+		}
+		return type;
+	}
+}
@@ -0,0 +1,22 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A vocabulary of property and aspect terms identified by a namespace IRI.
+ */
+final class Vocabulary {
+
+	final String iri;
+
+	final Map<String, PropertyDefinition> properties;
+
+	final Set<String> aspects;
+
+	Vocabulary(String iri, Map<String, PropertyDefinition> properties, Set<String> aspects) {
+		this.iri = iri;
+		this.properties = properties;
+		this.aspects = aspects;
+	}
+}
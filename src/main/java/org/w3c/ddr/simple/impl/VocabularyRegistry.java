@@ -0,0 +1,111 @@
+package org.w3c.ddr.simple.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.w3c.ddr.simple.exception.NameException;
+
+/**
+ * The vocabularies of a device index, with the properties of each of their aspects
+ * precomputed.
+ *
+ * When the index is built, a bit set of property ordinals is computed for each
+ * vocabulary and for each aspect name; the properties of an aspect of a vocabulary are
+ * the intersection of the two, computed once and stored with the vocabulary. Resolving
+ * a vocabulary IRI, or an aspect within a vocabulary, is then a hash lookup, and an
+ * aspect-filtered lookup reads the precomputed ordinals. Instances are immutable.
+ */
+final class VocabularyRegistry {
+
+	private final Map<String, Vocabulary> vocabularies;
+
+	/**
+	 * The aspect sets of each vocabulary, by IRI and aspect name.
+	 */
+	private final Map<String, Map<String, AspectSet>> aspects;
+
+	private final Exceptions exceptions;
+
+	/**
+	 * @param vocabularies The vocabularies by IRI.
+	 * @param refs The property references of the index, by ordinal.
+	 * @param exceptions Creates the exceptions thrown when a name is not recognized.
+	 */
+	VocabularyRegistry(Map<String, Vocabulary> vocabularies, PropertyRefImpl[] refs,
+			Exceptions exceptions) {
+		int words = (refs.length + 63) >>> 6;
+		Map<String, long[]> vocabularyBits = new HashMap<String, long[]>();
+		Map<String, long[]> aspectBits = new HashMap<String, long[]>();
+		for (int o = 0; o < refs.length; o++) {
+			set(vocabularyBits, refs[o].getNamespace(), words, o);
+			set(aspectBits, refs[o].getAspectName(), words, o);
+		}
+
+		Map<String, Map<String, AspectSet>> aspects = new HashMap<String, Map<String, AspectSet>>();
+		for (Vocabulary vocabulary : vocabularies.values()) {
+			long[] inVocabulary = vocabularyBits.get(vocabulary.iri);
+			Map<String, AspectSet> sets = new HashMap<String, AspectSet>();
+			for (String aspect : vocabulary.aspects) {
+				long[] members = aspectBits.get(aspect).clone();
+				for (int w = 0; w < words; w++) {
+					members[w] &= inVocabulary[w];
+				}
+				sets.put(aspect, new AspectSet(aspect, members));
+			}
+			aspects.put(vocabulary.iri, sets);
+		}
+		this.vocabularies = Collections.unmodifiableMap(vocabularies);
+		this.aspects = aspects;
+		this.exceptions = exceptions;
+	}
+
+	private static void set(Map<String, long[]> bits, String key, int words, int ordinal) {
+		long[] set = bits.get(key);
+		if (set == null) {
+			set = new long[words];
+			bits.put(key, set);
+		}
+		set[ordinal >>> 6] |= 1L << ordinal;
+	}
+
+	/**
+	 * Resolves a vocabulary IRI.
+	 *
+	 * @param iri The namespace IRI.
+	 * @return The vocabulary.
+	 * @throws NameException with code VOCABULARY_NOT_RECOGNIZED if the vocabulary is not known.
+	 */
+	Vocabulary vocabulary(String iri) throws NameException {
+		Vocabulary vocabulary = iri == null ? null : vocabularies.get(iri);
+		if (vocabulary == null) {
+			throw exceptions.name(NameException.VOCABULARY_NOT_RECOGNIZED,
+					"Vocabulary not recognized: ", iri);
+		}
+		return vocabulary;
+	}
+
+	/**
+	 * Resolves an aspect of a vocabulary.
+	 *
+	 * @param vocabulary The vocabulary.
+	 * @param aspect The local aspect name.
+	 * @return The properties supporting the aspect.
+	 * @throws NameException with code ASPECT_NOT_RECOGNIZED if the vocabulary has no such aspect.
+	 */
+	AspectSet aspect(Vocabulary vocabulary, String aspect) throws NameException {
+		AspectSet set = aspect == null ? null : aspects.get(vocabulary.iri).get(aspect);
+		if (set == null) {
+			throw exceptions.name(NameException.ASPECT_NOT_RECOGNIZED,
+					"Aspect not recognized: ", aspect);
+		}
+		return set;
+	}
+
+	/**
+	 * @return The vocabularies by IRI.
+	 */
+	Map<String, Vocabulary> vocabularies() {
+		return vocabularies;
+	}
+}
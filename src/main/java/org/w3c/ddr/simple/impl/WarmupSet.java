@@ -0,0 +1,151 @@
+package org.w3c.ddr.simple.impl;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.ddr.simple.exception.InitializationException;
+
+/**
+ * Records the most frequent User-Agent headers of a log into a warm-up set, which
+ * {@link ParallelServiceFactory} replays to prime a service before it is used.
+ *
+ * A warm-up set is a UTF-8 text file, or class path resource, holding one User-Agent per
+ * line, most frequent first, each optionally preceded by its number of occurrences and a
+ * tab. Empty lines and lines starting with # are ignored. The log it is recorded from
+ * holds one User-Agent per line, as many times as it was seen.
+ *
+ * <pre>
+ * java org.w3c.ddr.simple.impl.WarmupSet user-agents.log warmup.txt 1000
+ * </pre>
+ */
+public final class WarmupSet {
+
+	private static final int DEFAULT_LIMIT = 1000;
+
+	private WarmupSet() {
+	}
+
+	/**
+	 * Records a warm-up set. User-Agents seen as often are written in the order they
+	 * were first seen.
+	 *
+	 * @param log The User-Agents seen, one per line.
+	 * @param out Receives the warm-up set.
+	 * @param limit The maximum number of User-Agents to record.
+	 * @throws IOException if the log cannot be read or the set cannot be written.
+	 */
+	public static void record(BufferedReader log, Writer out, int limit) throws IOException {
+		Map<String, int[]> counts = new LinkedHashMap<String, int[]>();
+		for (String line = log.readLine(); line != null; line = log.readLine()) {
+			line = line.trim();
+			if (line.length() > 0) {
+				int[] count = counts.get(line);
+				if (count == null) {
+					counts.put(line, new int[] { 1 });
+				} else {
+					count[0]++;
+				}
+			}
+		}
+		List<Map.Entry<String, int[]>> top = new ArrayList<Map.Entry<String, int[]>>(
+				counts.entrySet());
+		Collections.sort(top, new Comparator<Map.Entry<String, int[]>>() {
+			@Override
+			public int compare(Map.Entry<String, int[]> a, Map.Entry<String, int[]> b) {
+				return b.getValue()[0] - a.getValue()[0];
+			}
+		});
+		for (Map.Entry<String, int[]> entry : top.subList(0, Math.min(limit, top.size()))) {
+			out.write(entry.getValue()[0] + "\t" + entry.getKey() + "\n");
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads a warm-up set.
+	 *
+	 * @param location A file name or class path resource name.
+	 * @param limit The maximum number of User-Agents to read.
+	 * @return The User-Agents, most frequent first.
+	 * @throws InitializationException if the set cannot be read.
+	 */
+	static List<String> read(String location, int limit) throws InitializationException {
+		List<String> userAgents = new ArrayList<String>();
+		InputStream in = null;
+		try {
+			in = RepositoryLoader.open(location);
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(in, StandardCharsets.UTF_8));
+			for (String line = reader.readLine(); line != null && userAgents.size() < limit;
+					line = reader.readLine()) {
+				int tab = line.indexOf('\t');
+				if (tab > 0 && isCount(line, tab)) {
+					line = line.substring(tab + 1);
+				}
+				line = line.trim();
+				if (line.length() > 0 && line.charAt(0) != '#') {
+					userAgents.add(line);
+				}
+			}
+			return userAgents;
+		} catch (IOException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} finally {
+			RepositoryLoader.close(in);
+		}
+	}
+
+	private static boolean isCount(String line, int end) {
+		for (int i = 0; i < end; i++) {
+			if (line.charAt(i) < '0' || line.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Command line entry point.
+	 *
+	 * @param args The User-Agent log, the warm-up set file and optionally the maximum
+	 *             number of User-Agents to record, 1000 by default.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: WarmupSet <user-agent log> <warm-up set> [limit]");
+			System.exit(2);
+		}
+		int limit = args.length == 3 ? Integer.parseInt(args[2]) : DEFAULT_LIMIT;
+		try {
+			BufferedReader log = new BufferedReader(new InputStreamReader(
+					new FileInputStream(args[0]), StandardCharsets.UTF_8));
+			try {
+				Writer out = new OutputStreamWriter(new FileOutputStream(args[1]),
+						StandardCharsets.UTF_8);
+				try {
+					record(log, out, limit);
+				} finally {
+					out.close();
+				}
+			} finally {
+				log.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Cannot record " + args[1] + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
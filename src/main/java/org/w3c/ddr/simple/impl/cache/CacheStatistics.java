@@ -0,0 +1,64 @@
+package org.w3c.ddr.simple.impl.cache;
+
+/**
+ * A snapshot of the counters of a {@link CachingService}.
+ */
+public final class CacheStatistics {
+
+	private final long hitCount;
+
+	private final long missCount;
+
+	private final long evictionCount;
+
+	private final int size;
+
+	CacheStatistics(long hitCount, long missCount, long evictionCount, int size) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.size = size;
+	}
+
+	/**
+	 * @return The number of lookups answered from the cache.
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return The number of lookups passed on to the decorated service.
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return The number of entries evicted to respect the maximum size.
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return The number of entries in the cache.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The ratio of hits to lookups, or 0 if there were no lookups.
+	 */
+	public double getHitRate() {
+		long lookups = hitCount + missCount;
+		return lookups == 0 ? 0 : (double) hitCount / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount
+				+ ", size=" + size;
+	}
+}
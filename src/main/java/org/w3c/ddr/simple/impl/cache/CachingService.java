@@ -0,0 +1,365 @@
+package org.w3c.ddr.simple.impl.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyName;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.PropertyValues;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.exception.InitializationException;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.SystemException;
+import org.w3c.ddr.simple.impl.DelegatingService;
+import org.w3c.ddr.simple.impl.IndexedService;
+import org.w3c.ddr.simple.impl.SimplePropertyValues;
+
+/**
+ * A {@link Service} decorator memoizing the device resolved for each distinct evidence.
+ *
+ * The evidence headers that identify a device are normalised into a cache key, and the
+ * complete set of property values of the device, as returned by
+ * {@link Service#getPropertyValues(Evidence)}, is cached under that key. All lookups
+ * are then answered from the cached set; lookups the cached set cannot answer (names
+ * that are invalid, or not returned for the whole device) are passed on to the
+ * decorated service so that it reports them exactly as it would without the cache.
+ * The cache is emptied when the data version of the decorated service changes.
+ *
+ * Unless {@link #HEADERS} lists them, the headers of the key are those the
+ * {@link IndexedService} found through the chain of decorated services consults, as
+ * of its current data version, so that no header it identifies devices by is left out
+ * of the key. Other services are keyed by a fixed list of common device headers.
+ *
+ * <table>
+ * <caption>Configuration</caption>
+ * <tr><th>Property</th><th>Default</th></tr>
+ * <tr><td>{@link #MAXIMUM_SIZE}</td><td>10000</td></tr>
+ * <tr><td>{@link #POLICY}</td><td>slru</td></tr>
+ * <tr><td>{@link #HEADERS}</td><td>the headers of the {@link IndexedService}, or user-agent x-operamini-phone-ua x-device-user-agent x-original-user-agent x-wap-profile sec-ch-ua-platform sec-ch-ua-model sec-ch-ua-platform-version</td></tr>
+ * </table>
+ */
+public class CachingService extends DelegatingService {
+
+	/**
+	 * Configuration property giving the maximum number of cached devices.
+	 */
+	public static final String MAXIMUM_SIZE = "org.w3c.ddr.simple.impl.cache.maximumSize";
+
+	/**
+	 * Configuration property selecting the eviction policy: "slru" for segmented LRU,
+	 * which protects entries used more than once, or "lru".
+	 */
+	public static final String POLICY = "org.w3c.ddr.simple.impl.cache.policy";
+
+	/**
+	 * Configuration property listing, separated by white space, the evidence headers
+	 * the decorated service identifies devices by, when they are not to be found from
+	 * the service itself.
+	 */
+	public static final String HEADERS = "org.w3c.ddr.simple.impl.cache.headers";
+
+	private static final String DEFAULT_HEADERS = "user-agent x-operamini-phone-ua "
+			+ "x-device-user-agent x-original-user-agent x-wap-profile sec-ch-ua-platform "
+			+ "sec-ch-ua-model sec-ch-ua-platform-version";
+
+	private static final String USER_AGENT = "user-agent";
+
+	private static final float PROTECTED_RATIO = 0.8f;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private String defaultVocabularyIRI;
+
+	/**
+	 * The configured headers of the key, or null to use those of the delegate.
+	 */
+	private String[] headers;
+
+	/**
+	 * The headers of the key found for the current data version of the delegate.
+	 */
+	private volatile KeyHeaders keyHeaders;
+
+	private SegmentedLruCache<String, Entry> cache;
+
+	/**
+	 * Constructs a cache whose delegate is created from the
+	 * {@link DelegatingService#DELEGATE} configuration property.
+	 */
+	public CachingService() {
+	}
+
+	/**
+	 * Constructs a cache around an initialized service.
+	 *
+	 * @param delegate The decorated service.
+	 */
+	public CachingService(Service delegate) {
+		super(delegate);
+	}
+
+	@Override
+	protected void configure(String defaultVocabularyIRI, Properties props)
+			throws InitializationException {
+		int maximumSize;
+		try {
+			maximumSize = Integer.parseInt(props.getProperty(MAXIMUM_SIZE, "10000").trim());
+		} catch (NumberFormatException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		}
+		if (maximumSize < 1) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					MAXIMUM_SIZE + " must be positive");
+		}
+		String policy = props.getProperty(POLICY, "slru").trim();
+		float protectedRatio;
+		if ("slru".equals(policy)) {
+			protectedRatio = PROTECTED_RATIO;
+		} else if ("lru".equals(policy)) {
+			protectedRatio = 0;
+		} else {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					"Unknown cache policy: " + policy);
+		}
+		this.defaultVocabularyIRI = defaultVocabularyIRI;
+		String headers = props.getProperty(HEADERS);
+		this.headers = headers == null ? null : split(headers);
+		this.cache = new SegmentedLruCache<String, Entry>(maximumSize, protectedRatio);
+	}
+
+	/**
+	 * Takes a snapshot of the cache counters.
+	 *
+	 * @return The statistics.
+	 */
+	public CacheStatistics getStatistics() {
+		SegmentedLruCache<String, Entry> cache = cache();
+		return new CacheStatistics(hits.sum(), misses.sum(), cache.evictions(), cache.size());
+	}
+
+	/**
+	 * Removes all cached devices.
+	 */
+	public void invalidateAll() {
+		cache().clear();
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, PropertyRef propertyRef)
+			throws NameException {
+		return value(evidence, device(evidence), propertyRef);
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, PropertyName propertyName)
+			throws NameException {
+		PropertyValues device = device(evidence);
+		return value(evidence, device, getDelegate().newPropertyRef(propertyName));
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, String localPropertyName)
+			throws NameException {
+		PropertyValues device = device(evidence);
+		return value(evidence, device, getDelegate().newPropertyRef(localPropertyName));
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, String localPropertyName,
+			String localAspectName, String vocabularyIRI) throws NameException {
+		PropertyValues device = device(evidence);
+		Service delegate = getDelegate();
+		return value(evidence, device, delegate.newPropertyRef(
+				delegate.newPropertyName(localPropertyName, vocabularyIRI), localAspectName));
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence) throws NameException {
+		return device(evidence);
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, PropertyRef[] propertyRefs)
+			throws NameException {
+		if (propertyRefs == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"PropertyRefs cannot be null");
+		}
+		PropertyValues device = device(evidence);
+		PropertyValue[] values = new PropertyValue[propertyRefs.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = value(evidence, device, propertyRefs[i]);
+		}
+		return new SimplePropertyValues(values);
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, String localAspectName)
+			throws NameException {
+		return getPropertyValues(evidence, localAspectName, defaultVocabularyIRI);
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, String localAspectName,
+			String vocabularyIRI) throws NameException {
+		List<PropertyValue> values = new ArrayList<PropertyValue>();
+		for (PropertyValue value : device(evidence).getAll()) {
+			PropertyRef ref = value.getPropertyRef();
+			if (ref.getAspectName().equals(localAspectName)
+					&& ref.getNamespace().equals(vocabularyIRI)) {
+				values.add(value);
+			}
+		}
+		if (values.isEmpty()) {
+			// unknown names, or an aspect without properties: let the delegate tell
+			return getDelegate().getPropertyValues(evidence, localAspectName, vocabularyIRI);
+		}
+		return new SimplePropertyValues(values.toArray(new PropertyValue[values.size()]));
+	}
+
+	private PropertyValue value(Evidence evidence, PropertyValues device, PropertyRef propertyRef)
+			throws NameException {
+		try {
+			return device.getValue(propertyRef);
+		} catch (NameException e) {
+			return getDelegate().getPropertyValue(evidence, propertyRef);
+		}
+	}
+
+	private SegmentedLruCache<String, Entry> cache() {
+		SegmentedLruCache<String, Entry> cache = this.cache;
+		if (cache == null) {
+			throw new SystemException(SystemException.CANNOT_PROCEED, "Service not initialized");
+		}
+		return cache;
+	}
+
+	private PropertyValues device(Evidence evidence) throws NameException {
+		if (evidence == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Evidence cannot be null");
+		}
+		SegmentedLruCache<String, Entry> cache = cache();
+		String dataVersion = getDelegate().getDataVersion();
+		String key = key(evidence, headers(dataVersion));
+		Entry entry = cache.get(key);
+		if (entry != null) {
+			if (entry.dataVersion == dataVersion || equal(entry.dataVersion, dataVersion)) {
+				hits.increment();
+				return entry.values;
+			}
+			// the data has changed: every entry is stale
+			cache.clear();
+		}
+		misses.increment();
+		PropertyValues values = getDelegate().getPropertyValues(evidence);
+		cache.put(key, new Entry(dataVersion, values));
+		return values;
+	}
+
+	/**
+	 * @return The headers of the key for a data version of the delegate.
+	 */
+	private String[] headers(String dataVersion) {
+		if (headers != null) {
+			return headers;
+		}
+		KeyHeaders keyHeaders = this.keyHeaders;
+		if (keyHeaders == null || !equal(keyHeaders.dataVersion, dataVersion)) {
+			keyHeaders = new KeyHeaders(dataVersion, delegateHeaders());
+			this.keyHeaders = keyHeaders;
+		}
+		return keyHeaders.headers;
+	}
+
+	/**
+	 * Finds the headers the delegate identifies devices by, with the User-Agent first.
+	 */
+	private String[] delegateHeaders() {
+		Service service = getDelegate();
+		while (service instanceof DelegatingService) {
+			service = ((DelegatingService) service).getDelegate();
+		}
+		if (!(service instanceof IndexedService)) {
+			return split(DEFAULT_HEADERS);
+		}
+		List<String> headers = new ArrayList<String>();
+		headers.add(USER_AGENT);
+		for (String header : ((IndexedService) service).getEvidenceHeaders()) {
+			header = header.toLowerCase(Locale.ENGLISH);
+			if (!headers.contains(header)) {
+				headers.add(header);
+			}
+		}
+		return headers.toArray(new String[headers.size()]);
+	}
+
+	private static String[] split(String headers) {
+		return headers.trim().toLowerCase(Locale.ENGLISH).split("\\s+");
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Normalises the identifying headers of the evidence into a key. The common case of
+	 * a single User-Agent header is keyed by the header value itself.
+	 */
+	private static String key(Evidence evidence, String[] headers) {
+		String first = null;
+		StringBuilder key = null;
+		for (int i = 0; i < headers.length; i++) {
+			String value = evidence.get(headers[i]);
+			if (value == null) {
+				continue;
+			}
+			value = value.trim();
+			if (i == 0) {
+				first = value;
+				continue;
+			}
+			if (key == null) {
+				key = new StringBuilder();
+				if (first != null) {
+					key.append((char) 1).append(first);
+				}
+			}
+			key.append((char) (i + 1)).append(value);
+		}
+		if (key != null) {
+			return key.toString();
+		}
+		return first == null ? "" : first;
+	}
+
+	private static final class KeyHeaders {
+
+		final String dataVersion;
+
+		final String[] headers;
+
+		KeyHeaders(String dataVersion, String[] headers) {
+			this.dataVersion = dataVersion;
+			this.headers = headers;
+		}
+	}
+
+	private static final class Entry {
+
+		final String dataVersion;
+
+		final PropertyValues values;
+
+		Entry(String dataVersion, PropertyValues values) {
+			this.dataVersion = dataVersion;
+			this.values = values;
+		}
+	}
+}
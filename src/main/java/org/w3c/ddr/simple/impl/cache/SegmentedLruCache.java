@@ -0,0 +1,149 @@
+package org.w3c.ddr.simple.impl.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded map evicting entries with a segmented LRU policy.
+ *
+ * New entries enter a probationary segment; an entry read again while on probation
+ * is promoted to a protected segment, whose least recently used entries are demoted
+ * back to probation when it is full. Eviction always takes the least recently used
+ * probationary entry, so a burst of one-off keys cannot flush the frequently used ones.
+ * With a protected capacity of zero the policy degenerates to plain LRU.
+ *
+ * The map is divided into independently locked stripes selected by key hash.
+ */
+final class SegmentedLruCache<K, V> {
+
+	private final Stripe<K, V>[] stripes;
+
+	private final int mask;
+
+	/**
+	 * @param maximumSize The maximum number of entries.
+	 * @param protectedRatio The share of each stripe reserved for protected entries, between 0 and 1.
+	 */
+	SegmentedLruCache(int maximumSize, float protectedRatio) {
+		int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+		// keep stripes large enough for the policy to be meaningful
+		while (count > 1 && maximumSize / count < 16) {
+			count >>= 1;
+		}
+		stripes = newStripes(count);
+		int capacity = (maximumSize + count - 1) / count;
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new Stripe<K, V>(capacity, (int) (capacity * protectedRatio));
+		}
+		mask = count - 1;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <K, V> Stripe<K, V>[] newStripes(int count) {
+		return new Stripe[count];
+	}
+
+	private Stripe<K, V> stripe(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return stripes[(h * 0x9E3779B9 >>> 16) & mask];
+	}
+
+	V get(K key) {
+		return stripe(key).get(key);
+	}
+
+	void put(K key, V value) {
+		stripe(key).put(key, value);
+	}
+
+	void clear() {
+		for (Stripe<K, V> stripe : stripes) {
+			stripe.clear();
+		}
+	}
+
+	int size() {
+		int size = 0;
+		for (Stripe<K, V> stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	long evictions() {
+		long evictions = 0;
+		for (Stripe<K, V> stripe : stripes) {
+			evictions += stripe.evictions();
+		}
+		return evictions;
+	}
+
+	private static final class Stripe<K, V> {
+
+		private final int capacity;
+
+		private final int protectedCapacity;
+
+		private final LinkedHashMap<K, V> probation = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+		private final LinkedHashMap<K, V> protect = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+		private long evictions;
+
+		Stripe(int capacity, int protectedCapacity) {
+			this.capacity = Math.max(1, capacity);
+			this.protectedCapacity = Math.min(protectedCapacity, this.capacity - 1);
+		}
+
+		synchronized V get(K key) {
+			V value = protect.get(key);
+			if (value != null) {
+				return value;
+			}
+			value = probation.get(key);
+			if (value != null && protectedCapacity > 0) {
+				probation.remove(key);
+				protect.put(key, value);
+				if (protect.size() > protectedCapacity) {
+					Map.Entry<K, V> eldest = eldest(protect);
+					protect.remove(eldest.getKey());
+					probation.put(eldest.getKey(), eldest.getValue());
+				}
+			}
+			return value;
+		}
+
+		synchronized void put(K key, V value) {
+			if (protect.containsKey(key)) {
+				protect.put(key, value);
+				return;
+			}
+			probation.put(key, value);
+			while (probation.size() + protect.size() > capacity) {
+				LinkedHashMap<K, V> victims = probation.isEmpty() ? protect : probation;
+				victims.remove(eldest(victims).getKey());
+				evictions++;
+			}
+		}
+
+		private static <K, V> Map.Entry<K, V> eldest(LinkedHashMap<K, V> map) {
+			Iterator<Map.Entry<K, V>> i = map.entrySet().iterator();
+			return i.next();
+		}
+
+		synchronized void clear() {
+			probation.clear();
+			protect.clear();
+		}
+
+		synchronized int size() {
+			return probation.size() + protect.size();
+		}
+
+		synchronized long evictions() {
+			return evictions;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package org.w3c.ddr.simple.impl.match;
+
+import org.w3c.ddr.simple.Evidence;
+
+/**
+ * The User-Agent Client Hints identifying a device, parsed from their structured header
+ * form into the keys of the {@link ClientHintsMatcher} index.
+ *
+ * The headers Sec-CH-UA-Platform, Sec-CH-UA-Model and Sec-CH-UA-Platform-Version hold
+ * RFC 8941 strings, e.g. <code>"Android"</code>; unquoted values are accepted as they
+ * are. The platform version is split into its prefixes, from the most to the least
+ * specific, so that "13.0.0" also finds devices declared for "13.0" and "13". Instances
+ * are immutable.
+ */
+public final class ClientHints {
+
+	/**
+	 * The lower case name of the header carrying the platform.
+	 */
+	public static final String PLATFORM = "sec-ch-ua-platform";
+
+	/**
+	 * The lower case name of the header carrying the device model.
+	 */
+	public static final String MODEL = "sec-ch-ua-model";
+
+	/**
+	 * The lower case name of the header carrying the platform version.
+	 */
+	public static final String PLATFORM_VERSION = "sec-ch-ua-platform-version";
+
+	/**
+	 * The hints of evidence sending no model.
+	 */
+	static final ClientHints NONE = new ClientHints("", "", "");
+
+	final String platform;
+
+	final String model;
+
+	final String platformVersion;
+
+	ClientHints(String platform, String model, String platformVersion) {
+		this.platform = platform;
+		this.model = model;
+		this.platformVersion = platformVersion;
+	}
+
+	/**
+	 * Parses the Client Hints of evidence. Headers that are missing or malformed are
+	 * taken as empty.
+	 *
+	 * @param evidence The evidence.
+	 * @return The hints.
+	 */
+	public static ClientHints parse(Evidence evidence) {
+		String model = string(evidence.get(MODEL));
+		if (model.length() == 0) {
+			return NONE;
+		}
+		return new ClientHints(string(evidence.get(PLATFORM)), model,
+				string(evidence.get(PLATFORM_VERSION)));
+	}
+
+	/**
+	 * @return Whether the evidence sent a device model.
+	 */
+	public boolean hasModel() {
+		return model.length() > 0;
+	}
+
+	/**
+	 * @return The platform, or "".
+	 */
+	public String getPlatform() {
+		return platform;
+	}
+
+	/**
+	 * @return The device model, or "".
+	 */
+	public String getModel() {
+		return model;
+	}
+
+	/**
+	 * @return The platform version, or "".
+	 */
+	public String getPlatformVersion() {
+		return platformVersion;
+	}
+
+	/**
+	 * Reads a structured header string.
+	 *
+	 * @param value The header value, or null.
+	 * @return The string, unquoted and unescaped; "" if the value is null or malformed.
+	 */
+	static String string(String value) {
+		if (value == null) {
+			return "";
+		}
+		int start = 0;
+		int end = value.length();
+		while (start < end && value.charAt(start) == ' ') {
+			start++;
+		}
+		while (end > start && value.charAt(end - 1) == ' ') {
+			end--;
+		}
+		if (start == end || value.charAt(start) != '"') {
+			return value.substring(start, end);
+		}
+		StringBuilder result = null;
+		for (int i = start + 1; i < end; i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				if (i != end - 1) {
+					return "";
+				}
+				return result == null ? value.substring(start + 1, i) : result.toString();
+			}
+			if (c == '\\') {
+				if (++i == end) {
+					return "";
+				}
+				if (result == null) {
+					result = new StringBuilder(value.substring(start + 1, i - 1));
+				}
+				c = value.charAt(i);
+			}
+			if (result != null) {
+				result.append(c);
+			}
+		}
+		return "";
+	}
+
+	@Override
+	public String toString() {
+		return "platform=" + platform + ", model=" + model + ", version=" + platformVersion;
+	}
+}
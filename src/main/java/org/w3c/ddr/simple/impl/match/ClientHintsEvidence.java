@@ -0,0 +1,17 @@
+package org.w3c.ddr.simple.impl.match;
+
+import org.w3c.ddr.simple.Evidence;
+
+/**
+ * Evidence keeping its {@link ClientHints} once parsed, so that the structured header
+ * values are parsed once per request rather than by every lookup.
+ */
+public interface ClientHintsEvidence extends Evidence {
+
+	/**
+	 * The parsed Client Hints, parsed when first needed after the evidence changed.
+	 *
+	 * @return The hints.
+	 */
+	public ClientHints getClientHints();
+}
@@ -0,0 +1,200 @@
+package org.w3c.ddr.simple.impl.match;
+
+import org.w3c.ddr.simple.Evidence;
+
+/**
+ * Identifies devices by the model, platform and platform version sent as User-Agent
+ * Client Hints, through an index keyed by the three.
+ *
+ * A pattern is an RFC 8941 item: the model, as a string, with optional platform and
+ * platform-version parameters.
+ *
+ * <pre>
+ * &lt;match header="sec-ch-ua-model"&gt;"Pixel 7"; platform="Android"; platform-version="13"&lt;/match&gt;
+ * </pre>
+ *
+ * A pattern without a platform matches any platform and one without a version any
+ * version; a version matches the versions it is a prefix of, up to a dot. Evidence is
+ * identified by the most specific pattern: one naming its platform before one that does
+ * not, then the one with the longest version. Among identical patterns the first
+ * declared wins.
+ *
+ * Each pattern is one entry of an open-addressing table, so identifying a device costs
+ * a few hash probes whatever the number of patterns. The hints are parsed once per
+ * request when the evidence is a {@link ClientHintsEvidence}.
+ */
+public class ClientHintsMatcher implements EvidenceMatcher {
+
+	private static final String[] HEADERS = { ClientHints.PLATFORM, ClientHints.MODEL,
+			ClientHints.PLATFORM_VERSION };
+
+	private final String[] platforms;
+
+	private final String[] models;
+
+	private final String[] versions;
+
+	private final int[] hashes;
+
+	private final int[] devices;
+
+	private final int shift;
+
+	/**
+	 * @param patterns The patterns.
+	 * @param devices The device ordinal identified by each pattern.
+	 * @throws IllegalArgumentException if a pattern is malformed.
+	 */
+	public ClientHintsMatcher(String[] patterns, int[] devices) {
+		int size = Integer.highestOneBit(Math.max(2, patterns.length * 2 - 1)) << 1;
+		this.platforms = new String[size];
+		this.models = new String[size];
+		this.versions = new String[size];
+		this.hashes = new int[size];
+		this.devices = new int[size];
+		this.shift = 32 - Integer.numberOfTrailingZeros(size);
+		for (int i = 0; i < patterns.length; i++) {
+			String[] key = parse(patterns[i]);
+			put(key[0], key[1], key[2], devices[i]);
+		}
+	}
+
+	@Override
+	public int match(Evidence evidence) {
+		ClientHints hints = evidence instanceof ClientHintsEvidence
+				? ((ClientHintsEvidence) evidence).getClientHints()
+				: ClientHints.parse(evidence);
+		if (!hints.hasModel()) {
+			return NO_MATCH;
+		}
+		int device = find(hints.platform, hints);
+		if (device == NO_MATCH && hints.platform.length() > 0) {
+			device = find("", hints);
+		}
+		return device;
+	}
+
+	@Override
+	public String[] getHeaders() {
+		return HEADERS.clone();
+	}
+
+	/**
+	 * Finds the pattern of a platform with the longest version that is the platform
+	 * version of the hints or one of its prefixes up to a dot, down to no version.
+	 */
+	private int find(String platform, ClientHints hints) {
+		String version = hints.platformVersion;
+		int length = version.length();
+		for (;;) {
+			int device = get(platform, hints.model, version, length);
+			if (device != NO_MATCH || length == 0) {
+				return device;
+			}
+			length = Math.max(0, version.lastIndexOf('.', length - 1));
+		}
+	}
+
+	/**
+	 * Looks up the pattern of a platform, model and version prefix, without copying the
+	 * prefix.
+	 */
+	private int get(String platform, String model, String version, int length) {
+		int versionHash = 0;
+		for (int i = 0; i < length; i++) {
+			versionHash = 31 * versionHash + version.charAt(i);
+		}
+		int hash = hash(platform, model, versionHash);
+		int mask = hashes.length - 1;
+		for (int slot = slot(hash); models[slot] != null; slot = (slot + 1) & mask) {
+			if (hashes[slot] == hash && versions[slot].length() == length
+					&& models[slot].equals(model) && platforms[slot].equals(platform)
+					&& version.regionMatches(0, versions[slot], 0, length)) {
+				return devices[slot];
+			}
+		}
+		return NO_MATCH;
+	}
+
+	private void put(String platform, String model, String version, int device) {
+		int hash = hash(platform, model, version.hashCode());
+		int mask = hashes.length - 1;
+		int slot = slot(hash);
+		for (; models[slot] != null; slot = (slot + 1) & mask) {
+			if (hashes[slot] == hash && models[slot].equals(model)
+					&& platforms[slot].equals(platform) && versions[slot].equals(version)) {
+				return;
+			}
+		}
+		platforms[slot] = platform;
+		models[slot] = model;
+		versions[slot] = version;
+		hashes[slot] = hash;
+		devices[slot] = device;
+	}
+
+	private static int hash(String platform, String model, int versionHash) {
+		return (platform.hashCode() * 31 + model.hashCode()) * 31 + versionHash;
+	}
+
+	private int slot(int hash) {
+		return (hash * 0x9E3779B9) >>> shift;
+	}
+
+	/**
+	 * Parses a pattern into its platform, model and version.
+	 */
+	static String[] parse(String pattern) {
+		String[] key = { "", null, "" };
+		int[] position = { 0 };
+		key[1] = value(pattern, position);
+		if (key[1].length() == 0) {
+			throw new IllegalArgumentException("Client Hints pattern without model: " + pattern);
+		}
+		while (position[0] < pattern.length()) {
+			if (pattern.charAt(position[0]) != ';') {
+				throw new IllegalArgumentException("Malformed Client Hints pattern: " + pattern);
+			}
+			int equals = pattern.indexOf('=', position[0]);
+			if (equals < 0) {
+				throw new IllegalArgumentException("Malformed Client Hints pattern: " + pattern);
+			}
+			String name = pattern.substring(position[0] + 1, equals).trim();
+			position[0] = equals + 1;
+			if ("platform".equals(name)) {
+				key[0] = value(pattern, position);
+			} else if ("platform-version".equals(name)) {
+				key[2] = value(pattern, position);
+			} else {
+				throw new IllegalArgumentException("Unknown Client Hints parameter " + name
+						+ " in " + pattern);
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Reads a string or bare value up to the next parameter, leaving the position on the
+	 * semicolon or at the end.
+	 */
+	private static String value(String pattern, int[] position) {
+		int start = position[0];
+		while (start < pattern.length() && pattern.charAt(start) == ' ') {
+			start++;
+		}
+		int end = start;
+		if (end < pattern.length() && pattern.charAt(end) == '"') {
+			for (end++; end < pattern.length() && pattern.charAt(end) != '"'; end++) {
+				if (pattern.charAt(end) == '\\') {
+					end++;
+				}
+			}
+			end = Math.min(end + 1, pattern.length());
+		}
+		while (end < pattern.length() && pattern.charAt(end) != ';') {
+			end++;
+		}
+		position[0] = end;
+		return ClientHints.string(pattern.substring(start, end));
+	}
+}
@@ -0,0 +1,13 @@
+package org.w3c.ddr.simple.impl.match;
+
+/**
+ * Creates {@link ClientHintsMatcher}s. This is the default factory for the
+ * sec-ch-ua-model header.
+ */
+public class ClientHintsMatcherFactory implements EvidenceMatcherFactory {
+
+	@Override
+	public EvidenceMatcher newMatcher(String header, String[] patterns, int[] devices) {
+		return new ClientHintsMatcher(patterns, devices);
+	}
+}
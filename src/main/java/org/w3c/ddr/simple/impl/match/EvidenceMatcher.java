@@ -0,0 +1,35 @@
+package org.w3c.ddr.simple.impl.match;
+
+import org.w3c.ddr.simple.Evidence;
+
+/**
+ * Identifies a device from evidence.
+ *
+ * Matchers are compiled once, when the repository is loaded, by an
+ * {@link EvidenceMatcherFactory}, and are then shared by all lookup threads.
+ * Implementations must therefore be immutable (or otherwise thread-safe)
+ * and should not allocate while matching.
+ */
+public interface EvidenceMatcher {
+
+	/**
+	 * The value returned by {@link #match(Evidence)} when no device is identified.
+	 */
+	public static final int NO_MATCH = -1;
+
+	/**
+	 * Identifies the device described by the evidence.
+	 *
+	 * @param evidence The evidence, typically HTTP headers.
+	 * @return The ordinal of the identified device, or {@link #NO_MATCH}.
+	 */
+	public int match(Evidence evidence);
+
+	/**
+	 * The evidence headers consulted by {@link #match(Evidence)}. Evidence created by the
+	 * service keeps only the values of these headers.
+	 *
+	 * @return The lower case header names.
+	 */
+	public String[] getHeaders();
+}
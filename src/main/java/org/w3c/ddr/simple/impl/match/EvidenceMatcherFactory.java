@@ -0,0 +1,22 @@
+package org.w3c.ddr.simple.impl.match;
+
+/**
+ * Creates the {@link EvidenceMatcher} for the patterns a repository declares for one
+ * evidence header.
+ *
+ * A factory is selected per header with the configuration property
+ * {@link MatcherCompiler#MATCHER_FACTORY}<i>header</i>, whose value is the name of
+ * a class implementing this interface and having a public no-argument constructor.
+ */
+public interface EvidenceMatcherFactory {
+
+	/**
+	 * Compiles the patterns of a header into a matcher.
+	 *
+	 * @param header The lower case header name the patterns were declared for.
+	 * @param patterns The patterns, in declaration order.
+	 * @param devices The device ordinal identified by each pattern.
+	 * @return A matcher.
+	 */
+	public EvidenceMatcher newMatcher(String header, String[] patterns, int[] devices);
+}
@@ -0,0 +1,259 @@
+package org.w3c.ddr.simple.impl.match;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An open-addressing hash table from header values to the device they identify.
+ *
+ * Keys are compared as they are, so lookups neither normalize nor copy the value. The
+ * table is sized for its preloaded entries and a bounded number of learned ones. Keys
+ * are hashed with a seed chosen at random for each table, so that the header values of
+ * requests cannot be crafted to collide, and a key is only looked for in the
+ * {@link #PROBES} slots following its hash, so that a lookup costs a bounded number of
+ * comparisons whatever the keys.
+ *
+ * Lookups need no locking: an entry is an immutable object published into a slot, and
+ * a lookup sees either the whole entry or another one. A key whose slots are all taken
+ * may replace a learned entry which has not been found since it was added or last
+ * spared, and which is spared otherwise; preloaded entries are never replaced. Once the
+ * table has learned as many entries as it may, new keys are only learned in this way.
+ * Two threads learning into the same slot at the same time lose one of the entries,
+ * which is only learned again later.
+ */
+final class ExactMatchTable {
+
+	/**
+	 * The value returned by {@link #get(String)} for a key not in the table.
+	 */
+	static final int ABSENT = -2;
+
+	/**
+	 * The number of slots a key may be stored in.
+	 */
+	static final int PROBES = 16;
+
+	private final Entry[] entries;
+
+	private final int shift;
+
+	private final int limit;
+
+	private final long seed = ThreadLocalRandom.current().nextLong();
+
+	private final AtomicInteger learned = new AtomicInteger();
+
+	/**
+	 * @param preloaded The number of entries added with {@link #put(String, int)}.
+	 * @param limit The maximum number of entries added with {@link #learn(String, int)}.
+	 */
+	ExactMatchTable(int preloaded, int limit) {
+		int size = Integer.highestOneBit(Math.max(PROBES, (preloaded + limit) * 2 - 1)) << 1;
+		this.entries = new Entry[size];
+		this.shift = 32 - Integer.numberOfTrailingZeros(size);
+		this.limit = limit;
+	}
+
+	/**
+	 * Looks up a key.
+	 *
+	 * @param key The header value.
+	 * @return The device, {@link EvidenceMatcher#NO_MATCH} if the value is known to
+	 *         identify none, or {@link #ABSENT}.
+	 */
+	int get(String key) {
+		int hash = hash(key);
+		Entry[] entries = this.entries;
+		int mask = entries.length - 1;
+		int slot = slot(hash);
+		for (int probe = 0; probe < PROBES; probe++, slot = (slot + 1) & mask) {
+			Entry entry = entries[slot];
+			if (entry == null) {
+				return ABSENT;
+			}
+			if (entry.hash == hash && entry.key.equals(key)) {
+				if (!entry.found) {
+					entry.found = true;
+				}
+				return entry.device;
+			}
+		}
+		return ABSENT;
+	}
+
+	/**
+	 * Adds a preloaded entry, before the table is shared. The first entry of a key wins;
+	 * a key whose slots are all taken is not added.
+	 */
+	void put(String key, int device) {
+		Entry entry = new Entry(key, hash(key), device, false);
+		int slot = find(entry);
+		if (slot >= 0 && entries[slot] == null) {
+			entries[slot] = entry;
+		}
+	}
+
+	/**
+	 * Adds an entry in a free slot, unless the table has learned as many entries as it
+	 * may, or else in place of a learned entry not found since it was added.
+	 *
+	 * @return Whether the entry was added; true also when it replaced a learned entry,
+	 *         so that once the table is at its limit, each entry added evicts another.
+	 */
+	boolean learn(String key, int device) {
+		Entry entry = new Entry(key, hash(key), device, true);
+		int slot = find(entry);
+		if (slot < 0) {
+			return false;
+		}
+		if (entries[slot] != null) {
+			entries[slot] = entry;
+			return true;
+		}
+		if (learned.get() >= limit || learned.incrementAndGet() > limit) {
+			slot = victim(entry.hash);
+			if (slot < 0) {
+				return false;
+			}
+		}
+		entries[slot] = entry;
+		return true;
+	}
+
+	/**
+	 * @return The number of entries learned.
+	 */
+	int learned() {
+		return Math.min(learned.get(), limit);
+	}
+
+	/**
+	 * @return The maximum number of entries learned.
+	 */
+	int limit() {
+		return limit;
+	}
+
+	/**
+	 * Tells whether a key was learned and is still in the table, without counting it as
+	 * found.
+	 */
+	boolean isLearned(String key) {
+		int hash = hash(key);
+		Entry[] entries = this.entries;
+		int mask = entries.length - 1;
+		int slot = slot(hash);
+		for (int probe = 0; probe < PROBES; probe++, slot = (slot + 1) & mask) {
+			Entry entry = entries[slot];
+			if (entry == null) {
+				return false;
+			}
+			if (entry.hash == hash && entry.key.equals(key)) {
+				return entry.learned;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the slot of a new entry: its first free slot, or if none the slot of a
+	 * learned entry to replace.
+	 *
+	 * @return The slot, or -1 if the key is in the table or cannot be added.
+	 */
+	private int find(Entry added) {
+		Entry[] entries = this.entries;
+		int mask = entries.length - 1;
+		int slot = slot(added.hash);
+		for (int probe = 0; probe < PROBES; probe++, slot = (slot + 1) & mask) {
+			Entry entry = entries[slot];
+			if (entry == null) {
+				return slot;
+			}
+			if (entry.hash == added.hash && entry.key.equals(added.key)) {
+				return -1;
+			}
+		}
+		return added.learned ? victim(added.hash) : -1;
+	}
+
+	/**
+	 * Finds a learned entry not found since it was added or last spared, among the slots
+	 * of a hash, sparing the entries found on the way.
+	 *
+	 * @return The slot of the entry, or -1 if there is none.
+	 */
+	private int victim(int hash) {
+		Entry[] entries = this.entries;
+		int mask = entries.length - 1;
+		int slot = slot(hash);
+		for (int probe = 0; probe < PROBES; probe++, slot = (slot + 1) & mask) {
+			Entry entry = entries[slot];
+			if (entry != null && entry.learned) {
+				if (!entry.found) {
+					return slot;
+				}
+				entry.found = false;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Hashes the characters of a key four at a time, from the seed of the table.
+	 */
+	private int hash(String key) {
+		long hash = seed;
+		int length = key.length();
+		int i = 0;
+		for (; i + 4 <= length; i += 4) {
+			hash ^= key.charAt(i) | (long) key.charAt(i + 1) << 16
+					| (long) key.charAt(i + 2) << 32 | (long) key.charAt(i + 3) << 48;
+			hash *= 0x9E3779B97F4A7C15L;
+			hash ^= hash >>> 29;
+		}
+		for (; i < length; i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x9E3779B97F4A7C15L;
+			hash ^= hash >>> 29;
+		}
+		hash ^= length;
+		hash *= 0xBF58476D1CE4E5B9L;
+		return (int) (hash ^ hash >>> 32);
+	}
+
+	/**
+	 * @return The first of the slots a key may be stored in.
+	 */
+	int home(String key) {
+		return slot(hash(key));
+	}
+
+	private int slot(int hash) {
+		return (hash * 0x9E3779B9) >>> shift;
+	}
+
+	private static final class Entry {
+
+		final String key;
+
+		final int hash;
+
+		final int device;
+
+		final boolean learned;
+
+		/**
+		 * Whether the entry was found since it was added or last spared; written
+		 * without synchronization, as a lost update only affects which entry is replaced.
+		 */
+		boolean found;
+
+		Entry(String key, int hash, int device, boolean learned) {
+			this.key = key;
+			this.hash = hash;
+			this.device = device;
+			this.learned = learned;
+		}
+	}
+}
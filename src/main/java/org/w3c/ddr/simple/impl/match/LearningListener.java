@@ -0,0 +1,20 @@
+package org.w3c.ddr.simple.impl.match;
+
+/**
+ * Receives the User-Agents learned by the table of exact User-Agents of a
+ * {@link TieredMatcher}, for example to keep them across restarts.
+ *
+ * The listener is called on the thread of the lookup that learned the User-Agent,
+ * possibly by several threads at once, and should hand the entry over rather than do
+ * any work of its own.
+ */
+public interface LearningListener {
+
+	/**
+	 * Called once for each User-Agent learned.
+	 *
+	 * @param userAgent The User-Agent, as received.
+	 * @param device The device it identifies, or {@link EvidenceMatcher#NO_MATCH}.
+	 */
+	void learned(String userAgent, int device);
+}
@@ -0,0 +1,160 @@
+package org.w3c.ddr.simple.impl.match;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.w3c.ddr.simple.exception.InitializationException;
+
+/**
+ * Collects the device patterns of a repository and compiles them into a single
+ * {@link EvidenceMatcher}.
+ *
+ * Patterns are grouped by header and each group is compiled by the
+ * {@link EvidenceMatcherFactory} configured for the header. The resulting matchers
+ * are consulted Client Hints (sec-ch-ua-model) first, then User-Agent, behind a table of
+ * exact User-Agents, then in the order the headers were first declared; see
+ * {@link TieredMatcher}.
+ */
+public final class MatcherCompiler {
+
+	/**
+	 * Prefix of the configuration properties selecting the {@link EvidenceMatcherFactory}
+	 * for a header, e.g. <code>org.w3c.ddr.simple.impl.matcher.x-wap-profile</code>.
+	 */
+	public static final String MATCHER_FACTORY = "org.w3c.ddr.simple.impl.matcher.";
+
+	/**
+	 * Configuration property giving the maximum number of User-Agents the
+	 * {@link TieredMatcher} learns, 10000 by default; 0 limits its table of exact
+	 * User-Agents to the patterns of the repository.
+	 */
+	public static final String EXACT_MATCHES = "org.w3c.ddr.simple.impl.exactMatches";
+
+	private static final int DEFAULT_EXACT_MATCHES = 10000;
+
+	private static final String USER_AGENT = "user-agent";
+
+	private final Properties props;
+
+	private final Map<String, Patterns> headers = new LinkedHashMap<String, Patterns>();
+
+	/**
+	 * @param props The service configuration, or null for the default factories.
+	 */
+	public MatcherCompiler(Properties props) {
+		this.props = props;
+	}
+
+	/**
+	 * Adds a pattern.
+	 *
+	 * @param header The lower case name of the header the pattern applies to.
+	 * @param pattern The pattern.
+	 * @param device The ordinal of the device the pattern identifies.
+	 */
+	public void addPattern(String header, String pattern, int device) {
+		Patterns patterns = headers.get(header);
+		if (patterns == null) {
+			patterns = new Patterns();
+			headers.put(header, patterns);
+		}
+		patterns.patterns.add(pattern);
+		patterns.devices.add(device);
+	}
+
+	/**
+	 * Compiles the patterns added so far.
+	 *
+	 * @return The matcher.
+	 * @throws InitializationException if a configured factory cannot be instantiated, or
+	 *         {@link #EXACT_MATCHES} is not a number.
+	 */
+	public TieredMatcher compile() throws InitializationException {
+		EvidenceMatcher userAgents = null;
+		String[] patterns = new String[0];
+		if (headers.containsKey(USER_AGENT)) {
+			List<String> userAgentPatterns = headers.get(USER_AGENT).patterns;
+			userAgents = compile(USER_AGENT, headers.get(USER_AGENT));
+			patterns = userAgentPatterns.toArray(new String[userAgentPatterns.size()]);
+		}
+		EvidenceMatcher clientHints = null;
+		if (headers.containsKey(ClientHints.MODEL)) {
+			clientHints = compile(ClientHints.MODEL, headers.get(ClientHints.MODEL));
+		}
+		List<EvidenceMatcher> fallback = new ArrayList<EvidenceMatcher>();
+		for (Map.Entry<String, Patterns> entry : headers.entrySet()) {
+			String header = entry.getKey();
+			if (!USER_AGENT.equals(header) && !ClientHints.MODEL.equals(header)) {
+				fallback.add(compile(header, entry.getValue()));
+			}
+		}
+		return new TieredMatcher(clientHints, userAgents, patterns,
+				fallback.toArray(new EvidenceMatcher[fallback.size()]), exactMatches());
+	}
+
+	private int exactMatches() throws InitializationException {
+		String value = props == null ? null : props.getProperty(EXACT_MATCHES);
+		int exactMatches;
+		try {
+			exactMatches = value == null ? DEFAULT_EXACT_MATCHES : Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		}
+		if (exactMatches < 0) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					EXACT_MATCHES + " cannot be negative");
+		}
+		return exactMatches;
+	}
+
+	private EvidenceMatcher compile(String header, Patterns patterns)
+			throws InitializationException {
+		int[] devices = new int[patterns.devices.size()];
+		for (int i = 0; i < devices.length; i++) {
+			devices[i] = patterns.devices.get(i);
+		}
+		try {
+			return factory(header).newMatcher(header,
+					patterns.patterns.toArray(new String[devices.length]), devices);
+		} catch (IllegalArgumentException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		}
+	}
+
+	private EvidenceMatcherFactory factory(String header) throws InitializationException {
+		String clazz = props == null ? null : props.getProperty(MATCHER_FACTORY + header);
+		if (clazz == null) {
+			if (USER_AGENT.equals(header)) {
+				return new UserAgentMatcherFactory();
+			}
+			if ("x-wap-profile".equals(header)) {
+				return new WapProfileMatcherFactory();
+			}
+			if (ClientHints.MODEL.equals(header)) {
+				return new ClientHintsMatcherFactory();
+			}
+			return new SubstringMatcherFactory();
+		}
+		try {
+			return (EvidenceMatcherFactory) Class.forName(clazz).newInstance();
+		} catch (ClassCastException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} catch (IllegalAccessException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} catch (InstantiationException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		} catch (ClassNotFoundException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		}
+	}
+
+	private static final class Patterns {
+
+		final List<String> patterns = new ArrayList<String>();
+
+		final List<Integer> devices = new ArrayList<Integer>();
+	}
+}
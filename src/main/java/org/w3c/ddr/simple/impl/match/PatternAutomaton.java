@@ -0,0 +1,199 @@
+package org.w3c.ddr.simple.impl.match;
+
+import java.util.Arrays;
+
+/**
+ * An Aho-Corasick automaton finding the most specific of a set of patterns in a text.
+ *
+ * All patterns are compiled into a single trie with failure links, so that a search
+ * visits each character of the text once (amortized), whatever the number of patterns.
+ * The result of a search is the longest pattern occurring anywhere in the text; among
+ * patterns of equal length the one declared first wins.
+ *
+ * Transitions are kept in one open-addressing hash table keyed by state and character,
+ * which keeps the automaton compact for large alphabets. Instances are immutable.
+ */
+public final class PatternAutomaton {
+
+	private static final long EMPTY = -1L;
+
+	private final int[] lengths;
+
+	private final int[] fail;
+
+	/**
+	 * The best pattern ending at each state, following failure links, or -1.
+	 */
+	private final int[] output;
+
+	private final long[] keys;
+
+	private final int[] targets;
+
+	private final int mask;
+
+	private final int shift;
+
+	/**
+	 * Compiles a set of patterns.
+	 *
+	 * @param patterns The non-empty patterns, in order of precedence for patterns of equal length.
+	 */
+	public PatternAutomaton(String[] patterns) {
+		int capacity = 1;
+		for (String pattern : patterns) {
+			capacity += pattern.length();
+		}
+
+		// trie as first-child / next-sibling lists, used only while compiling
+		int[] child = new int[capacity];
+		int[] sibling = new int[capacity];
+		char[] label = new char[capacity];
+		int[] own = new int[capacity];
+		Arrays.fill(child, -1);
+		Arrays.fill(own, -1);
+		int states = 1;
+
+		lengths = new int[patterns.length];
+		for (int p = 0; p < patterns.length; p++) {
+			String pattern = patterns[p];
+			lengths[p] = pattern.length();
+			int state = 0;
+			for (int i = 0; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				int next = child(child, sibling, label, state, c);
+				if (next < 0) {
+					next = states++;
+					label[next] = c;
+					sibling[next] = child[state];
+					child[state] = next;
+				}
+				state = next;
+			}
+			if (own[state] < 0) {
+				own[state] = p;
+			}
+		}
+
+		// breadth-first computation of failure links and outputs
+		fail = new int[states];
+		output = new int[states];
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		output[0] = own[0];
+		for (int v = child[0]; v >= 0; v = sibling[v]) {
+			fail[v] = 0;
+			output[v] = own[v];
+			queue[tail++] = v;
+		}
+		while (head < tail) {
+			int u = queue[head++];
+			for (int v = child[u]; v >= 0; v = sibling[v]) {
+				int f = fail[u];
+				int next;
+				while ((next = child(child, sibling, label, f, label[v])) < 0 && f != 0) {
+					f = fail[f];
+				}
+				fail[v] = next >= 0 ? next : 0;
+				output[v] = better(own[v], output[fail[v]]);
+				queue[tail++] = v;
+			}
+		}
+
+		// transition table
+		int size = Integer.highestOneBit(Math.max(2, states * 2 - 1)) << 1;
+		mask = size - 1;
+		shift = 64 - Integer.numberOfTrailingZeros(size);
+		keys = new long[size];
+		targets = new int[size];
+		Arrays.fill(keys, EMPTY);
+		for (int u = 0; u < states; u++) {
+			for (int v = child[u]; v >= 0; v = sibling[v]) {
+				long key = key(u, label[v]);
+				int slot = slot(key);
+				while (keys[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				targets[slot] = v;
+			}
+		}
+	}
+
+	private static int child(int[] child, int[] sibling, char[] label, int state, char c) {
+		for (int v = child[state]; v >= 0; v = sibling[v]) {
+			if (label[v] == c) {
+				return v;
+			}
+		}
+		return -1;
+	}
+
+	private int better(int a, int b) {
+		if (a < 0) {
+			return b;
+		}
+		if (b < 0) {
+			return a;
+		}
+		if (lengths[a] != lengths[b]) {
+			return lengths[a] > lengths[b] ? a : b;
+		}
+		return a < b ? a : b;
+	}
+
+	private static long key(int state, char c) {
+		return ((long) state << 16) | c;
+	}
+
+	private int slot(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	private int next(int state, char c) {
+		long key = key(state, c);
+		int slot = slot(key);
+		long k;
+		while ((k = keys[slot]) != EMPTY) {
+			if (k == key) {
+				return targets[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the most specific pattern occurring in the text.
+	 *
+	 * @param text The text to search.
+	 * @return The index of the longest pattern found (the first declared among equally long ones), or -1.
+	 */
+	public int find(CharSequence text) {
+		int state = 0;
+		int best = -1;
+		for (int i = 0, n = text.length(); i < n; i++) {
+			char c = text.charAt(i);
+			int next;
+			while ((next = next(state, c)) < 0 && state != 0) {
+				state = fail[state];
+			}
+			state = next < 0 ? 0 : next;
+			int found = output[state];
+			if (found >= 0 && found != best) {
+				best = better(found, best);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * The number of patterns compiled into the automaton.
+	 *
+	 * @return The pattern count.
+	 */
+	public int size() {
+		return lengths.length;
+	}
+}
@@ -0,0 +1,79 @@
+package org.w3c.ddr.simple.impl.match;
+
+/**
+ * A snapshot of the counters of a {@link TieredMatcher}: how many lookups each tier
+ * resolved.
+ */
+public final class ResolutionStatistics {
+
+	private final long clientHintsHits;
+
+	private final long exactHits;
+
+	private final long patternHits;
+
+	private final long fallbackHits;
+
+	private final long misses;
+
+	private final int learned;
+
+	ResolutionStatistics(long clientHintsHits, long exactHits, long patternHits,
+			long fallbackHits, long misses, int learned) {
+		this.clientHintsHits = clientHintsHits;
+		this.exactHits = exactHits;
+		this.patternHits = patternHits;
+		this.fallbackHits = fallbackHits;
+		this.misses = misses;
+		this.learned = learned;
+	}
+
+	/**
+	 * @return The number of devices identified by the Client Hints.
+	 */
+	public long getClientHintsHitCount() {
+		return clientHintsHits;
+	}
+
+	/**
+	 * @return The number of devices found in the table of exact User-Agents.
+	 */
+	public long getExactHitCount() {
+		return exactHits;
+	}
+
+	/**
+	 * @return The number of devices identified by the User-Agent patterns.
+	 */
+	public long getPatternHitCount() {
+		return patternHits;
+	}
+
+	/**
+	 * @return The number of devices identified by the matchers of other headers.
+	 */
+	public long getFallbackHitCount() {
+		return fallbackHits;
+	}
+
+	/**
+	 * @return The number of lookups that identified no device.
+	 */
+	public long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of User-Agents learned by the table of exact User-Agents.
+	 */
+	public int getLearnedCount() {
+		return learned;
+	}
+
+	@Override
+	public String toString() {
+		return "clientHints=" + clientHintsHits + ", exact=" + exactHits + ", patterns="
+				+ patternHits + ", fallback=" + fallbackHits + ", misses=" + misses + ", learned="
+				+ learned;
+	}
+}
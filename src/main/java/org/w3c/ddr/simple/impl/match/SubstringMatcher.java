@@ -0,0 +1,49 @@
+package org.w3c.ddr.simple.impl.match;
+
+import org.w3c.ddr.simple.Evidence;
+
+/**
+ * Matches the value of an evidence header against a set of substring patterns,
+ * compiled into a {@link PatternAutomaton}.
+ *
+ * Several headers may be given: each one present in the evidence is tried in turn
+ * until one of them identifies a device.
+ */
+public class SubstringMatcher implements EvidenceMatcher {
+
+	private final String[] headers;
+
+	private final PatternAutomaton automaton;
+
+	private final int[] devices;
+
+	/**
+	 * @param headers The headers to match, in order of precedence.
+	 * @param patterns The patterns, in order of precedence among equally long patterns.
+	 * @param devices The device ordinal identified by each pattern.
+	 */
+	public SubstringMatcher(String[] headers, String[] patterns, int[] devices) {
+		this.headers = headers.clone();
+		this.automaton = new PatternAutomaton(patterns);
+		this.devices = devices.clone();
+	}
+
+	@Override
+	public int match(Evidence evidence) {
+		for (String header : headers) {
+			String value = evidence.get(header);
+			if (value != null) {
+				int pattern = automaton.find(value);
+				if (pattern >= 0) {
+					return devices[pattern];
+				}
+			}
+		}
+		return NO_MATCH;
+	}
+
+	@Override
+	public String[] getHeaders() {
+		return headers.clone();
+	}
+}
@@ -0,0 +1,13 @@
+package org.w3c.ddr.simple.impl.match;
+
+/**
+ * Creates {@link SubstringMatcher}s matching patterns against the header they were declared for.
+ * This is the factory used for headers without a specific strategy.
+ */
+public class SubstringMatcherFactory implements EvidenceMatcherFactory {
+
+	@Override
+	public EvidenceMatcher newMatcher(String header, String[] patterns, int[] devices) {
+		return new SubstringMatcher(new String[] { header }, patterns, devices);
+	}
+}
@@ -0,0 +1,258 @@
+package org.w3c.ddr.simple.impl.match;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.w3c.ddr.simple.Evidence;
+
+/**
+ * Identifies devices in tiers of increasing cost, and counts the lookups each tier
+ * resolves:
+ * <ol>
+ * <li>the {@link ClientHintsMatcher}, when the evidence sends a device model as a
+ * Client Hint, which identifies a device more precisely than the reduced User-Agent
+ * sent along with it, and at the cost of a few hash probes;</li>
+ * <li>a table of exact User-Agents, preloaded with the User-Agent patterns of the
+ * repository and learning the User-Agents resolved by the next tier;</li>
+ * <li>the matcher compiled from the User-Agent patterns;</li>
+ * <li>the matchers of the other headers, in the order their headers were declared.</li>
+ * </ol>
+ *
+ * The table of exact User-Agents answers only for evidence in which no other header
+ * consulted by the User-Agent matcher is present, since the device then depends on the
+ * User-Agent alone. It also remembers the User-Agents that identified no device, so that
+ * unknown agents skip the User-Agent patterns as well. The number of User-Agents learned
+ * is bounded; once the table is full, a new User-Agent replaces one learned earlier
+ * which has not been looked up since (see {@link ExactMatchTable}).
+ * A {@link LearningListener} is told of each User-Agent learned, and
+ * {@link #learn(String, int)} restores them, so that they can outlive the matcher.
+ *
+ * The matcher is created by {@link MatcherCompiler}. It is thread-safe: the table is
+ * the only state modified by lookups, and it needs no locking.
+ */
+public final class TieredMatcher implements EvidenceMatcher {
+
+	private static final String USER_AGENT = "user-agent";
+
+	/**
+	 * The matcher of the Client Hints patterns, or null if the repository has none.
+	 */
+	private final EvidenceMatcher clientHints;
+
+	/**
+	 * The matcher of the User-Agent patterns, or null if the repository has none.
+	 */
+	private final EvidenceMatcher userAgents;
+
+	/**
+	 * The headers the User-Agent matcher prefers to the User-Agent.
+	 */
+	private final String[] overrides;
+
+	/**
+	 * The table of exact User-Agents, or null if the User-Agent matcher does not consult
+	 * the User-Agent header.
+	 */
+	private final ExactMatchTable exact;
+
+	private final EvidenceMatcher[] fallback;
+
+	private final String[] headers;
+
+	private final LongAdder clientHintsHits = new LongAdder();
+
+	private final LongAdder exactHits = new LongAdder();
+
+	private final LongAdder patternHits = new LongAdder();
+
+	private final LongAdder fallbackHits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private volatile LearningListener listener;
+
+	/**
+	 * @param clientHints The matcher of the Client Hints patterns, or null.
+	 * @param userAgents The matcher of the User-Agent patterns, or null.
+	 * @param patterns The User-Agent patterns, preloaded into the table of exact User-Agents.
+	 * @param fallback The matchers of the other headers.
+	 * @param learn The maximum number of User-Agents to learn.
+	 */
+	TieredMatcher(EvidenceMatcher clientHints, EvidenceMatcher userAgents, String[] patterns,
+			EvidenceMatcher[] fallback, int learn) {
+		this.clientHints = clientHints;
+		this.userAgents = userAgents;
+		this.fallback = fallback;
+		Set<String> headers = new LinkedHashSet<String>();
+		Set<String> overrides = new LinkedHashSet<String>();
+		if (clientHints != null) {
+			for (String header : clientHints.getHeaders()) {
+				headers.add(header);
+			}
+		}
+		if (userAgents != null) {
+			for (String header : userAgents.getHeaders()) {
+				headers.add(header);
+				overrides.add(header);
+			}
+		}
+		for (EvidenceMatcher matcher : fallback) {
+			for (String header : matcher.getHeaders()) {
+				headers.add(header);
+			}
+		}
+		this.headers = headers.toArray(new String[headers.size()]);
+		if (overrides.remove(USER_AGENT)) {
+			this.overrides = overrides.toArray(new String[overrides.size()]);
+			this.exact = new ExactMatchTable(patterns.length, learn);
+			UserAgentEvidence evidence = new UserAgentEvidence();
+			for (String pattern : patterns) {
+				evidence.userAgent = pattern;
+				exact.put(pattern, userAgents.match(evidence));
+			}
+		} else {
+			this.overrides = null;
+			this.exact = null;
+		}
+	}
+
+	@Override
+	public int match(Evidence evidence) {
+		int device;
+		if (clientHints != null) {
+			device = clientHints.match(evidence);
+			if (device != NO_MATCH) {
+				clientHintsHits.increment();
+				return device;
+			}
+		}
+		String userAgent = exact == null ? null : userAgent(evidence);
+		if (userAgent != null) {
+			device = exact.get(userAgent);
+			if (device == ExactMatchTable.ABSENT) {
+				device = userAgents.match(evidence);
+				if (exact.learn(userAgent, device)) {
+					LearningListener listener = this.listener;
+					if (listener != null) {
+						listener.learned(userAgent, device);
+					}
+				}
+				if (device != NO_MATCH) {
+					patternHits.increment();
+					return device;
+				}
+			} else if (device != NO_MATCH) {
+				exactHits.increment();
+				return device;
+			}
+		} else if (userAgents != null) {
+			device = userAgents.match(evidence);
+			if (device != NO_MATCH) {
+				patternHits.increment();
+				return device;
+			}
+		}
+		for (EvidenceMatcher matcher : fallback) {
+			device = matcher.match(evidence);
+			if (device != NO_MATCH) {
+				fallbackHits.increment();
+				return device;
+			}
+		}
+		misses.increment();
+		return NO_MATCH;
+	}
+
+	/**
+	 * The User-Agent of evidence the table of exact User-Agents can answer for.
+	 */
+	private String userAgent(Evidence evidence) {
+		for (String header : overrides) {
+			if (evidence.get(header) != null) {
+				return null;
+			}
+		}
+		return evidence.get(USER_AGENT);
+	}
+
+	@Override
+	public String[] getHeaders() {
+		return headers.clone();
+	}
+
+	/**
+	 * Adds a User-Agent to the table of exact User-Agents, as if it had been learned,
+	 * without notifying the listener; for instance to restore the User-Agents learned by
+	 * a previous instance.
+	 *
+	 * @param userAgent The User-Agent.
+	 * @param device The device it identifies, or {@link EvidenceMatcher#NO_MATCH}.
+	 * @return Whether the User-Agent was added, possibly in place of another one learned
+	 *         earlier: false if the table already holds it, has no entry it may replace
+	 *         among the slots of the User-Agent, or is not used because the User-Agent
+	 *         is not matched on its own.
+	 */
+	public boolean learn(String userAgent, int device) {
+		return exact != null && exact.learn(userAgent, device);
+	}
+
+	/**
+	 * Tells whether a User-Agent was learned and is still in the table of exact
+	 * User-Agents, without counting a lookup.
+	 *
+	 * @param userAgent The User-Agent.
+	 * @return true if the User-Agent was learned and has not been replaced since.
+	 */
+	public boolean isLearned(String userAgent) {
+		return exact != null && exact.isLearned(userAgent);
+	}
+
+	/**
+	 * @return The maximum number of User-Agents learned at a time.
+	 */
+	public int getLearningLimit() {
+		return exact == null ? 0 : exact.limit();
+	}
+
+	/**
+	 * Sets the listener notified of the User-Agents learned from now on.
+	 *
+	 * @param listener The listener, or null.
+	 */
+	public void setLearningListener(LearningListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return The counters of the tiers.
+	 */
+	public ResolutionStatistics getStatistics() {
+		return new ResolutionStatistics(clientHintsHits.sum(), exactHits.sum(),
+				patternHits.sum(), fallbackHits.sum(), misses.sum(),
+				exact == null ? 0 : exact.learned());
+	}
+
+	/**
+	 * Evidence holding only a User-Agent, to resolve the preloaded patterns.
+	 */
+	private static final class UserAgentEvidence implements Evidence {
+
+		String userAgent;
+
+		@Override
+		public void put(String key, String value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean exists(String key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public String get(String key) {
+			return USER_AGENT.equalsIgnoreCase(key) ? userAgent : null;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package org.w3c.ddr.simple.impl.match;
+
+/**
+ * Creates the matcher for User-Agent patterns.
+ *
+ * Transcoding proxies and proxy browsers such as Opera Mini replace the User-Agent
+ * of the device with their own, and forward the original in a separate header.
+ * The matcher created here applies the User-Agent patterns to those headers first,
+ * and falls back to the User-Agent header itself.
+ */
+public class UserAgentMatcherFactory implements EvidenceMatcherFactory {
+
+	/**
+	 * The headers carrying the User-Agent of the device, in order of precedence.
+	 */
+	public static final String[] USER_AGENT_HEADERS = { "x-operamini-phone-ua",
+			"x-device-user-agent", "x-original-user-agent", "user-agent" };
+
+	@Override
+	public EvidenceMatcher newMatcher(String header, String[] patterns, int[] devices) {
+		return new SubstringMatcher(USER_AGENT_HEADERS, patterns, devices);
+	}
+}
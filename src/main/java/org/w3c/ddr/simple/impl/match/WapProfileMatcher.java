@@ -0,0 +1,63 @@
+package org.w3c.ddr.simple.impl.match;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.w3c.ddr.simple.Evidence;
+
+/**
+ * Identifies devices by the UAProf URL sent in the x-wap-profile header.
+ *
+ * A profile URL names exactly one device, so patterns are full URLs compared by
+ * equality rather than substrings. The header value is stripped of the quotes and
+ * white space that RFC 2616 quoted strings (and many devices) add around it.
+ */
+public class WapProfileMatcher implements EvidenceMatcher {
+
+	private final String header;
+
+	private final Map<String, Integer> profiles;
+
+	/**
+	 * @param header The header carrying the profile URL.
+	 * @param patterns The profile URLs.
+	 * @param devices The device ordinal identified by each URL.
+	 */
+	public WapProfileMatcher(String header, String[] patterns, int[] devices) {
+		this.header = header;
+		this.profiles = new HashMap<String, Integer>(patterns.length * 2);
+		for (int i = 0; i < patterns.length; i++) {
+			String profile = strip(patterns[i]);
+			if (!profiles.containsKey(profile)) {
+				profiles.put(profile, devices[i]);
+			}
+		}
+	}
+
+	@Override
+	public int match(Evidence evidence) {
+		String value = evidence.get(header);
+		if (value == null) {
+			return NO_MATCH;
+		}
+		Integer device = profiles.get(strip(value));
+		return device == null ? NO_MATCH : device.intValue();
+	}
+
+	@Override
+	public String[] getHeaders() {
+		return new String[] { header };
+	}
+
+	private static String strip(String value) {
+		int start = 0;
+		int end = value.length();
+		while (start < end && (value.charAt(start) <= ' ' || value.charAt(start) == '"')) {
+			start++;
+		}
+		while (end > start && (value.charAt(end - 1) <= ' ' || value.charAt(end - 1) == '"')) {
+			end--;
+		}
+		return start == 0 && end == value.length() ? value : value.substring(start, end);
+	}
+}
@@ -0,0 +1,12 @@
+package org.w3c.ddr.simple.impl.match;
+
+/**
+ * Creates {@link WapProfileMatcher}s. This is the default factory for the x-wap-profile header.
+ */
+public class WapProfileMatcherFactory implements EvidenceMatcherFactory {
+
+	@Override
+	public EvidenceMatcher newMatcher(String header, String[] patterns, int[] devices) {
+		return new WapProfileMatcher(header, patterns, devices);
+	}
+}
@@ -0,0 +1,98 @@
+package org.w3c.ddr.simple.impl.metrics;
+
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.exception.ValueException;
+
+/**
+ * A {@link PropertyValue} counting the ValueExceptions thrown by the value it wraps.
+ */
+final class InstrumentedPropertyValue implements PropertyValue {
+
+	private final PropertyValue value;
+
+	private final InstrumentedService service;
+
+	InstrumentedPropertyValue(PropertyValue value, InstrumentedService service) {
+		this.value = value;
+		this.service = service;
+	}
+
+	@Override
+	public double getDouble() throws ValueException {
+		try {
+			return value.getDouble();
+		} catch (ValueException e) {
+			throw service.count(e);
+		}
+	}
+
+	@Override
+	public long getLong() throws ValueException {
+		try {
+			return value.getLong();
+		} catch (ValueException e) {
+			throw service.count(e);
+		}
+	}
+
+	@Override
+	public boolean getBoolean() throws ValueException {
+		try {
+			return value.getBoolean();
+		} catch (ValueException e) {
+			throw service.count(e);
+		}
+	}
+
+	@Override
+	public int getInteger() throws ValueException {
+		try {
+			return value.getInteger();
+		} catch (ValueException e) {
+			throw service.count(e);
+		}
+	}
+
+	@Override
+	public String[] getEnumeration() throws ValueException {
+		try {
+			return value.getEnumeration();
+		} catch (ValueException e) {
+			throw service.count(e);
+		}
+	}
+
+	@Override
+	public float getFloat() throws ValueException {
+		try {
+			return value.getFloat();
+		} catch (ValueException e) {
+			throw service.count(e);
+		}
+	}
+
+	@Override
+	public PropertyRef getPropertyRef() {
+		return value.getPropertyRef();
+	}
+
+	@Override
+	public String getString() throws ValueException {
+		try {
+			return value.getString();
+		} catch (ValueException e) {
+			throw service.count(e);
+		}
+	}
+
+	@Override
+	public boolean exists() {
+		return value.exists();
+	}
+
+	@Override
+	public String toString() {
+		return value.toString();
+	}
+}
@@ -0,0 +1,40 @@
+package org.w3c.ddr.simple.impl.metrics;
+
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.PropertyValues;
+import org.w3c.ddr.simple.exception.NameException;
+
+/**
+ * A {@link PropertyValues} collection whose values count the exceptions they throw.
+ */
+final class InstrumentedPropertyValues implements PropertyValues {
+
+	private final PropertyValues values;
+
+	private final InstrumentedService service;
+
+	InstrumentedPropertyValues(PropertyValues values, InstrumentedService service) {
+		this.values = values;
+		this.service = service;
+	}
+
+	@Override
+	public PropertyValue[] getAll() {
+		// the array returned by a service is the caller's own
+		PropertyValue[] all = values.getAll();
+		for (int i = 0; i < all.length; i++) {
+			all[i] = new InstrumentedPropertyValue(all[i], service);
+		}
+		return all;
+	}
+
+	@Override
+	public PropertyValue getValue(PropertyRef prop) throws NameException {
+		try {
+			return new InstrumentedPropertyValue(values.getValue(prop), service);
+		} catch (NameException e) {
+			throw service.count(e);
+		}
+	}
+}
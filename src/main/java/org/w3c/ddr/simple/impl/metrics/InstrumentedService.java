@@ -0,0 +1,425 @@
+package org.w3c.ddr.simple.impl.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyName;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.PropertyValues;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.exception.InitializationException;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.ValueException;
+import org.w3c.ddr.simple.impl.DelegatingService;
+import org.w3c.ddr.simple.impl.IndexedService;
+
+/**
+ * A {@link Service} decorator recording how the decorated service is used.
+ *
+ * For each lookup method it counts the calls and records their latency in a
+ * {@link LatencyHistogram}; it counts the NameExceptions thrown by the lookups and
+ * factory methods by code; and it counts the lookups for which no device was
+ * identified. The counters are striped, so recording costs two clock reads and a few
+ * uncontended increments per lookup, and the values of the delegate are returned as
+ * they are. The ValueExceptions thrown by the returned values are only counted when the
+ * {@link #VALUE_EXCEPTIONS} configuration property is true, since the values must then
+ * be wrapped, at the cost of an allocation per value returned.
+ *
+ * The counters are read with {@link #getMetrics()}, and exported over JMX under the
+ * {@link ServiceMetricsMXBean} interface when the {@link #OBJECT_NAME} configuration
+ * property is set or {@link #registerMBean(ObjectName)} is called.
+ */
+public class InstrumentedService extends DelegatingService {
+
+	/**
+	 * Configuration property giving the JMX object name to register the metrics under,
+	 * e.g. "org.w3c.ddr.simple:type=ServiceMetrics".
+	 */
+	public static final String OBJECT_NAME = "org.w3c.ddr.simple.impl.metrics.objectName";
+
+	/**
+	 * Configuration property which, when "true", makes the returned values count the
+	 * ValueExceptions they throw. By default they are not counted.
+	 */
+	public static final String VALUE_EXCEPTIONS =
+			"org.w3c.ddr.simple.impl.metrics.valueExceptions";
+
+	private static final int PROPERTY_REF = 0;
+
+	private static final int PROPERTY_NAME = 1;
+
+	private static final int LOCAL_NAME = 2;
+
+	private static final int QUALIFIED_NAME = 3;
+
+	private static final int DEVICE = 4;
+
+	private static final int PROPERTY_REFS = 5;
+
+	private static final int ASPECT = 6;
+
+	private static final int VOCABULARY_ASPECT = 7;
+
+	private static final String[] METHODS = { "getPropertyValue(PropertyRef)",
+			"getPropertyValue(PropertyName)", "getPropertyValue(String)",
+			"getPropertyValue(String,String,String)", "getPropertyValues()",
+			"getPropertyValues(PropertyRef[])", "getPropertyValues(String)",
+			"getPropertyValues(String,String)" };
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[METHODS.length];
+
+	private final ConcurrentMap<Integer, LongAdder> nameExceptions =
+			new ConcurrentHashMap<Integer, LongAdder>();
+
+	private final ConcurrentMap<Integer, LongAdder> valueExceptions =
+			new ConcurrentHashMap<Integer, LongAdder>();
+
+	private final LongAdder identified = new LongAdder();
+
+	private final LongAdder unknown = new LongAdder();
+
+	private ObjectName objectName;
+
+	/**
+	 * Whether the returned values are wrapped to count their ValueExceptions.
+	 */
+	private boolean valueCounts;
+
+	/**
+	 * Constructs a decorator whose delegate is created from the
+	 * {@link DelegatingService#DELEGATE} configuration property.
+	 */
+	public InstrumentedService() {
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Constructs a decorator around an initialized service.
+	 *
+	 * @param delegate The decorated service.
+	 */
+	public InstrumentedService(Service delegate) {
+		super(delegate);
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	@Override
+	protected void configure(String defaultVocabularyIRI, Properties props)
+			throws InitializationException {
+		valueCounts = Boolean.parseBoolean(props.getProperty(VALUE_EXCEPTIONS));
+		String name = props.getProperty(OBJECT_NAME);
+		if (name != null) {
+			try {
+				registerMBean(new ObjectName(name.trim()));
+			} catch (JMException e) {
+				throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+			}
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, replacing any previous
+	 * registration of this service.
+	 *
+	 * @param name The object name.
+	 * @throws JMException if the name is already in use or cannot be registered.
+	 */
+	public synchronized void registerMBean(ObjectName name) throws JMException {
+		unregisterMBean();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(new MXBean(), name);
+		this.objectName = name;
+	}
+
+	/**
+	 * Removes the metrics from the platform MBean server, if registered.
+	 *
+	 * @throws JMException if the registration cannot be removed.
+	 */
+	public synchronized void unregisterMBean() throws JMException {
+		if (objectName != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the counters.
+	 *
+	 * @return The metrics.
+	 */
+	public ServiceMetrics getMetrics() {
+		List<MethodStatistics> methods = new ArrayList<MethodStatistics>();
+		for (int i = 0; i < histograms.length; i++) {
+			MethodStatistics statistics = histograms[i].snapshot(METHODS[i]);
+			if (statistics.getCount() > 0) {
+				methods.add(statistics);
+			}
+		}
+		return new ServiceMetrics(methods, counts(nameExceptions), counts(valueExceptions),
+				identified.sum(), unknown.sum());
+	}
+
+	private static Map<String, Long> counts(Map<Integer, LongAdder> counters) {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<Integer, LongAdder> entry : counters.entrySet()) {
+			counts.put(codeName(entry.getKey()), entry.getValue().sum());
+		}
+		return counts;
+	}
+
+	/**
+	 * The name of an exception code; the code constants are not compile-time constants.
+	 */
+	private static String codeName(int code) {
+		if (code == NameException.PROPERTY_NOT_RECOGNIZED) {
+			return "PROPERTY_NOT_RECOGNIZED";
+		} else if (code == NameException.VOCABULARY_NOT_RECOGNIZED) {
+			return "VOCABULARY_NOT_RECOGNIZED";
+		} else if (code == NameException.ASPECT_NOT_RECOGNIZED) {
+			return "ASPECT_NOT_RECOGNIZED";
+		} else if (code == ValueException.INCOMPATIBLE_TYPES) {
+			return "INCOMPATIBLE_TYPES";
+		} else if (code == ValueException.NOT_KNOWN) {
+			return "NOT_KNOWN";
+		} else if (code == ValueException.MULTIPLE_VALUES) {
+			return "MULTIPLE_VALUES";
+		}
+		return Integer.toString(code);
+	}
+
+	NameException count(NameException e) {
+		increment(nameExceptions, e.getCode());
+		return e;
+	}
+
+	ValueException count(ValueException e) {
+		increment(valueExceptions, e.getCode());
+		return e;
+	}
+
+	private static void increment(ConcurrentMap<Integer, LongAdder> counters, int code) {
+		LongAdder counter = counters.get(code);
+		if (counter == null) {
+			LongAdder created = new LongAdder();
+			counter = counters.putIfAbsent(code, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.increment();
+	}
+
+	private PropertyValue record(int method, long start, PropertyValue value) {
+		histograms[method].record(System.nanoTime() - start);
+		(IndexedService.isDeviceIdentified(value) ? identified : unknown).increment();
+		return valueCounts ? new InstrumentedPropertyValue(value, this) : value;
+	}
+
+	private PropertyValues record(int method, long start, PropertyValues values) {
+		histograms[method].record(System.nanoTime() - start);
+		(IndexedService.isDeviceIdentified(values) ? identified : unknown).increment();
+		return valueCounts ? new InstrumentedPropertyValues(values, this) : values;
+	}
+
+	private NameException failed(int method, long start, NameException e) {
+		histograms[method].record(System.nanoTime() - start);
+		return count(e);
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, PropertyRef propertyRef)
+			throws NameException {
+		long start = System.nanoTime();
+		try {
+			return record(PROPERTY_REF, start, getDelegate().getPropertyValue(evidence,
+					propertyRef));
+		} catch (NameException e) {
+			throw failed(PROPERTY_REF, start, e);
+		}
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, PropertyName propertyName)
+			throws NameException {
+		long start = System.nanoTime();
+		try {
+			return record(PROPERTY_NAME, start, getDelegate().getPropertyValue(evidence,
+					propertyName));
+		} catch (NameException e) {
+			throw failed(PROPERTY_NAME, start, e);
+		}
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, String localPropertyName)
+			throws NameException {
+		long start = System.nanoTime();
+		try {
+			return record(LOCAL_NAME, start, getDelegate().getPropertyValue(evidence,
+					localPropertyName));
+		} catch (NameException e) {
+			throw failed(LOCAL_NAME, start, e);
+		}
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, String localPropertyName,
+			String localAspectName, String vocabularyIRI) throws NameException {
+		long start = System.nanoTime();
+		try {
+			return record(QUALIFIED_NAME, start, getDelegate().getPropertyValue(evidence,
+					localPropertyName, localAspectName, vocabularyIRI));
+		} catch (NameException e) {
+			throw failed(QUALIFIED_NAME, start, e);
+		}
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence) throws NameException {
+		long start = System.nanoTime();
+		try {
+			return record(DEVICE, start, getDelegate().getPropertyValues(evidence));
+		} catch (NameException e) {
+			throw failed(DEVICE, start, e);
+		}
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, PropertyRef[] propertyRefs)
+			throws NameException {
+		long start = System.nanoTime();
+		try {
+			return record(PROPERTY_REFS, start, getDelegate().getPropertyValues(evidence,
+					propertyRefs));
+		} catch (NameException e) {
+			throw failed(PROPERTY_REFS, start, e);
+		}
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, String localAspectName)
+			throws NameException {
+		long start = System.nanoTime();
+		try {
+			return record(ASPECT, start, getDelegate().getPropertyValues(evidence,
+					localAspectName));
+		} catch (NameException e) {
+			throw failed(ASPECT, start, e);
+		}
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, String localAspectName,
+			String vocabularyIRI) throws NameException {
+		long start = System.nanoTime();
+		try {
+			return record(VOCABULARY_ASPECT, start, getDelegate().getPropertyValues(evidence,
+					localAspectName, vocabularyIRI));
+		} catch (NameException e) {
+			throw failed(VOCABULARY_ASPECT, start, e);
+		}
+	}
+
+	@Override
+	public PropertyName newPropertyName(String localPropertyName) throws NameException {
+		try {
+			return getDelegate().newPropertyName(localPropertyName);
+		} catch (NameException e) {
+			throw count(e);
+		}
+	}
+
+	@Override
+	public PropertyName newPropertyName(String localPropertyName, String vocabularyIRI)
+			throws NameException {
+		try {
+			return getDelegate().newPropertyName(localPropertyName, vocabularyIRI);
+		} catch (NameException e) {
+			throw count(e);
+		}
+	}
+
+	@Override
+	public PropertyRef newPropertyRef(String localPropertyName) throws NameException {
+		try {
+			return getDelegate().newPropertyRef(localPropertyName);
+		} catch (NameException e) {
+			throw count(e);
+		}
+	}
+
+	@Override
+	public PropertyRef newPropertyRef(PropertyName propertyName) throws NameException {
+		try {
+			return getDelegate().newPropertyRef(propertyName);
+		} catch (NameException e) {
+			throw count(e);
+		}
+	}
+
+	@Override
+	public PropertyRef newPropertyRef(PropertyName propertyName, String localAspectName)
+			throws NameException {
+		try {
+			return getDelegate().newPropertyRef(propertyName, localAspectName);
+		} catch (NameException e) {
+			throw count(e);
+		}
+	}
+
+	/**
+	 * The JMX view of the counters.
+	 */
+	private final class MXBean implements ServiceMetricsMXBean {
+
+		@Override
+		public List<MethodStatistics> getMethods() {
+			return getMetrics().getMethods();
+		}
+
+		@Override
+		public Map<String, Long> getNameExceptionCounts() {
+			return getMetrics().getNameExceptionCounts();
+		}
+
+		@Override
+		public Map<String, Long> getValueExceptionCounts() {
+			return getMetrics().getValueExceptionCounts();
+		}
+
+		@Override
+		public long getIdentifiedDeviceCount() {
+			return identified.sum();
+		}
+
+		@Override
+		public long getUnknownDeviceCount() {
+			return unknown.sum();
+		}
+
+		@Override
+		public double getUnknownDeviceRatio() {
+			long unknown = InstrumentedService.this.unknown.sum();
+			long lookups = identified.sum() + unknown;
+			return lookups == 0 ? 0 : (double) unknown / lookups;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package org.w3c.ddr.simple.impl.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A concurrent histogram of latencies in nanoseconds, with log-linear buckets in the
+ * manner of HdrHistogram: each power of two is divided into 16 linear sub-buckets, so
+ * recorded values are kept with a relative error below 1/16 whatever their magnitude.
+ *
+ * Recording is an index computation and one atomic increment in a stripe chosen by
+ * thread, so that threads rarely contend for the same counters. Values of more than
+ * 2^40 ns (about 18 minutes) are counted in the last bucket.
+ */
+final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int MAX_EXPONENT = 40;
+
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		@Override
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	private final AtomicLongArray[] stripes;
+
+	private final int mask;
+
+	private final LongAdder sum = new LongAdder();
+
+	private final LongAccumulator max = new LongAccumulator(MAX, 0);
+
+	LatencyHistogram() {
+		int stripes = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+		this.stripes = new AtomicLongArray[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new AtomicLongArray(BUCKETS);
+		}
+		this.mask = stripes - 1;
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return value < 0 ? 0 : (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+				+ (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return The smallest value counted in a bucket.
+	 */
+	static long lowestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	void record(long nanos) {
+		stripes[(int) Thread.currentThread().getId() & mask].incrementAndGet(bucket(nanos));
+		sum.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/**
+	 * Takes a snapshot of the histogram. Values recorded concurrently may or may not be
+	 * included.
+	 *
+	 * @param name The name of the method measured.
+	 * @return The statistics.
+	 */
+	MethodStatistics snapshot(String name) {
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (AtomicLongArray stripe : stripes) {
+			for (int i = 0; i < BUCKETS; i++) {
+				long c = stripe.get(i);
+				counts[i] += c;
+				count += c;
+			}
+		}
+		long max = this.max.get();
+		return new MethodStatistics(name, count, count == 0 ? 0 : (double) sum.sum() / count,
+				Math.min(max, percentile(counts, count, 0.5)),
+				Math.min(max, percentile(counts, count, 0.9)),
+				Math.min(max, percentile(counts, count, 0.99)),
+				Math.min(max, percentile(counts, count, 0.999)), max);
+	}
+
+	/**
+	 * @return The highest value of the bucket holding the percentile.
+	 */
+	private static long percentile(long[] counts, long count, double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile * count);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return i == counts.length - 1 ? lowestValue(i) : lowestValue(i + 1) - 1;
+			}
+		}
+		return lowestValue(counts.length - 1);
+	}
+}
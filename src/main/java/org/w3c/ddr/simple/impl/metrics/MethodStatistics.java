@@ -0,0 +1,99 @@
+package org.w3c.ddr.simple.impl.metrics;
+
+/**
+ * A snapshot of the calls of one lookup method of an {@link InstrumentedService}.
+ * Latencies are in nanoseconds; percentiles are exact to within 1/16 of their value.
+ */
+public final class MethodStatistics {
+
+	private final String method;
+
+	private final long count;
+
+	private final double meanLatency;
+
+	private final long medianLatency;
+
+	private final long p90Latency;
+
+	private final long p99Latency;
+
+	private final long p999Latency;
+
+	private final long maxLatency;
+
+	MethodStatistics(String method, long count, double meanLatency, long medianLatency,
+			long p90Latency, long p99Latency, long p999Latency, long maxLatency) {
+		this.method = method;
+		this.count = count;
+		this.meanLatency = meanLatency;
+		this.medianLatency = medianLatency;
+		this.p90Latency = p90Latency;
+		this.p99Latency = p99Latency;
+		this.p999Latency = p999Latency;
+		this.maxLatency = maxLatency;
+	}
+
+	/**
+	 * @return The method and the types of its parameters after the evidence, e.g.
+	 *         "getPropertyValue(PropertyRef)".
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return The number of calls, including those that threw an exception.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The mean latency.
+	 */
+	public double getMeanLatency() {
+		return meanLatency;
+	}
+
+	/**
+	 * @return The 50th percentile of the latency.
+	 */
+	public long getMedianLatency() {
+		return medianLatency;
+	}
+
+	/**
+	 * @return The 90th percentile of the latency.
+	 */
+	public long getP90Latency() {
+		return p90Latency;
+	}
+
+	/**
+	 * @return The 99th percentile of the latency.
+	 */
+	public long getP99Latency() {
+		return p99Latency;
+	}
+
+	/**
+	 * @return The 99.9th percentile of the latency.
+	 */
+	public long getP999Latency() {
+		return p999Latency;
+	}
+
+	/**
+	 * @return The highest latency.
+	 */
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	@Override
+	public String toString() {
+		return method + ": count=" + count + ", mean=" + Math.round(meanLatency) + "ns, p50="
+				+ medianLatency + "ns, p99=" + p99Latency + "ns, max=" + maxLatency + "ns";
+	}
+}
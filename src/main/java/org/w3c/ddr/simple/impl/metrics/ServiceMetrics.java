@@ -0,0 +1,88 @@
+package org.w3c.ddr.simple.impl.metrics;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A snapshot of the counters of an {@link InstrumentedService}.
+ */
+public final class ServiceMetrics {
+
+	private final List<MethodStatistics> methods;
+
+	private final Map<String, Long> nameExceptions;
+
+	private final Map<String, Long> valueExceptions;
+
+	private final long identifiedDevices;
+
+	private final long unknownDevices;
+
+	ServiceMetrics(List<MethodStatistics> methods, Map<String, Long> nameExceptions,
+			Map<String, Long> valueExceptions, long identifiedDevices, long unknownDevices) {
+		this.methods = Collections.unmodifiableList(methods);
+		this.nameExceptions = Collections.unmodifiableMap(nameExceptions);
+		this.valueExceptions = Collections.unmodifiableMap(valueExceptions);
+		this.identifiedDevices = identifiedDevices;
+		this.unknownDevices = unknownDevices;
+	}
+
+	/**
+	 * @return The statistics of each lookup method that has been called.
+	 */
+	public List<MethodStatistics> getMethods() {
+		return methods;
+	}
+
+	/**
+	 * @return The number of NameExceptions thrown, by code name such as
+	 *         "PROPERTY_NOT_RECOGNIZED".
+	 */
+	public Map<String, Long> getNameExceptionCounts() {
+		return nameExceptions;
+	}
+
+	/**
+	 * @return The number of ValueExceptions thrown by the returned values, by code name
+	 *         such as "NOT_KNOWN"; empty unless {@link InstrumentedService#VALUE_EXCEPTIONS}
+	 *         is set.
+	 */
+	public Map<String, Long> getValueExceptionCounts() {
+		return valueExceptions;
+	}
+
+	/**
+	 * @return The number of lookups for which a device was identified.
+	 */
+	public long getIdentifiedDeviceCount() {
+		return identifiedDevices;
+	}
+
+	/**
+	 * @return The number of lookups for which no device was identified.
+	 */
+	public long getUnknownDeviceCount() {
+		return unknownDevices;
+	}
+
+	/**
+	 * @return The share of lookups for which no device was identified, or 0 before the
+	 *         first lookup.
+	 */
+	public double getUnknownDeviceRatio() {
+		long lookups = identifiedDevices + unknownDevices;
+		return lookups == 0 ? 0 : (double) unknownDevices / lookups;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (MethodStatistics method : methods) {
+			result.append(method).append('\n');
+		}
+		return result.append("unknownDeviceRatio=").append(getUnknownDeviceRatio())
+				.append(", nameExceptions=").append(nameExceptions)
+				.append(", valueExceptions=").append(valueExceptions).toString();
+	}
+}
@@ -0,0 +1,41 @@
+package org.w3c.ddr.simple.impl.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The management interface under which an {@link InstrumentedService} exports its
+ * counters over JMX. Each attribute is read from a new {@link ServiceMetrics} snapshot.
+ */
+public interface ServiceMetricsMXBean {
+
+	/**
+	 * @return The statistics of each lookup method that has been called.
+	 */
+	public List<MethodStatistics> getMethods();
+
+	/**
+	 * @return The number of NameExceptions thrown, by code name.
+	 */
+	public Map<String, Long> getNameExceptionCounts();
+
+	/**
+	 * @return The number of ValueExceptions thrown, by code name.
+	 */
+	public Map<String, Long> getValueExceptionCounts();
+
+	/**
+	 * @return The number of lookups for which a device was identified.
+	 */
+	public long getIdentifiedDeviceCount();
+
+	/**
+	 * @return The number of lookups for which no device was identified.
+	 */
+	public long getUnknownDeviceCount();
+
+	/**
+	 * @return The share of lookups for which no device was identified.
+	 */
+	public double getUnknownDeviceRatio();
+}
@@ -0,0 +1,18 @@
+package org.w3c.ddr.simple.impl.reload;
+
+import org.w3c.ddr.simple.Service;
+
+/**
+ * Notified by a {@link ReloadingService} each time a reloaded service is published.
+ */
+public interface ReloadListener {
+
+	/**
+	 * Called on the reloading thread once the new service answers all lookups.
+	 *
+	 * @param previous The service that was replaced; lookups already running on it
+	 *        complete normally.
+	 * @param current The service now answering lookups.
+	 */
+	void serviceReloaded(Service previous, Service current);
+}
@@ -0,0 +1,213 @@
+package org.w3c.ddr.simple.impl.reload;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.exception.InitializationException;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.SystemException;
+import org.w3c.ddr.simple.impl.DelegatingService;
+
+/**
+ * A {@link Service} whose device data can be replaced while it is in use.
+ *
+ * The decorated service is created from the {@link DelegatingService#DELEGATE}
+ * configuration property. {@link #reload()} creates and initializes a new instance on
+ * a background thread, then publishes it with a single volatile write; until then
+ * lookups keep being answered by the current instance. Lookups take no lock: each
+ * call reads the published instance once and is answered entirely by it, so the data
+ * version reported by {@link #getDataVersion()} always matches the data the next
+ * lookups see. The replaced instance is left to the garbage collector once the
+ * lookups running on it have completed.
+ *
+ * Reloads run one at a time, in the order they were requested. {@link ReloadListener}s
+ * are notified on the reloading thread after each publication.
+ *
+ * Note that PropertyName and PropertyRef instances created before a reload remain
+ * valid only as far as their names still exist in the new data; they may be resolved
+ * less efficiently than instances created by the new service.
+ */
+public class ReloadingService extends DelegatingService {
+
+	private final List<ReloadListener> listeners = new CopyOnWriteArrayList<ReloadListener>();
+
+	private final Executor executor;
+
+	private volatile Service current;
+
+	private volatile String defaultVocabularyIRI;
+
+	private volatile Properties props;
+
+	/**
+	 * Constructs a service reloading on a daemon thread shared by all instances.
+	 */
+	public ReloadingService() {
+		this(null);
+	}
+
+	/**
+	 * Constructs a service reloading on the given executor.
+	 *
+	 * @param executor The executor creating reloaded services, which must run tasks one
+	 *        at a time for reloads to be published in order; null for the shared daemon
+	 *        thread.
+	 */
+	public ReloadingService(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public void initialize(String defaultVocabularyIRI, Properties props)
+			throws NameException, InitializationException {
+		Service service = newDelegate(defaultVocabularyIRI, props);
+		this.defaultVocabularyIRI = defaultVocabularyIRI;
+		this.props = props;
+		this.current = service;
+	}
+
+	@Override
+	public Service getDelegate() {
+		Service current = this.current;
+		if (current == null) {
+			throw new SystemException(SystemException.CANNOT_PROCEED, "Service not initialized");
+		}
+		return current;
+	}
+
+	/**
+	 * Registers a listener notified after each reload.
+	 *
+	 * @param listener The listener.
+	 */
+	public void addReloadListener(ReloadListener listener) {
+		if (listener == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Listener cannot be null");
+		}
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener.
+	 *
+	 * @param listener The listener.
+	 */
+	public void removeReloadListener(ReloadListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Reloads the service with its current configuration, typically to read a
+	 * repository file that has been replaced. The configuration is the one in effect
+	 * when the reload runs, so that it follows the reloads requested before it.
+	 *
+	 * @return A future completed with the new service once it is published, or
+	 *         exceptionally with the {@link InitializationException} or
+	 *         {@link NameException} that prevented its creation, in which case the
+	 *         current service is kept.
+	 */
+	public CompletableFuture<Service> reload() {
+		getDelegate();
+		return reload(null, true);
+	}
+
+	/**
+	 * Reloads the service with a new configuration, for instance naming another
+	 * repository. The configuration is kept for later calls to {@link #reload()} once
+	 * the new service is published.
+	 *
+	 * @param props The configuration of the new service.
+	 * @return A future completed as for {@link #reload()}.
+	 */
+	public CompletableFuture<Service> reload(Properties props) {
+		getDelegate();
+		return reload(props, false);
+	}
+
+	/**
+	 * @param current Whether to reload with the configuration in effect when the reload
+	 *        runs rather than the one given.
+	 */
+	private CompletableFuture<Service> reload(final Properties configuration,
+			final boolean current) {
+		final CompletableFuture<Service> future = new CompletableFuture<Service>();
+		executor().execute(new Runnable() {
+			@Override
+			public void run() {
+				Properties props = current ? ReloadingService.this.props : configuration;
+				Service service;
+				try {
+					service = newDelegate(defaultVocabularyIRI, props);
+				} catch (NameException e) {
+					future.completeExceptionally(e);
+					return;
+				} catch (InitializationException e) {
+					future.completeExceptionally(e);
+					return;
+				} catch (RuntimeException e) {
+					future.completeExceptionally(e);
+					return;
+				}
+				publish(service, props);
+				future.complete(service);
+			}
+		});
+		return future;
+	}
+
+	private void publish(Service service, Properties props) {
+		Service previous = current;
+		this.props = props;
+		this.current = service;
+		for (ReloadListener listener : listeners) {
+			try {
+				listener.serviceReloaded(previous, service);
+			} catch (RuntimeException e) {
+				// one failing listener must not deprive the others of the notification
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+			}
+		}
+	}
+
+	private static Service newDelegate(String defaultVocabularyIRI, Properties props)
+			throws NameException, InitializationException {
+		String clazz = props == null ? null : props.getProperty(DELEGATE);
+		if (clazz == null) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					"Missing configuration property " + DELEGATE);
+		}
+		return ServiceFactory.newService(clazz, defaultVocabularyIRI, props);
+	}
+
+	private Executor executor() {
+		if (executor != null) {
+			return executor;
+		}
+		return Reloader.EXECUTOR;
+	}
+
+	/**
+	 * Holder of the shared reloading thread, started on first use.
+	 */
+	private static final class Reloader {
+
+		static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task, "ddr-reload");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+}
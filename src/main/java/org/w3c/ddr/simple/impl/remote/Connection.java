@@ -0,0 +1,180 @@
+package org.w3c.ddr.simple.impl.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A pipelined client connection to a {@link ServiceServer}.
+ *
+ * Any number of threads may send requests on a connection without waiting for the
+ * responses to earlier ones. Since the server answers in order, each call is queued as
+ * its request is written, and a reader thread completes the calls in turn as their
+ * responses arrive. Requests are buffered until {@link #flush()}, so that a batch of
+ * requests goes out in as few packets as possible.
+ *
+ * Once an I/O error occurs the connection is closed and every outstanding call fails
+ * with the error; it must then be replaced.
+ */
+final class Connection implements Closeable {
+
+	/**
+	 * A request, completed with its decoded response.
+	 */
+	abstract static class Call<T> extends CompletableFuture<T> {
+
+		/**
+		 * Writes the operation and the arguments of the request.
+		 */
+		abstract void write(DataOutputStream out) throws IOException;
+
+		/**
+		 * Reads the result of a successful response.
+		 */
+		abstract T read(DataInputStream in) throws IOException;
+	}
+
+	private final Socket socket;
+
+	private final DataOutputStream out;
+
+	private final DataInputStream in;
+
+	private final ArrayDeque<Call<?>> pending = new ArrayDeque<Call<?>>();
+
+	private boolean closed;
+
+	/**
+	 * Opens a connection and starts its reader thread.
+	 *
+	 * @param address The address of the server.
+	 * @param timeout The connection timeout in milliseconds.
+	 */
+	Connection(InetSocketAddress address, int timeout) throws IOException {
+		this.socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(address, timeout);
+		this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out.writeInt(Protocol.MAGIC);
+		out.writeInt(Protocol.VERSION);
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readResponses();
+			}
+		}, "ddr-remote-" + address);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Writes a request. It is sent at the latest by the next {@link #flush()}.
+	 *
+	 * @param call The request.
+	 * @throws IOException if the connection is closed or fails.
+	 */
+	void send(Call<?> call) throws IOException {
+		synchronized (out) {
+			// queued before it is written, so that the response always finds it
+			synchronized (pending) {
+				if (closed) {
+					throw new IOException("Connection closed");
+				}
+				pending.add(call);
+			}
+			try {
+				call.write(out);
+			} catch (IOException e) {
+				close(e);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Sends the requests written so far.
+	 */
+	void flush() throws IOException {
+		synchronized (out) {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				close(e);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the connection failed or was closed.
+	 */
+	boolean isClosed() {
+		synchronized (pending) {
+			return closed;
+		}
+	}
+
+	private void readResponses() {
+		try {
+			while (true) {
+				int status = in.read();
+				if (status < 0) {
+					throw new EOFException("Connection closed by server");
+				}
+				Call<?> call;
+				synchronized (pending) {
+					call = pending.poll();
+				}
+				if (call == null) {
+					throw new IOException("Response without request");
+				}
+				complete(call, status);
+			}
+		} catch (IOException e) {
+			close(e);
+		} catch (RuntimeException e) {
+			close(new IOException(e));
+		}
+	}
+
+	private <T> void complete(Call<T> call, int status) throws IOException {
+		if (status == Protocol.OK) {
+			call.complete(call.read(in));
+		} else {
+			call.completeExceptionally(Protocol.readError(status, in));
+		}
+	}
+
+	@Override
+	public void close() {
+		close(new IOException("Connection closed"));
+	}
+
+	private void close(IOException cause) {
+		List<Call<?>> failed;
+		synchronized (pending) {
+			closed = true;
+			failed = new ArrayList<Call<?>>(pending);
+			pending.clear();
+		}
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing left to release
+		}
+		for (Call<?> call : failed) {
+			call.completeExceptionally(cause);
+		}
+	}
+}
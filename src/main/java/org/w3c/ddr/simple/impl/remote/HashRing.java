@@ -0,0 +1,71 @@
+package org.w3c.ddr.simple.impl.remote;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A consistent hash ring distributing keys over shards.
+ *
+ * Each shard is placed on the ring at a number of points derived from its name, and a
+ * key belongs to the shard of the first point at or after the hash of the key. Adding or
+ * removing a shard therefore only moves the keys of the neighbouring points, and the
+ * other shards keep the keys, and the warm caches, they had. Instances are immutable.
+ */
+final class HashRing {
+
+	private final long[] points;
+
+	private final int[] shards;
+
+	/**
+	 * @param names The names of the shards, which decide their points on the ring.
+	 * @param replicas The number of points of each shard.
+	 */
+	HashRing(String[] names, int replicas) {
+		TreeMap<Long, Integer> ring = new TreeMap<Long, Integer>();
+		for (int shard = 0; shard < names.length; shard++) {
+			for (int i = 0; i < replicas; i++) {
+				ring.put(hash(names[shard] + '#' + i), shard);
+			}
+		}
+		this.points = new long[ring.size()];
+		this.shards = new int[ring.size()];
+		int i = 0;
+		for (Map.Entry<Long, Integer> point : ring.entrySet()) {
+			points[i] = point.getKey();
+			shards[i] = point.getValue();
+			i++;
+		}
+	}
+
+	/**
+	 * @param key The key, such as a user agent.
+	 * @return The index of the shard owning the key.
+	 */
+	int shard(String key) {
+		int i = Arrays.binarySearch(points, hash(key));
+		if (i < 0) {
+			i = -i - 1;
+		}
+		return shards[i == points.length ? 0 : i];
+	}
+
+	/**
+	 * A 64-bit FNV-1a hash of the characters of a string, finished by the MurmurHash3
+	 * mix so that similar strings land far apart on the ring.
+	 */
+	static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,273 @@
+package org.w3c.ddr.simple.impl.remote;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.exception.DDRException;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.SystemException;
+import org.w3c.ddr.simple.exception.ValueException;
+import org.w3c.ddr.simple.impl.PropertyType;
+
+/**
+ * The binary protocol spoken between a {@link RemoteService} and a {@link ServiceServer}.
+ *
+ * A connection opens with the client sending {@link #MAGIC} and {@link #VERSION}, each
+ * a big-endian int. The client then sends requests, each an operation byte followed by
+ * its arguments, without waiting for the responses; the server answers the requests of
+ * a connection in the order they were sent. A response is a status byte, {@link #OK}
+ * followed by the result, or an error status followed by the exception code and message.
+ *
+ * <pre>
+ * string      int length in UTF-8 bytes, -1 for null; bytes
+ * evidence    int count; count * (string name, string value)
+ *
+ * METADATA    -&gt; string implementationVersion, string dataVersion,
+ *                int refs; refs * (string namespace, string localName, string aspect,
+ *                string type),
+ *                int names; names * (string namespace, string localName, int defaultOrdinal)
+ * VALUE       evidence, int ordinal -&gt; value
+ * VALUES      evidence -&gt; int count; count * value
+ * VALUES_OF   evidence, int count; count * int ordinal -&gt; int count; count * value
+ *
+ * value       int ordinal, boolean exists, then if it exists, by the type of the property:
+ *             string string, boolean boolean, integer int, long long, float float,
+ *             double double, enumeration (string, int count; count * string)
+ * </pre>
+ *
+ * Strings are limited to {@link #MAX_STRING} bytes, evidence to {@link #MAX_HEADERS}
+ * headers and other counts to {@link #MAX_COUNT}; a peer reading a larger one closes
+ * the connection.
+ *
+ * Property references are sent as ordinals into the list returned by METADATA, along
+ * with the name of the {@link PropertyType} of each, so that a value is sent in that type
+ * only and converted by the client. The server reads the types from the
+ * {@link org.w3c.ddr.simple.impl.IndexedService} it hosts, possibly through decorators;
+ * the properties of other services are sent as strings.
+ */
+final class Protocol {
+
+	static final int MAGIC = 0x44445252;
+
+	static final int VERSION = 2;
+
+	static final int METADATA = 1;
+
+	static final int VALUE = 2;
+
+	static final int VALUES = 3;
+
+	static final int VALUES_OF = 4;
+
+	static final int OK = 0;
+
+	static final int NAME_ERROR = 1;
+
+	static final int VALUE_ERROR = 2;
+
+	static final int SYSTEM_ERROR = 3;
+
+	/**
+	 * The largest string accepted, in UTF-8 bytes.
+	 */
+	static final int MAX_STRING = 16 * 1024;
+
+	/**
+	 * The largest number of headers accepted in evidence.
+	 */
+	static final int MAX_HEADERS = 128;
+
+	/**
+	 * The largest number of properties, values or enumeration members accepted.
+	 */
+	static final int MAX_COUNT = 64 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private Protocol() {
+	}
+
+	static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(UTF8);
+			if (bytes.length > MAX_STRING) {
+				throw new IOException("String of " + bytes.length + " bytes exceeds "
+						+ MAX_STRING);
+			}
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		if (length > MAX_STRING) {
+			throw new IOException("String of " + length + " bytes exceeds " + MAX_STRING);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Reads a count.
+	 *
+	 * @param max The largest count accepted.
+	 * @throws IOException if the count is negative or above max.
+	 */
+	static int readCount(DataInput in, int max) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || count > max) {
+			throw new IOException("Count " + count + " out of bounds 0.." + max);
+		}
+		return count;
+	}
+
+	/**
+	 * Checks that evidence is within the bounds of the protocol, before any of it is sent.
+	 *
+	 * @throws SystemException with code ILLEGAL_ARGUMENT if it is not.
+	 */
+	static void checkEvidence(Map<String, String> headers) {
+		if (headers.size() > MAX_HEADERS) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Evidence of " + headers.size() + " headers exceeds " + MAX_HEADERS);
+		}
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			if (tooLong(header.getKey()) || tooLong(header.getValue())) {
+				throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+						"Header " + header.getKey() + " exceeds " + MAX_STRING + " bytes");
+			}
+		}
+	}
+
+	/**
+	 * @return Whether a string exceeds {@link #MAX_STRING} bytes in UTF-8.
+	 */
+	private static boolean tooLong(String value) {
+		if (value == null || value.length() <= MAX_STRING / 3) {
+			return false;
+		}
+		return value.length() > MAX_STRING || value.getBytes(UTF8).length > MAX_STRING;
+	}
+
+	static void writeEvidence(DataOutput out, Map<String, String> headers) throws IOException {
+		if (headers.size() > MAX_HEADERS) {
+			throw new IOException(headers.size() + " headers exceed " + MAX_HEADERS);
+		}
+		out.writeInt(headers.size());
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			writeString(out, header.getKey());
+			writeString(out, header.getValue());
+		}
+	}
+
+	/**
+	 * Reads evidence into an instance created by the hosted service.
+	 */
+	static void readEvidence(DataInput in, Evidence evidence) throws IOException {
+		for (int count = readCount(in, MAX_HEADERS); count > 0; count--) {
+			String name = readString(in);
+			String value = readString(in);
+			if (name != null) {
+				evidence.put(name, value);
+			}
+		}
+	}
+
+	/**
+	 * Writes a value, read with the getter of its type.
+	 *
+	 * @param type The type of the property.
+	 * @throws IOException if the value cannot be read as its type.
+	 */
+	static void writeValue(DataOutput out, int ordinal, PropertyType type, PropertyValue value)
+			throws IOException {
+		out.writeInt(ordinal);
+		boolean exists = value.exists();
+		out.writeBoolean(exists);
+		if (!exists) {
+			return;
+		}
+		try {
+			switch (type) {
+			case BOOLEAN:
+				out.writeBoolean(value.getBoolean());
+				break;
+			case INTEGER:
+				out.writeInt(value.getInteger());
+				break;
+			case LONG:
+				out.writeLong(value.getLong());
+				break;
+			case FLOAT:
+				out.writeFloat(value.getFloat());
+				break;
+			case DOUBLE:
+				out.writeDouble(value.getDouble());
+				break;
+			case ENUMERATION:
+				writeString(out, value.getString());
+				String[] members = value.getEnumeration();
+				out.writeInt(members.length);
+				for (String member : members) {
+					writeString(out, member);
+				}
+				break;
+			default:
+				writeString(out, value.getString());
+			}
+		} catch (ValueException e) {
+			throw new IOException("Cannot read " + value.getPropertyRef() + " as "
+					+ type.getName(), e);
+		}
+	}
+
+	/**
+	 * Writes the error response for an exception thrown by the hosted service.
+	 */
+	static void writeError(DataOutput out, Exception e) throws IOException {
+		if (e instanceof NameException) {
+			out.writeByte(NAME_ERROR);
+		} else if (e instanceof ValueException) {
+			out.writeByte(VALUE_ERROR);
+		} else {
+			out.writeByte(SYSTEM_ERROR);
+		}
+		// the code of a SystemException is not accessible outside of its class
+		out.writeInt(e instanceof DDRException ? ((DDRException) e).getCode()
+				: SystemException.CANNOT_PROCEED);
+		writeString(out, e.getMessage() != null ? e.getMessage() : e.toString());
+	}
+
+	/**
+	 * Reads the rest of an error response.
+	 *
+	 * @param status The error status already read.
+	 * @return The exception reported by the server.
+	 */
+	static Exception readError(int status, DataInput in) throws IOException {
+		int code = in.readInt();
+		String message = readString(in);
+		switch (status) {
+		case NAME_ERROR:
+			return new NameException(code, message);
+		case VALUE_ERROR:
+			return new ValueException(code, message);
+		case SYSTEM_ERROR:
+			return new SystemException(code, message);
+		default:
+			throw new IOException("Unknown response status " + status);
+		}
+	}
+}
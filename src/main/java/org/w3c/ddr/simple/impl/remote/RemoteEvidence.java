@@ -0,0 +1,43 @@
+package org.w3c.ddr.simple.impl.remote;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.w3c.ddr.simple.Evidence;
+
+/**
+ * {@link Evidence} representing HTTP headers, which a {@link RemoteService} sends to the
+ * server in full. Header names are compared case-insensitively.
+ */
+final class RemoteEvidence implements Evidence {
+
+	private final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+	@Override
+	public void put(String key, String value) {
+		headers.put(key.toLowerCase(Locale.ENGLISH), value);
+	}
+
+	@Override
+	public boolean exists(String key) {
+		return key != null && headers.containsKey(key.toLowerCase(Locale.ENGLISH));
+	}
+
+	@Override
+	public String get(String key) {
+		return key == null ? null : headers.get(key.toLowerCase(Locale.ENGLISH));
+	}
+
+	/**
+	 * The headers keyed by lower-case name.
+	 */
+	Map<String, String> headers() {
+		return headers;
+	}
+
+	@Override
+	public String toString() {
+		return headers.toString();
+	}
+}
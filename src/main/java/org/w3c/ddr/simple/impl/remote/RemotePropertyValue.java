@@ -0,0 +1,135 @@
+package org.w3c.ddr.simple.impl.remote;
+
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.exception.ValueException;
+import org.w3c.ddr.simple.impl.PropertyType;
+
+/**
+ * A {@link PropertyValue} received from a {@link ServiceServer}, holding the value in the
+ * type of its property. The getters convert it as those of an
+ * {@link org.w3c.ddr.simple.impl.IndexedService} do.
+ */
+final class RemotePropertyValue implements PropertyValue {
+
+	private final PropertyRef ref;
+
+	private final PropertyType type;
+
+	private final boolean exists;
+
+	/**
+	 * The value of a string or enumeration.
+	 */
+	private final String string;
+
+	/**
+	 * The value of an integer, long or boolean, as 0 or 1.
+	 */
+	private final long integral;
+
+	/**
+	 * The value of a float or double.
+	 */
+	private final double real;
+
+	private final String[] enumeration;
+
+	/**
+	 * Creates a value that is not known.
+	 */
+	RemotePropertyValue(PropertyRef ref, PropertyType type) {
+		this(ref, type, false, null, 0, 0, null);
+	}
+
+	RemotePropertyValue(PropertyRef ref, PropertyType type, boolean exists, String string,
+			long integral, double real, String[] enumeration) {
+		this.ref = ref;
+		this.type = type;
+		this.exists = exists;
+		this.string = string;
+		this.integral = integral;
+		this.real = real;
+		this.enumeration = enumeration;
+	}
+
+	@Override
+	public double getDouble() throws ValueException {
+		check(PropertyType.DOUBLE);
+		return type == PropertyType.INTEGER || type == PropertyType.LONG ? integral : real;
+	}
+
+	@Override
+	public long getLong() throws ValueException {
+		check(PropertyType.LONG);
+		return integral;
+	}
+
+	@Override
+	public boolean getBoolean() throws ValueException {
+		check(PropertyType.BOOLEAN);
+		return integral != 0;
+	}
+
+	@Override
+	public int getInteger() throws ValueException {
+		check(PropertyType.INTEGER);
+		return (int) integral;
+	}
+
+	@Override
+	public String[] getEnumeration() throws ValueException {
+		check(PropertyType.ENUMERATION);
+		return enumeration.clone();
+	}
+
+	@Override
+	public float getFloat() throws ValueException {
+		check(PropertyType.FLOAT);
+		return type == PropertyType.INTEGER ? (float) integral : (float) real;
+	}
+
+	@Override
+	public PropertyRef getPropertyRef() {
+		return ref;
+	}
+
+	@Override
+	public String getString() throws ValueException {
+		check(null);
+		switch (type) {
+		case INTEGER:
+			return Integer.toString((int) integral);
+		case LONG:
+			return Long.toString(integral);
+		case FLOAT:
+			return Float.toString((float) real);
+		case DOUBLE:
+			return Double.toString(real);
+		case BOOLEAN:
+			return Boolean.toString(integral != 0);
+		default:
+			return string;
+		}
+	}
+
+	@Override
+	public boolean exists() {
+		return exists;
+	}
+
+	/**
+	 * @param requested The requested type, or null for a string version of any type.
+	 */
+	private void check(PropertyType requested) throws ValueException {
+		if (!exists) {
+			throw new ValueException(ValueException.NOT_KNOWN,
+					"Value not known: " + ref.getLocalPropertyName());
+		}
+		if (requested != null && !type.isReadableAs(requested)) {
+			throw new ValueException(ValueException.INCOMPATIBLE_TYPES, "Property "
+					+ ref.getLocalPropertyName() + " is of type " + type.getName() + ", not "
+					+ requested.getName());
+		}
+	}
+}
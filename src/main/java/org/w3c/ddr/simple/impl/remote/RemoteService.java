@@ -0,0 +1,810 @@
+package org.w3c.ddr.simple.impl.remote;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyName;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.PropertyValues;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.exception.InitializationException;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.SystemException;
+import org.w3c.ddr.simple.impl.BatchService;
+import org.w3c.ddr.simple.impl.PropertyNameImpl;
+import org.w3c.ddr.simple.impl.PropertyRefImpl;
+import org.w3c.ddr.simple.impl.PropertyType;
+import org.w3c.ddr.simple.impl.SimplePropertyValues;
+
+/**
+ * A {@link Service} answering lookups by sending them to one or more {@link ServiceServer}s,
+ * so that a detection engine can run as a shared fleet while applications keep using the
+ * Simple API, and {@link org.w3c.ddr.simple.ServiceFactory} creates remote engines like
+ * any other.
+ *
+ * The servers named by the {@link #SERVERS} configuration property are shards serving
+ * the same repository. Evidence is assigned to a shard by a consistent hash of its
+ * User-Agent header, so that each shard sees, and caches, a stable share of the user
+ * agents. The property metadata is read from every server during initialization; names
+ * are then resolved locally and sent as ordinals, and name errors are reported without
+ * a round trip. The data version is the one read during initialization.
+ *
+ * Requests are pipelined: the threads sharing a connection send their requests without
+ * waiting for the responses to those before them, and the
+ * {@link BatchService} methods send the whole batch before waiting for the first answer.
+ * Failures of the network or of a server are reported as a SystemException with code
+ * CANNOT_PROCEED; the connection is opened again by the next lookup. A server that
+ * cannot be connected to is not tried again for {@link #RETRY_DELAY} milliseconds,
+ * during which the lookups sent to it fail at once.
+ *
+ * Evidence must be created by {@link #newHTTPEvidence()}, which records every header
+ * for transmission.
+ *
+ * <table>
+ * <caption>Configuration</caption>
+ * <tr><th>Property</th><th>Default</th></tr>
+ * <tr><td>{@link #SERVERS}</td><td>required</td></tr>
+ * <tr><td>{@link #CONNECTIONS}</td><td>2</td></tr>
+ * <tr><td>{@link #TIMEOUT}</td><td>5000</td></tr>
+ * </table>
+ */
+public class RemoteService implements BatchService, Closeable {
+
+	/**
+	 * Configuration property listing the servers, as host:port separated by white space
+	 * or commas.
+	 */
+	public static final String SERVERS = "org.w3c.ddr.simple.impl.remote.servers";
+
+	/**
+	 * Configuration property giving the number of connections opened to each server.
+	 */
+	public static final String CONNECTIONS = "org.w3c.ddr.simple.impl.remote.connections";
+
+	/**
+	 * Configuration property giving, in milliseconds, how long to wait for a connection
+	 * to be established and for the response to a request.
+	 */
+	public static final String TIMEOUT = "org.w3c.ddr.simple.impl.remote.timeout";
+
+	private static final String IMPLEMENTATION_VERSION = "RemoteService 1.0";
+
+	/**
+	 * The number of points of each server on the hash ring.
+	 */
+	private static final int REPLICAS = 160;
+
+	/**
+	 * The time in milliseconds after a failed connection before a server is tried again.
+	 */
+	static final long RETRY_DELAY = 1000;
+
+	private String defaultVocabularyIRI;
+
+	private InetSocketAddress[] addresses;
+
+	private HashRing ring;
+
+	private Connection[][] connections;
+
+	/**
+	 * The System.nanoTime before which each server is not tried again, guarded by the
+	 * connection pool of the server.
+	 */
+	private long[] retryAt;
+
+	private int timeout;
+
+	private volatile Metadata metadata;
+
+	@Override
+	public void initialize(String defaultVocabularyIRI, Properties props)
+			throws NameException, InitializationException {
+		String servers = props == null ? null : props.getProperty(SERVERS);
+		if (servers == null || servers.trim().length() == 0) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					"Missing configuration property " + SERVERS);
+		}
+		String[] names = servers.trim().split("[\\s,]+");
+		int connections = integer(props, CONNECTIONS, 2);
+		int timeout = integer(props, TIMEOUT, 5000);
+		InetSocketAddress[] addresses = new InetSocketAddress[names.length];
+		for (int i = 0; i < names.length; i++) {
+			int colon = names[i].lastIndexOf(':');
+			try {
+				addresses[i] = new InetSocketAddress(names[i].substring(0, colon),
+						Integer.parseInt(names[i].substring(colon + 1)));
+			} catch (RuntimeException e) {
+				throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+						"Invalid server address: " + names[i]);
+			}
+		}
+
+		close();
+		this.defaultVocabularyIRI = defaultVocabularyIRI;
+		this.addresses = addresses;
+		this.ring = new HashRing(names, REPLICAS);
+		this.connections = new Connection[names.length][connections];
+		this.retryAt = new long[names.length];
+		Arrays.fill(retryAt, System.nanoTime());
+		this.timeout = timeout;
+
+		Metadata metadata = null;
+		for (int shard = 0; shard < names.length; shard++) {
+			Metadata served;
+			try {
+				served = call(shard, new MetadataCall());
+			} catch (SystemException e) {
+				throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+						e);
+			}
+			if (metadata == null) {
+				metadata = served;
+			} else if (!metadata.ordinals.equals(served.ordinals)) {
+				throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+						"Server " + names[shard] + " does not serve the properties of "
+						+ names[0]);
+			}
+		}
+		if (!metadata.defaults.containsKey(defaultVocabularyIRI)) {
+			throw new NameException(NameException.VOCABULARY_NOT_RECOGNIZED,
+					"Vocabulary not recognized: " + defaultVocabularyIRI);
+		}
+		this.metadata = metadata;
+	}
+
+	/**
+	 * Closes the connections to the servers. They are opened again by the next lookup.
+	 */
+	@Override
+	public void close() {
+		if (connections == null) {
+			return;
+		}
+		for (Connection[] pool : connections) {
+			synchronized (pool) {
+				for (int i = 0; i < pool.length; i++) {
+					if (pool[i] != null) {
+						pool[i].close();
+						pool[i] = null;
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public String getImplementationVersion() {
+		return IMPLEMENTATION_VERSION + " (" + metadata().implementationVersion + ")";
+	}
+
+	@Override
+	public String getDataVersion() {
+		return metadata().dataVersion;
+	}
+
+	@Override
+	public PropertyRef[] listPropertyRefs() {
+		return metadata().refs.clone();
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, PropertyRef propertyRef)
+			throws NameException {
+		Metadata metadata = metadata();
+		return value(metadata, evidence, ordinal(metadata, propertyRef));
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, PropertyName propertyName)
+			throws NameException {
+		Metadata metadata = metadata();
+		return value(metadata, evidence, ordinal(metadata, propertyName));
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, String localPropertyName)
+			throws NameException {
+		Metadata metadata = metadata();
+		return value(metadata, evidence,
+				ordinal(metadata, defaultVocabularyIRI, localPropertyName, null));
+	}
+
+	@Override
+	public PropertyValue getPropertyValue(Evidence evidence, String localPropertyName,
+			String localAspectName, String vocabularyIRI) throws NameException {
+		Metadata metadata = metadata();
+		return value(metadata, evidence,
+				ordinal(metadata, vocabularyIRI, localPropertyName, localAspectName));
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence) throws NameException {
+		Metadata metadata = metadata();
+		RemoteEvidence remote = evidence(evidence);
+		return new SimplePropertyValues(call(shard(remote),
+				new ValuesCall(metadata, remote, null)));
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, PropertyRef[] propertyRefs)
+			throws NameException {
+		Metadata metadata = metadata();
+		int[] ordinals = ordinals(metadata, propertyRefs);
+		RemoteEvidence remote = evidence(evidence);
+		return new SimplePropertyValues(call(shard(remote),
+				new ValuesCall(metadata, remote, ordinals)));
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, String localAspectName)
+			throws NameException {
+		return getPropertyValues(evidence, localAspectName, defaultVocabularyIRI);
+	}
+
+	@Override
+	public PropertyValues getPropertyValues(Evidence evidence, String localAspectName,
+			String vocabularyIRI) throws NameException {
+		Metadata metadata = metadata();
+		if (vocabularyIRI == null || !metadata.defaults.containsKey(vocabularyIRI)) {
+			throw new NameException(NameException.VOCABULARY_NOT_RECOGNIZED,
+					"Vocabulary not recognized: " + vocabularyIRI);
+		}
+		List<Integer> members = new ArrayList<Integer>();
+		for (int i = 0; i < metadata.refs.length; i++) {
+			if (metadata.refs[i].getNamespace().equals(vocabularyIRI)
+					&& metadata.refs[i].getAspectName().equals(localAspectName)) {
+				members.add(i);
+			}
+		}
+		if (members.isEmpty()) {
+			throw new NameException(NameException.ASPECT_NOT_RECOGNIZED,
+					"Aspect not recognized: " + localAspectName);
+		}
+		int[] ordinals = new int[members.size()];
+		for (int i = 0; i < ordinals.length; i++) {
+			ordinals[i] = members.get(i);
+		}
+		RemoteEvidence remote = evidence(evidence);
+		return new SimplePropertyValues(call(shard(remote),
+				new ValuesCall(metadata, remote, ordinals)));
+	}
+
+	@Override
+	public PropertyValue[][] getPropertyValues(Evidence[] evidence, PropertyRef[] propertyRefs)
+			throws NameException {
+		if (evidence == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Evidence cannot be null");
+		}
+		PropertyValue[][] results = new PropertyValue[evidence.length][];
+		getPropertyValues(evidence, propertyRefs, results);
+		return results;
+	}
+
+	@Override
+	public void getPropertyValues(Evidence[] evidence, PropertyRef[] propertyRefs,
+			PropertyValue[][] results) throws NameException {
+		if (evidence == null || results == null || results.length < evidence.length) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Evidence and results cannot be null, and need as many rows");
+		}
+		Metadata metadata = metadata();
+		batch(metadata, evidence, evidence.length, ordinals(metadata, propertyRefs), results);
+	}
+
+	@Override
+	public int getPropertyValues(Iterator<? extends Evidence> evidence,
+			PropertyRef[] propertyRefs, PropertyValue[][] results) throws NameException {
+		if (evidence == null || results == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Evidence and results cannot be null");
+		}
+		Metadata metadata = metadata();
+		int[] ordinals = ordinals(metadata, propertyRefs);
+		Evidence[] batch = new Evidence[results.length];
+		int count = 0;
+		while (count < batch.length && evidence.hasNext()) {
+			batch[count++] = evidence.next();
+		}
+		batch(metadata, batch, count, ordinals, results);
+		return count;
+	}
+
+	@Override
+	public Evidence newHTTPEvidence() {
+		return new RemoteEvidence();
+	}
+
+	@Override
+	public Evidence newHTTPEvidence(Map<String, String> map) {
+		if (map == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Map cannot be null");
+		}
+		RemoteEvidence evidence = new RemoteEvidence();
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			evidence.put(entry.getKey(), entry.getValue());
+		}
+		return evidence;
+	}
+
+	@Override
+	public PropertyName newPropertyName(String localPropertyName, String vocabularyIRI)
+			throws NameException {
+		defaultOrdinal(metadata(), vocabularyIRI, localPropertyName);
+		return new PropertyNameImpl(localPropertyName, vocabularyIRI);
+	}
+
+	@Override
+	public PropertyName newPropertyName(String localPropertyName) throws NameException {
+		return newPropertyName(localPropertyName, defaultVocabularyIRI);
+	}
+
+	@Override
+	public PropertyRef newPropertyRef(String localPropertyName) throws NameException {
+		Metadata metadata = metadata();
+		return metadata.refs[defaultOrdinal(metadata, defaultVocabularyIRI, localPropertyName)];
+	}
+
+	@Override
+	public PropertyRef newPropertyRef(PropertyName propertyName) throws NameException {
+		Metadata metadata = metadata();
+		return metadata.refs[ordinal(metadata, propertyName)];
+	}
+
+	@Override
+	public PropertyRef newPropertyRef(PropertyName propertyName, String localAspectName)
+			throws NameException {
+		if (localAspectName == null) {
+			throw new NameException(NameException.ASPECT_NOT_RECOGNIZED,
+					"Aspect cannot be null");
+		}
+		if (propertyName == null) {
+			throw new NameException(NameException.PROPERTY_NOT_RECOGNIZED,
+					"PropertyName cannot be null");
+		}
+		Metadata metadata = metadata();
+		return metadata.refs[ordinal(metadata, propertyName.getNamespace(),
+				propertyName.getLocalPropertyName(), localAspectName)];
+	}
+
+	private Metadata metadata() {
+		Metadata metadata = this.metadata;
+		if (metadata == null) {
+			throw new SystemException(SystemException.CANNOT_PROCEED, "Service not initialized");
+		}
+		return metadata;
+	}
+
+	private PropertyValue value(Metadata metadata, Evidence evidence, int ordinal)
+			throws NameException {
+		RemoteEvidence remote = evidence(evidence);
+		return call(shard(remote), new ValueCall(metadata, remote, ordinal));
+	}
+
+	/**
+	 * Sends the requests of a batch to their shards, flushing each connection used once
+	 * all are written, and then waits for the responses.
+	 */
+	private void batch(Metadata metadata, Evidence[] evidence, int count, int[] ordinals,
+			PropertyValue[][] results) throws NameException {
+		ValuesCall[] calls = new ValuesCall[count];
+		Set<Connection> used = new LinkedHashSet<Connection>();
+		try {
+			for (int i = 0; i < count; i++) {
+				RemoteEvidence remote = evidence(evidence[i]);
+				Connection connection = connection(shard(remote));
+				calls[i] = new ValuesCall(metadata, remote, ordinals);
+				connection.send(calls[i]);
+				used.add(connection);
+			}
+		} catch (IOException e) {
+			throw new SystemException(SystemException.CANNOT_PROCEED, e);
+		} finally {
+			for (Connection connection : used) {
+				try {
+					connection.flush();
+				} catch (IOException e) {
+					// the calls of the connection fail with the error
+				}
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			PropertyValue[] values = await(calls[i]);
+			if (results[i] == null) {
+				results[i] = values;
+			} else {
+				System.arraycopy(values, 0, results[i], 0, values.length);
+			}
+		}
+	}
+
+	private int shard(RemoteEvidence evidence) {
+		String userAgent = evidence.get("user-agent");
+		return ring.shard(userAgent == null ? "" : userAgent);
+	}
+
+	/**
+	 * Returns the connection of the calling thread to a server, opening it if needed.
+	 * Connecting is done outside of the lock of the pool, so that the threads using the
+	 * other connections of the server are not held up by it.
+	 */
+	private Connection connection(int shard) throws IOException {
+		Connection[] pool = connections[shard];
+		int i = (int) (Thread.currentThread().getId() % pool.length);
+		synchronized (pool) {
+			Connection connection = pool[i];
+			if (connection != null && !connection.isClosed()) {
+				return connection;
+			}
+			if (retryAt[shard] - System.nanoTime() > 0) {
+				throw new IOException("Server " + addresses[shard] + " unavailable");
+			}
+		}
+		Connection connection;
+		try {
+			connection = new Connection(addresses[shard], timeout);
+		} catch (IOException e) {
+			synchronized (pool) {
+				retryAt[shard] = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY);
+			}
+			throw e;
+		}
+		synchronized (pool) {
+			Connection current = pool[i];
+			if (current != null && !current.isClosed()) {
+				// opened by another thread meanwhile
+				connection.close();
+				return current;
+			}
+			pool[i] = connection;
+			return connection;
+		}
+	}
+
+	private <T> T call(int shard, Connection.Call<T> call) throws NameException {
+		try {
+			Connection connection = connection(shard);
+			connection.send(call);
+			connection.flush();
+		} catch (IOException e) {
+			throw new SystemException(SystemException.CANNOT_PROCEED, e);
+		}
+		return await(call);
+	}
+
+	private <T> T await(Connection.Call<T> call) throws NameException {
+		try {
+			return call.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SystemException(SystemException.CANNOT_PROCEED, e);
+		} catch (TimeoutException e) {
+			throw new SystemException(SystemException.CANNOT_PROCEED,
+					"No response within " + timeout + " ms");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof NameException) {
+				throw (NameException) cause;
+			}
+			if (cause instanceof SystemException) {
+				throw (SystemException) cause;
+			}
+			throw new SystemException(SystemException.CANNOT_PROCEED, cause);
+		}
+	}
+
+	private static RemoteEvidence evidence(Evidence evidence) {
+		if (evidence instanceof RemoteEvidence) {
+			Protocol.checkEvidence(((RemoteEvidence) evidence).headers());
+			return (RemoteEvidence) evidence;
+		}
+		if (evidence == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Evidence cannot be null");
+		}
+		throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+				"Evidence must be created by this service");
+	}
+
+	private static int[] ordinals(Metadata metadata, PropertyRef[] propertyRefs)
+			throws NameException {
+		if (propertyRefs == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"PropertyRefs cannot be null");
+		}
+		int[] ordinals = new int[propertyRefs.length];
+		for (int i = 0; i < ordinals.length; i++) {
+			ordinals[i] = ordinal(metadata, propertyRefs[i]);
+		}
+		return ordinals;
+	}
+
+	private static int ordinal(Metadata metadata, PropertyRef ref) throws NameException {
+		if (ref == null) {
+			throw new NameException(NameException.PROPERTY_NOT_RECOGNIZED,
+					"PropertyRef cannot be null");
+		}
+		if (ref instanceof PropertyRefImpl) {
+			Integer ordinal = metadata.ordinals.get(ref);
+			if (ordinal != null) {
+				return ordinal;
+			}
+		}
+		return ordinal(metadata, ref.getNamespace(), ref.getLocalPropertyName(),
+				ref.getAspectName());
+	}
+
+	private static int ordinal(Metadata metadata, PropertyName name) throws NameException {
+		if (name == null) {
+			throw new NameException(NameException.PROPERTY_NOT_RECOGNIZED,
+					"PropertyName cannot be null");
+		}
+		return defaultOrdinal(metadata, name.getNamespace(), name.getLocalPropertyName());
+	}
+
+	/**
+	 * @param aspect The local aspect name, {@link PropertyRef#NULL_ASPECT} or null for the default aspect.
+	 */
+	private static int ordinal(Metadata metadata, String namespace, String localPropertyName,
+			String aspect) throws NameException {
+		int ordinal = defaultOrdinal(metadata, namespace, localPropertyName);
+		if (aspect == null || PropertyRef.NULL_ASPECT.equals(aspect)) {
+			return ordinal;
+		}
+		Integer inAspect = metadata.ordinals.get(
+				new PropertyRefImpl(localPropertyName, aspect, namespace));
+		if (inAspect == null) {
+			throw new NameException(NameException.ASPECT_NOT_RECOGNIZED,
+					"Aspect not recognized: " + aspect + " for property " + localPropertyName);
+		}
+		return inAspect;
+	}
+
+	private static int defaultOrdinal(Metadata metadata, String namespace,
+			String localPropertyName) throws NameException {
+		Map<String, Integer> properties = namespace == null ? null
+				: metadata.defaults.get(namespace);
+		if (properties == null) {
+			throw new NameException(NameException.VOCABULARY_NOT_RECOGNIZED,
+					"Vocabulary not recognized: " + namespace);
+		}
+		Integer ordinal = localPropertyName == null ? null : properties.get(localPropertyName);
+		if (ordinal == null) {
+			throw new NameException(NameException.PROPERTY_NOT_RECOGNIZED,
+					"Property not recognized: " + localPropertyName);
+		}
+		return ordinal;
+	}
+
+	private static int integer(Properties props, String name, int defaultValue)
+			throws InitializationException {
+		int value;
+		try {
+			value = Integer.parseInt(props.getProperty(name, Integer.toString(defaultValue))
+					.trim());
+		} catch (NumberFormatException e) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR, e);
+		}
+		if (value < 1) {
+			throw new InitializationException(InitializationException.INITIALIZATION_ERROR,
+					name + " must be positive");
+		}
+		return value;
+	}
+
+	private static PropertyValue readValue(DataInputStream in, Metadata metadata)
+			throws IOException {
+		int ordinal = in.readInt();
+		if (ordinal < 0 || ordinal >= metadata.refs.length) {
+			throw new IOException("Unknown property ordinal " + ordinal);
+		}
+		PropertyRef ref = metadata.refs[ordinal];
+		PropertyType type = metadata.types[ordinal];
+		if (!in.readBoolean()) {
+			return new RemotePropertyValue(ref, type);
+		}
+		switch (type) {
+		case BOOLEAN:
+			return new RemotePropertyValue(ref, type, true, null, in.readBoolean() ? 1 : 0, 0,
+					null);
+		case INTEGER:
+			return new RemotePropertyValue(ref, type, true, null, in.readInt(), 0, null);
+		case LONG:
+			return new RemotePropertyValue(ref, type, true, null, in.readLong(), 0, null);
+		case FLOAT:
+			return new RemotePropertyValue(ref, type, true, null, 0, in.readFloat(), null);
+		case DOUBLE:
+			return new RemotePropertyValue(ref, type, true, null, 0, in.readDouble(), null);
+		case ENUMERATION:
+			String string = Protocol.readString(in);
+			String[] members = new String[Protocol.readCount(in, Protocol.MAX_COUNT)];
+			for (int i = 0; i < members.length; i++) {
+				members[i] = Protocol.readString(in);
+			}
+			return new RemotePropertyValue(ref, type, true, string, 0, 0, members);
+		default:
+			return new RemotePropertyValue(ref, type, true, Protocol.readString(in), 0, 0,
+					null);
+		}
+	}
+
+	/**
+	 * The properties served, as read from a server.
+	 */
+	private static final class Metadata {
+
+		final String implementationVersion;
+
+		final String dataVersion;
+
+		final PropertyRef[] refs;
+
+		/**
+		 * The type of each property.
+		 */
+		final PropertyType[] types;
+
+		/**
+		 * The ordinal of each property reference.
+		 */
+		final Map<PropertyRef, Integer> ordinals;
+
+		/**
+		 * The ordinal of the default aspect of each property, by vocabulary IRI and local name.
+		 */
+		final Map<String, Map<String, Integer>> defaults;
+
+		Metadata(DataInputStream in) throws IOException {
+			this.implementationVersion = Protocol.readString(in);
+			this.dataVersion = Protocol.readString(in);
+			this.refs = new PropertyRef[Protocol.readCount(in, Protocol.MAX_COUNT)];
+			this.types = new PropertyType[refs.length];
+			this.ordinals = new HashMap<PropertyRef, Integer>();
+			for (int i = 0; i < refs.length; i++) {
+				String namespace = Protocol.readString(in);
+				String localName = Protocol.readString(in);
+				refs[i] = new PropertyRefImpl(localName, Protocol.readString(in), namespace);
+				String type = Protocol.readString(in);
+				types[i] = PropertyType.forName(type);
+				if (types[i] == null) {
+					throw new IOException("Unknown property type " + type);
+				}
+				ordinals.put(refs[i], i);
+			}
+			this.defaults = new HashMap<String, Map<String, Integer>>();
+			for (int names = Protocol.readCount(in, refs.length); names > 0; names--) {
+				String namespace = Protocol.readString(in);
+				String localName = Protocol.readString(in);
+				int ordinal = in.readInt();
+				if (ordinal < 0 || ordinal >= refs.length) {
+					throw new IOException("Unknown property ordinal " + ordinal);
+				}
+				Map<String, Integer> properties = defaults.get(namespace);
+				if (properties == null) {
+					properties = new HashMap<String, Integer>();
+					defaults.put(namespace, properties);
+				}
+				properties.put(localName, ordinal);
+			}
+		}
+	}
+
+	private static final class MetadataCall extends Connection.Call<Metadata> {
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			out.writeByte(Protocol.METADATA);
+		}
+
+		@Override
+		Metadata read(DataInputStream in) throws IOException {
+			return new Metadata(in);
+		}
+	}
+
+	private static final class ValueCall extends Connection.Call<PropertyValue> {
+
+		private final Metadata metadata;
+
+		private final RemoteEvidence evidence;
+
+		private final int ordinal;
+
+		ValueCall(Metadata metadata, RemoteEvidence evidence, int ordinal) {
+			this.metadata = metadata;
+			this.evidence = evidence;
+			this.ordinal = ordinal;
+		}
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			out.writeByte(Protocol.VALUE);
+			Protocol.writeEvidence(out, evidence.headers());
+			out.writeInt(ordinal);
+		}
+
+		@Override
+		PropertyValue read(DataInputStream in) throws IOException {
+			return readValue(in, metadata);
+		}
+	}
+
+	private static final class ValuesCall extends Connection.Call<PropertyValue[]> {
+
+		private final Metadata metadata;
+
+		private final RemoteEvidence evidence;
+
+		/**
+		 * The ordinals requested, or null for all properties.
+		 */
+		private final int[] ordinals;
+
+		ValuesCall(Metadata metadata, RemoteEvidence evidence, int[] ordinals) {
+			this.metadata = metadata;
+			this.evidence = evidence;
+			this.ordinals = ordinals;
+		}
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			if (ordinals == null) {
+				out.writeByte(Protocol.VALUES);
+				Protocol.writeEvidence(out, evidence.headers());
+			} else {
+				out.writeByte(Protocol.VALUES_OF);
+				Protocol.writeEvidence(out, evidence.headers());
+				out.writeInt(ordinals.length);
+				for (int ordinal : ordinals) {
+					out.writeInt(ordinal);
+				}
+			}
+		}
+
+		/**
+		 * Reads the values, in the order of the ordinals requested if any.
+		 */
+		@Override
+		PropertyValue[] read(DataInputStream in) throws IOException {
+			PropertyValue[] values = new PropertyValue[Protocol.readCount(in,
+					metadata.refs.length)];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = readValue(in, metadata);
+			}
+			if (ordinals == null) {
+				return values;
+			}
+			PropertyValue[] byOrdinal = new PropertyValue[metadata.refs.length];
+			for (PropertyValue value : values) {
+				byOrdinal[metadata.ordinals.get(value.getPropertyRef())] = value;
+			}
+			PropertyValue[] requested = new PropertyValue[ordinals.length];
+			for (int i = 0; i < requested.length; i++) {
+				requested[i] = byOrdinal[ordinals[i]];
+				if (requested[i] == null) {
+					requested[i] = new RemotePropertyValue(metadata.refs[ordinals[i]],
+							metadata.types[ordinals[i]]);
+				}
+			}
+			return requested;
+		}
+	}
+}
@@ -0,0 +1,412 @@
+package org.w3c.ddr.simple.impl.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.exception.DDRException;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.SystemException;
+import org.w3c.ddr.simple.impl.DelegatingService;
+import org.w3c.ddr.simple.impl.IndexedService;
+import org.w3c.ddr.simple.impl.PropertyRefImpl;
+import org.w3c.ddr.simple.impl.PropertyType;
+
+/**
+ * Serves the lookups of {@link RemoteService} clients from any initialized {@link Service}.
+ *
+ * Each connection is handled by a thread of its own, which answers the requests of the
+ * connection in order. The number of connections is bounded, by default to
+ * {@link #DEFAULT_MAX_CONNECTIONS}; once it is reached, further clients wait in the
+ * backlog of the socket until a connection closes. A client sending a request beyond
+ * the bounds of the protocol is disconnected. Responses are flushed only when no further request is waiting,
+ * so that a client pipelining requests receives its answers in as few packets as
+ * possible. The property references of the hosted service and their types are read
+ * once, when the server is created; a service reloaded while it is served must keep its
+ * vocabularies. Each value is read with the getter of its type only.
+ *
+ * <pre>
+ * ServiceServer server = new ServiceServer(service, new InetSocketAddress(7300));
+ * server.start();
+ * </pre>
+ */
+public class ServiceServer implements Closeable {
+
+	/**
+	 * The number of connections served at once unless specified otherwise.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 256;
+
+	private final Service service;
+
+	private final ServerSocket socket;
+
+	private final PropertyRef[] refs;
+
+	/**
+	 * The type of each property, as sent to clients.
+	 */
+	private final PropertyType[] types;
+
+	private final Map<PropertyRef, Integer> identities = new IdentityHashMap<PropertyRef, Integer>();
+
+	private final Map<PropertyRef, Integer> ordinals = new HashMap<PropertyRef, Integer>();
+
+	/**
+	 * The response to METADATA, which does not change.
+	 */
+	private final byte[] metadata;
+
+	private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+	private final ExecutorService handlers;
+
+	/**
+	 * A permit for each connection that may still be accepted.
+	 */
+	private final Semaphore connections;
+
+	/**
+	 * Creates a server bound to an address, serving at most
+	 * {@link #DEFAULT_MAX_CONNECTIONS} connections; it accepts no connection until started.
+	 *
+	 * @param service The initialized service to serve.
+	 * @param address The address to listen on; port 0 picks a free port.
+	 * @throws IOException if the address cannot be bound.
+	 * @throws NameException if the service cannot create the references to its own properties.
+	 */
+	public ServiceServer(Service service, InetSocketAddress address)
+			throws IOException, NameException {
+		this(service, address, DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * Creates a server bound to an address; it accepts no connection until started.
+	 *
+	 * @param service The initialized service to serve.
+	 * @param address The address to listen on; port 0 picks a free port.
+	 * @param maxConnections The number of connections served at once.
+	 * @throws IOException if the address cannot be bound.
+	 * @throws NameException if the service cannot create the references to its own properties.
+	 */
+	public ServiceServer(Service service, InetSocketAddress address, int maxConnections)
+			throws IOException, NameException {
+		if (service == null) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT, "Service cannot be null");
+		}
+		if (maxConnections < 1) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"The number of connections must be positive");
+		}
+		this.service = service;
+		this.refs = service.listPropertyRefs();
+		this.types = types(service, refs);
+		for (int i = 0; i < refs.length; i++) {
+			identities.put(refs[i], i);
+			ordinals.put(key(refs[i]), i);
+		}
+		this.metadata = metadata();
+		this.socket = new ServerSocket();
+		socket.bind(address);
+		final String name = "ddr-server-" + socket.getLocalPort() + "-";
+		this.connections = new Semaphore(maxConnections);
+		// a thread for each connection, and one accepting them
+		ThreadPoolExecutor handlers = new ThreadPoolExecutor(maxConnections + 1,
+				maxConnections + 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task, name + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		handlers.allowCoreThreadTimeOut(true);
+		this.handlers = handlers;
+	}
+
+	/**
+	 * @return The port the server listens on.
+	 */
+	public int getPort() {
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * Starts accepting connections, on a thread of the server.
+	 */
+	public void start() {
+		handlers.execute(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		});
+	}
+
+	/**
+	 * Stops accepting connections and closes those open.
+	 */
+	@Override
+	public void close() throws IOException {
+		socket.close();
+		for (Socket client : clients) {
+			client.close();
+		}
+		handlers.shutdown();
+	}
+
+	private void accept() {
+		while (!socket.isClosed()) {
+			// closing the server closes the clients, whose handlers then return their permits
+			connections.acquireUninterruptibly();
+			final Socket client;
+			try {
+				client = socket.accept();
+				client.setTcpNoDelay(true);
+			} catch (IOException e) {
+				// closed, or a connection that failed before it was accepted
+				connections.release();
+				continue;
+			}
+			clients.add(client);
+			handlers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						serve(client);
+					} catch (IOException e) {
+						// the client went away, or spoke another protocol
+					} finally {
+						clients.remove(client);
+						try {
+							client.close();
+						} catch (IOException e) {
+							// nothing left to release
+						}
+						connections.release();
+					}
+				}
+			});
+		}
+	}
+
+	private void serve(Socket client) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(client.getOutputStream()));
+		if (in.readInt() != Protocol.MAGIC || in.readInt() != Protocol.VERSION) {
+			throw new SocketException("Unsupported protocol");
+		}
+		for (int operation = in.read(); operation >= 0; operation = in.read()) {
+			switch (operation) {
+			case Protocol.METADATA:
+				out.writeByte(Protocol.OK);
+				out.write(metadata);
+				break;
+			case Protocol.VALUE:
+				value(in, out);
+				break;
+			case Protocol.VALUES:
+			case Protocol.VALUES_OF:
+				values(operation, in, out);
+				break;
+			default:
+				throw new SocketException("Unknown operation " + operation);
+			}
+			if (in.available() == 0) {
+				out.flush();
+			}
+		}
+	}
+
+	private void value(DataInputStream in, DataOutputStream out) throws IOException {
+		Evidence evidence = service.newHTTPEvidence();
+		Protocol.readEvidence(in, evidence);
+		int ordinal = in.readInt();
+		PropertyValue value;
+		try {
+			value = service.getPropertyValue(evidence, ref(ordinal));
+		} catch (NameException e) {
+			Protocol.writeError(out, e);
+			return;
+		} catch (RuntimeException e) {
+			Protocol.writeError(out, e);
+			return;
+		}
+		out.writeByte(Protocol.OK);
+		Protocol.writeValue(out, ordinal, types[ordinal], value);
+	}
+
+	private void values(int operation, DataInputStream in, DataOutputStream out)
+			throws IOException {
+		Evidence evidence = service.newHTTPEvidence();
+		Protocol.readEvidence(in, evidence);
+		PropertyRef[] requested = null;
+		if (operation == Protocol.VALUES_OF) {
+			requested = new PropertyRef[Protocol.readCount(in, Protocol.MAX_COUNT)];
+			for (int i = 0; i < requested.length; i++) {
+				int ordinal = in.readInt();
+				requested[i] = ordinal >= 0 && ordinal < refs.length ? refs[ordinal] : null;
+			}
+		}
+		Map<Integer, PropertyValue> values = new LinkedHashMap<Integer, PropertyValue>();
+		try {
+			PropertyValue[] all = requested == null ? service.getPropertyValues(evidence).getAll()
+					: service.getPropertyValues(evidence, requested).getAll();
+			for (PropertyValue value : all) {
+				Integer ordinal = ordinal(value.getPropertyRef());
+				if (ordinal != null) {
+					values.put(ordinal, value);
+				}
+			}
+		} catch (NameException e) {
+			Protocol.writeError(out, e);
+			return;
+		} catch (RuntimeException e) {
+			Protocol.writeError(out, e);
+			return;
+		}
+		out.writeByte(Protocol.OK);
+		out.writeInt(values.size());
+		for (Map.Entry<Integer, PropertyValue> value : values.entrySet()) {
+			Protocol.writeValue(out, value.getKey(), types[value.getKey()], value.getValue());
+		}
+	}
+
+	private PropertyRef ref(int ordinal) {
+		if (ordinal < 0 || ordinal >= refs.length) {
+			throw new SystemException(SystemException.ILLEGAL_ARGUMENT,
+					"Unknown property ordinal " + ordinal);
+		}
+		return refs[ordinal];
+	}
+
+	private Integer ordinal(PropertyRef ref) {
+		Integer ordinal = identities.get(ref);
+		return ordinal != null ? ordinal : ordinals.get(key(ref));
+	}
+
+	private static PropertyRef key(PropertyRef ref) {
+		return ref instanceof PropertyRefImpl ? ref : new PropertyRefImpl(
+				ref.getLocalPropertyName(), ref.getAspectName(), ref.getNamespace());
+	}
+
+	/**
+	 * Reads the types of the properties from the IndexedService hosted, directly or
+	 * through decorators. The properties of other services are served as strings.
+	 */
+	private static PropertyType[] types(Service service, PropertyRef[] refs)
+			throws NameException {
+		while (service instanceof DelegatingService) {
+			service = ((DelegatingService) service).getDelegate();
+		}
+		PropertyType[] types = new PropertyType[refs.length];
+		for (int i = 0; i < refs.length; i++) {
+			types[i] = service instanceof IndexedService
+					? ((IndexedService) service).getPropertyType(refs[i]) : PropertyType.STRING;
+		}
+		return types;
+	}
+
+	private byte[] metadata() throws IOException, NameException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buffer);
+		Protocol.writeString(out, service.getImplementationVersion());
+		Protocol.writeString(out, service.getDataVersion());
+		out.writeInt(refs.length);
+		Map<PropertyRef, Integer> names = new LinkedHashMap<PropertyRef, Integer>();
+		for (int i = 0; i < refs.length; i++) {
+			PropertyRef ref = refs[i];
+			Protocol.writeString(out, ref.getNamespace());
+			Protocol.writeString(out, ref.getLocalPropertyName());
+			Protocol.writeString(out, ref.getAspectName());
+			Protocol.writeString(out, types[i].getName());
+			PropertyRef name = new PropertyRefImpl(ref.getLocalPropertyName(),
+					PropertyRef.NULL_ASPECT, ref.getNamespace());
+			if (!names.containsKey(name)) {
+				Integer ordinal = ordinal(service.newPropertyRef(service.newPropertyName(
+						ref.getLocalPropertyName(), ref.getNamespace())));
+				if (ordinal != null) {
+					names.put(name, ordinal);
+				}
+			}
+		}
+		out.writeInt(names.size());
+		for (Map.Entry<PropertyRef, Integer> name : names.entrySet()) {
+			Protocol.writeString(out, name.getKey().getNamespace());
+			Protocol.writeString(out, name.getKey().getLocalPropertyName());
+			out.writeInt(name.getValue());
+		}
+		out.flush();
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Serves a service created by the {@link ServiceFactory}.
+	 *
+	 * @param args The port, the service class, the default vocabulary IRI and optionally
+	 *             a properties file holding the configuration of the service.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3 || args.length > 4) {
+			System.err.println("Usage: ServiceServer <port> <service class> <default vocabulary>"
+					+ " [configuration]");
+			System.exit(2);
+		}
+		Properties props = new Properties();
+		if (args.length == 4) {
+			InputStream in = new FileInputStream(args[3]);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		Service service;
+		try {
+			service = ServiceFactory.newService(args[1], args[2], props);
+		} catch (DDRException e) {
+			System.err.println("Cannot create " + args[1] + ": " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		ServiceServer server = new ServiceServer(service,
+				new InetSocketAddress(Integer.parseInt(args[0])));
+		System.err.println("Serving " + service.getImplementationVersion() + " on port "
+				+ server.getPort());
+		server.accept();
+	}
+}
@@ -0,0 +1,123 @@
+package org.w3c.ddr.simple.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the set operations of {@link DeviceBitmap} against those of a {@link BitSet},
+ * on sets spanning several chunks, with sparse and dense containers.
+ */
+public class DeviceBitmapTest {
+
+	private static final int DEVICES = 3 * 65536 + 1000;
+
+	/**
+	 * The probabilities of a device being in a random set: from sets holding a few
+	 * devices per chunk to sets held in bit set containers.
+	 */
+	private static final double[] DENSITIES = { 0, 0.0001, 0.01, 0.0625, 0.07, 0.5, 0.99, 1 };
+
+	private final Random random = new Random(42);
+
+	@Test
+	public void builtSetHoldsTheAddedDevices() {
+		for (double density : DENSITIES) {
+			BitSet expected = randomSet(density);
+			DeviceBitmap bitmap = build(expected);
+			assertDevices(expected, bitmap);
+			assertDevices(expected, DeviceBitmap.of(expected.toLongArray()));
+		}
+	}
+
+	@Test
+	public void addingTheLastDeviceAgainHasNoEffect() {
+		DeviceBitmap.Builder builder = new DeviceBitmap.Builder();
+		builder.add(3);
+		builder.add(3);
+		builder.add(70000);
+		builder.add(70000);
+		assertArrayEquals(new int[] { 3, 70000 }, builder.build().toArray());
+	}
+
+	@Test
+	public void operationsMatchThoseOfBitSets() {
+		for (double a : DENSITIES) {
+			for (double b : DENSITIES) {
+				BitSet x = randomSet(a);
+				BitSet y = randomSet(b);
+				DeviceBitmap bx = build(x);
+				DeviceBitmap by = DeviceBitmap.of(y.toLongArray());
+
+				BitSet and = (BitSet) x.clone();
+				and.and(y);
+				assertDevices(and, bx.and(by));
+
+				BitSet or = (BitSet) x.clone();
+				or.or(y);
+				assertDevices(or, bx.or(by));
+
+				BitSet andNot = (BitSet) x.clone();
+				andNot.andNot(y);
+				assertDevices(andNot, bx.andNot(by));
+			}
+		}
+	}
+
+	@Test
+	public void bitSetsAreUpdatedInPlace() {
+		int words = (DEVICES + 63) >>> 6;
+		for (double a : DENSITIES) {
+			for (double b : DENSITIES) {
+				BitSet x = randomSet(a);
+				BitSet y = randomSet(b);
+				long[] target = Arrays.copyOf(x.toLongArray(), words);
+
+				build(y).orInto(target);
+				BitSet or = (BitSet) x.clone();
+				or.or(y);
+				assertEquals(or, BitSet.valueOf(target));
+
+				BitSet z = randomSet(a);
+				build(z).andNotInto(target);
+				or.andNot(z);
+				assertEquals(or, BitSet.valueOf(target));
+			}
+		}
+	}
+
+	@Test
+	public void emptySetHasNoDevices() {
+		assertEquals(0, DeviceBitmap.EMPTY.cardinality());
+		assertEquals(0, DeviceBitmap.of(new long[DEVICES >>> 6]).cardinality());
+		assertEquals(0, new DeviceBitmap.Builder().build().cardinality());
+	}
+
+	private BitSet randomSet(double density) {
+		BitSet set = new BitSet(DEVICES);
+		for (int device = 0; device < DEVICES; device++) {
+			if (random.nextDouble() < density) {
+				set.set(device);
+			}
+		}
+		return set;
+	}
+
+	private static DeviceBitmap build(BitSet set) {
+		DeviceBitmap.Builder builder = new DeviceBitmap.Builder();
+		for (int device = set.nextSetBit(0); device >= 0; device = set.nextSetBit(device + 1)) {
+			builder.add(device);
+		}
+		return builder.build();
+	}
+
+	private static void assertDevices(BitSet expected, DeviceBitmap actual) {
+		assertEquals(expected.cardinality(), actual.cardinality());
+		assertArrayEquals(expected.stream().toArray(), actual.toArray());
+	}
+}
@@ -0,0 +1,76 @@
+package org.w3c.ddr.simple.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.ddr.simple.PropertyRef;
+
+/**
+ * Tests the {@link DeviceQuery} queries of an {@link IndexedService} on the test
+ * repository.
+ */
+public class DeviceQueryTest {
+
+	private static IndexedService service;
+
+	@BeforeClass
+	public static void initialize() throws Exception {
+		service = (IndexedService) SnapshotTest.service(SnapshotTest.REPOSITORY);
+	}
+
+	@Test
+	public void stringsAndBooleansAreComparedAsStrings() throws Exception {
+		assertDevices(DeviceQuery.equalTo(ref("vendor"), "Nokia"), "nokia", "n95");
+		assertDevices(DeviceQuery.equalTo(ref("cookieSupport"), "false"), "iphone");
+		assertDevices(DeviceQuery.known(ref("cookieSupport")), "n95", "iphone");
+	}
+
+	@Test
+	public void enumerationsAreQueriedByMember() throws Exception {
+		assertDevices(DeviceQuery.contains(ref("inputDevices"), "touchScreen"), "iphone",
+				"android");
+		assertDevices(DeviceQuery.contains(ref("inputDevices"), "keypad")
+				.and(DeviceQuery.contains(ref("inputDevices"), "joystick").not()), "android");
+	}
+
+	@Test
+	public void numbersAreQueriedByRange() throws Exception {
+		assertDevices(DeviceQuery.between(ref("displayWidth"), 240, 1080), "n95", "android");
+		assertDevices(DeviceQuery.atLeast(ref("displayWidth"), 1080.5), "iphone");
+		assertDevices(DeviceQuery.equalTo(ref("displayWidth"), "240.0"), "n95");
+		assertDevices(DeviceQuery.atMost(ref("price", "urn:test"), 99), "android");
+		assertDevices(DeviceQuery.between(ref("displayWidth"), Double.NaN, 2000));
+	}
+
+	@Test
+	public void longsAreComparedExactly() throws Exception {
+		PropertyRef serial = ref("serial", "urn:test");
+		assertDevices(DeviceQuery.equalTo(serial, "9007199254740993"), "n95");
+		assertDevices(DeviceQuery.equalTo(serial, "9007199254740992"));
+		assertDevices(DeviceQuery.between(serial, 0x1p53, 0x1p53));
+		assertDevices(DeviceQuery.atLeast(serial, 0x1p53), "n95");
+		assertDevices(DeviceQuery.atMost(serial, -42), "iphone");
+		assertDevices(DeviceQuery.atLeast(serial, 0x1p63));
+		assertDevices(DeviceQuery.atMost(serial, Double.POSITIVE_INFINITY), "n95", "iphone");
+	}
+
+	private static PropertyRef ref(String name) throws Exception {
+		return service.newPropertyRef(name);
+	}
+
+	private static PropertyRef ref(String name, String vocabulary) throws Exception {
+		return service.newPropertyRef(service.newPropertyName(name, vocabulary));
+	}
+
+	private static void assertDevices(DeviceQuery query, String... expected) throws Exception {
+		String[] devices = service.listDevices(query);
+		Arrays.sort(devices);
+		Arrays.sort(expected);
+		assertArrayEquals(expected, devices);
+		assertEquals(expected.length, service.countDevices(query));
+	}
+}
@@ -0,0 +1,95 @@
+package org.w3c.ddr.simple.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests the slots assigned by {@link HeaderTable}, and {@link HeaderEvidence} over them.
+ */
+public class HeaderTableTest {
+
+	private static final String[] HEADERS = { "User-Agent", "Accept", "X-Wap-Profile",
+			"Sec-CH-UA", "Sec-CH-UA-Model", "Sec-CH-UA-Platform", "Sec-CH-UA-Platform-Version",
+			"X-Device-Class" };
+
+	@Test
+	public void emptyTableHasNoSlots() {
+		HeaderTable table = new HeaderTable(new String[0]);
+		assertEquals(0, table.size());
+		assertEquals(0, table.capacity());
+		assertEquals(-1, table.slot("User-Agent"));
+		assertEquals(-1, table.slot(""));
+		assertEquals(-1, table.slot(null));
+	}
+
+	@Test
+	public void evidenceOverAnEmptyTableIgnoresEveryHeader() {
+		HeaderEvidence evidence = new HeaderEvidence(new HeaderTable(new String[0]));
+		evidence.put("User-Agent", "NokiaN95");
+		assertFalse(evidence.exists("User-Agent"));
+		assertNull(evidence.get("User-Agent"));
+	}
+
+	@Test
+	public void eachHeaderHasItsOwnSlotInAnyCase() {
+		HeaderTable table = new HeaderTable(HEADERS);
+		assertEquals(HEADERS.length, table.size());
+		Set<Integer> slots = new HashSet<Integer>();
+		for (String header : HEADERS) {
+			int slot = table.slot(header);
+			assertTrue(header, slot >= 0 && slot < table.capacity());
+			assertTrue(header, slots.add(slot));
+			assertEquals(header.toLowerCase(), table.name(slot));
+			assertEquals(slot, table.slot(header.toUpperCase()));
+			assertEquals(slot, table.slot(header.toLowerCase()));
+		}
+	}
+
+	@Test
+	public void namesDifferingInCaseShareASlot() {
+		HeaderTable table = new HeaderTable(new String[] { "User-Agent", "user-agent",
+				"USER-AGENT" });
+		assertEquals(1, table.size());
+	}
+
+	@Test
+	public void unknownNamesHaveNoSlot() {
+		HeaderTable table = new HeaderTable(HEADERS);
+		for (String name : new String[] { "", "Accept-Language", "User-Agen", "User-Agent2",
+				"Cookie", "sec-ch-ua-mobile" }) {
+			assertEquals(name, -1, table.slot(name));
+		}
+	}
+
+	@Test
+	public void namesWithEqualHashesAreProbed() {
+		// "a~" and "b_" have the same polynomial hash, which no seed separates
+		HeaderTable table = new HeaderTable(new String[] { "a~", "b_", "User-Agent" });
+		int first = table.slot("a~");
+		int second = table.slot("B_");
+		assertTrue(first >= 0 && second >= 0 && first != second);
+		assertEquals("a~", table.name(first));
+		assertEquals("b_", table.name(second));
+		assertTrue(table.slot("User-Agent") >= 0);
+		assertEquals(-1, table.slot("c@"));
+	}
+
+	@Test
+	public void evidenceKeepsTheHeadersOfTheTable() {
+		HeaderEvidence evidence = new HeaderEvidence(new HeaderTable(HEADERS));
+		evidence.put("user-agent", "NokiaN95");
+		evidence.put("Cookie", "ignored");
+		assertEquals("NokiaN95", evidence.get("USER-AGENT"));
+		assertTrue(evidence.exists("User-Agent"));
+		assertFalse(evidence.exists("Cookie"));
+		evidence.reset();
+		assertFalse(evidence.exists("User-Agent"));
+	}
+}
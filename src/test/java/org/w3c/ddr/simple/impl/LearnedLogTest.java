@@ -0,0 +1,247 @@
+package org.w3c.ddr.simple.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.impl.match.MatcherCompiler;
+
+/**
+ * Tests that the User-Agents learned by a service are learned again by its successor,
+ * and that a torn or damaged log only loses the entries from the damage on.
+ */
+public class LearnedLogTest {
+
+	private static final String REPOSITORY_2 = "org/w3c/ddr/simple/impl/repository-2.xml";
+
+	private static final int ENTRIES = 10;
+
+	private static final int LIMIT = 16;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Waits for the log thread to run the tasks of the test, such as compactions, before
+	 * the folder is deleted: it runs them in order, so they are done once an entry
+	 * learned afterwards is written.
+	 */
+	@After
+	public void drain() throws Exception {
+		File log = folder.newFile();
+		lookUp(service(SnapshotTest.REPOSITORY, log), "drain", 1);
+		awaitLearned(log, SnapshotTest.REPOSITORY, 1);
+	}
+
+	@Test
+	public void restartedServiceLearnsTheLoggedUserAgents() throws Exception {
+		File log = folder.newFile("learned.log");
+		IndexedService service = service(SnapshotTest.REPOSITORY, log);
+		lookUp(service, "a", ENTRIES);
+		awaitLearned(log, SnapshotTest.REPOSITORY, ENTRIES);
+
+		IndexedService restarted = service(SnapshotTest.REPOSITORY, copy(log));
+		lookUp(restarted, "a", ENTRIES);
+		assertEquals(ENTRIES, restarted.getResolutionStatistics().getExactHitCount());
+	}
+
+	@Test
+	public void tornTailLosesOnlyItsLastEntry() throws Exception {
+		File log = folder.newFile("learned.log");
+		lookUp(service(SnapshotTest.REPOSITORY, log), "a", ENTRIES);
+		awaitLearned(log, SnapshotTest.REPOSITORY, ENTRIES);
+		byte[] bytes = Files.readAllBytes(log.toPath());
+
+		int previous = 0;
+		for (int length = 8; length <= bytes.length; length++) {
+			File torn = copy(log);
+			truncate(torn, length);
+			int learned = learned(service(SnapshotTest.REPOSITORY, torn));
+			assertTrue("learned " + learned + " at " + length,
+					learned >= previous && learned <= ENTRIES);
+			previous = learned;
+		}
+		assertEquals(ENTRIES, previous);
+	}
+
+	@Test
+	public void tornLogIsCompactedAndAppendedTo() throws Exception {
+		File log = folder.newFile("learned.log");
+		lookUp(service(SnapshotTest.REPOSITORY, log), "a", ENTRIES);
+		awaitLearned(log, SnapshotTest.REPOSITORY, ENTRIES);
+
+		File torn = copy(log);
+		truncate(torn, torn.length() - 1);
+		IndexedService service = service(SnapshotTest.REPOSITORY, torn);
+		assertEquals(ENTRIES - 1, learned(service));
+		lookUp(service, "b", 1);
+		awaitLearned(torn, SnapshotTest.REPOSITORY, ENTRIES);
+	}
+
+	@Test
+	public void damagedRecordStopsReading() throws Exception {
+		File log = folder.newFile("learned.log");
+		lookUp(service(SnapshotTest.REPOSITORY, log), "a", ENTRIES);
+		awaitLearned(log, SnapshotTest.REPOSITORY, ENTRIES);
+		byte[] bytes = Files.readAllBytes(log.toPath());
+
+		for (int position = 8; position < bytes.length; position++) {
+			File damaged = folder.newFile();
+			bytes[position] ^= 0x20;
+			Files.write(damaged.toPath(), bytes);
+			bytes[position] ^= 0x20;
+			int learned = learned(service(SnapshotTest.REPOSITORY, damaged));
+			assertTrue("learned " + learned + " at " + position, learned < ENTRIES);
+		}
+	}
+
+	@Test
+	public void replacedServiceNoLongerWritesTheLog() throws Exception {
+		File log = folder.newFile("learned.log");
+		IndexedService replaced = service(SnapshotTest.REPOSITORY, log);
+		IndexedService current = service(REPOSITORY_2, log);
+		lookUp(replaced, "a", ENTRIES);
+		lookUp(current, "c", 3);
+		lookUp(replaced, "b", ENTRIES);
+
+		awaitLearned(log, REPOSITORY_2, 3);
+		assertEquals(0, learned(service(SnapshotTest.REPOSITORY, copy(log))));
+	}
+
+	@Test
+	public void logStaysProportionalToTheTable() throws Exception {
+		File log = folder.newFile("learned.log");
+		IndexedService service = service(SnapshotTest.REPOSITORY, log, LIMIT);
+		for (int round = 0; round < 3; round++) {
+			lookUp(service, "a", 2000);
+		}
+		drain();
+		byte[] bytes = Files.readAllBytes(log.toPath());
+		int written = entries(bytes).size();
+		assertTrue(written + " entries", written <= LearnedLog.GROWTH * LIMIT);
+
+		int learned = learned(service(SnapshotTest.REPOSITORY, copy(log), LIMIT));
+		assertTrue("learned " + learned, learned > 0 && learned <= LIMIT);
+	}
+
+	@Test
+	public void repeatedEntriesAreCompactedAtOpen() throws Exception {
+		File log = folder.newFile("learned.log");
+		lookUp(service(SnapshotTest.REPOSITORY, log), "a", ENTRIES);
+		awaitLearned(log, SnapshotTest.REPOSITORY, ENTRIES);
+		byte[] bytes = Files.readAllBytes(log.toPath());
+
+		// the entries written again, as by a service that did not read the log
+		File repeated = folder.newFile();
+		int first = entries(bytes).get(0);
+		ByteArrayOutputStream twice = new ByteArrayOutputStream();
+		twice.write(bytes);
+		twice.write(bytes, first, bytes.length - first);
+		Files.write(repeated.toPath(), twice.toByteArray());
+		assertEquals(ENTRIES, learned(service(SnapshotTest.REPOSITORY, repeated)));
+		drain();
+		assertEquals(bytes.length, repeated.length());
+	}
+
+	/**
+	 * @return The offset of each entry record of a log.
+	 */
+	private static List<Integer> entries(byte[] log) {
+		List<Integer> entries = new ArrayList<Integer>();
+		ByteBuffer buffer = ByteBuffer.wrap(log);
+		buffer.position(8);
+		while (buffer.remaining() >= 8) {
+			int offset = buffer.position();
+			int length = buffer.getInt();
+			buffer.getInt();
+			if (length > buffer.remaining()) {
+				break;
+			}
+			if (log[buffer.position()] == 'E') {
+				entries.add(offset);
+			}
+			buffer.position(buffer.position() + length);
+		}
+		return entries;
+	}
+
+	private IndexedService service(String repository, File log) throws Exception {
+		return service(repository, log, -1);
+	}
+
+	/**
+	 * @param exactMatches The number of User-Agents the matcher may learn, or -1 for the
+	 *        default.
+	 */
+	private IndexedService service(String repository, File log, int exactMatches)
+			throws Exception {
+		Properties props = new Properties();
+		props.setProperty(IndexedService.REPOSITORY, repository);
+		props.setProperty(IndexedService.LEARNED_LOG, log.getPath());
+		if (exactMatches >= 0) {
+			props.setProperty(MatcherCompiler.EXACT_MATCHES, Integer.toString(exactMatches));
+		}
+		return (IndexedService) ServiceFactory.newService(IndexedService.class.getName(),
+				SnapshotTest.VOCABULARY, props);
+	}
+
+	/**
+	 * Looks up User-Agents resolved by the pattern matcher, each of which is learned.
+	 */
+	private static void lookUp(IndexedService service, String prefix, int count)
+			throws Exception {
+		for (int i = 0; i < count; i++) {
+			Evidence evidence = service.newHTTPEvidence();
+			evidence.put("User-Agent", prefix + i + " NokiaN95");
+			service.getPropertyValue(evidence, "model");
+		}
+	}
+
+	private static int learned(IndexedService service) {
+		return service.getResolutionStatistics().getLearnedCount();
+	}
+
+	/**
+	 * Waits until the log thread has written a number of entries, reading copies of the
+	 * log so that the service writing it is not replaced.
+	 */
+	private void awaitLearned(File log, String repository, int expected) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		int learned;
+		while ((learned = learned(service(repository, copy(log)))) != expected
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, learned);
+	}
+
+	private File copy(File log) throws Exception {
+		File copy = folder.newFile();
+		Files.copy(log.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return copy;
+	}
+
+	private static void truncate(File file, long length) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length);
+		} finally {
+			raf.close();
+		}
+	}
+}
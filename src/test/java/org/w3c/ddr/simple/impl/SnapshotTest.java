@@ -0,0 +1,152 @@
+package org.w3c.ddr.simple.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.exception.InitializationException;
+import org.w3c.ddr.simple.exception.ValueException;
+
+/**
+ * Tests that a snapshot serves the values of the repository it was compiled from, and
+ * that damaged snapshots are rejected during initialization.
+ */
+public class SnapshotTest {
+
+	static final String VOCABULARY = "http://www.w3.org/2008/01/ddr-core-vocabulary";
+
+	static final String REPOSITORY = "org/w3c/ddr/simple/impl/repository.xml";
+
+	private static final String[] USER_AGENTS = { "NokiaN95", "Nokia6310", "iPhone",
+			"Android 14", "Unknown/1.0" };
+
+	@ClassRule
+	public static final TemporaryFolder folder = new TemporaryFolder();
+
+	private static File snapshot;
+
+	private static byte[] bytes;
+
+	@BeforeClass
+	public static void compile() throws Exception {
+		snapshot = folder.newFile("repository.ddrs");
+		SnapshotCompiler.compile(REPOSITORY, snapshot);
+		bytes = Files.readAllBytes(snapshot.toPath());
+	}
+
+	static Service service(String repository) throws Exception {
+		Properties props = new Properties();
+		props.setProperty(IndexedService.REPOSITORY, repository);
+		return ServiceFactory.newService(IndexedService.class.getName(), VOCABULARY, props);
+	}
+
+	/**
+	 * @return The value as returned by its getString and getEnumeration methods.
+	 */
+	static String describe(PropertyValue value) throws ValueException {
+		if (!value.exists()) {
+			return value.getPropertyRef() + " unknown";
+		}
+		String described = value.getPropertyRef() + "=" + value.getString();
+		try {
+			described += Arrays.toString(value.getEnumeration());
+		} catch (ValueException e) {
+			// not an enumeration
+		}
+		return described;
+	}
+
+	@Test
+	public void snapshotServesTheValuesOfTheRepository() throws Exception {
+		assertTrue(SnapshotReader.isSnapshot(snapshot.getPath()));
+		Service repository = service(REPOSITORY);
+		Service mapped = service(snapshot.getPath());
+		assertEquals(repository.getDataVersion(), mapped.getDataVersion());
+		PropertyRef[] refs = repository.listPropertyRefs();
+		assertEquals(Arrays.asList(refs).toString(),
+				Arrays.asList(mapped.listPropertyRefs()).toString());
+		for (String userAgent : USER_AGENTS) {
+			Evidence expected = repository.newHTTPEvidence();
+			expected.put("User-Agent", userAgent);
+			Evidence actual = mapped.newHTTPEvidence();
+			actual.put("User-Agent", userAgent);
+			for (PropertyRef ref : refs) {
+				assertEquals(userAgent, describe(repository.getPropertyValue(expected, ref)),
+						describe(mapped.getPropertyValue(actual, ref)));
+			}
+		}
+	}
+
+	@Test
+	public void longsKeepTheirExactValue() throws Exception {
+		Service mapped = service(snapshot.getPath());
+		Evidence evidence = mapped.newHTTPEvidence();
+		evidence.put("User-Agent", "NokiaN95");
+		assertEquals(9007199254740993L,
+				mapped.getPropertyValue(evidence, mapped.newPropertyRef(
+						mapped.newPropertyName("serial", "urn:test"))).getLong());
+	}
+
+	@Test
+	public void snapshotIsRejectedWhenTruncatedBeforeItsStrings() throws Exception {
+		int strings = ByteBuffer.wrap(bytes).getInt(12);
+		for (int length = 0; length < strings; length++) {
+			assertRejected(Arrays.copyOf(bytes, length), "truncated to " + length);
+		}
+	}
+
+	@Test
+	public void damagedMetadataIsRejectedOrRead() throws Exception {
+		int values = ByteBuffer.wrap(bytes).getInt(8);
+		int[] damages = { -1, Integer.MIN_VALUE, Integer.MAX_VALUE, values, 1 << 20 };
+		for (int position = 8; position + 4 <= values; position++) {
+			for (int damage : damages) {
+				byte[] damaged = bytes.clone();
+				ByteBuffer.wrap(damaged).putInt(position, damage);
+				try {
+					SnapshotReader.read(ByteBuffer.wrap(damaged), new Properties());
+				} catch (InitializationException e) {
+					// rejected
+				} catch (RuntimeException e) {
+					throw new AssertionError(damage + " at " + position + ": " + e, e);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void snapshotIsReadFromABuffer() throws Exception {
+		DeviceIndex index = SnapshotReader.read(ByteBuffer.wrap(bytes.clone()),
+				new Properties());
+		assertEquals("test-1", index.dataVersion);
+		assertArrayEquals(new String[] { "nokia", "n95", "iphone", "android" },
+				index.deviceIds);
+	}
+
+	private static void assertRejected(byte[] snapshot, String damage) {
+		try {
+			SnapshotReader.read(ByteBuffer.wrap(snapshot), new Properties());
+			fail("Snapshot " + damage + " was read");
+		} catch (InitializationException e) {
+			// rejected
+		} catch (RuntimeException e) {
+			throw new AssertionError("Snapshot " + damage + ": " + e, e);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package org.w3c.ddr.simple.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Properties;
+
+import org.junit.Test;
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.impl.DelegatingService;
+import org.w3c.ddr.simple.impl.IndexedService;
+import org.w3c.ddr.simple.impl.reload.ReloadingService;
+
+/**
+ * Tests that a {@link CachingService} keys devices by every header its delegate
+ * identifies them by, so that evidence differing in any of them is not answered from
+ * the cache.
+ */
+public class CachingServiceTest {
+
+	private static final String VOCABULARY = "http://www.w3.org/2008/01/ddr-core-vocabulary";
+
+	private static final String REPOSITORY = "org/w3c/ddr/simple/impl/cache/repository.xml";
+
+	private static final String DEVICE_CLASS = "x-device-class";
+
+	@Test
+	public void headersOfTheIndexedServiceAreInTheKey() throws Exception {
+		Properties props = props();
+		props.setProperty(DelegatingService.DELEGATE, IndexedService.class.getName());
+		CachingService cache = (CachingService) ServiceFactory.newService(
+				CachingService.class.getName(), VOCABULARY, props);
+		assertDeviceClassIsInTheKey(cache);
+	}
+
+	@Test
+	public void headersAreFoundThroughOtherDecorators() throws Exception {
+		Properties props = props();
+		props.setProperty(DelegatingService.DELEGATE, IndexedService.class.getName());
+		Service reloading = ServiceFactory.newService(ReloadingService.class.getName(),
+				VOCABULARY, props);
+		CachingService cache = new CachingService(reloading);
+		cache.initialize(VOCABULARY, props());
+		assertDeviceClassIsInTheKey(cache);
+	}
+
+	@Test
+	public void configuredHeadersAreUsedAsGiven() throws Exception {
+		Properties props = props();
+		props.setProperty(DelegatingService.DELEGATE, IndexedService.class.getName());
+		props.setProperty(CachingService.HEADERS, "User-Agent");
+		CachingService cache = (CachingService) ServiceFactory.newService(
+				CachingService.class.getName(), VOCABULARY, props);
+		assertEquals("TV", model(cache, "Foo", "SmartTV").getString());
+		// only the User-Agent is in the key
+		assertEquals("TV", model(cache, "Foo", null).getString());
+		assertEquals(1, cache.getStatistics().getHitCount());
+	}
+
+	private static void assertDeviceClassIsInTheKey(CachingService cache) throws Exception {
+		assertEquals("TV", model(cache, "Foo", "SmartTV").getString());
+		assertFalse(model(cache, "Foo", null).exists());
+		assertEquals("N95", model(cache, "NokiaN95", null).getString());
+		assertEquals("TV", model(cache, "Foo", "SmartTV").getString());
+		assertFalse(model(cache, "Foo", null).exists());
+		CacheStatistics statistics = cache.getStatistics();
+		assertEquals(3, statistics.getMissCount());
+		assertEquals(2, statistics.getHitCount());
+	}
+
+	private static PropertyValue model(Service service, String userAgent, String deviceClass)
+			throws Exception {
+		Evidence evidence = service.newHTTPEvidence();
+		evidence.put("User-Agent", userAgent);
+		if (deviceClass != null) {
+			evidence.put(DEVICE_CLASS, deviceClass);
+		}
+		return service.getPropertyValue(evidence, "model");
+	}
+
+	private static Properties props() {
+		Properties props = new Properties();
+		props.setProperty(IndexedService.REPOSITORY, REPOSITORY);
+		return props;
+	}
+}
@@ -0,0 +1,122 @@
+package org.w3c.ddr.simple.impl.match;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.w3c.ddr.simple.impl.HTTPEvidence;
+
+/**
+ * Tests the choice of the most specific pattern by {@link ClientHintsMatcher}, and the
+ * parsing of its patterns.
+ */
+public class ClientHintsMatcherTest {
+
+	private static final int ANY = 0;
+
+	private static final int ANDROID = 1;
+
+	private static final int ANDROID_13 = 2;
+
+	private static final int ANDROID_13_1 = 3;
+
+	private static final int IOS_17 = 4;
+
+	private static final ClientHintsMatcher MATCHER = new ClientHintsMatcher(
+			new String[] { "\"Pixel 7\"", "\"Pixel 7\"; platform=\"Android\"",
+					"\"Pixel 7\"; platform=\"Android\"; platform-version=\"13\"",
+					"\"Pixel 7\"; platform=\"Android\"; platform-version=\"13.1\"",
+					"\"Pixel 7\"; platform=\"iOS\"; platform-version=\"17\"" },
+			new int[] { ANY, ANDROID, ANDROID_13, ANDROID_13_1, IOS_17 });
+
+	@Test
+	public void longestVersionPrefixWins() {
+		assertEquals(ANDROID_13_1, match("Android", "13.1.5"));
+		assertEquals(ANDROID_13_1, match("Android", "13.1"));
+		assertEquals(ANDROID_13, match("Android", "13.2.0"));
+		assertEquals(ANDROID_13, match("Android", "13"));
+	}
+
+	@Test
+	public void prefixesEndAtADot() {
+		assertEquals(ANDROID_13, match("Android", "13.10"));
+		assertEquals(ANDROID, match("Android", "131"));
+		assertEquals(ANDROID, match("Android", "1"));
+	}
+
+	@Test
+	public void versionlessPatternsMatchAnyVersion() {
+		assertEquals(ANDROID, match("Android", "14.0.0"));
+		assertEquals(ANDROID, match("Android", ""));
+	}
+
+	@Test
+	public void platformPatternsComeBeforeThoseOfAnyPlatform() {
+		assertEquals(IOS_17, match("iOS", "17.4"));
+		// no version of the platform matches: any platform does
+		assertEquals(ANY, match("iOS", "16.0"));
+		assertEquals(ANY, match("Windows", "13.1"));
+		assertEquals(ANY, match("", "13.1"));
+	}
+
+	@Test
+	public void unknownOrMissingModelsDoNotMatch() {
+		HTTPEvidence evidence = new HTTPEvidence();
+		evidence.put(ClientHints.PLATFORM, "\"Android\"");
+		assertEquals(EvidenceMatcher.NO_MATCH, MATCHER.match(evidence));
+		evidence.put(ClientHints.MODEL, "\"Pixel 8\"");
+		assertEquals(EvidenceMatcher.NO_MATCH, MATCHER.match(evidence));
+	}
+
+	@Test
+	public void firstOfIdenticalPatternsWins() {
+		ClientHintsMatcher matcher = new ClientHintsMatcher(
+				new String[] { "\"Pixel 7\"; platform=\"Android\"",
+						"\"Pixel 7\" ; platform = \"Android\"" },
+				new int[] { 7, 8 });
+		assertEquals(7, matcher.match(evidence("Pixel 7", "Android", "13")));
+	}
+
+	@Test
+	public void patternsAreParsed() {
+		assertKey("Android", "Pixel 7", "13",
+				"\"Pixel 7\"; platform=\"Android\"; platform-version=\"13\"");
+		assertKey("", "Pixel;7", "", "\"Pixel;7\"");
+		assertKey("", "Pixel \"7\"", "1.2", "\"Pixel \\\"7\\\"\";platform-version=1.2");
+		assertKey("Android", "Pixel 7", "", "Pixel 7; platform=Android");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void patternWithoutModelIsRejected() {
+		ClientHintsMatcher.parse("; platform=\"Android\"");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownParameterIsRejected() {
+		ClientHintsMatcher.parse("\"Pixel 7\"; vendor=\"Google\"");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parameterWithoutValueIsRejected() {
+		ClientHintsMatcher.parse("\"Pixel 7\"; platform");
+	}
+
+	private static void assertKey(String platform, String model, String version,
+			String pattern) {
+		String[] key = ClientHintsMatcher.parse(pattern);
+		assertEquals(platform, key[0]);
+		assertEquals(model, key[1]);
+		assertEquals(version, key[2]);
+	}
+
+	private static int match(String platform, String version) {
+		return MATCHER.match(evidence("Pixel 7", platform, version));
+	}
+
+	private static HTTPEvidence evidence(String model, String platform, String version) {
+		HTTPEvidence evidence = new HTTPEvidence();
+		evidence.put(ClientHints.MODEL, "\"" + model + "\"");
+		evidence.put(ClientHints.PLATFORM, "\"" + platform + "\"");
+		evidence.put(ClientHints.PLATFORM_VERSION, "\"" + version + "\"");
+		return evidence;
+	}
+}
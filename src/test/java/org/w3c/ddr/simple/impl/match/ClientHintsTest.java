@@ -0,0 +1,74 @@
+package org.w3c.ddr.simple.impl.match;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.w3c.ddr.simple.impl.HTTPEvidence;
+
+/**
+ * Tests the reading of the RFC 8941 strings of {@link ClientHints}.
+ */
+public class ClientHintsTest {
+
+	@Test
+	public void quotedStringsAreUnquoted() {
+		assertEquals("Android", ClientHints.string("\"Android\""));
+		assertEquals("Pixel 7", ClientHints.string("  \"Pixel 7\" "));
+		assertEquals("", ClientHints.string("\"\""));
+	}
+
+	@Test
+	public void escapesAreUnescaped() {
+		assertEquals("a\"b", ClientHints.string("\"a\\\"b\""));
+		assertEquals("a\\b", ClientHints.string("\"a\\\\b\""));
+		assertEquals("\"", ClientHints.string("\"\\\"\""));
+		assertEquals("ab", ClientHints.string("\"a\\b\""));
+	}
+
+	@Test
+	public void unquotedValuesAreTakenAsTheyAre() {
+		assertEquals("Android", ClientHints.string("Android"));
+		assertEquals("Pixel 7", ClientHints.string(" Pixel 7 "));
+		assertEquals("Pixel\"", ClientHints.string("Pixel\""));
+		assertEquals("", ClientHints.string("   "));
+		assertEquals("", ClientHints.string(null));
+	}
+
+	@Test
+	public void malformedStringsAreEmpty() {
+		// unterminated
+		assertEquals("", ClientHints.string("\"Android"));
+		assertEquals("", ClientHints.string("\""));
+		assertEquals("", ClientHints.string("\"a\\\"b"));
+		// an escape at the end
+		assertEquals("", ClientHints.string("\"Android\\"));
+		// characters after the closing quote
+		assertEquals("", ClientHints.string("\"Pixel\" 7"));
+		assertEquals("", ClientHints.string("\"a\"\"b\""));
+	}
+
+	@Test
+	public void evidenceWithoutModelHasNoHints() {
+		HTTPEvidence evidence = new HTTPEvidence();
+		evidence.put("Sec-CH-UA-Platform", "\"Android\"");
+		assertSame(ClientHints.NONE, ClientHints.parse(evidence));
+		evidence.put("Sec-CH-UA-Model", "\"\"");
+		assertFalse(ClientHints.parse(evidence).hasModel());
+	}
+
+	@Test
+	public void evidenceIsParsed() {
+		HTTPEvidence evidence = new HTTPEvidence();
+		evidence.put("Sec-CH-UA-Platform", "\"Android\"");
+		evidence.put("Sec-CH-UA-Model", "\"Pixel 7\"");
+		evidence.put("Sec-CH-UA-Platform-Version", "\"13.0.0");
+		ClientHints hints = ClientHints.parse(evidence);
+		assertTrue(hints.hasModel());
+		assertEquals("Android", hints.getPlatform());
+		assertEquals("Pixel 7", hints.getModel());
+		assertEquals("", hints.getPlatformVersion());
+	}
+}
@@ -0,0 +1,110 @@
+package org.w3c.ddr.simple.impl.match;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the bounded probing and the eviction of learned entries of
+ * {@link ExactMatchTable}, on keys found to share their first slot.
+ */
+public class ExactMatchTableTest {
+
+	@Test
+	public void collidingKeysStopAtTheLastProbe() {
+		ExactMatchTable table = new ExactMatchTable(ExactMatchTable.PROBES + 1, 0);
+		List<String> keys = colliding(table, ExactMatchTable.PROBES + 1);
+		for (int i = 0; i < keys.size(); i++) {
+			table.put(keys.get(i), i);
+		}
+		for (int i = 0; i < ExactMatchTable.PROBES; i++) {
+			assertEquals(i, table.get(keys.get(i)));
+		}
+		String last = keys.get(ExactMatchTable.PROBES);
+		assertEquals(ExactMatchTable.ABSENT, table.get(last));
+		assertFalse(table.learn(last, 0));
+	}
+
+	@Test
+	public void preloadedEntriesAreNeverEvicted() {
+		ExactMatchTable table = new ExactMatchTable(ExactMatchTable.PROBES, 16);
+		List<String> keys = colliding(table, ExactMatchTable.PROBES + 1);
+		for (int i = 0; i < ExactMatchTable.PROBES; i++) {
+			table.put(keys.get(i), i);
+		}
+		assertFalse(table.learn(keys.get(ExactMatchTable.PROBES), 99));
+		assertEquals(0, table.learned());
+		for (int i = 0; i < ExactMatchTable.PROBES; i++) {
+			assertEquals(i, table.get(keys.get(i)));
+		}
+	}
+
+	@Test
+	public void learnReturnsTrueWhenItReplacesAnEntry() {
+		ExactMatchTable table = new ExactMatchTable(0, ExactMatchTable.PROBES);
+		List<String> keys = colliding(table, ExactMatchTable.PROBES + 1);
+		for (int i = 0; i < ExactMatchTable.PROBES; i++) {
+			assertTrue(table.learn(keys.get(i), i));
+		}
+		assertEquals(ExactMatchTable.PROBES, table.learned());
+		// every entry but one is found, and spared
+		int cold = 5;
+		for (int i = 0; i < ExactMatchTable.PROBES; i++) {
+			if (i != cold) {
+				table.get(keys.get(i));
+			}
+		}
+		assertTrue(table.learn(keys.get(ExactMatchTable.PROBES), 99));
+		assertEquals(ExactMatchTable.PROBES, table.learned());
+		assertEquals(99, table.get(keys.get(ExactMatchTable.PROBES)));
+		assertEquals(ExactMatchTable.ABSENT, table.get(keys.get(cold)));
+		for (int i = 0; i < ExactMatchTable.PROBES; i++) {
+			if (i != cold) {
+				assertEquals(i, table.get(keys.get(i)));
+			}
+		}
+	}
+
+	@Test
+	public void learnedKeyIsNotLearnedAgain() {
+		ExactMatchTable table = new ExactMatchTable(0, 4);
+		assertTrue(table.learn("NokiaN95", 1));
+		assertFalse(table.learn("NokiaN95", 2));
+		assertEquals(1, table.get("NokiaN95"));
+		assertEquals(1, table.learned());
+	}
+
+	@Test
+	public void tablesHashWithTheirOwnSeed() {
+		ExactMatchTable first = new ExactMatchTable(0, 1000);
+		ExactMatchTable second = new ExactMatchTable(0, 1000);
+		int differing = 0;
+		for (int i = 0; i < 64; i++) {
+			String key = "Mozilla/5.0 (device " + i + ")";
+			if (first.home(key) != second.home(key)) {
+				differing++;
+			}
+		}
+		assertTrue(differing > 0);
+	}
+
+	/**
+	 * @return Keys sharing their first slot in a table.
+	 */
+	private static List<String> colliding(ExactMatchTable table, int count) {
+		List<String> keys = new ArrayList<String>();
+		int home = table.home("key");
+		for (int i = 0; keys.size() < count; i++) {
+			String key = "key" + i;
+			if (table.home(key) == home) {
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+}
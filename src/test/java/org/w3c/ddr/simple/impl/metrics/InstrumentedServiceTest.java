@@ -0,0 +1,94 @@
+package org.w3c.ddr.simple.impl.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.ValueException;
+import org.w3c.ddr.simple.impl.DelegatingService;
+import org.w3c.ddr.simple.impl.IndexedService;
+
+/**
+ * Tests the counters of an {@link InstrumentedService}, and that its values are those
+ * of its delegate unless their ValueExceptions are counted.
+ */
+public class InstrumentedServiceTest {
+
+	private static final String VOCABULARY = "http://www.w3.org/2008/01/ddr-core-vocabulary";
+
+	@Test
+	public void valuesAreReturnedAsTheyAreByDefault() throws Exception {
+		InstrumentedService service = service(false);
+		PropertyValue model = model(service, "Unknown/1.0");
+		assertFalse(model instanceof InstrumentedPropertyValue);
+		assertNotKnown(model);
+		ServiceMetrics metrics = service.getMetrics();
+		assertEquals(Collections.emptyMap(), metrics.getValueExceptionCounts());
+		assertEquals(1, metrics.getUnknownDeviceCount());
+	}
+
+	@Test
+	public void valueExceptionsAreCountedWhenConfigured() throws Exception {
+		InstrumentedService service = service(true);
+		assertNotKnown(model(service, "Unknown/1.0"));
+		assertNotKnown(service.getPropertyValues(evidence(service, "Unknown/1.0"))
+				.getValue(service.newPropertyRef("model")));
+		assertEquals("N95", model(service, "NokiaN95").getString());
+		ServiceMetrics metrics = service.getMetrics();
+		assertEquals(Long.valueOf(2), metrics.getValueExceptionCounts().get("NOT_KNOWN"));
+		assertEquals(1, metrics.getIdentifiedDeviceCount());
+		assertEquals(2, metrics.getUnknownDeviceCount());
+	}
+
+	@Test
+	public void nameExceptionsAreCounted() throws Exception {
+		InstrumentedService service = service(false);
+		try {
+			service.getPropertyValue(evidence(service, "NokiaN95"), "noSuchProperty");
+			fail("Unknown property looked up");
+		} catch (NameException e) {
+			// counted
+		}
+		ServiceMetrics metrics = service.getMetrics();
+		assertEquals(Long.valueOf(1),
+				metrics.getNameExceptionCounts().get("PROPERTY_NOT_RECOGNIZED"));
+		assertEquals(1, metrics.getMethods().get(0).getCount());
+	}
+
+	private static void assertNotKnown(PropertyValue value) {
+		try {
+			value.getString();
+			fail("Unknown value read");
+		} catch (ValueException e) {
+			assertEquals(ValueException.NOT_KNOWN, e.getCode());
+		}
+	}
+
+	private static InstrumentedService service(boolean valueExceptions) throws Exception {
+		Properties props = new Properties();
+		props.setProperty(DelegatingService.DELEGATE, IndexedService.class.getName());
+		props.setProperty(IndexedService.REPOSITORY, "org/w3c/ddr/simple/impl/repository.xml");
+		props.setProperty(InstrumentedService.VALUE_EXCEPTIONS, Boolean.toString(valueExceptions));
+		return (InstrumentedService) ServiceFactory.newService(
+				InstrumentedService.class.getName(), VOCABULARY, props);
+	}
+
+	private static PropertyValue model(InstrumentedService service, String userAgent)
+			throws Exception {
+		return service.getPropertyValue(evidence(service, userAgent), "model");
+	}
+
+	private static Evidence evidence(InstrumentedService service, String userAgent) {
+		Evidence evidence = service.newHTTPEvidence();
+		evidence.put("User-Agent", userAgent);
+		return evidence;
+	}
+}
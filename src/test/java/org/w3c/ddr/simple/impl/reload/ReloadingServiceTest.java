@@ -0,0 +1,148 @@
+package org.w3c.ddr.simple.impl.reload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValues;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.exception.InitializationException;
+import org.w3c.ddr.simple.impl.DelegatingService;
+import org.w3c.ddr.simple.impl.IndexedService;
+
+/**
+ * Tests that a {@link ReloadingService} keeps answering lookups consistently while its
+ * data is reloaded.
+ */
+public class ReloadingServiceTest {
+
+	private static final String VOCABULARY = "http://www.w3.org/2008/01/ddr-core-vocabulary";
+
+	private static final String REPOSITORY = "org/w3c/ddr/simple/impl/repository.xml";
+
+	private static final String REPOSITORY_2 = "org/w3c/ddr/simple/impl/repository-2.xml";
+
+	private static final int READERS = 4;
+
+	private static final int RELOADS = 20;
+
+	private ReloadingService service;
+
+	@Before
+	public void initialize() throws Exception {
+		service = (ReloadingService) ServiceFactory.newService(
+				ReloadingService.class.getName(), VOCABULARY, props(REPOSITORY));
+	}
+
+	@Test
+	public void lookupsSeeOneDataVersionWhileReloading() throws Exception {
+		final PropertyRef[] refs = { service.newPropertyRef("model"),
+				service.newPropertyRef("displayWidth") };
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicInteger lookups = new AtomicInteger();
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int i = 0; i < READERS; i++) {
+			Thread reader = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (!done.get()) {
+							Evidence evidence = service.newHTTPEvidence();
+							evidence.put("User-Agent", "NokiaN95");
+							PropertyValues values = service.getPropertyValues(evidence, refs);
+							String lookup = values.getValue(refs[0]).getString() + "/"
+									+ values.getValue(refs[1]).getInteger();
+							if (!lookup.equals("N95/240") && !lookup.equals("N95 8GB/250")) {
+								throw new AssertionError("Lookup mixing data versions: " + lookup);
+							}
+							lookups.incrementAndGet();
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+			reader.start();
+			readers.add(reader);
+		}
+		try {
+			for (int i = 0; i < RELOADS; i++) {
+				Service reloaded = service.reload(props(i % 2 == 0 ? REPOSITORY_2 : REPOSITORY))
+						.get();
+				assertSame(reloaded, service.getDelegate());
+			}
+		} finally {
+			done.set(true);
+			for (Thread reader : readers) {
+				reader.join();
+			}
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		assertTrue(lookups.get() > 0);
+		assertEquals("test-1", service.getDataVersion());
+	}
+
+	@Test
+	public void reloadUsesTheConfigurationInEffectWhenItRuns() throws Exception {
+		service.reload(props(REPOSITORY_2));
+		service.reload().get();
+		assertEquals("test-2", service.getDataVersion());
+	}
+
+	@Test
+	public void failedReloadKeepsTheCurrentService() throws Exception {
+		Service current = service.getDelegate();
+		try {
+			service.reload(props("no/such/repository.xml")).get();
+			fail("Reloaded a missing repository");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof InitializationException);
+		}
+		assertSame(current, service.getDelegate());
+		assertEquals("test-1", service.getDataVersion());
+	}
+
+	@Test
+	public void listenersAreNotifiedOfEachReload() throws Exception {
+		final List<Service> notified = new ArrayList<Service>();
+		service.addReloadListener(new ReloadListener() {
+			@Override
+			public void serviceReloaded(Service previous, Service current) {
+				notified.add(previous);
+				notified.add(current);
+			}
+		});
+		Service first = service.getDelegate();
+		Service second = service.reload().get();
+		Service third = service.reload(props(REPOSITORY_2)).get();
+		assertEquals(4, notified.size());
+		assertSame(first, notified.get(0));
+		assertSame(second, notified.get(1));
+		assertSame(second, notified.get(2));
+		assertSame(third, notified.get(3));
+	}
+
+	private static Properties props(String repository) {
+		Properties props = new Properties();
+		props.setProperty(DelegatingService.DELEGATE, IndexedService.class.getName());
+		props.setProperty(IndexedService.REPOSITORY, repository);
+		return props;
+	}
+}
@@ -0,0 +1,174 @@
+package org.w3c.ddr.simple.impl.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.ddr.simple.Evidence;
+import org.w3c.ddr.simple.PropertyRef;
+import org.w3c.ddr.simple.PropertyValue;
+import org.w3c.ddr.simple.Service;
+import org.w3c.ddr.simple.ServiceFactory;
+import org.w3c.ddr.simple.exception.NameException;
+import org.w3c.ddr.simple.exception.SystemException;
+import org.w3c.ddr.simple.exception.ValueException;
+import org.w3c.ddr.simple.impl.IndexedService;
+
+/**
+ * Tests a {@link RemoteService} against a {@link ServiceServer} on the loopback
+ * interface, comparing its answers with those of the service the server exposes.
+ */
+public class RemoteServiceTest {
+
+	private static final String VOCABULARY = "http://www.w3.org/2008/01/ddr-core-vocabulary";
+
+	private static final String[] USER_AGENTS = { "NokiaN95", "Nokia6310", "iPhone",
+			"Android 14", "Unknown/1.0" };
+
+	private Service local;
+
+	private ServiceServer server;
+
+	private RemoteService remote;
+
+	@Before
+	public void start() throws Exception {
+		Properties props = new Properties();
+		props.setProperty(IndexedService.REPOSITORY, "org/w3c/ddr/simple/impl/repository.xml");
+		local = ServiceFactory.newService(IndexedService.class.getName(), VOCABULARY, props);
+		server = new ServiceServer(local, new InetSocketAddress("127.0.0.1", 0));
+		server.start();
+		Properties remoteProps = new Properties();
+		remoteProps.setProperty(RemoteService.SERVERS, "127.0.0.1:" + server.getPort());
+		remote = (RemoteService) ServiceFactory.newService(RemoteService.class.getName(),
+				VOCABULARY, remoteProps);
+	}
+
+	@After
+	public void stop() throws Exception {
+		remote.close();
+		server.close();
+	}
+
+	@Test
+	public void metadataIsThatOfTheServer() throws Exception {
+		assertEquals(local.getDataVersion(), remote.getDataVersion());
+		assertEquals(Arrays.asList(local.listPropertyRefs()).toString(),
+				Arrays.asList(remote.listPropertyRefs()).toString());
+	}
+
+	@Test
+	public void valuesAreReadAsLocalValues() throws Exception {
+		for (String userAgent : USER_AGENTS) {
+			PropertyValue[] expected = local.getPropertyValues(evidence(local, userAgent))
+					.getAll();
+			PropertyValue[] actual = remote.getPropertyValues(evidence(remote, userAgent))
+					.getAll();
+			assertEquals(expected.length, actual.length);
+			for (int i = 0; i < expected.length; i++) {
+				assertEquals(userAgent, describe(expected[i]), describe(actual[i]));
+			}
+		}
+	}
+
+	@Test
+	public void batchesAreAnsweredInOrder() throws Exception {
+		PropertyRef[] refs = remote.listPropertyRefs();
+		Evidence[] evidence = new Evidence[USER_AGENTS.length * 20];
+		for (int i = 0; i < evidence.length; i++) {
+			evidence[i] = evidence(remote, USER_AGENTS[i % USER_AGENTS.length]);
+		}
+		PropertyValue[][] values = remote.getPropertyValues(evidence, refs);
+		for (int i = 0; i < evidence.length; i++) {
+			Evidence expected = evidence(local, USER_AGENTS[i % USER_AGENTS.length]);
+			for (int j = 0; j < refs.length; j++) {
+				assertEquals(describe(local.getPropertyValue(expected, refs[j])),
+						describe(values[i][j]));
+			}
+		}
+	}
+
+	@Test(expected = NameException.class)
+	public void unknownNamesAreRejectedLocally() throws Exception {
+		remote.newPropertyRef("noSuchProperty");
+	}
+
+	@Test
+	public void oversizedEvidenceIsRejected() throws Exception {
+		char[] value = new char[Protocol.MAX_STRING + 1];
+		Arrays.fill(value, 'x');
+		Evidence evidence = remote.newHTTPEvidence();
+		evidence.put("User-Agent", new String(value));
+		try {
+			remote.getPropertyValue(evidence, "model");
+			fail("Oversized evidence was sent");
+		} catch (SystemException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("exceeds"));
+		}
+		// the connection is still usable
+		assertEquals("N95", remote.getPropertyValue(evidence(remote, "NokiaN95"), "model")
+				.getString());
+	}
+
+	@Test
+	public void lookupsFailOnceTheServerIsClosed() throws Exception {
+		server.close();
+		try {
+			remote.getPropertyValue(evidence(remote, "NokiaN95"), "model");
+			fail("Lookup answered by a closed server");
+		} catch (SystemException e) {
+			// the server cannot be reached
+		}
+	}
+
+	private static Evidence evidence(Service service, String userAgent) {
+		Evidence evidence = service.newHTTPEvidence();
+		evidence.put("User-Agent", userAgent);
+		return evidence;
+	}
+
+	/**
+	 * @return The value as returned by each getter, or the code of the exception thrown.
+	 */
+	private static String describe(PropertyValue value) {
+		StringBuilder described = new StringBuilder(value.getPropertyRef().toString());
+		described.append(value.exists() ? " known" : " unknown");
+		for (int getter = 0; getter < 7; getter++) {
+			described.append(' ');
+			try {
+				switch (getter) {
+				case 0:
+					described.append(value.getString());
+					break;
+				case 1:
+					described.append(value.getInteger());
+					break;
+				case 2:
+					described.append(value.getLong());
+					break;
+				case 3:
+					described.append(value.getFloat());
+					break;
+				case 4:
+					described.append(value.getDouble());
+					break;
+				case 5:
+					described.append(value.getBoolean());
+					break;
+				default:
+					described.append(Arrays.toString(value.getEnumeration()));
+				}
+			} catch (ValueException e) {
+				described.append('!').append(e.getCode());
+			}
+		}
+		return described.toString();
+	}
+}